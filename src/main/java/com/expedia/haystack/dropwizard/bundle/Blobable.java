@@ -19,7 +19,11 @@ package com.expedia.haystack.dropwizard.bundle;
 
 import com.expedia.blobs.core.ContentType;
 import com.expedia.haystack.dropwizard.configuration.BlobContent;
+import com.expedia.haystack.dropwizard.decorators.BlobCaptureOptions;
+import com.expedia.haystack.dropwizard.decorators.BlobCapturingInputStream;
+import com.expedia.haystack.dropwizard.decorators.BlobCapturingOutputStream;
 import com.expedia.haystack.dropwizard.decorators.BlobHelper;
+import com.expedia.haystack.dropwizard.decorators.BlobSerializers;
 import org.apache.commons.io.IOUtils;
 
 import javax.ws.rs.client.ClientRequestContext;
@@ -29,8 +33,17 @@ import javax.ws.rs.container.ContainerResponseContext;
 import javax.ws.rs.core.MediaType;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.util.function.Consumer;
 
 public interface Blobable {
+    /**
+     * serializers the default extract functions turn response and client request entities into blobs with
+     * @return BlobSerializers
+     */
+    default BlobSerializers serializers() {
+        return BlobSerializers.DEFAULT;
+    }
+
     /**
      * should request received on the server should be logged as a blob
      * @param req ContainerRequestContext
@@ -85,6 +98,21 @@ public interface Blobable {
                 ContentType.JSON : ContentType.from(requestContentType));
     }
 
+    /**
+     * in case you want to override the behavior of capturing the blob from server request in streaming mode,
+     * you can override this func. The entity stream is wrapped so that the blob is recorded while the resource reads
+     * the body, and the callback receives the blob once the stream is drained or closed.
+     * @param req ContainerRequestContext
+     * @param options byte limit and buffer pool of the capture
+     * @param onComplete callback receiving the captured BlobContent
+     */
+    default void teeBlobFromServerRequest(ContainerRequestContext req, BlobCaptureOptions options,
+                                          Consumer<BlobContent> onComplete) {
+        req.setEntityStream(new BlobCapturingInputStream(req.getEntityStream(),
+                BlobHelper.toContentType(req.getMediaType()), options.getMaxBytes(),
+                options.getBufferPool(), onComplete));
+    }
+
     /**
      * in case you want to override the behavior of extracting the blob from server response, you can override this func
      * @param resp ContainerResponseContext
@@ -93,7 +121,22 @@ public interface Blobable {
      */
     default BlobContent extractBlobFromServerResponse(ContainerResponseContext resp) throws Exception {
         final String contentType = resp.getMediaType() == null ? MediaType.TEXT_PLAIN : resp.getMediaType().toString();
-        return BlobHelper.extract(resp.getEntity(), resp.getEntityClass(), contentType);
+        return BlobHelper.extract(serializers(), resp.getEntity(), contentType);
+    }
+
+    /**
+     * in case you want to override the behavior of capturing the blob from server response in streaming mode,
+     * you can override this func. The entity stream is wrapped so that the blob records the bytes produced by the
+     * MessageBodyWriter, and the callback receives the blob once the entity is written.
+     * @param resp ContainerResponseContext
+     * @param options byte limit and buffer pool of the capture
+     * @param onComplete callback receiving the captured BlobContent
+     */
+    default void teeBlobFromServerResponse(ContainerResponseContext resp, BlobCaptureOptions options,
+                                           Consumer<BlobContent> onComplete) {
+        resp.setEntityStream(new BlobCapturingOutputStream(resp.getEntityStream(),
+                BlobHelper.toContentType(resp.getMediaType()), options.getMaxBytes(),
+                options.getBufferPool(), onComplete));
     }
 
     /**
@@ -104,7 +147,22 @@ public interface Blobable {
      */
     default BlobContent extractBlobFromClientRequest(ClientRequestContext req) throws Exception {
         final String contentType = req.getMediaType() == null ? MediaType.TEXT_PLAIN : req.getMediaType().toString();
-        return BlobHelper.extract(req.getEntity(), req.getEntityClass(), contentType);
+        return BlobHelper.extract(serializers(), req.getEntity(), contentType);
+    }
+
+    /**
+     * in case you want to override the behavior of capturing the blob from client request in streaming mode,
+     * you can override this func. The entity stream is wrapped so that the blob records the bytes produced by the
+     * MessageBodyWriter, and the callback receives the blob once the entity is written.
+     * @param req ClientRequestContext
+     * @param options byte limit and buffer pool of the capture
+     * @param onComplete callback receiving the captured BlobContent
+     */
+    default void teeBlobFromClientRequest(ClientRequestContext req, BlobCaptureOptions options,
+                                          Consumer<BlobContent> onComplete) {
+        req.setEntityStream(new BlobCapturingOutputStream(req.getEntityStream(),
+                BlobHelper.toContentType(req.getMediaType()), options.getMaxBytes(),
+                options.getBufferPool(), onComplete));
     }
 
     /**
@@ -124,4 +182,19 @@ public interface Blobable {
         resp.setEntityStream(new ByteArrayInputStream(responseBytes));
         return new BlobContent(responseBytes, contentType);
     }
+
+    /**
+     * in case you want to override the behavior of capturing the blob from client response in streaming mode,
+     * you can override this func. The response entity stream is replaced by a capturing stream, and the callback
+     * receives the blob once the application finishes reading or closes the response.
+     * @param resp ClientResponseContext
+     * @param options byte limit and buffer pool of the capture
+     * @param onComplete callback receiving the captured BlobContent
+     */
+    default void teeBlobFromClientResponse(ClientResponseContext resp, BlobCaptureOptions options,
+                                           Consumer<BlobContent> onComplete) {
+        resp.setEntityStream(new BlobCapturingInputStream(resp.getEntityStream(),
+                BlobHelper.toContentType(resp.getMediaType()), options.getMaxBytes(),
+                options.getBufferPool(), onComplete));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.bundle;
+
+import com.expedia.haystack.dropwizard.configuration.BlobContent;
+import com.expedia.haystack.dropwizard.decorators.BlobCaptureOptions;
+import com.expedia.haystack.dropwizard.decorators.BlobFilter;
+import com.expedia.haystack.dropwizard.decorators.BlobSerializers;
+import org.apache.commons.lang3.Validate;
+
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import java.util.function.Consumer;
+
+/**
+ * {@link Blobable} capturing only bodies whose media type the {@link BlobFilter} accepts and the wrapped blobable
+ * wants captured, the one of the bundle once a capture filter is configured. The media type is the one Jersey already
+ * parsed for the context. Bodies are extracted and captured by the wrapped blobable.
+ */
+public class FilteringBlobable implements Blobable {
+    private final Blobable delegate;
+    private final BlobFilter filter;
+
+    public FilteringBlobable(final BlobFilter filter) {
+        this(filter, BlobSerializers.DEFAULT);
+    }
+
+    /**
+     * @param filter filter of the captured media types
+     * @param serializers serializers the default blobable extracts entities with
+     */
+    public FilteringBlobable(final BlobFilter filter, final BlobSerializers serializers) {
+        this(serializing(serializers), filter);
+    }
+
+    /**
+     * @param delegate blobable deciding what else is captured and extracting the bodies
+     * @param filter filter of the captured media types
+     */
+    public FilteringBlobable(final Blobable delegate, final BlobFilter filter) {
+        Validate.notNull(delegate);
+        Validate.notNull(filter);
+        this.delegate = delegate;
+        this.filter = filter;
+    }
+
+    private static Blobable serializing(final BlobSerializers serializers) {
+        Validate.notNull(serializers);
+        return new Blobable() {
+            @Override
+            public BlobSerializers serializers() {
+                return serializers;
+            }
+        };
+    }
+
+    @Override
+    public BlobSerializers serializers() {
+        return delegate.serializers();
+    }
+
+    @Override
+    public boolean isServerRequestValidForBlob(ContainerRequestContext req) {
+        return filter.acceptsMediaType(req.getMediaType()) && delegate.isServerRequestValidForBlob(req);
+    }
+
+    @Override
+    public boolean isServerResponseValidForBlob(ContainerResponseContext resp) {
+        return filter.acceptsMediaType(resp.getMediaType()) && delegate.isServerResponseValidForBlob(resp);
+    }
+
+    @Override
+    public boolean isClientRequestValidForBlob(ClientRequestContext req) {
+        return filter.acceptsMediaType(req.getMediaType()) && delegate.isClientRequestValidForBlob(req);
+    }
+
+    @Override
+    public boolean isClientResponseValidForBlob(ClientResponseContext resp) {
+        return filter.acceptsMediaType(resp.getMediaType()) && delegate.isClientResponseValidForBlob(resp);
+    }
+
+    @Override
+    public BlobContent extractBlobFromServerRequest(ContainerRequestContext req) throws Exception {
+        return delegate.extractBlobFromServerRequest(req);
+    }
+
+    @Override
+    public void teeBlobFromServerRequest(ContainerRequestContext req, BlobCaptureOptions options,
+                                         Consumer<BlobContent> onComplete) {
+        delegate.teeBlobFromServerRequest(req, options, onComplete);
+    }
+
+    @Override
+    public BlobContent extractBlobFromServerResponse(ContainerResponseContext resp) throws Exception {
+        return delegate.extractBlobFromServerResponse(resp);
+    }
+
+    @Override
+    public void teeBlobFromServerResponse(ContainerResponseContext resp, BlobCaptureOptions options,
+                                          Consumer<BlobContent> onComplete) {
+        delegate.teeBlobFromServerResponse(resp, options, onComplete);
+    }
+
+    @Override
+    public BlobContent extractBlobFromClientRequest(ClientRequestContext req) throws Exception {
+        return delegate.extractBlobFromClientRequest(req);
+    }
+
+    @Override
+    public void teeBlobFromClientRequest(ClientRequestContext req, BlobCaptureOptions options,
+                                         Consumer<BlobContent> onComplete) {
+        delegate.teeBlobFromClientRequest(req, options, onComplete);
+    }
+
+    @Override
+    public BlobContent extractBlobFromClientResponse(ClientResponseContext resp) throws Exception {
+        return delegate.extractBlobFromClientResponse(resp);
+    }
+
+    @Override
+    public void teeBlobFromClientResponse(ClientResponseContext resp, BlobCaptureOptions options,
+                                          Consumer<BlobContent> onComplete) {
+        delegate.teeBlobFromClientResponse(resp, options, onComplete);
+    }
+}
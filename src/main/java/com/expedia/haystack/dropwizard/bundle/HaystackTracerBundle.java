@@ -17,10 +17,12 @@
 package com.expedia.haystack.dropwizard.bundle;
 
 import com.expedia.haystack.dropwizard.configuration.BlobFactory;
+import com.expedia.haystack.dropwizard.decorators.BlobCaptureInterceptor;
 import com.expedia.haystack.dropwizard.decorators.BlobClientSpanDecorator;
 import com.expedia.haystack.dropwizard.decorators.BlobServerSpanDecorator;
 import com.expedia.haystack.dropwizard.jackson.HaystackModule;
 import com.expedia.haystack.dropwizard.jackson.IdGeneratorDeserializer;
+import com.expedia.haystack.dropwizard.sampling.SampledSpanDecorators;
 import com.expedia.www.haystack.client.idgenerators.IdGenerator;
 import com.fasterxml.jackson.databind.Module;
 import io.dropwizard.ConfiguredBundle;
@@ -74,21 +76,28 @@ public class HaystackTracerBundle<T extends Traceable> implements ConfiguredBund
         Validate.notNull(environment);
 
         final Tracer tracer = traceable.getTracerFactory().build(environment);
+        final BlobFactory blobs = traceable.getBlobFactory();
+        blobs.setMetricsRegistry(traceable.getTracerFactory().metricsRegistry(environment));
+        blobs.build(environment);
 
         final ServerTracingDynamicFeature tracingDynamicFeature = serverTracingBuilder
                 .apply(tracer)
                 .withDecorators(
                         Arrays.asList(
-                                ServerSpanDecorator.STANDARD_TAGS,
-                                new BlobServerSpanDecorator(traceable.getBlobFactory())))
+                                SampledSpanDecorators.server(ServerSpanDecorator.STANDARD_TAGS),
+                                SampledSpanDecorators.server(new BlobServerSpanDecorator(blobs))))
                 .withTraceSerialization(false).build();
         environment.jersey().register(tracingDynamicFeature);
 
+        if (blobs.isEnabled() && blobs.getCaptureMode() == BlobFactory.CaptureMode.STREAMING) {
+            environment.jersey().register(new BlobCaptureInterceptor());
+        }
+
         environment.servlets()
                 .addFilter("SpanFinishingFilter", new SpanFinishingFilter(tracer))
                 .addMappingForUrlPatterns(EnumSet.allOf(DispatcherType.class), true, "/*");
 
-        environment.jersey().property(Tracer.class.getName() + ".blobs", traceable.getBlobFactory());
+        environment.jersey().property(Tracer.class.getName() + ".blobs", blobs);
         environment.jersey().property(Tracer.class.getName(), tracer);
     }
 
@@ -107,9 +116,9 @@ public class HaystackTracerBundle<T extends Traceable> implements ConfiguredBund
 
         final BlobFactory blobs = environment.jersey().getProperty(Tracer.class.getName() + ".blobs");
         final List<ClientSpanDecorator> decorators = new ArrayList<>(2);
-        decorators.add(ClientSpanDecorator.STANDARD_TAGS);
+        decorators.add(SampledSpanDecorators.client(ClientSpanDecorator.STANDARD_TAGS));
         if (blobs.isEnabled()) {
-            decorators.add(new BlobClientSpanDecorator(blobs));
+            decorators.add(SampledSpanDecorators.client(new BlobClientSpanDecorator(blobs)));
         }
 
         return new ClientTracingFeature.Builder(tracer)
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.configuration;
+
+import com.expedia.haystack.dropwizard.stores.BatchingAgentBlobStore;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.grpc.ManagedChannelBuilder;
+
+import javax.validation.constraints.Min;
+
+/**
+ * A factory for configuring and building the {@link BatchingAgentBlobStore} sending blobs to the agent in batches.
+ *
+ * Configuration options are as follows:
+ * <table summary="Configuration values and default values" >
+ * <tr>
+ *  <td>Name</td>
+ *  <td>Default</td>
+ *  <td>Description</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>queueSize</td>
+ *  <td>1000</td>
+ *  <td>The maximum number of blobs waiting to be batched</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>maxBatchCount</td>
+ *  <td>100</td>
+ *  <td>The maximum number of blobs in a batch</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>maxBatchBytes</td>
+ *  <td>1048576</td>
+ *  <td>A batch is sent once its blobs add up to this many bytes</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>lingerMs</td>
+ *  <td>50</td>
+ *  <td>The maximum time the first blob of a batch waits for more blobs</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>maxInFlightBatches</td>
+ *  <td>4</td>
+ *  <td>The maximum number of batches awaiting the agent, batching waits beyond it</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>blockTimeoutMs</td>
+ *  <td>10</td>
+ *  <td>How long the request thread waits for room in the queue before dropping the blob</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>sendTimeoutMs</td>
+ *  <td>5000</td>
+ *  <td>The deadline of the calls to the agent</td>
+ * </tr>
+ * </table>
+ */
+public class AgentBatchFactory {
+
+    @Min(1)
+    private int queueSize = 1000;
+
+    @Min(1)
+    private int maxBatchCount = 100;
+
+    @Min(1)
+    private long maxBatchBytes = 1024 * 1024;
+
+    @Min(0)
+    private long lingerMs = 50;
+
+    @Min(1)
+    private int maxInFlightBatches = 4;
+
+    @Min(0)
+    private long blockTimeoutMs = 10;
+
+    @Min(1)
+    private long sendTimeoutMs = 5000;
+
+    public BatchingAgentBlobStore build(String host, int port, MetricsRegistry metrics) {
+        return new BatchingAgentBlobStore(ManagedChannelBuilder.forAddress(host, port).usePlaintext(true).build(),
+                queueSize, maxBatchCount, maxBatchBytes, lingerMs, maxInFlightBatches, blockTimeoutMs, sendTimeoutMs,
+                metrics);
+    }
+
+    @JsonProperty
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    @JsonProperty
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    @JsonProperty
+    public int getMaxBatchCount() {
+        return maxBatchCount;
+    }
+
+    @JsonProperty
+    public void setMaxBatchCount(int maxBatchCount) {
+        this.maxBatchCount = maxBatchCount;
+    }
+
+    @JsonProperty
+    public long getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    @JsonProperty
+    public void setMaxBatchBytes(long maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    @JsonProperty
+    public long getLingerMs() {
+        return lingerMs;
+    }
+
+    @JsonProperty
+    public void setLingerMs(long lingerMs) {
+        this.lingerMs = lingerMs;
+    }
+
+    @JsonProperty
+    public int getMaxInFlightBatches() {
+        return maxInFlightBatches;
+    }
+
+    @JsonProperty
+    public void setMaxInFlightBatches(int maxInFlightBatches) {
+        this.maxInFlightBatches = maxInFlightBatches;
+    }
+
+    @JsonProperty
+    public long getBlockTimeoutMs() {
+        return blockTimeoutMs;
+    }
+
+    @JsonProperty
+    public void setBlockTimeoutMs(long blockTimeoutMs) {
+        this.blockTimeoutMs = blockTimeoutMs;
+    }
+
+    @JsonProperty
+    public long getSendTimeoutMs() {
+        return sendTimeoutMs;
+    }
+
+    @JsonProperty
+    public void setSendTimeoutMs(long sendTimeoutMs) {
+        this.sendTimeoutMs = sendTimeoutMs;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.configuration;
+
+import com.expedia.blobs.core.BlobStore;
+import com.expedia.haystack.dropwizard.stores.AsyncBlobStore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+/**
+ * A factory for configuring and building {@link AsyncBlobStore} instances that move blob writes off the request
+ * thread.
+ *
+ * Configuration options are as follows:
+ * <table summary="Configuration values and default values" >
+ * <tr>
+ *  <td>Name</td>
+ *  <td>Default</td>
+ *  <td>Description</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>queueSize</td>
+ *  <td>1000</td>
+ *  <td>The maximum number of blobs waiting to be written</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>workers</td>
+ *  <td>1</td>
+ *  <td>The number of threads writing blobs to the store</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>overflowPolicy</td>
+ *  <td>drop_newest</td>
+ *  <td>What to do when the queue is full: drop_newest, drop_oldest or block</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>blockTimeoutMs</td>
+ *  <td>10</td>
+ *  <td>How long the request thread waits for room in the queue with the block policy before dropping the blob</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>shutdownTimeoutMs</td>
+ *  <td>5000</td>
+ *  <td>How long to wait for the queue to drain on shutdown</td>
+ * </tr>
+ * </table>
+ */
+public class AsyncBlobStoreFactory {
+
+    @Min(1)
+    private int queueSize = 1000;
+
+    @Min(1)
+    private int workers = 1;
+
+    @NotNull
+    private AsyncBlobStore.OverflowPolicy overflowPolicy = AsyncBlobStore.OverflowPolicy.DROP_NEWEST;
+
+    @Min(0)
+    private long blockTimeoutMs = 10;
+
+    @Min(0)
+    private long shutdownTimeoutMs = 5000;
+
+    public AsyncBlobStore build(BlobStore delegate) {
+        return new AsyncBlobStore(delegate, queueSize, workers, overflowPolicy, blockTimeoutMs, shutdownTimeoutMs);
+    }
+
+    @JsonProperty
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    @JsonProperty
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    @JsonProperty
+    public int getWorkers() {
+        return workers;
+    }
+
+    @JsonProperty
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    @JsonProperty
+    public AsyncBlobStore.OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    @JsonProperty
+    public void setOverflowPolicy(AsyncBlobStore.OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    @JsonProperty
+    public long getBlockTimeoutMs() {
+        return blockTimeoutMs;
+    }
+
+    @JsonProperty
+    public void setBlockTimeoutMs(long blockTimeoutMs) {
+        this.blockTimeoutMs = blockTimeoutMs;
+    }
+
+    @JsonProperty
+    public long getShutdownTimeoutMs() {
+        return shutdownTimeoutMs;
+    }
+
+    @JsonProperty
+    public void setShutdownTimeoutMs(long shutdownTimeoutMs) {
+        this.shutdownTimeoutMs = shutdownTimeoutMs;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.configuration;
+
+import com.expedia.haystack.dropwizard.decorators.BlobBufferPool;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Min;
+
+/**
+ * A factory for configuring and building the {@link BlobBufferPool} the capturing streams take their buffers from.
+ *
+ * Configuration options are as follows:
+ * <table summary="Configuration values and default values" >
+ * <tr>
+ *  <td>Name</td>
+ *  <td>Default</td>
+ *  <td>Description</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>stripes</td>
+ *  <td>number of processors</td>
+ *  <td>The number of independent free lists, threads are spread across them to avoid contention</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>initialBufferSize</td>
+ *  <td>4096</td>
+ *  <td>The size in bytes of a newly allocated buffer</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>maxBufferSize</td>
+ *  <td>1048576</td>
+ *  <td>Buffers that grew larger than this many bytes are not returned to the pool</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>maxPoolBytes</td>
+ *  <td>16777216</td>
+ *  <td>The total capacity in bytes of idle buffers kept in the pool, 0 disables pooling</td>
+ * </tr>
+ * </table>
+ */
+public class BlobBufferPoolFactory {
+
+    @Min(1)
+    private int stripes = Runtime.getRuntime().availableProcessors();
+
+    @Min(1)
+    private int initialBufferSize = 4096;
+
+    @Min(0)
+    private int maxBufferSize = 1024 * 1024;
+
+    @Min(0)
+    private long maxPoolBytes = 16 * 1024 * 1024;
+
+    public BlobBufferPool build(MetricsRegistry metrics) {
+        return new BlobBufferPool(stripes, initialBufferSize, maxBufferSize, maxPoolBytes, metrics);
+    }
+
+    @JsonProperty
+    public int getStripes() {
+        return stripes;
+    }
+
+    @JsonProperty
+    public void setStripes(int stripes) {
+        this.stripes = stripes;
+    }
+
+    @JsonProperty
+    public int getInitialBufferSize() {
+        return initialBufferSize;
+    }
+
+    @JsonProperty
+    public void setInitialBufferSize(int initialBufferSize) {
+        this.initialBufferSize = initialBufferSize;
+    }
+
+    @JsonProperty
+    public int getMaxBufferSize() {
+        return maxBufferSize;
+    }
+
+    @JsonProperty
+    public void setMaxBufferSize(int maxBufferSize) {
+        this.maxBufferSize = maxBufferSize;
+    }
+
+    @JsonProperty
+    public long getMaxPoolBytes() {
+        return maxPoolBytes;
+    }
+
+    @JsonProperty
+    public void setMaxPoolBytes(long maxPoolBytes) {
+        this.maxPoolBytes = maxPoolBytes;
+    }
+}
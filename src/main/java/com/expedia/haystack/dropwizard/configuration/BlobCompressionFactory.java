@@ -0,0 +1,82 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.configuration;
+
+import com.expedia.haystack.dropwizard.decorators.BlobCodec;
+import com.expedia.haystack.dropwizard.decorators.BlobCompressor;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+/**
+ * A factory for configuring and building the {@link BlobCompressor} applied to blobs before they are stored.
+ *
+ * Configuration options are as follows:
+ * <table summary="Configuration values and default values" >
+ * <tr>
+ *  <td>Name</td>
+ *  <td>Default</td>
+ *  <td>Description</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>codec</td>
+ *  <td>gzip</td>
+ *  <td>The codec to compress blobs with: none, gzip, deflate or snappy. It is recorded in the blob metadata under
+ *  compression-type</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>minBytes</td>
+ *  <td>1024</td>
+ *  <td>Blobs smaller than this many bytes are stored uncompressed</td>
+ * </tr>
+ * </table>
+ */
+public class BlobCompressionFactory {
+
+    @NotNull
+    private BlobCodec codec = BlobCodec.GZIP;
+
+    @Min(0)
+    private int minBytes = 1024;
+
+    public BlobCompressor build() {
+        return new BlobCompressor(codec, minBytes);
+    }
+
+    @JsonProperty
+    public BlobCodec getCodec() {
+        return codec;
+    }
+
+    @JsonProperty
+    public void setCodec(BlobCodec codec) {
+        this.codec = codec;
+    }
+
+    @JsonProperty
+    public int getMinBytes() {
+        return minBytes;
+    }
+
+    @JsonProperty
+    public void setMinBytes(int minBytes) {
+        this.minBytes = minBytes;
+    }
+}
@@ -18,20 +18,90 @@
 package com.expedia.haystack.dropwizard.configuration;
 
 import com.expedia.blobs.core.ContentType;
+import com.expedia.haystack.dropwizard.decorators.BlobBuffer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class BlobContent {
     private final byte[] data;
+    private final BlobBuffer buffer;
     private final ContentType contentType;
+    private final boolean truncated;
+    private final AtomicBoolean released = new AtomicBoolean(false);
 
     public BlobContent(final byte[] data, final ContentType contentType) {
+        this(data, contentType, false);
+    }
+
+    public BlobContent(final byte[] data, final ContentType contentType, final boolean truncated) {
         this.data = data;
+        this.buffer = null;
         this.contentType = contentType;
+        this.truncated = truncated;
     }
+
+    /**
+     * blob content backed by a pooled buffer, the buffer is handed back to its pool by {@link #release()}
+     */
+    public BlobContent(final BlobBuffer buffer, final ContentType contentType, final boolean truncated) {
+        this.data = null;
+        this.buffer = buffer;
+        this.contentType = contentType;
+        this.truncated = truncated;
+    }
+
+    /**
+     * @return the content, a copy if it is backed by a pooled buffer, prefer {@link #writeTo(OutputStream)}
+     */
     public byte[] getData() {
-        return data;
+        return buffer == null ? data : buffer.toByteArray();
+    }
+
+    public int getLength() {
+        return buffer == null ? data.length : buffer.size();
+    }
+
+    /**
+     * writes the content to the given stream without copying it
+     * @param out stream to write to
+     * @throws IOException if the stream fails
+     */
+    public void writeTo(final OutputStream out) throws IOException {
+        if (buffer == null) {
+            out.write(data);
+        } else {
+            buffer.writeTo(out);
+        }
+    }
+
+    /**
+     * @return a stream reading the content without copying it
+     */
+    public InputStream newInputStream() {
+        return buffer == null ? new ByteArrayInputStream(data) : buffer.toInputStream();
+    }
+
+    /**
+     * returns the backing buffer, if any, to its pool. The content must not be read afterwards.
+     */
+    public void release() {
+        if (buffer != null && released.compareAndSet(false, true)) {
+            buffer.release();
+        }
     }
 
     public ContentType getContentType() {
         return contentType;
     }
+
+    /**
+     * @return true if the body was larger than the configured maxBlobBytes and only its head was captured
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.configuration;
+
+import com.expedia.haystack.dropwizard.decorators.BlobDeduplicator;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Min;
+
+/**
+ * A factory for configuring and building the {@link BlobDeduplicator} replacing repeated blob contents with
+ * references to their first copy.
+ *
+ * Configuration options are as follows:
+ * <table summary="Configuration values and default values" >
+ * <tr>
+ *  <td>Name</td>
+ *  <td>Default</td>
+ *  <td>Description</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>maxEntries</td>
+ *  <td>10000</td>
+ *  <td>The number of recent content hashes remembered, least recently used ones are forgotten first</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>minBytes</td>
+ *  <td>256</td>
+ *  <td>Blobs smaller than this many bytes are always written in full</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>ttlMs</td>
+ *  <td>300000</td>
+ *  <td>Copies written longer ago are not referred to anymore, it should stay below the retention of the store</td>
+ * </tr>
+ * </table>
+ */
+public class BlobDedupeFactory {
+
+    @Min(1)
+    private int maxEntries = 10000;
+
+    @Min(0)
+    private int minBytes = 256;
+
+    @Min(1)
+    private long ttlMs = 300000;
+
+    public BlobDeduplicator build(final MetricsRegistry metrics) {
+        return new BlobDeduplicator(maxEntries, minBytes, ttlMs, metrics);
+    }
+
+    @JsonProperty
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    @JsonProperty
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    @JsonProperty
+    public int getMinBytes() {
+        return minBytes;
+    }
+
+    @JsonProperty
+    public void setMinBytes(int minBytes) {
+        this.minBytes = minBytes;
+    }
+
+    @JsonProperty
+    public long getTtlMs() {
+        return ttlMs;
+    }
+
+    @JsonProperty
+    public void setTtlMs(long ttlMs) {
+        this.ttlMs = ttlMs;
+    }
+}
@@ -21,12 +21,24 @@ import com.expedia.blobs.core.BlobContext;
 import com.expedia.blobs.core.BlobStore;
 import com.expedia.blobs.core.BlobsFactory;
 import com.expedia.blobs.core.predicates.BlobsRateLimiter;
-import com.expedia.blobs.stores.io.FileStore;
-import com.expedia.haystack.agent.blobs.client.AgentClient;
 import com.expedia.haystack.dropwizard.bundle.Blobable;
+import com.expedia.haystack.dropwizard.bundle.FilteringBlobable;
+import com.expedia.haystack.dropwizard.decorators.BlobBufferPool;
+import com.expedia.haystack.dropwizard.decorators.BlobCaptureMetrics;
+import com.expedia.haystack.dropwizard.decorators.BlobCompressor;
+import com.expedia.haystack.dropwizard.decorators.BlobDeduplicator;
+import com.expedia.haystack.dropwizard.decorators.BlobFilter;
+import com.expedia.haystack.dropwizard.decorators.BlobRateLimits;
+import com.expedia.haystack.dropwizard.decorators.BlobRedactor;
+import com.expedia.haystack.dropwizard.decorators.BlobSerializers;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.setup.Environment;
+import org.apache.commons.lang3.Validate;
 
+import javax.validation.Valid;
 import java.io.File;
 import java.util.function.Predicate;
 
@@ -35,13 +47,85 @@ public class BlobFactory {
 
     private Store store;
 
+    private Store fallbackStore;
+
     private boolean enabled;
 
     private double ratePerSec = -1;
 
+    private CaptureMode captureMode = CaptureMode.BUFFERED;
+
+    private long maxBlobBytes = 0;
+
+    private OversizedBlobPolicy oversizedBlobPolicy = OversizedBlobPolicy.TRUNCATE;
+
+    private boolean instrumented = true;
+
+    @Valid
+    private AsyncBlobStoreFactory async;
+
+    @Valid
+    private BlobBufferPoolFactory bufferPool = new BlobBufferPoolFactory();
+
+    @Valid
+    private BlobCompressionFactory compression;
+
+    @Valid
+    private DeferredCaptureFactory deferred;
+
+    @Valid
+    private BlobRateLimitsFactory rateLimits;
+
+    @Valid
+    private BlobDedupeFactory dedupe;
+
+    @Valid
+    private CircuitBreakerFactory circuitBreaker;
+
+    @Valid
+    private BlobFilterFactory filter;
+
+    @Valid
+    private BlobRedactionFactory redaction;
+
+    @JsonIgnore
+    private MetricsRegistry metricsRegistry = new NoopMetricsRegistry();
+
     @JsonIgnore
     private Blobable blobable = DEFAULT_BLOBABLE;
 
+    @JsonIgnore
+    private BlobSerializers serializers = BlobSerializers.DEFAULT;
+
+    // the components below are built by build(Environment), they are the no-op ones until then
+
+    @JsonIgnore
+    private BlobsFactory<BlobContext> blobFactory;
+
+    @JsonIgnore
+    private Blobable builtBlobable;
+
+    @JsonIgnore
+    private BlobBufferPool blobBufferPool = BlobBufferPool.UNPOOLED;
+
+    @JsonIgnore
+    private BlobCompressor blobCompressor = BlobCompressor.NONE;
+
+    @JsonIgnore
+    private BlobRateLimits blobRateLimits;
+
+    @JsonIgnore
+    private BlobDeduplicator blobDeduplicator = BlobDeduplicator.NONE;
+
+    @JsonIgnore
+    private BlobCaptureMetrics blobCaptureMetrics = BlobCaptureMetrics.NONE;
+
+    @JsonIgnore
+    private BlobFilter blobFilter = BlobFilter.ALL;
+
+    @JsonIgnore
+    private BlobRedactor blobRedactor = BlobRedactor.NONE;
+
     @JsonProperty
     public boolean isEnabled() {
         return enabled;
@@ -57,15 +141,235 @@ public class BlobFactory {
         this.store = store;
     }
 
+    /**
+     * @param fallbackStore store receiving the blobs while the circuit of the store is open
+     */
+    @JsonProperty
+    public void setFallbackStore(Store fallbackStore) {
+        this.fallbackStore = fallbackStore;
+    }
+
+    @JsonProperty
+    public CircuitBreakerFactory getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    @JsonProperty
+    public void setCircuitBreaker(CircuitBreakerFactory circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
     @JsonProperty
     public void setRatePerSec(double ratePerSec) {
         this.ratePerSec = ratePerSec;
     }
 
-    private BlobsFactory<BlobContext> blobFactory;
+    @JsonProperty
+    public CaptureMode getCaptureMode() {
+        return captureMode;
+    }
+
+    @JsonProperty
+    public void setCaptureMode(CaptureMode captureMode) {
+        this.captureMode = captureMode;
+    }
+
+    /**
+     * @return the maximum number of body bytes captured in a blob, zero or less for no limit
+     */
+    @JsonProperty
+    public long getMaxBlobBytes() {
+        return maxBlobBytes;
+    }
+
+    @JsonProperty
+    public void setMaxBlobBytes(long maxBlobBytes) {
+        this.maxBlobBytes = maxBlobBytes;
+    }
+
+    @JsonProperty
+    public OversizedBlobPolicy getOversizedBlobPolicy() {
+        return oversizedBlobPolicy;
+    }
+
+    @JsonProperty
+    public void setOversizedBlobPolicy(OversizedBlobPolicy oversizedBlobPolicy) {
+        this.oversizedBlobPolicy = oversizedBlobPolicy;
+    }
+
+    @JsonProperty
+    public AsyncBlobStoreFactory getAsync() {
+        return async;
+    }
+
+    @JsonProperty
+    public void setAsync(AsyncBlobStoreFactory async) {
+        this.async = async;
+    }
+
+    @JsonProperty
+    public BlobBufferPoolFactory getBufferPool() {
+        return bufferPool;
+    }
+
+    @JsonProperty
+    public void setBufferPool(BlobBufferPoolFactory bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    @JsonProperty
+    public BlobCompressionFactory getCompression() {
+        return compression;
+    }
+
+    @JsonProperty
+    public void setCompression(BlobCompressionFactory compression) {
+        this.compression = compression;
+    }
+
+    @JsonProperty
+    public DeferredCaptureFactory getDeferred() {
+        return deferred;
+    }
+
+    @JsonProperty
+    public void setDeferred(DeferredCaptureFactory deferred) {
+        this.deferred = deferred;
+    }
+
+    /**
+     * @return true if server blobs are held until the response and written only for failed or slow requests
+     */
+    public boolean defersCapture() {
+        return deferred != null;
+    }
+
+    @JsonProperty
+    public BlobRateLimitsFactory getRateLimits() {
+        return rateLimits;
+    }
+
+    @JsonProperty
+    public void setRateLimits(BlobRateLimitsFactory rateLimits) {
+        this.rateLimits = rateLimits;
+    }
+
+    /**
+     * @return true if blobs are sampled or rate limited per endpoint and per client host
+     */
+    public boolean limitsRate() {
+        return rateLimits != null;
+    }
+
+    /**
+     * @return the per endpoint and per client host limits, null if not configured
+     */
+    public BlobRateLimits rateLimits() {
+        return blobRateLimits;
+    }
 
+    @JsonProperty
+    public BlobDedupeFactory getDedupe() {
+        return dedupe;
+    }
+
+    @JsonProperty
+    public void setDedupe(BlobDedupeFactory dedupe) {
+        this.dedupe = dedupe;
+    }
+
+    /**
+     * @return true if repeated blob contents are written as references to their first copy
+     */
+    public boolean dedupes() {
+        return dedupe != null;
+    }
+
+    /**
+     * @return the deduplicator of blob contents, a no-op one if dedupe is not configured
+     */
+    public BlobDeduplicator deduplicator() {
+        return blobDeduplicator;
+    }
+
+    @JsonProperty
+    public boolean isInstrumented() {
+        return instrumented;
+    }
+
+    @JsonProperty
+    public void setInstrumented(boolean instrumented) {
+        this.instrumented = instrumented;
+    }
+
+    /**
+     * @return the metrics of blob capture published through the tracer registry, no-op ones if not instrumented
+     */
+    public BlobCaptureMetrics captureMetrics() {
+        return blobCaptureMetrics;
+    }
+
+    @JsonProperty
+    public BlobFilterFactory getFilter() {
+        return filter;
+    }
+
+    @JsonProperty
+    public void setFilter(BlobFilterFactory filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * @return true if bodies are captured only for the media types and paths the filter accepts
+     */
+    public boolean filtersCapture() {
+        return filter != null;
+    }
+
+    /**
+     * @return the filter of captured media types and paths, one accepting everything if filter is not configured
+     */
+    public BlobFilter captureFilter() {
+        return blobFilter;
+    }
+
+    @JsonProperty
+    public BlobRedactionFactory getRedaction() {
+        return redaction;
+    }
+
+    @JsonProperty
+    public void setRedaction(BlobRedactionFactory redaction) {
+        this.redaction = redaction;
+    }
+
+    /**
+     * @return true if sensitive values in JSON blobs are masked before they are stored
+     */
+    public boolean redacts() {
+        return redaction != null;
+    }
+
+    /**
+     * @return the redactor of JSON blobs, a no-op one if redaction is not configured
+     */
+    public BlobRedactor redactor() {
+        return blobRedactor;
+    }
+
+    /**
+     * @param metricsRegistry registry of the tracer, blob metrics are published through it
+     */
+    @JsonIgnore
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    /**
+     * @return the blobable, wrapped to capture only the media types the filter accepts if filter is configured
+     */
     public Blobable getBlobable() {
-        return this.blobable;
+        return builtBlobable == null ? blobable : builtBlobable;
     }
 
     @JsonIgnore
@@ -73,42 +377,156 @@ public class BlobFactory {
         this.blobable = blobable;
     }
 
+    @JsonIgnore
+    public BlobSerializers getSerializers() {
+        return serializers;
+    }
+
+    /**
+     * @param serializers serializers the default blobable turns entities into blobs with, to register custom ones
+     */
+    @JsonIgnore
+    public void setSerializers(BlobSerializers serializers) {
+        this.serializers = serializers;
+    }
+
+    /**
+     * @return the factory of blob writers built by {@link #build(Environment)}, null if blobs are not enabled
+     */
     public BlobsFactory<BlobContext> factory() {
-        if (!enabled) return null;
+        return blobFactory;
+    }
 
-        if (blobFactory != null) return blobFactory;
+    /**
+     * @return the pool capture buffers are taken from, an unpooled one if the bufferPool is not configured
+     */
+    public BlobBufferPool bufferPool() {
+        return blobBufferPool;
+    }
+
+    /**
+     * @return the compressor applied to blobs before they are stored, a no-op one if compression is not configured
+     */
+    public BlobCompressor compressor() {
+        return blobCompressor;
+    }
+
+    /**
+     * validates the configuration and builds the blob components once at startup, before the span decorators read
+     * them. If blobs are enabled, the store is composed and its components are registered with the lifecycle, the
+     * admin servlets and the health checks of the application.
+     * @param environment Environment of the application
+     * @return the factory of blob writers, null if blobs are not enabled
+     */
+    public BlobsFactory<BlobContext> build(Environment environment) {
+        Validate.isTrue(!enabled || store != null, "blobs are enabled but no store is configured");
+        Validate.isTrue(fallbackStore == null || circuitBreaker != null,
+                "a fallbackStore is only written to while the circuit of a circuitBreaker is open");
+        Validate.isTrue(blobable == DEFAULT_BLOBABLE || serializers == BlobSerializers.DEFAULT
+                        || blobable.serializers() == serializers,
+                "Serializers are set for the default blobable, a custom blobable provides its own through " +
+                        "Blobable.serializers()");
 
-        synchronized (this) {
-            if (blobFactory != null) return blobFactory;
-            final Predicate<BlobContext> predicate = ratePerSec >= 0 ? new BlobsRateLimiter<>(ratePerSec) : t -> true;
-            blobFactory = new BlobsFactory<>(blobStore(), predicate);
+        blobBufferPool = bufferPool == null ? BlobBufferPool.UNPOOLED : bufferPool.build(metricsRegistry);
+        blobCompressor = compression == null ? BlobCompressor.NONE : compression.build();
+        blobRateLimits = rateLimits == null ? null : rateLimits.build(metricsRegistry);
+        blobDeduplicator = dedupe == null ? BlobDeduplicator.NONE : dedupe.build(metricsRegistry);
+        blobCaptureMetrics = instrumented ? new BlobCaptureMetrics(metricsRegistry) : BlobCaptureMetrics.NONE;
+        blobFilter = filter == null ? BlobFilter.ALL : filter.build();
+        blobRedactor = redaction == null ? BlobRedactor.NONE : redaction.build();
+        if (blobable == DEFAULT_BLOBABLE) {
+            builtBlobable = filter == null && serializers == BlobSerializers.DEFAULT ? blobable :
+                    new FilteringBlobable(blobFilter, serializers);
+        } else {
+            builtBlobable = filter == null ? blobable : new FilteringBlobable(blobable, blobFilter);
         }
+
+        if (!enabled) return null;
+
+        final BlobStoreAssembler assembler = new BlobStoreAssembler(metricsRegistry);
+        final BlobStore blobStore = assembler.assemble(store, fallbackStore, circuitBreaker, async,
+                dedupe == null ? null : blobDeduplicator);
+        final Predicate<BlobContext> predicate = ratePerSec >= 0 ? new BlobsRateLimiter<>(ratePerSec) : t -> true;
+        blobFactory = new BlobsFactory<>(blobStore, predicate);
+        assembler.register(environment);
         return blobFactory;
     }
 
-    private BlobStore blobStore() {
-        switch (store.name.toLowerCase()) {
-            case "file": {
-                String userDirectory = System.getProperty("user.dir");
-                String directoryPath = userDirectory.concat("/blobs");
-                File directory = new File(directoryPath);
-                if (!directory.exists()) {
-                    directory.mkdir();
-                }
-                return new FileStore.Builder(directory).build();
-            }
-            case "agent": {
-                return new AgentClient.Builder(store.host, store.port).build();
-            }
-            default:
-                throw new UnsupportedOperationException("blob store type " + store.name + " is not supported");
-        }
+    /**
+     * BUFFERED reads the whole body up front before the application sees it and re-serializes outgoing entities,
+     * STREAMING tees incoming bodies into the blob while the application reads them and records outgoing bodies from
+     * the bytes the MessageBodyWriter produces
+     */
+    public enum CaptureMode {
+        BUFFERED,
+        STREAMING
+    }
+
+    /**
+     * what to do with a body larger than maxBlobBytes: TRUNCATE keeps its head and marks the blob as truncated,
+     * SKIP writes no blob at all
+     */
+    public enum OversizedBlobPolicy {
+        TRUNCATE,
+        SKIP
     }
 
     public class Store {
         private String name;
         private String host;
         private int port;
+        private String directory;
+        private int segmentSizeBytes = 64 * 1024 * 1024;
+        private long maxBytes = 0;
+        private long maxAgeMs = 0;
+        private long evictionIntervalMs = 10000;
+
+        @Valid
+        private AgentBatchFactory batch;
+
+        String name() {
+            return name;
+        }
+
+        String host() {
+            return host;
+        }
+
+        int port() {
+            return port;
+        }
+
+        int segmentSizeBytes() {
+            return segmentSizeBytes;
+        }
+
+        long maxBytes() {
+            return maxBytes;
+        }
+
+        long maxAgeMs() {
+            return maxAgeMs;
+        }
+
+        long evictionIntervalMs() {
+            return evictionIntervalMs;
+        }
+
+        AgentBatchFactory batch() {
+            return batch;
+        }
+
+        /**
+         * @return the directory of the file based stores, blobs under the working directory by default
+         */
+        File directory() {
+            final File dir = directory == null ?
+                    new File(System.getProperty("user.dir"), "blobs") : new File(directory);
+            if (!dir.exists()) {
+                dir.mkdirs();
+            }
+            return dir;
+        }
 
         @JsonProperty
         public void setName(String name) {
@@ -124,5 +542,45 @@ public class BlobFactory {
         public void setPort(int port) {
             this.port = port;
         }
+
+        @JsonProperty
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        @JsonProperty
+        public void setSegmentSizeBytes(int segmentSizeBytes) {
+            this.segmentSizeBytes = segmentSizeBytes;
+        }
+
+        /**
+         * @param maxBytes disk budget of the segmented-file store or memory budget of the memory store, the oldest
+         *                 blobs are evicted beyond it
+         */
+        @JsonProperty
+        public void setMaxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        /**
+         * @param maxAgeMs segments of the segmented-file store last written to before this are evicted
+         */
+        @JsonProperty
+        public void setMaxAgeMs(long maxAgeMs) {
+            this.maxAgeMs = maxAgeMs;
+        }
+
+        @JsonProperty
+        public void setEvictionIntervalMs(long evictionIntervalMs) {
+            this.evictionIntervalMs = evictionIntervalMs;
+        }
+
+        /**
+         * @param batch batching of the blobs sent to the agent, one call per blob is made if not configured
+         */
+        @JsonProperty
+        public void setBatch(AgentBatchFactory batch) {
+            this.batch = batch;
+        }
     }
 }
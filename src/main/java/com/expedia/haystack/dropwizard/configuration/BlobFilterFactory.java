@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.configuration;
+
+import com.expedia.haystack.dropwizard.decorators.BlobFilter;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A factory for configuring and building the {@link BlobFilter} deciding from media types and paths which bodies
+ * are captured. Patterns are compiled once at startup.
+ *
+ * Configuration options are as follows:
+ * <table summary="Configuration values and default values" >
+ * <tr>
+ *  <td>Name</td>
+ *  <td>Default</td>
+ *  <td>Description</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>includeMediaTypes</td>
+ *  <td>empty</td>
+ *  <td>Only bodies of these media types are captured, all if empty. Patterns are type/subtype, type/* or *&#47;*+suffix
+ *  </td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>excludeMediaTypes</td>
+ *  <td>image/*, audio/*, video/*, multipart/*, application/octet-stream, application/x-protobuf</td>
+ *  <td>Bodies of these media types are never captured</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>includePaths</td>
+ *  <td>empty</td>
+ *  <td>Only bodies of requests to these paths are captured, all if empty. Patterns are a path, prefix* or *suffix</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>excludePaths</td>
+ *  <td>empty</td>
+ *  <td>Bodies of requests to these paths are never captured</td>
+ * </tr>
+ * </table>
+ */
+public class BlobFilterFactory {
+
+    private List<String> includeMediaTypes = new ArrayList<>();
+
+    private List<String> excludeMediaTypes = new ArrayList<>(Arrays.asList("image/*", "audio/*", "video/*",
+            "multipart/*", "application/octet-stream", "application/x-protobuf"));
+
+    private List<String> includePaths = new ArrayList<>();
+
+    private List<String> excludePaths = new ArrayList<>();
+
+    public BlobFilter build() {
+        return new BlobFilter(includeMediaTypes, excludeMediaTypes, includePaths, excludePaths);
+    }
+
+    @JsonProperty
+    public List<String> getIncludeMediaTypes() {
+        return includeMediaTypes;
+    }
+
+    @JsonProperty
+    public void setIncludeMediaTypes(List<String> includeMediaTypes) {
+        this.includeMediaTypes = includeMediaTypes;
+    }
+
+    @JsonProperty
+    public List<String> getExcludeMediaTypes() {
+        return excludeMediaTypes;
+    }
+
+    @JsonProperty
+    public void setExcludeMediaTypes(List<String> excludeMediaTypes) {
+        this.excludeMediaTypes = excludeMediaTypes;
+    }
+
+    @JsonProperty
+    public List<String> getIncludePaths() {
+        return includePaths;
+    }
+
+    @JsonProperty
+    public void setIncludePaths(List<String> includePaths) {
+        this.includePaths = includePaths;
+    }
+
+    @JsonProperty
+    public List<String> getExcludePaths() {
+        return excludePaths;
+    }
+
+    @JsonProperty
+    public void setExcludePaths(List<String> excludePaths) {
+        this.excludePaths = excludePaths;
+    }
+}
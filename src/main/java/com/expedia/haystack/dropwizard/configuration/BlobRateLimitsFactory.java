@@ -0,0 +1,162 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.configuration;
+
+import com.expedia.haystack.dropwizard.decorators.BlobRateLimits;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A factory for configuring and building the {@link BlobRateLimits} applied before a blob is captured, on top of the
+ * global ratePerSec of {@link BlobFactory}.
+ *
+ * Configuration options are as follows:
+ * <table summary="Configuration values and default values" >
+ * <tr>
+ *  <td>Name</td>
+ *  <td>Default</td>
+ *  <td>Description</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>samplingRate</td>
+ *  <td>1.0</td>
+ *  <td>The probability of a blob to be captured</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>endpointRatePerSec</td>
+ *  <td>-1</td>
+ *  <td>Blobs per second of each resource method, -1 for no limit</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>endpoints</td>
+ *  <td>None</td>
+ *  <td>Blobs per second of specific resource methods, by the operation name of their server span</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>clientHostRatePerSec</td>
+ *  <td>-1</td>
+ *  <td>Blobs per second of each host called by the clients, -1 for no limit</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>clientHosts</td>
+ *  <td>None</td>
+ *  <td>Blobs per second of specific client hosts</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>maxKeys</td>
+ *  <td>1000</td>
+ *  <td>The maximum number of endpoints and of client hosts with their own bucket, others share one bucket</td>
+ * </tr>
+ * </table>
+ */
+public class BlobRateLimitsFactory {
+
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    private double samplingRate = 1.0;
+
+    private double endpointRatePerSec = -1;
+
+    @NotNull
+    private Map<String, Double> endpoints = Collections.emptyMap();
+
+    private double clientHostRatePerSec = -1;
+
+    @NotNull
+    private Map<String, Double> clientHosts = Collections.emptyMap();
+
+    @Min(1)
+    private int maxKeys = 1000;
+
+    public BlobRateLimits build(MetricsRegistry metrics) {
+        return new BlobRateLimits(samplingRate, endpointRatePerSec, endpoints, clientHostRatePerSec, clientHosts,
+                maxKeys, metrics);
+    }
+
+    @JsonProperty
+    public double getSamplingRate() {
+        return samplingRate;
+    }
+
+    @JsonProperty
+    public void setSamplingRate(double samplingRate) {
+        this.samplingRate = samplingRate;
+    }
+
+    @JsonProperty
+    public double getEndpointRatePerSec() {
+        return endpointRatePerSec;
+    }
+
+    @JsonProperty
+    public void setEndpointRatePerSec(double endpointRatePerSec) {
+        this.endpointRatePerSec = endpointRatePerSec;
+    }
+
+    @JsonProperty
+    public Map<String, Double> getEndpoints() {
+        return endpoints;
+    }
+
+    @JsonProperty
+    public void setEndpoints(Map<String, Double> endpoints) {
+        this.endpoints = endpoints;
+    }
+
+    @JsonProperty
+    public double getClientHostRatePerSec() {
+        return clientHostRatePerSec;
+    }
+
+    @JsonProperty
+    public void setClientHostRatePerSec(double clientHostRatePerSec) {
+        this.clientHostRatePerSec = clientHostRatePerSec;
+    }
+
+    @JsonProperty
+    public Map<String, Double> getClientHosts() {
+        return clientHosts;
+    }
+
+    @JsonProperty
+    public void setClientHosts(Map<String, Double> clientHosts) {
+        this.clientHosts = clientHosts;
+    }
+
+    @JsonProperty
+    public int getMaxKeys() {
+        return maxKeys;
+    }
+
+    @JsonProperty
+    public void setMaxKeys(int maxKeys) {
+        this.maxKeys = maxKeys;
+    }
+}
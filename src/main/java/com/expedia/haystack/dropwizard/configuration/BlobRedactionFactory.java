@@ -0,0 +1,102 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.configuration;
+
+import com.expedia.haystack.dropwizard.decorators.BlobRedactor;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A factory for configuring and building the {@link BlobRedactor} masking sensitive values in JSON blobs before they
+ * are stored.
+ *
+ * Configuration options are as follows:
+ * <table summary="Configuration values and default values" >
+ * <tr>
+ *  <td>Name</td>
+ *  <td>Default</td>
+ *  <td>Description</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>fields</td>
+ *  <td>empty</td>
+ *  <td>Names of the fields whose values are masked at any depth, ignoring case</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>paths</td>
+ *  <td>empty</td>
+ *  <td>Paths of the fields whose values are masked, like $.payment.card.number or $.items[*].ssn. A * stands for any
+ *  field name</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>mask</td>
+ *  <td>****</td>
+ *  <td>The string masked values are replaced with</td>
+ * </tr>
+ * </table>
+ */
+public class BlobRedactionFactory {
+
+    @NotNull
+    private List<String> fields = new ArrayList<>();
+
+    @NotNull
+    private List<String> paths = new ArrayList<>();
+
+    @NotNull
+    private String mask = "****";
+
+    public BlobRedactor build() {
+        return new BlobRedactor(fields, paths, mask);
+    }
+
+    @JsonProperty
+    public List<String> getFields() {
+        return fields;
+    }
+
+    @JsonProperty
+    public void setFields(List<String> fields) {
+        this.fields = fields;
+    }
+
+    @JsonProperty
+    public List<String> getPaths() {
+        return paths;
+    }
+
+    @JsonProperty
+    public void setPaths(List<String> paths) {
+        this.paths = paths;
+    }
+
+    @JsonProperty
+    public String getMask() {
+        return mask;
+    }
+
+    @JsonProperty
+    public void setMask(String mask) {
+        this.mask = mask;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.configuration;
+
+import com.expedia.blobs.core.BlobStore;
+import com.expedia.blobs.stores.io.FileStore;
+import com.expedia.haystack.agent.blobs.client.AgentClient;
+import com.expedia.haystack.dropwizard.decorators.BlobDeduplicator;
+import com.expedia.haystack.dropwizard.stores.AsyncBlobStore;
+import com.expedia.haystack.dropwizard.stores.BatchingAgentBlobStore;
+import com.expedia.haystack.dropwizard.stores.CircuitBreakerBlobStore;
+import com.expedia.haystack.dropwizard.stores.ConfirmingBlobStore;
+import com.expedia.haystack.dropwizard.stores.MemoryBlobStore;
+import com.expedia.haystack.dropwizard.stores.MemoryBlobStoreServlet;
+import com.expedia.haystack.dropwizard.stores.SegmentedFileBlobStore;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.setup.Environment;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Composes the blob store configured in {@link BlobFactory}: the configured store, confirming the blobs it writes to
+ * the deduplicator, guarded by the circuit breaker and behind the async pipeline. It then registers the stores that
+ * need to be started and drained with the application, the admin servlet of the memory store and the health check of
+ * the circuit.
+ */
+final class BlobStoreAssembler {
+    private final static long DEFAULT_MEMORY_BYTES = 16 * 1024 * 1024;
+
+    private final MetricsRegistry metrics;
+    private final List<Managed> managedStores = new ArrayList<>();
+    private MemoryBlobStore memoryStore;
+    private CircuitBreakerFactory circuitBreaker;
+    private CircuitBreakerBlobStore circuitBreakerStore;
+
+    BlobStoreAssembler(final MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param store configured store
+     * @param fallbackStore store receiving the blobs while the circuit is open, null for none
+     * @param circuitBreaker circuit breaker guarding the store, null for none
+     * @param async async pipeline in front of the store, null to write on the request thread
+     * @param deduplicator deduplicator the written blobs are confirmed to, null if dedupe is not configured
+     * @return the composed store
+     */
+    BlobStore assemble(final BlobFactory.Store store,
+                       final BlobFactory.Store fallbackStore,
+                       final CircuitBreakerFactory circuitBreaker,
+                       final AsyncBlobStoreFactory async,
+                       final BlobDeduplicator deduplicator) {
+        return pipeline(async, guard(circuitBreaker, fallbackStore, confirming(deduplicator, blobStore(store))));
+    }
+
+    /**
+     * @param environment Environment of the application
+     */
+    void register(final Environment environment) {
+        managedStores.forEach(environment.lifecycle()::manage);
+
+        if (memoryStore != null) {
+            environment.admin()
+                    .addServlet("blobs", new MemoryBlobStoreServlet(memoryStore, environment.getObjectMapper()))
+                    .addMapping("/blobs");
+        }
+        if (circuitBreakerStore != null) {
+            environment.healthChecks().register("blobs", circuitBreaker.buildHealthCheck(circuitBreakerStore));
+        }
+    }
+
+    private BlobStore pipeline(final AsyncBlobStoreFactory async, final BlobStore store) {
+        if (async == null) return store;
+
+        final AsyncBlobStore asyncStore = async.build(store);
+        managedStores.add(asyncStore);
+        return asyncStore;
+    }
+
+    private BlobStore guard(final CircuitBreakerFactory circuitBreaker,
+                            final BlobFactory.Store fallbackStore,
+                            final BlobStore store) {
+        if (circuitBreaker == null) return store;
+
+        final BlobStore fallback = fallbackStore == null ? null : blobStore(fallbackStore);
+        this.circuitBreaker = circuitBreaker;
+        this.circuitBreakerStore = circuitBreaker.build(store, fallback, metrics);
+        return circuitBreakerStore;
+    }
+
+    private static BlobStore confirming(final BlobDeduplicator deduplicator, final BlobStore store) {
+        if (deduplicator == null) return store;
+
+        // contents are only deduplicated against blobs the store has written
+        return new ConfirmingBlobStore(store, deduplicator::confirm);
+    }
+
+    private BlobStore blobStore(final BlobFactory.Store store) {
+        switch (store.name().toLowerCase()) {
+            case "file": {
+                return new FileStore.Builder(store.directory()).build();
+            }
+            case "segmented-file": {
+                try {
+                    final SegmentedFileBlobStore segmentedStore =
+                            new SegmentedFileBlobStore(store.directory(), store.segmentSizeBytes(),
+                                    store.maxBytes(), store.maxAgeMs(), store.evictionIntervalMs(), metrics);
+                    managedStores.add(segmentedStore);
+                    return segmentedStore;
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Fail to open segmented blob store in " + store.directory(), e);
+                }
+            }
+            case "memory": {
+                memoryStore = new MemoryBlobStore(store.maxBytes() > 0 ? store.maxBytes() : DEFAULT_MEMORY_BYTES,
+                        metrics);
+                return memoryStore;
+            }
+            case "agent": {
+                if (store.batch() != null) {
+                    final BatchingAgentBlobStore batchingStore =
+                            store.batch().build(store.host(), store.port(), metrics);
+                    managedStores.add(batchingStore);
+                    return batchingStore;
+                }
+                return new AgentClient.Builder(store.host(), store.port()).build();
+            }
+            default:
+                throw new UnsupportedOperationException("blob store type " + store.name() + " is not supported");
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.configuration;
+
+import com.expedia.blobs.core.BlobStore;
+import com.expedia.haystack.dropwizard.stores.CircuitBreakerBlobStore;
+import com.expedia.haystack.dropwizard.stores.CircuitBreakerHealthCheck;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+
+/**
+ * A factory for configuring and building the {@link CircuitBreakerBlobStore} guarding the blob store. Blobs go to the
+ * fallbackStore of {@link BlobFactory}, if any, while the circuit is open.
+ *
+ * Configuration options are as follows:
+ * <table summary="Configuration values and default values" >
+ * <tr>
+ *  <td>Name</td>
+ *  <td>Default</td>
+ *  <td>Description</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>failureRateThreshold</td>
+ *  <td>0.5</td>
+ *  <td>The share of failed writes opening the circuit</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>slowCallRateThreshold</td>
+ *  <td>0.5</td>
+ *  <td>The share of slow writes opening the circuit</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>slowCallMs</td>
+ *  <td>1000</td>
+ *  <td>A write taking at least this long is slow</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>windowSize</td>
+ *  <td>100</td>
+ *  <td>The number of recent writes the rates are computed over</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>minCalls</td>
+ *  <td>20</td>
+ *  <td>The number of writes needed before the rates are considered</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>openMs</td>
+ *  <td>30000</td>
+ *  <td>How long the circuit stays open before probing the store again</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>halfOpenCalls</td>
+ *  <td>5</td>
+ *  <td>The number of probe writes that must succeed for the circuit to close</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>unhealthyWhenOpen</td>
+ *  <td>false</td>
+ *  <td>Reports the blobs health check unhealthy while the circuit is open, it only reports the state otherwise</td>
+ * </tr>
+ * </table>
+ */
+public class CircuitBreakerFactory {
+
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    private double failureRateThreshold = 0.5;
+
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    private double slowCallRateThreshold = 0.5;
+
+    @Min(1)
+    private long slowCallMs = 1000;
+
+    @Min(1)
+    private int windowSize = 100;
+
+    @Min(1)
+    private int minCalls = 20;
+
+    @Min(0)
+    private long openMs = 30000;
+
+    @Min(1)
+    private int halfOpenCalls = 5;
+
+    private boolean unhealthyWhenOpen = false;
+
+    public CircuitBreakerBlobStore build(BlobStore primary, BlobStore fallback, MetricsRegistry metrics) {
+        return new CircuitBreakerBlobStore(primary, fallback, failureRateThreshold, slowCallRateThreshold, slowCallMs,
+                windowSize, Math.min(minCalls, windowSize), openMs, halfOpenCalls, metrics);
+    }
+
+    @JsonProperty
+    public double getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    @JsonProperty
+    public void setFailureRateThreshold(double failureRateThreshold) {
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    @JsonProperty
+    public double getSlowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    @JsonProperty
+    public void setSlowCallRateThreshold(double slowCallRateThreshold) {
+        this.slowCallRateThreshold = slowCallRateThreshold;
+    }
+
+    @JsonProperty
+    public long getSlowCallMs() {
+        return slowCallMs;
+    }
+
+    @JsonProperty
+    public void setSlowCallMs(long slowCallMs) {
+        this.slowCallMs = slowCallMs;
+    }
+
+    @JsonProperty
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    @JsonProperty
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    @JsonProperty
+    public int getMinCalls() {
+        return minCalls;
+    }
+
+    @JsonProperty
+    public void setMinCalls(int minCalls) {
+        this.minCalls = minCalls;
+    }
+
+    @JsonProperty
+    public long getOpenMs() {
+        return openMs;
+    }
+
+    @JsonProperty
+    public void setOpenMs(long openMs) {
+        this.openMs = openMs;
+    }
+
+    public CircuitBreakerHealthCheck buildHealthCheck(CircuitBreakerBlobStore store) {
+        return new CircuitBreakerHealthCheck(store, unhealthyWhenOpen);
+    }
+
+    @JsonProperty
+    public int getHalfOpenCalls() {
+        return halfOpenCalls;
+    }
+
+    @JsonProperty
+    public void setHalfOpenCalls(int halfOpenCalls) {
+        this.halfOpenCalls = halfOpenCalls;
+    }
+
+    @JsonProperty
+    public boolean isUnhealthyWhenOpen() {
+        return unhealthyWhenOpen;
+    }
+
+    @JsonProperty
+    public void setUnhealthyWhenOpen(boolean unhealthyWhenOpen) {
+        this.unhealthyWhenOpen = unhealthyWhenOpen;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.configuration;
+
+import com.expedia.haystack.dropwizard.sampling.ConstSampler;
+import com.expedia.haystack.dropwizard.sampling.Sampler;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+
+/**
+ * A factory for the {@link ConstSampler}, recording all traces or none.
+ *
+ * Configuration options are as follows:
+ * <table summary="Configuration values and default values" >
+ * <tr>
+ *  <td>Name</td>
+ *  <td>Default</td>
+ *  <td>Description</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>sampled</td>
+ *  <td>true</td>
+ *  <td>Whether traces starting in this service are recorded</td>
+ * </tr>
+ * </table>
+ */
+@JsonTypeName("const")
+public class ConstSamplerFactory implements SamplerFactory {
+    private boolean sampled = true;
+
+    @Override
+    public Sampler build() {
+        return new ConstSampler(sampled);
+    }
+
+    @JsonProperty
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    @JsonProperty
+    public void setSampled(boolean sampled) {
+        this.sampled = sampled;
+    }
+}
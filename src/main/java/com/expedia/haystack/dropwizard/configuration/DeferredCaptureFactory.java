@@ -0,0 +1,98 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.configuration;
+
+import com.expedia.haystack.dropwizard.decorators.BlobOutcomePolicy;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Min;
+
+/**
+ * A factory for configuring deferred blob capture on the server. The request blob is held until the response is
+ * decorated, and both the request and the response blobs are written only if the request failed or was slow.
+ *
+ * Configuration options are as follows:
+ * <table summary="Configuration values and default values" >
+ * <tr>
+ *  <td>Name</td>
+ *  <td>Default</td>
+ *  <td>Description</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>minStatus</td>
+ *  <td>400</td>
+ *  <td>Responses with this status code or above keep their blobs, 0 to ignore the status</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>slowRequestMs</td>
+ *  <td>0</td>
+ *  <td>Requests taking at least this many milliseconds keep their blobs, 0 to ignore the latency</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>maxHeldBytes</td>
+ *  <td>65536</td>
+ *  <td>Request bodies held until their response are cut at this many bytes, or at maxBlobBytes of
+ *  {@link BlobFactory} if lower, as the oversizedBlobPolicy says</td>
+ * </tr>
+ * </table>
+ */
+public class DeferredCaptureFactory {
+
+    private int minStatus = 400;
+
+    private long slowRequestMs = 0;
+
+    @Min(1)
+    private long maxHeldBytes = 64 * 1024;
+
+    public BlobOutcomePolicy build() {
+        return new BlobOutcomePolicy(minStatus, slowRequestMs);
+    }
+
+    @JsonProperty
+    public int getMinStatus() {
+        return minStatus;
+    }
+
+    @JsonProperty
+    public void setMinStatus(int minStatus) {
+        this.minStatus = minStatus;
+    }
+
+    @JsonProperty
+    public long getSlowRequestMs() {
+        return slowRequestMs;
+    }
+
+    @JsonProperty
+    public void setSlowRequestMs(long slowRequestMs) {
+        this.slowRequestMs = slowRequestMs;
+    }
+
+    @JsonProperty
+    public long getMaxHeldBytes() {
+        return maxHeldBytes;
+    }
+
+    @JsonProperty
+    public void setMaxHeldBytes(long maxHeldBytes) {
+        this.maxHeldBytes = maxHeldBytes;
+    }
+}
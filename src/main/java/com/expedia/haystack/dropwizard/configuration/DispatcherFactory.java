@@ -16,7 +16,9 @@
  */
 package com.expedia.haystack.dropwizard.configuration;
 
+import com.expedia.www.haystack.client.dispatchers.ChainedDispatcher;
 import com.expedia.www.haystack.client.dispatchers.Dispatcher;
+import com.expedia.www.haystack.client.dispatchers.NoopDispatcher;
 import com.expedia.www.haystack.client.metrics.MetricsRegistry;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.fasterxml.jackson.annotation.JsonTypeInfo.As;
@@ -25,8 +27,29 @@ import com.fasterxml.jackson.annotation.JsonTypeInfo.Id;
 import io.dropwizard.jackson.Discoverable;
 import io.dropwizard.setup.Environment;
 
+import java.util.List;
+
 @JsonTypeInfo(use = Id.NAME, include = As.PROPERTY, property = "type")
 public interface DispatcherFactory extends Discoverable {
 
     Dispatcher build(Environment environment, MetricsRegistry metrics);
+
+    /**
+     * builds the dispatchers of all the factories
+     * @return a {@link NoopDispatcher} without factories, the only dispatcher built or a {@link ChainedDispatcher}
+     * of all of them
+     */
+    static Dispatcher buildAll(List<DispatcherFactory> factories, Environment environment, MetricsRegistry metrics) {
+        if (factories.isEmpty()) {
+            return new NoopDispatcher();
+        }
+        if (factories.size() == 1) {
+            return factories.get(0).build(environment, metrics);
+        }
+        final ChainedDispatcher.Builder builder = new ChainedDispatcher.Builder();
+        for (DispatcherFactory factory : factories) {
+            builder.withDispatcher(factory.build(environment, metrics));
+        }
+        return builder.build();
+    }
 }
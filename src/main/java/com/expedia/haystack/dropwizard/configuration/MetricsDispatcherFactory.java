@@ -0,0 +1,193 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.configuration;
+
+import com.expedia.haystack.dropwizard.dispatchers.RedMetricsDispatcher;
+import com.expedia.haystack.dropwizard.sampling.TraceIdRatioSampler;
+import com.expedia.www.haystack.client.dispatchers.Dispatcher;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import com.google.common.collect.ImmutableList;
+import io.dropwizard.setup.Environment;
+
+import javax.validation.Valid;
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.List;
+
+/**
+ * A factory for the {@link RedMetricsDispatcher}, publishing the request rate, error rate and latency of every
+ * operation to the metrics registry of the tracer, and forwarding to its dispatchers a share of the traces.
+ *
+ * Configuration options are as follows:
+ * <table summary="Configuration values and default values" >
+ * <tr>
+ *  <td>Name</td>
+ *  <td>Default</td>
+ *  <td>Description</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>dispatchers</td>
+ *  <td>None</td>
+ *  <td>The dispatchers the sampled spans are forwarded to</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>samplingRate</td>
+ *  <td>1.0</td>
+ *  <td>The share of the traces forwarded, decided on the trace id so all the spans of a trace go together</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>maxOperations</td>
+ *  <td>500</td>
+ *  <td>The number of operations with their own metrics, the spans of further ones are aggregated as _other</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>maxLatencyMs</td>
+ *  <td>60000</td>
+ *  <td>The highest latency recorded, longer spans are recorded at this latency</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>significantDigits</td>
+ *  <td>2</td>
+ *  <td>The number of significant decimal digits of the recorded latencies</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>percentiles</td>
+ *  <td>[50, 95, 99]</td>
+ *  <td>The latency percentiles published for each operation, next to the max</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>intervalMs</td>
+ *  <td>60000</td>
+ *  <td>The interval of the latencies the percentiles are computed over</td>
+ * </tr>
+ * </table>
+ */
+@JsonTypeName("metrics")
+public class MetricsDispatcherFactory implements DispatcherFactory {
+    @Valid
+    @NotNull
+    private List<DispatcherFactory> dispatchers = ImmutableList.of();
+
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    private double samplingRate = 1.0;
+
+    @Min(1)
+    private int maxOperations = 500;
+
+    @Min(1)
+    private long maxLatencyMs = 60000;
+
+    @Min(1)
+    @Max(5)
+    private int significantDigits = 2;
+
+    @NotNull
+    private List<Double> percentiles = ImmutableList.of(50.0, 95.0, 99.0);
+
+    @Min(1)
+    private long intervalMs = 60000;
+
+    @Override
+    public Dispatcher build(Environment environment, MetricsRegistry metrics) {
+        final Dispatcher delegate = DispatcherFactory.buildAll(dispatchers, environment, metrics);
+        return new RedMetricsDispatcher(delegate, new TraceIdRatioSampler(samplingRate), maxOperations, maxLatencyMs,
+                significantDigits, percentiles, intervalMs, metrics);
+    }
+
+    @JsonProperty
+    public List<DispatcherFactory> getDispatchers() {
+        return dispatchers;
+    }
+
+    @JsonProperty
+    public void setDispatchers(List<DispatcherFactory> dispatchers) {
+        this.dispatchers = dispatchers;
+    }
+
+    @JsonProperty
+    public double getSamplingRate() {
+        return samplingRate;
+    }
+
+    @JsonProperty
+    public void setSamplingRate(double samplingRate) {
+        this.samplingRate = samplingRate;
+    }
+
+    @JsonProperty
+    public int getMaxOperations() {
+        return maxOperations;
+    }
+
+    @JsonProperty
+    public void setMaxOperations(int maxOperations) {
+        this.maxOperations = maxOperations;
+    }
+
+    @JsonProperty
+    public long getMaxLatencyMs() {
+        return maxLatencyMs;
+    }
+
+    @JsonProperty
+    public void setMaxLatencyMs(long maxLatencyMs) {
+        this.maxLatencyMs = maxLatencyMs;
+    }
+
+    @JsonProperty
+    public int getSignificantDigits() {
+        return significantDigits;
+    }
+
+    @JsonProperty
+    public void setSignificantDigits(int significantDigits) {
+        this.significantDigits = significantDigits;
+    }
+
+    @JsonProperty
+    public List<Double> getPercentiles() {
+        return percentiles;
+    }
+
+    @JsonProperty
+    public void setPercentiles(List<Double> percentiles) {
+        this.percentiles = percentiles;
+    }
+
+    @JsonProperty
+    public long getIntervalMs() {
+        return intervalMs;
+    }
+
+    @JsonProperty
+    public void setIntervalMs(long intervalMs) {
+        this.intervalMs = intervalMs;
+    }
+}
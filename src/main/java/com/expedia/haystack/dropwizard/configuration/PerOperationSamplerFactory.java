@@ -0,0 +1,127 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.configuration;
+
+import com.expedia.haystack.dropwizard.sampling.PerOperationSampler;
+import com.expedia.haystack.dropwizard.sampling.Sampler;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A factory for the {@link PerOperationSampler}, recording a share of the traces of each operation.
+ *
+ * Configuration options are as follows:
+ * <table summary="Configuration values and default values" >
+ * <tr>
+ *  <td>Name</td>
+ *  <td>Default</td>
+ *  <td>Description</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>operations</td>
+ *  <td>None</td>
+ *  <td>Sampling rates of specific operations, by the operation name of their server span</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>defaultSamplingRate</td>
+ *  <td>0.01</td>
+ *  <td>The sampling rate of the other operations</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>lowerBoundPerSec</td>
+ *  <td>0</td>
+ *  <td>Traces per second recorded for every operation whatever its sampling rate, 0 for none</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>maxOperations</td>
+ *  <td>1000</td>
+ *  <td>The maximum number of operations with their own sampler besides the configured ones, others share the
+ *  default one</td>
+ * </tr>
+ * </table>
+ */
+@JsonTypeName("operation")
+public class PerOperationSamplerFactory implements SamplerFactory {
+    @NotNull
+    private Map<String, Double> operations = Collections.emptyMap();
+
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    private double defaultSamplingRate = 0.01;
+
+    @DecimalMin("0.0")
+    private double lowerBoundPerSec = 0;
+
+    @Min(0)
+    private int maxOperations = 1000;
+
+    @Override
+    public Sampler build() {
+        return new PerOperationSampler(operations, defaultSamplingRate, lowerBoundPerSec, maxOperations);
+    }
+
+    @JsonProperty
+    public Map<String, Double> getOperations() {
+        return operations;
+    }
+
+    @JsonProperty
+    public void setOperations(Map<String, Double> operations) {
+        this.operations = operations;
+    }
+
+    @JsonProperty
+    public double getDefaultSamplingRate() {
+        return defaultSamplingRate;
+    }
+
+    @JsonProperty
+    public void setDefaultSamplingRate(double defaultSamplingRate) {
+        this.defaultSamplingRate = defaultSamplingRate;
+    }
+
+    @JsonProperty
+    public double getLowerBoundPerSec() {
+        return lowerBoundPerSec;
+    }
+
+    @JsonProperty
+    public void setLowerBoundPerSec(double lowerBoundPerSec) {
+        this.lowerBoundPerSec = lowerBoundPerSec;
+    }
+
+    @JsonProperty
+    public int getMaxOperations() {
+        return maxOperations;
+    }
+
+    @JsonProperty
+    public void setMaxOperations(int maxOperations) {
+        this.maxOperations = maxOperations;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.configuration;
+
+import com.expedia.haystack.dropwizard.sampling.RateLimitingSampler;
+import com.expedia.haystack.dropwizard.sampling.Sampler;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+
+import javax.validation.constraints.DecimalMin;
+
+/**
+ * A factory for the {@link RateLimitingSampler}, recording a fixed number of traces per second.
+ *
+ * Configuration options are as follows:
+ * <table summary="Configuration values and default values" >
+ * <tr>
+ *  <td>Name</td>
+ *  <td>Default</td>
+ *  <td>Description</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>maxTracesPerSec</td>
+ *  <td>10</td>
+ *  <td>The number of traces starting in this service recorded per second</td>
+ * </tr>
+ * </table>
+ */
+@JsonTypeName("ratelimiting")
+public class RateLimitingSamplerFactory implements SamplerFactory {
+    @DecimalMin(value = "0.0", inclusive = false)
+    private double maxTracesPerSec = 10;
+
+    @Override
+    public Sampler build() {
+        return new RateLimitingSampler(maxTracesPerSec);
+    }
+
+    @JsonProperty
+    public double getMaxTracesPerSec() {
+        return maxTracesPerSec;
+    }
+
+    @JsonProperty
+    public void setMaxTracesPerSec(double maxTracesPerSec) {
+        this.maxTracesPerSec = maxTracesPerSec;
+    }
+}
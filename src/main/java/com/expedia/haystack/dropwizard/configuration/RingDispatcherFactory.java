@@ -0,0 +1,168 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.configuration;
+
+import com.expedia.haystack.dropwizard.dispatchers.RingBufferDispatcher;
+import com.expedia.www.haystack.client.dispatchers.Dispatcher;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import io.dropwizard.setup.Environment;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+/**
+ * A factory for the {@link RingBufferDispatcher}, a drop-in replacement of the remote dispatcher handing spans to the
+ * client through a lock-free ring buffer.
+ *
+ * Configuration options are as follows:
+ * <table summary="Configuration values and default values" >
+ * <tr>
+ *  <td>Name</td>
+ *  <td>Default</td>
+ *  <td>Description</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>client</td>
+ *  <td>required</td>
+ *  <td>The client the spans are sent with, as for the remote dispatcher</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>capacity</td>
+ *  <td>8192</td>
+ *  <td>The number of spans the ring holds, rounded up to a power of two. Spans dispatched while it is full are
+ *  dropped</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>batchSize</td>
+ *  <td>256</td>
+ *  <td>The maximum number of spans drained from the ring at once</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>waitStrategy</td>
+ *  <td>sleeping</td>
+ *  <td>How the sender waits while the ring is empty: busy_spin, yielding or sleeping</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>sleepMicros</td>
+ *  <td>100</td>
+ *  <td>The time the sender sleeps between polls of an empty ring with the sleeping strategy</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>shutdownTimeoutMs</td>
+ *  <td>10000</td>
+ *  <td>The time given to the sender to drain the ring on flush and close</td>
+ * </tr>
+ * </table>
+ */
+@JsonTypeName("ring")
+public class RingDispatcherFactory implements DispatcherFactory {
+    @Valid
+    @NotNull
+    private ClientFactory client;
+
+    @Min(1)
+    @Max(1 << 30)
+    private int capacity = 8192;
+
+    @Min(1)
+    private int batchSize = 256;
+
+    @NotNull
+    private RingBufferDispatcher.WaitStrategy waitStrategy = RingBufferDispatcher.WaitStrategy.SLEEPING;
+
+    @Min(1)
+    private long sleepMicros = 100;
+
+    @Min(1)
+    private long shutdownTimeoutMs = 10000;
+
+    @Override
+    public Dispatcher build(Environment environment, MetricsRegistry metrics) {
+        return new RingBufferDispatcher(client.build(environment, metrics), capacity, batchSize, waitStrategy,
+                sleepMicros * 1000, shutdownTimeoutMs, metrics);
+    }
+
+    @JsonProperty
+    public ClientFactory getClient() {
+        return client;
+    }
+
+    @JsonProperty
+    public void setClient(ClientFactory client) {
+        this.client = client;
+    }
+
+    @JsonProperty
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @JsonProperty
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    @JsonProperty
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    @JsonProperty
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    @JsonProperty
+    public RingBufferDispatcher.WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    @JsonProperty
+    public void setWaitStrategy(RingBufferDispatcher.WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy;
+    }
+
+    @JsonProperty
+    public long getSleepMicros() {
+        return sleepMicros;
+    }
+
+    @JsonProperty
+    public void setSleepMicros(long sleepMicros) {
+        this.sleepMicros = sleepMicros;
+    }
+
+    @JsonProperty
+    public long getShutdownTimeoutMs() {
+        return shutdownTimeoutMs;
+    }
+
+    @JsonProperty
+    public void setShutdownTimeoutMs(long shutdownTimeoutMs) {
+        this.shutdownTimeoutMs = shutdownTimeoutMs;
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.configuration;
+
+import com.expedia.haystack.dropwizard.dispatchers.AgentSpanSender;
+import com.expedia.haystack.dropwizard.dispatchers.SpillingDispatcher;
+import com.expedia.www.haystack.client.dispatchers.Dispatcher;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import io.dropwizard.setup.Environment;
+import io.grpc.ManagedChannelBuilder;
+import org.hibernate.validator.constraints.NotEmpty;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * A factory for the {@link SpillingDispatcher}, sending spans to the haystack agent and spilling them to a journal on
+ * disk while the agent is down or cannot keep up.
+ *
+ * Configuration options are as follows:
+ * <table summary="Configuration values and default values" >
+ * <tr>
+ *  <td>Name</td>
+ *  <td>Default</td>
+ *  <td>Description</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>host</td>
+ *  <td>haystack-agent</td>
+ *  <td>The host of the agent</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>port</td>
+ *  <td>35000</td>
+ *  <td>The port of the agent</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>directory</td>
+ *  <td>required</td>
+ *  <td>The directory of the journal, spans left in it are replayed on restart</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>queueSize</td>
+ *  <td>1000</td>
+ *  <td>The number of spans waiting to be sent in memory, more spill to the journal</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>maxInFlight</td>
+ *  <td>100</td>
+ *  <td>The number of spans awaiting the agent</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>segmentSizeBytes</td>
+ *  <td>16777216</td>
+ *  <td>The size of a journal segment file</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>maxJournalBytes</td>
+ *  <td>1073741824</td>
+ *  <td>The disk space the journal may take, its oldest spans are evicted beyond</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>replayRatePerSec</td>
+ *  <td>500</td>
+ *  <td>The rate at which spans of the journal are sent again once the agent recovers</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>retryIntervalMs</td>
+ *  <td>5000</td>
+ *  <td>The time between two attempts to replay the journal while the agent is down</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>sendTimeoutMs</td>
+ *  <td>5000</td>
+ *  <td>The deadline of a call to the agent, also of a replayed span</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>shutdownTimeoutMs</td>
+ *  <td>10000</td>
+ *  <td>The time given to drain the queue on flush and close</td>
+ * </tr>
+ * </table>
+ */
+@JsonTypeName("spill")
+public class SpillDispatcherFactory implements DispatcherFactory {
+    @NotEmpty
+    private String host = "haystack-agent";
+
+    @Min(1)
+    @Max(65535)
+    private int port = 35000;
+
+    @NotEmpty
+    private String directory;
+
+    @Min(1)
+    private int queueSize = 1000;
+
+    @Min(1)
+    private int maxInFlight = 100;
+
+    @Min(1024)
+    private int segmentSizeBytes = 16 * 1024 * 1024;
+
+    @Min(1024)
+    private long maxJournalBytes = 1024L * 1024 * 1024;
+
+    @Min(1)
+    private int replayRatePerSec = 500;
+
+    @Min(1)
+    private long retryIntervalMs = 5000;
+
+    @Min(1)
+    private long sendTimeoutMs = 5000;
+
+    @Min(1)
+    private long shutdownTimeoutMs = 10000;
+
+    @Override
+    public Dispatcher build(Environment environment, MetricsRegistry metrics) {
+        final AgentSpanSender sender = new AgentSpanSender(
+                ManagedChannelBuilder.forAddress(host, port).usePlaintext(true).build(), sendTimeoutMs);
+        try {
+            return new SpillingDispatcher(sender, queueSize, maxInFlight, new File(directory), segmentSizeBytes,
+                    maxJournalBytes, replayRatePerSec, retryIntervalMs, sendTimeoutMs, shutdownTimeoutMs, metrics);
+        } catch (IOException e) {
+            sender.close();
+            throw new UncheckedIOException("Fail to open the span journal in " + directory, e);
+        }
+    }
+
+    @JsonProperty
+    public String getHost() {
+        return host;
+    }
+
+    @JsonProperty
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    @JsonProperty
+    public int getPort() {
+        return port;
+    }
+
+    @JsonProperty
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    @JsonProperty
+    public String getDirectory() {
+        return directory;
+    }
+
+    @JsonProperty
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    @JsonProperty
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    @JsonProperty
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    @JsonProperty
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    @JsonProperty
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    @JsonProperty
+    public int getSegmentSizeBytes() {
+        return segmentSizeBytes;
+    }
+
+    @JsonProperty
+    public void setSegmentSizeBytes(int segmentSizeBytes) {
+        this.segmentSizeBytes = segmentSizeBytes;
+    }
+
+    @JsonProperty
+    public long getMaxJournalBytes() {
+        return maxJournalBytes;
+    }
+
+    @JsonProperty
+    public void setMaxJournalBytes(long maxJournalBytes) {
+        this.maxJournalBytes = maxJournalBytes;
+    }
+
+    @JsonProperty
+    public int getReplayRatePerSec() {
+        return replayRatePerSec;
+    }
+
+    @JsonProperty
+    public void setReplayRatePerSec(int replayRatePerSec) {
+        this.replayRatePerSec = replayRatePerSec;
+    }
+
+    @JsonProperty
+    public long getRetryIntervalMs() {
+        return retryIntervalMs;
+    }
+
+    @JsonProperty
+    public void setRetryIntervalMs(long retryIntervalMs) {
+        this.retryIntervalMs = retryIntervalMs;
+    }
+
+    @JsonProperty
+    public long getSendTimeoutMs() {
+        return sendTimeoutMs;
+    }
+
+    @JsonProperty
+    public void setSendTimeoutMs(long sendTimeoutMs) {
+        this.sendTimeoutMs = sendTimeoutMs;
+    }
+
+    @JsonProperty
+    public long getShutdownTimeoutMs() {
+        return shutdownTimeoutMs;
+    }
+
+    @JsonProperty
+    public void setShutdownTimeoutMs(long shutdownTimeoutMs) {
+        this.shutdownTimeoutMs = shutdownTimeoutMs;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.configuration;
+
+import com.expedia.haystack.dropwizard.dispatchers.TailSamplingDispatcher;
+import com.expedia.www.haystack.client.dispatchers.Dispatcher;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import io.dropwizard.setup.Environment;
+import org.hibernate.validator.constraints.NotEmpty;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.List;
+
+/**
+ * A factory for the {@link TailSamplingDispatcher}, buffering spans by trace and forwarding to its dispatchers only
+ * the traces matching its rules.
+ *
+ * Configuration options are as follows:
+ * <table summary="Configuration values and default values" >
+ * <tr>
+ *  <td>Name</td>
+ *  <td>Default</td>
+ *  <td>Description</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>dispatchers</td>
+ *  <td>required</td>
+ *  <td>The dispatchers the kept traces are forwarded to</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>rules</td>
+ *  <td>errors and spans of at least 1s</td>
+ *  <td>The rules a trace has to match to be kept, see {@link TailSamplingRulesFactory}</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>decisionWaitMs</td>
+ *  <td>10000</td>
+ *  <td>The time a trace is buffered from its first span before it is decided</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>maxSpans</td>
+ *  <td>100000</td>
+ *  <td>The number of spans buffered, the oldest traces are decided early beyond</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>maxSpansPerTrace</td>
+ *  <td>1000</td>
+ *  <td>The number of spans buffered for a single trace, further ones are dropped</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>maxDecidedTraces</td>
+ *  <td>100000</td>
+ *  <td>The number of decisions remembered for the spans arriving after the decision of their trace</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>shards</td>
+ *  <td>16</td>
+ *  <td>The number of independently locked parts of the buffer, rounded up to a power of two</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>sweepIntervalMs</td>
+ *  <td>1000</td>
+ *  <td>The time between two passes deciding the traces buffered for decisionWaitMs</td>
+ * </tr>
+ * </table>
+ */
+@JsonTypeName("tail")
+public class TailDispatcherFactory implements DispatcherFactory {
+    @Valid
+    @NotEmpty
+    private List<DispatcherFactory> dispatchers;
+
+    @Valid
+    @NotNull
+    private TailSamplingRulesFactory rules = new TailSamplingRulesFactory();
+
+    @Min(0)
+    private long decisionWaitMs = 10000;
+
+    @Min(1)
+    private int maxSpans = 100000;
+
+    @Min(1)
+    private int maxSpansPerTrace = 1000;
+
+    @Min(0)
+    private int maxDecidedTraces = 100000;
+
+    @Min(1)
+    @Max(1 << 16)
+    private int shards = 16;
+
+    @Min(1)
+    private long sweepIntervalMs = 1000;
+
+    @Override
+    public Dispatcher build(Environment environment, MetricsRegistry metrics) {
+        final Dispatcher delegate = DispatcherFactory.buildAll(dispatchers, environment, metrics);
+        return new TailSamplingDispatcher(delegate, rules.build(), decisionWaitMs, maxSpans, maxSpansPerTrace,
+                maxDecidedTraces, shards, sweepIntervalMs, metrics);
+    }
+
+    @JsonProperty
+    public List<DispatcherFactory> getDispatchers() {
+        return dispatchers;
+    }
+
+    @JsonProperty
+    public void setDispatchers(List<DispatcherFactory> dispatchers) {
+        this.dispatchers = dispatchers;
+    }
+
+    @JsonProperty
+    public TailSamplingRulesFactory getRules() {
+        return rules;
+    }
+
+    @JsonProperty
+    public void setRules(TailSamplingRulesFactory rules) {
+        this.rules = rules;
+    }
+
+    @JsonProperty
+    public long getDecisionWaitMs() {
+        return decisionWaitMs;
+    }
+
+    @JsonProperty
+    public void setDecisionWaitMs(long decisionWaitMs) {
+        this.decisionWaitMs = decisionWaitMs;
+    }
+
+    @JsonProperty
+    public int getMaxSpans() {
+        return maxSpans;
+    }
+
+    @JsonProperty
+    public void setMaxSpans(int maxSpans) {
+        this.maxSpans = maxSpans;
+    }
+
+    @JsonProperty
+    public int getMaxSpansPerTrace() {
+        return maxSpansPerTrace;
+    }
+
+    @JsonProperty
+    public void setMaxSpansPerTrace(int maxSpansPerTrace) {
+        this.maxSpansPerTrace = maxSpansPerTrace;
+    }
+
+    @JsonProperty
+    public int getMaxDecidedTraces() {
+        return maxDecidedTraces;
+    }
+
+    @JsonProperty
+    public void setMaxDecidedTraces(int maxDecidedTraces) {
+        this.maxDecidedTraces = maxDecidedTraces;
+    }
+
+    @JsonProperty
+    public int getShards() {
+        return shards;
+    }
+
+    @JsonProperty
+    public void setShards(int shards) {
+        this.shards = shards;
+    }
+
+    @JsonProperty
+    public long getSweepIntervalMs() {
+        return sweepIntervalMs;
+    }
+
+    @JsonProperty
+    public void setSweepIntervalMs(long sweepIntervalMs) {
+        this.sweepIntervalMs = sweepIntervalMs;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.configuration;
+
+import com.expedia.haystack.dropwizard.dispatchers.TailSamplingRules;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.NotNull;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A factory for configuring and building the {@link TailSamplingRules} of the tail dispatcher, a trace is kept if one
+ * of its spans matches a rule.
+ *
+ * Configuration options are as follows:
+ * <table summary="Configuration values and default values" >
+ * <tr>
+ *  <td>Name</td>
+ *  <td>Default</td>
+ *  <td>Description</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>errors</td>
+ *  <td>true</td>
+ *  <td>Whether traces with a span tagged as an error are kept</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>minDurationMs</td>
+ *  <td>1000</td>
+ *  <td>Traces with a span lasting at least this long are kept, -1 to keep none for their duration</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>operations</td>
+ *  <td>None</td>
+ *  <td>Traces with a span of one of these operations are kept</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>samplingRate</td>
+ *  <td>0.0</td>
+ *  <td>The probability of keeping a trace matching no rule</td>
+ * </tr>
+ * </table>
+ */
+public class TailSamplingRulesFactory {
+    private boolean errors = true;
+
+    private long minDurationMs = 1000;
+
+    @NotNull
+    private List<String> operations = Collections.emptyList();
+
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    private double samplingRate = 0.0;
+
+    public TailSamplingRules build() {
+        return new TailSamplingRules(errors, minDurationMs, operations, samplingRate);
+    }
+
+    @JsonProperty
+    public boolean isErrors() {
+        return errors;
+    }
+
+    @JsonProperty
+    public void setErrors(boolean errors) {
+        this.errors = errors;
+    }
+
+    @JsonProperty
+    public long getMinDurationMs() {
+        return minDurationMs;
+    }
+
+    @JsonProperty
+    public void setMinDurationMs(long minDurationMs) {
+        this.minDurationMs = minDurationMs;
+    }
+
+    @JsonProperty
+    public List<String> getOperations() {
+        return operations;
+    }
+
+    @JsonProperty
+    public void setOperations(List<String> operations) {
+        this.operations = operations;
+    }
+
+    @JsonProperty
+    public double getSamplingRate() {
+        return samplingRate;
+    }
+
+    @JsonProperty
+    public void setSamplingRate(double samplingRate) {
+        this.samplingRate = samplingRate;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.configuration;
+
+import com.expedia.haystack.dropwizard.sampling.Sampler;
+import com.expedia.haystack.dropwizard.sampling.TraceIdRatioSampler;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+
+/**
+ * A factory for the {@link TraceIdRatioSampler}, recording the traces whose id hashes below a ratio, the same ones in
+ * every service using it.
+ *
+ * Configuration options are as follows:
+ * <table summary="Configuration values and default values" >
+ * <tr>
+ *  <td>Name</td>
+ *  <td>Default</td>
+ *  <td>Description</td>
+ * </tr>
+ *
+ * <tr>
+ *  <td>ratio</td>
+ *  <td>0.01</td>
+ *  <td>The share of the trace ids recorded</td>
+ * </tr>
+ * </table>
+ */
+@JsonTypeName("traceid")
+public class TraceIdRatioSamplerFactory implements SamplerFactory {
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    private double ratio = 0.01;
+
+    @Override
+    public Sampler build() {
+        return new TraceIdRatioSampler(ratio);
+    }
+
+    @JsonProperty
+    public double getRatio() {
+        return ratio;
+    }
+
+    @JsonProperty
+    public void setRatio(double ratio) {
+        this.ratio = ratio;
+    }
+}
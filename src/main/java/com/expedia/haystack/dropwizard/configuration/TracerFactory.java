@@ -16,11 +16,12 @@
  */
 package com.expedia.haystack.dropwizard.configuration;
 
+import com.expedia.haystack.dropwizard.sampling.SamplingTracer;
 import com.expedia.www.haystack.client.Tracer;
-import com.expedia.www.haystack.client.dispatchers.ChainedDispatcher;
 import com.expedia.www.haystack.client.dispatchers.Dispatcher;
 import com.expedia.www.haystack.client.idgenerators.IdGenerator;
 import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.ImmutableList;
@@ -50,35 +51,48 @@ public class TracerFactory {
     @Valid
     private IdGenerator idGenerator;
 
+    @Valid
+    private SamplerFactory sampler;
+
+    @JsonIgnore
+    private MetricsRegistry metricsRegistry;
+
     public io.opentracing.Tracer build(Environment environment) {
         if (!enabled) {
             return NoopTracerFactory.create();
         }
 
-        MetricsRegistry registry = metrics.build(environment);
-
-        Dispatcher dispatcher;
-        if (dispatchers.size() > 1) {
-            ChainedDispatcher.Builder builder = new ChainedDispatcher.Builder();
-            for (DispatcherFactory factory : dispatchers) {
-                builder.withDispatcher(factory.build(environment, registry));
-            }
-            dispatcher = builder.build();
-        } else {
-            dispatcher = dispatchers.get(0).build(environment, registry);
-        }
+        MetricsRegistry registry = metricsRegistry(environment);
 
-        return new Tracer
-                .Builder(registry, serviceName, dispatcher)
+        Dispatcher dispatcher = DispatcherFactory.buildAll(dispatchers, environment, registry);
+
+        final Tracer.Builder builder = new Tracer.Builder(registry, serviceName, dispatcher);
+        if (sampler != null) {
+            return new SamplingTracer(builder, idGenerator, sampler.build(), registry);
+        }
+        return builder
                 .withIdGenerator(idGenerator)
                 .build();
     }
 
+    /**
+     * builds the metrics registry once, so the tracer and the blobs publish their metrics through the same registry
+     * @param environment Environment of the application
+     * @return the metrics registry
+     */
+    public synchronized MetricsRegistry metricsRegistry(Environment environment) {
+        if (metricsRegistry == null) {
+            metricsRegistry = metrics.build(environment);
+        }
+        return metricsRegistry;
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
                 .add("serviceName", serviceName)
                 .add("dispatchers", dispatchers)
+                .add("sampler", sampler)
                 .toString();
     }
 
@@ -130,4 +144,14 @@ public class TracerFactory {
     public void setIdGenerator(IdGenerator idGenerator) {
         this.idGenerator = idGenerator;
     }
+
+    @JsonProperty
+    public SamplerFactory getSampler() {
+        return sampler;
+    }
+
+    @JsonProperty
+    public void setSampler(SamplerFactory sampler) {
+        this.sampler = sampler;
+    }
 }
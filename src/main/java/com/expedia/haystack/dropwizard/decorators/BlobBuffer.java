@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.decorators;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+/**
+ * Capture buffer handed out by {@link BlobBufferPool}. The content is read in place through
+ * {@link #writeTo(java.io.OutputStream)} and the buffer goes back to its pool on {@link #release()}, so the backing
+ * array is reused across blobs instead of being grown and copied for every request.
+ */
+public class BlobBuffer extends ByteArrayOutputStream {
+    private final BlobBufferPool pool;
+    private final int stripe;
+
+    BlobBuffer(final BlobBufferPool pool, final int stripe, final int size) {
+        super(size);
+        this.pool = pool;
+        this.stripe = stripe;
+    }
+
+    int capacity() {
+        return buf.length;
+    }
+
+    int stripe() {
+        return stripe;
+    }
+
+    /**
+     * @return a stream reading the content in place, valid until the buffer is released
+     */
+    public InputStream toInputStream() {
+        return new ByteArrayInputStream(buf, 0, count);
+    }
+
+    /**
+     * returns the buffer to its pool, it must not be used afterwards
+     */
+    public void release() {
+        pool.release(this);
+    }
+}
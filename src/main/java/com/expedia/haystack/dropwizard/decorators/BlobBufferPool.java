@@ -0,0 +1,114 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.decorators;
+
+import com.expedia.www.haystack.client.metrics.Counter;
+import com.expedia.www.haystack.client.metrics.Gauge;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import com.expedia.www.haystack.client.metrics.Tag;
+import org.apache.commons.lang3.Validate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of {@link BlobBuffer}s shared by the capturing streams. Buffers are kept in stripes chosen by the
+ * acquiring thread, and a buffer always goes back to the stripe it came from, even when it is released by the
+ * background blob writer. At most maxPoolBytes of idle buffer capacity is retained, and buffers that grew beyond
+ * maxBufferSize while capturing a large body are left to the garbage collector instead of being pooled.
+ */
+public class BlobBufferPool {
+    /**
+     * hands out a fresh buffer every time and never retains one, for callers without a configured pool
+     */
+    public final static BlobBufferPool UNPOOLED = new BlobBufferPool(1, 32, 0, 0, new NoopMetricsRegistry());
+
+    private final List<Queue<BlobBuffer>> stripes;
+    private final int initialBufferSize;
+    private final int maxBufferSize;
+    private final long maxPoolBytes;
+    private final AtomicLong pooledBytes = new AtomicLong();
+    private final AtomicInteger pooledBuffers = new AtomicInteger();
+    private final Counter hits;
+    private final Counter misses;
+
+    public BlobBufferPool(final int stripes,
+                          final int initialBufferSize,
+                          final int maxBufferSize,
+                          final long maxPoolBytes,
+                          final MetricsRegistry metrics) {
+        Validate.isTrue(stripes > 0, "stripes must be positive");
+        Validate.isTrue(initialBufferSize > 0, "initialBufferSize must be positive");
+        Validate.notNull(metrics);
+
+        this.stripes = new ArrayList<>(stripes);
+        for (int i = 0; i < stripes; i++) {
+            this.stripes.add(new ConcurrentLinkedQueue<>());
+        }
+        this.initialBufferSize = initialBufferSize;
+        this.maxBufferSize = maxBufferSize;
+        this.maxPoolBytes = maxPoolBytes;
+
+        this.hits = Counter.builder("blobs.buffers").tag(new Tag("state", "hit")).register(metrics);
+        this.misses = Counter.builder("blobs.buffers").tag(new Tag("state", "miss")).register(metrics);
+        Gauge.builder("blobs.buffers.pooled", pooledBuffers, AtomicInteger::doubleValue).register(metrics);
+        Gauge.builder("blobs.buffers.pooled.bytes", pooledBytes, AtomicLong::doubleValue).register(metrics);
+    }
+
+    /**
+     * @return an empty buffer, taken from the pool if one is available
+     */
+    public BlobBuffer acquire() {
+        final int stripe = (int) (Thread.currentThread().getId() % stripes.size());
+        final BlobBuffer buffer = stripes.get(stripe).poll();
+        if (buffer != null) {
+            pooledBuffers.decrementAndGet();
+            pooledBytes.addAndGet(-buffer.capacity());
+            hits.increment();
+            return buffer;
+        }
+        misses.increment();
+        return new BlobBuffer(this, stripe, initialBufferSize);
+    }
+
+    void release(final BlobBuffer buffer) {
+        buffer.reset();
+
+        final int capacity = buffer.capacity();
+        if (capacity > maxBufferSize) return;
+
+        if (pooledBytes.addAndGet(capacity) > maxPoolBytes) {
+            pooledBytes.addAndGet(-capacity);
+            return;
+        }
+        pooledBuffers.incrementAndGet();
+        stripes.get(buffer.stripe()).offer(buffer);
+    }
+
+    public int getPooledBuffers() {
+        return pooledBuffers.get();
+    }
+
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+}
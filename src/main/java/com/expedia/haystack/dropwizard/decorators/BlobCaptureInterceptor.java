@@ -0,0 +1,43 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.decorators;
+
+import javax.annotation.Priority;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Completes the blob of a {@link BlobCapturingOutputStream} as soon as the real
+ * {@link javax.ws.rs.ext.MessageBodyWriter} has written the entity, instead of waiting for the container to close
+ * the entity stream. It runs ahead of the other interceptors so it sees the capturing stream installed by the span
+ * decorators.
+ */
+@Priority(1)
+public class BlobCaptureInterceptor implements WriterInterceptor {
+
+    @Override
+    public void aroundWriteTo(final WriterInterceptorContext context) throws IOException, WebApplicationException {
+        final OutputStream entityStream = context.getOutputStream();
+        context.proceed();
+        if (entityStream instanceof BlobCapturingOutputStream) {
+            ((BlobCapturingOutputStream) entityStream).complete();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.decorators;
+
+import com.expedia.blobs.core.BlobType;
+import com.expedia.www.haystack.client.metrics.Counter;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import com.expedia.www.haystack.client.metrics.Tag;
+import com.expedia.www.haystack.client.metrics.Timer;
+import com.google.common.io.CountingOutputStream;
+
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * Metrics of blob capture per side, server or client, and blob type, request or response. Extract and write times
+ * are published as the timers blobs.capture.extract and blobs.capture.write, stored bytes and blobs as the counters
+ * blobs.capture.bytes and blobs.capture with the state captured, and blobs not captured as blobs.capture with the
+ * state skipped, ratelimited or failed. The instruments are registered once, decorators look them up at
+ * construction.
+ * <p>
+ * A blob is only written once the store builds it, often on another thread, so the write is timed and the blob
+ * counted as captured there, or as failed if its content fails to write. A blob dropped before, e.g. by the size
+ * limit, an undecided outcome or a full queue, is not counted.
+ */
+public class BlobCaptureMetrics {
+    public final static BlobCaptureMetrics NONE = new BlobCaptureMetrics(new NoopMetricsRegistry(), false);
+
+    private final Capture serverRequests;
+    private final Capture serverResponses;
+    private final Capture clientRequests;
+    private final Capture clientResponses;
+
+    public BlobCaptureMetrics(final MetricsRegistry metrics) {
+        this(metrics, true);
+    }
+
+    private BlobCaptureMetrics(final MetricsRegistry metrics, final boolean instrumented) {
+        this.serverRequests = new Capture(metrics, BlobRateLimits.Side.SERVER, BlobType.REQUEST, instrumented);
+        this.serverResponses = new Capture(metrics, BlobRateLimits.Side.SERVER, BlobType.RESPONSE, instrumented);
+        this.clientRequests = new Capture(metrics, BlobRateLimits.Side.CLIENT, BlobType.REQUEST, instrumented);
+        this.clientResponses = new Capture(metrics, BlobRateLimits.Side.CLIENT, BlobType.RESPONSE, instrumented);
+    }
+
+    /**
+     * @param side server or client
+     * @param type request or response
+     * @return the instruments of the blobs captured on this side of this type
+     */
+    public Capture get(final BlobRateLimits.Side side, final BlobType type) {
+        if (side == BlobRateLimits.Side.SERVER) {
+            return type == BlobType.REQUEST ? serverRequests : serverResponses;
+        }
+        return type == BlobType.REQUEST ? clientRequests : clientResponses;
+    }
+
+    public static class Capture {
+        private final Timer extract;
+        private final Timer write;
+        private final Counter bytes;
+        private final Counter captured;
+        private final Counter skipped;
+        private final Counter rateLimited;
+        private final Counter failed;
+        private final boolean instrumented;
+
+        private Capture(final MetricsRegistry metrics,
+                        final BlobRateLimits.Side side,
+                        final BlobType type,
+                        final boolean instrumented) {
+            final List<Tag> tags = Arrays.asList(
+                    new Tag("side", side.name().toLowerCase(Locale.ROOT)),
+                    new Tag("type", type.getType()));
+            this.extract = Timer.builder("blobs.capture.extract").tags(tags).register(metrics);
+            this.write = Timer.builder("blobs.capture.write").tags(tags).register(metrics);
+            this.bytes = Counter.builder("blobs.capture.bytes").tags(tags).register(metrics);
+            this.captured = counter(metrics, tags, "captured");
+            this.skipped = counter(metrics, tags, "skipped");
+            this.rateLimited = counter(metrics, tags, "ratelimited");
+            this.failed = counter(metrics, tags, "failed");
+            this.instrumented = instrumented;
+        }
+
+        private static Counter counter(final MetricsRegistry metrics, final List<Tag> tags, final String state) {
+            return Counter.builder("blobs.capture").tags(tags).tag(new Tag("state", state)).register(metrics);
+        }
+
+        /**
+         * @return a sample to stop once the blob is extracted from the body
+         */
+        public Timer.Sample startExtract() {
+            return extract.start();
+        }
+
+        /**
+         * @param dataCallback writes the content of a blob once the store builds it, throwing an
+         *                     {@link UncheckedIOException} if it fails
+         * @return the callback timing the write, and counting the blob and the bytes written once it completes, or the
+         * blob as failed. A failed blob keeps what was written before the failure.
+         */
+        public Consumer<OutputStream> instrument(final Consumer<OutputStream> dataCallback) {
+            return outputStream -> {
+                if (!instrumented) {
+                    write(dataCallback, outputStream);
+                    return;
+                }
+
+                final CountingOutputStream counting = new CountingOutputStream(outputStream);
+                final Timer.Sample sample = write.start();
+                final boolean written;
+                try {
+                    written = write(dataCallback, counting);
+                } finally {
+                    sample.stop();
+                }
+                if (written) {
+                    captured.increment();
+                    bytes.increment(counting.getCount());
+                } else {
+                    failed.increment();
+                }
+            };
+        }
+
+        private static boolean write(final Consumer<OutputStream> dataCallback, final OutputStream outputStream) {
+            try {
+                dataCallback.accept(outputStream);
+                return true;
+            } catch (UncheckedIOException e) {
+                return false;
+            }
+        }
+
+        public void skipped() {
+            skipped.increment();
+        }
+
+        public void rateLimited() {
+            rateLimited.increment();
+        }
+
+        public void failed() {
+            failed.increment();
+        }
+    }
+}
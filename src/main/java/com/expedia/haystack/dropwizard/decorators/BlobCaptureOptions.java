@@ -0,0 +1,48 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.decorators;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Settings a body is captured with in streaming mode, see the tee functions of
+ * {@link com.expedia.haystack.dropwizard.bundle.Blobable}: the number of bytes after which capture stops and the pool
+ * the capture buffer is taken from.
+ */
+public class BlobCaptureOptions {
+    private final long maxBytes;
+    private final BlobBufferPool bufferPool;
+
+    /**
+     * @param maxBytes capture stops after this many bytes, zero or less for no limit
+     * @param bufferPool pool the capture buffer is taken from
+     */
+    public BlobCaptureOptions(final long maxBytes, final BlobBufferPool bufferPool) {
+        Validate.notNull(bufferPool);
+
+        this.maxBytes = maxBytes;
+        this.bufferPool = bufferPool;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public BlobBufferPool getBufferPool() {
+        return bufferPool;
+    }
+}
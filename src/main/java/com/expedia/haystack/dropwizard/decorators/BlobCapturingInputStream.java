@@ -0,0 +1,153 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.decorators;
+
+import com.expedia.blobs.core.ContentType;
+import com.expedia.haystack.dropwizard.configuration.BlobContent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Tees every byte read from the wrapped entity stream into a capture buffer. The captured blob is handed over to
+ * the callback exactly once, either when the reader hits the end of the stream or when the stream is closed,
+ * whichever happens first. The reader is never blocked waiting for the body to be drained up front, and at most
+ * maxBytes of the body are held in memory.
+ */
+public class BlobCapturingInputStream extends FilterInputStream {
+    private final static Logger LOGGER = LoggerFactory.getLogger(BlobCapturingInputStream.class);
+
+    // detached once the blob is handed over, the buffer may go back to the pool and to another request from then on
+    private BlobBuffer capture;
+    private final ContentType contentType;
+    private final long maxBytes;
+    private final Consumer<BlobContent> onComplete;
+    private final AtomicBoolean completed = new AtomicBoolean(false);
+    private boolean truncated;
+
+    public BlobCapturingInputStream(final InputStream in,
+                                    final ContentType contentType,
+                                    final Consumer<BlobContent> onComplete) {
+        this(in, contentType, 0, BlobBufferPool.UNPOOLED, onComplete);
+    }
+
+    /**
+     * @param maxBytes capture stops after this many bytes and the blob is marked truncated, zero or less for no limit
+     * @param pool pool the capture buffer is taken from, it goes back to the pool once the blob is written
+     */
+    public BlobCapturingInputStream(final InputStream in,
+                                    final ContentType contentType,
+                                    final long maxBytes,
+                                    final BlobBufferPool pool,
+                                    final Consumer<BlobContent> onComplete) {
+        super(in);
+        this.contentType = contentType;
+        this.maxBytes = maxBytes;
+        this.capture = pool.acquire();
+        this.onComplete = onComplete;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int b = super.read();
+        if (b == -1) {
+            complete();
+        } else {
+            record(new byte[] { (byte) b }, 0, 1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        final int count = super.read(b, off, len);
+        if (count == -1) {
+            complete();
+        } else if (count > 0) {
+            record(b, off, count);
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // skipped bytes are still part of the body, read them through so they land in the blob
+        final byte[] buffer = new byte[(int) Math.min(n, 4096)];
+        long remaining = n;
+        while (remaining > 0) {
+            final int count = read(buffer, 0, (int) Math.min(remaining, buffer.length));
+            if (count == -1) {
+                break;
+            }
+            remaining -= count;
+        }
+        return n - remaining;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported while capturing blob");
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            complete();
+        }
+    }
+
+    private void complete() {
+        if (!completed.compareAndSet(false, true)) return;
+
+        final BlobContent blob = new BlobContent(capture, contentType, truncated);
+        capture = null;
+        try {
+            onComplete.accept(blob);
+        } catch (Exception e) {
+            LOGGER.error("Fail to write captured stream as blob", e);
+            blob.release();
+        }
+    }
+
+    private void record(byte[] b, int off, int len) {
+        final BlobBuffer capture = this.capture;
+        if (truncated || capture == null || completed.get()) return;
+
+        if (maxBytes > 0 && capture.size() + len > maxBytes) {
+            capture.write(b, off, (int) (maxBytes - capture.size()));
+            truncated = true;
+        } else {
+            capture.write(b, off, len);
+        }
+    }
+}
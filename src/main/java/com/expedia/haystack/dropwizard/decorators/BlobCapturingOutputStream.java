@@ -0,0 +1,114 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.decorators;
+
+import com.expedia.blobs.core.ContentType;
+import com.expedia.haystack.dropwizard.configuration.BlobContent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Tees every byte the {@link javax.ws.rs.ext.MessageBodyWriter} writes to the entity stream into a capture buffer,
+ * so the blob holds exactly the bytes sent on the wire without serializing the entity a second time. The captured
+ * blob is handed over to the callback exactly once, either by {@link BlobCaptureInterceptor} as soon as the writer
+ * finishes or when the stream is closed.
+ */
+public class BlobCapturingOutputStream extends FilterOutputStream {
+    private final static Logger LOGGER = LoggerFactory.getLogger(BlobCapturingOutputStream.class);
+
+    // detached once the blob is handed over, the buffer may go back to the pool and to another request from then on
+    private BlobBuffer capture;
+    private final ContentType contentType;
+    private final long maxBytes;
+    private final Consumer<BlobContent> onComplete;
+    private final AtomicBoolean completed = new AtomicBoolean(false);
+    private boolean truncated;
+
+    public BlobCapturingOutputStream(final OutputStream out,
+                                     final ContentType contentType,
+                                     final Consumer<BlobContent> onComplete) {
+        this(out, contentType, 0, BlobBufferPool.UNPOOLED, onComplete);
+    }
+
+    /**
+     * @param maxBytes capture stops after this many bytes and the blob is marked truncated, zero or less for no limit
+     * @param pool pool the capture buffer is taken from, it goes back to the pool once the blob is written
+     */
+    public BlobCapturingOutputStream(final OutputStream out,
+                                     final ContentType contentType,
+                                     final long maxBytes,
+                                     final BlobBufferPool pool,
+                                     final Consumer<BlobContent> onComplete) {
+        super(out);
+        this.contentType = contentType;
+        this.maxBytes = maxBytes;
+        this.capture = pool.acquire();
+        this.onComplete = onComplete;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        record(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        record(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            complete();
+        }
+    }
+
+    public void complete() {
+        if (!completed.compareAndSet(false, true)) return;
+
+        final BlobContent blob = new BlobContent(capture, contentType, truncated);
+        capture = null;
+        try {
+            onComplete.accept(blob);
+        } catch (Exception e) {
+            LOGGER.error("Fail to write captured stream as blob", e);
+            blob.release();
+        }
+    }
+
+    private void record(byte[] b, int off, int len) {
+        final BlobBuffer capture = this.capture;
+        if (truncated || capture == null || completed.get()) return;
+
+        if (maxBytes > 0 && capture.size() + len > maxBytes) {
+            capture.write(b, off, (int) (maxBytes - capture.size()));
+            truncated = true;
+        } else {
+            capture.write(b, off, len);
+        }
+    }
+}
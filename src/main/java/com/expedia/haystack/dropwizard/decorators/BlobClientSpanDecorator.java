@@ -19,20 +19,27 @@ package com.expedia.haystack.dropwizard.decorators;
 
 import com.expedia.blobs.core.BlobContext;
 import com.expedia.blobs.core.BlobType;
-import com.expedia.blobs.core.BlobWriter;
 import com.expedia.blobs.core.BlobsFactory;
-import com.expedia.haystack.blobs.SpanBlobContext;
 import com.expedia.haystack.dropwizard.bundle.Blobable;
 import com.expedia.haystack.dropwizard.configuration.BlobContent;
 import com.expedia.haystack.dropwizard.configuration.BlobFactory;
+import com.expedia.www.haystack.client.metrics.Timer;
 import io.opentracing.Span;
 import io.opentracing.contrib.jaxrs2.client.ClientSpanDecorator;
+import io.opentracing.tag.Tags;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.client.ClientRequestContext;
 import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.core.HttpHeaders;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.function.Consumer;
 
+import static com.expedia.haystack.dropwizard.decorators.BlobHelper.createWriter;
+import static com.expedia.haystack.dropwizard.decorators.BlobHelper.traceId;
 import static com.expedia.haystack.dropwizard.decorators.BlobHelper.writeBlob;
 
 public class BlobClientSpanDecorator implements ClientSpanDecorator {
@@ -41,24 +48,77 @@ public class BlobClientSpanDecorator implements ClientSpanDecorator {
     private final BlobsFactory<BlobContext> factory;
     private final boolean isEnabled;
     private final Blobable blobable;
+    private final BlobFactory.CaptureMode captureMode;
+    private final BlobSizeLimit sizeLimit;
+    private final BlobCaptureOptions captureOptions;
+    private final BlobWriteOptions writeOptions;
+    private final BlobRateLimits rateLimits;
+    private final BlobFilter filter;
+    private final BlobCaptureMetrics.Capture requestMetrics;
+    private final BlobCaptureMetrics.Capture responseMetrics;
+    // requests to excluded paths, a response carries no path so it is skipped by its span
+    private final Set<Span> excludedSpans = Collections.newSetFromMap(Collections.synchronizedMap(new WeakHashMap<>()));
 
     public BlobClientSpanDecorator(final BlobFactory blobs) {
         this.blobable = blobs.getBlobable();
         this.isEnabled = blobs.isEnabled();
         this.factory = blobs.factory();
+        this.captureMode = blobs.getCaptureMode();
+        this.sizeLimit = new BlobSizeLimit(blobs.getMaxBlobBytes(), blobs.getOversizedBlobPolicy());
+        this.captureOptions = new BlobCaptureOptions(sizeLimit.getMaxBytes(), blobs.bufferPool());
+        this.writeOptions = new BlobWriteOptions(sizeLimit,
+                blobs.compressor(),
+                blobs.dedupes() ? blobs.deduplicator() : BlobDeduplicator.NONE,
+                blobs.redacts() ? blobs.redactor() : BlobRedactor.NONE);
+        this.rateLimits = blobs.limitsRate() ? blobs.rateLimits() : null;
+        this.filter = blobs.filtersCapture() ? blobs.captureFilter() : BlobFilter.ALL;
+        final BlobCaptureMetrics metrics = blobs.captureMetrics();
+        this.requestMetrics = metrics.get(BlobRateLimits.Side.CLIENT, BlobType.REQUEST);
+        this.responseMetrics = metrics.get(BlobRateLimits.Side.CLIENT, BlobType.RESPONSE);
     }
 
     @Override
     public void decorateRequest(final ClientRequestContext requestContext,
                                 final Span span) {
-        if (!isEnabled || !blobable.isClientRequestValidForBlob(requestContext)) return;
+        if (!isEnabled) return;
+        if (filter.filtersPaths() && !filter.acceptsPath(requestContext.getUri().getPath())) {
+            excludedSpans.add(span);
+            requestMetrics.skipped();
+            return;
+        }
+        if (!blobable.isClientRequestValidForBlob(requestContext)) {
+            requestMetrics.skipped();
+            return;
+        }
+
+        final long contentLength =
+                BlobSizeLimit.contentLength(requestContext.getHeaderString(HttpHeaders.CONTENT_LENGTH));
+        if (sizeLimit.skipUpFront(contentLength)) {
+            requestMetrics.skipped();
+            return;
+        }
+        if (rateLimits != null
+                && !rateLimits.tryAcquire(BlobRateLimits.Side.CLIENT, clientHost(span), traceId(span))) {
+            requestMetrics.rateLimited();
+            return;
+        }
 
-        final SpanBlobContext blobContext = new SpanBlobContext((com.expedia.www.haystack.client.Span) span);
-        final BlobWriter writer = factory.create(blobContext);
+        final KeyedBlobWriter writer =
+                createWriter(factory, (com.expedia.www.haystack.client.Span) span, requestMetrics);
+        final Consumer<BlobContent> onBlob = blob -> writeBlob(writer, blob, BlobType.REQUEST, writeOptions);
         try {
+            if (captureMode == BlobFactory.CaptureMode.STREAMING || sizeLimit.mayExceed(contentLength)) {
+                if (requestContext.hasEntity()) {
+                    blobable.teeBlobFromClientRequest(requestContext, captureOptions, onBlob);
+                }
+                return;
+            }
+            final Timer.Sample extract = requestMetrics.startExtract();
             final BlobContent blob = blobable.extractBlobFromClientRequest(requestContext);
-            writeBlob(writer, blob, BlobType.REQUEST);
+            extract.stop();
+            onBlob.accept(blob);
         } catch (Exception e) {
+            requestMetrics.failed();
             LOGGER.error("Fail to read client request for writing as blob in span", e);
         }
     }
@@ -66,15 +126,47 @@ public class BlobClientSpanDecorator implements ClientSpanDecorator {
     @Override
     public void decorateResponse(final ClientResponseContext responseContext,
                                  final Span span) {
-        if (!isEnabled || !blobable.isClientResponseValidForBlob(responseContext)) return;
+        if (!isEnabled) return;
+        if (filter.filtersPaths() && excludedSpans.remove(span)) {
+            responseMetrics.skipped();
+            return;
+        }
+        if (!blobable.isClientResponseValidForBlob(responseContext)) {
+            responseMetrics.skipped();
+            return;
+        }
+
+        final long contentLength = responseContext.getLength();
+        if (sizeLimit.skipUpFront(contentLength)) {
+            responseMetrics.skipped();
+            return;
+        }
+        if (rateLimits != null
+                && !rateLimits.tryAcquire(BlobRateLimits.Side.CLIENT, clientHost(span), traceId(span))) {
+            responseMetrics.rateLimited();
+            return;
+        }
 
-        final SpanBlobContext blobContext = new SpanBlobContext((com.expedia.www.haystack.client.Span) span);
-        final BlobWriter writer = factory.create(blobContext);
+        final KeyedBlobWriter writer =
+                createWriter(factory, (com.expedia.www.haystack.client.Span) span, responseMetrics);
+        final Consumer<BlobContent> onBlob = blob -> writeBlob(writer, blob, BlobType.RESPONSE, writeOptions);
         try {
+            if (captureMode == BlobFactory.CaptureMode.STREAMING || sizeLimit.mayExceed(contentLength)) {
+                blobable.teeBlobFromClientResponse(responseContext, captureOptions, onBlob);
+                return;
+            }
+            final Timer.Sample extract = responseMetrics.startExtract();
             final BlobContent blob = blobable.extractBlobFromClientResponse(responseContext);
-            writeBlob(writer, blob, BlobType.RESPONSE);
+            extract.stop();
+            onBlob.accept(blob);
         } catch (Exception e) {
+            responseMetrics.failed();
             LOGGER.error("Fail to read client response for writing as blob in span", e);
         }
     }
-}
\ No newline at end of file
+
+    private static String clientHost(final Span span) {
+        final Object host = ((com.expedia.www.haystack.client.Span) span).getTags().get(Tags.PEER_HOSTNAME.getKey());
+        return host == null ? null : host.toString();
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.decorators;
+
+import org.xerial.snappy.SnappyInputStream;
+import org.xerial.snappy.SnappyOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Codecs a blob can be compressed with. The codec of a compressed blob is recorded in its metadata under
+ * {@link #METADATA_KEY}, so readers can pick the matching decoder with {@link #fromMetadata(Map)}.
+ */
+public enum BlobCodec {
+    NONE {
+        @Override
+        public OutputStream encode(OutputStream out) {
+            return out;
+        }
+
+        @Override
+        public InputStream decode(InputStream in) {
+            return in;
+        }
+    },
+    GZIP {
+        @Override
+        public OutputStream encode(OutputStream out) throws IOException {
+            return new GZIPOutputStream(out);
+        }
+
+        @Override
+        public InputStream decode(InputStream in) throws IOException {
+            return new GZIPInputStream(in);
+        }
+    },
+    DEFLATE {
+        @Override
+        public OutputStream encode(OutputStream out) {
+            return new DeflaterOutputStream(out);
+        }
+
+        @Override
+        public InputStream decode(InputStream in) {
+            return new InflaterInputStream(in);
+        }
+    },
+    /**
+     * the fast codec, trades compression ratio for a fraction of the cpu gzip needs
+     */
+    SNAPPY {
+        @Override
+        public OutputStream encode(OutputStream out) {
+            return new SnappyOutputStream(out);
+        }
+
+        @Override
+        public InputStream decode(InputStream in) throws IOException {
+            return new SnappyInputStream(in);
+        }
+    };
+
+    public final static String METADATA_KEY = "compression-type";
+
+    /**
+     * @param out stream receiving the compressed bytes
+     * @return stream compressing whatever is written to it, it must be closed to flush the trailing bytes
+     * @throws IOException if the codec header cannot be written
+     */
+    public abstract OutputStream encode(OutputStream out) throws IOException;
+
+    /**
+     * @param in stream of compressed bytes
+     * @return stream of the original bytes
+     * @throws IOException if the codec header cannot be read
+     */
+    public abstract InputStream decode(InputStream in) throws IOException;
+
+    public String getName() {
+        return name().toLowerCase();
+    }
+
+    /**
+     * @param metadata metadata of a stored blob
+     * @return the codec the blob content was compressed with
+     */
+    public static BlobCodec fromMetadata(final Map<String, String> metadata) {
+        final String name = metadata.get(METADATA_KEY);
+        return name == null ? NONE : valueOf(name.toUpperCase());
+    }
+}
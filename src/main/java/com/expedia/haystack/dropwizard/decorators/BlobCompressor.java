@@ -0,0 +1,72 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.decorators;
+
+import com.expedia.haystack.dropwizard.configuration.BlobContent;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compresses blobs of at least minBytes with the configured {@link BlobCodec}. Smaller blobs are written as is, the
+ * codec header and cpu cost outweigh the savings on them.
+ */
+public class BlobCompressor {
+    public final static BlobCompressor NONE = new BlobCompressor(BlobCodec.NONE, 0);
+
+    private final BlobCodec codec;
+    private final int minBytes;
+
+    public BlobCompressor(final BlobCodec codec, final int minBytes) {
+        this.codec = codec == null ? BlobCodec.NONE : codec;
+        this.minBytes = minBytes;
+    }
+
+    public BlobCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * @param blob captured blob
+     * @return true if the blob should be compressed
+     */
+    public boolean appliesTo(final BlobContent blob) {
+        return codec != BlobCodec.NONE && blob.getLength() >= minBytes;
+    }
+
+    /**
+     * writes the compressed content of the blob to the given stream, leaving the stream open
+     * @param blob captured blob
+     * @param out stream to write to
+     * @throws IOException if the stream fails
+     */
+    public void compress(final BlobContent blob, final OutputStream out) throws IOException {
+        try (OutputStream compressed = encode(out)) {
+            blob.writeTo(compressed);
+        }
+    }
+
+    /**
+     * @param out stream to write to
+     * @return a stream compressing what is written to it into the given one, closing it leaves the given one open
+     * @throws IOException if the stream fails
+     */
+    public OutputStream encode(final OutputStream out) throws IOException {
+        return codec.encode(new CloseShieldOutputStream(out));
+    }
+}
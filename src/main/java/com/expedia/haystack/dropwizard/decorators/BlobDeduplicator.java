@@ -0,0 +1,159 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.decorators;
+
+import com.expedia.haystack.dropwizard.configuration.BlobContent;
+import com.expedia.www.haystack.client.metrics.Counter;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import com.expedia.www.haystack.client.metrics.Tag;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.commons.lang3.Validate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the murmur3 hash of recently written blob contents together with the key of the blob holding them, in a
+ * bounded LRU. A blob whose content was written less than ttlMs ago is stored as a small reference blob naming the
+ * first copy under {@link #METADATA_KEY} instead of being written in full again.
+ * <p>
+ * A recorded copy is only referred to once the store confirmed writing it, see {@link #confirm(String)}, so a blob
+ * dropped or failed by the store never becomes the first copy of later ones. Unconfirmed copies are kept in a second
+ * LRU of the same size.
+ */
+public class BlobDeduplicator {
+    public final static String METADATA_KEY = "dedupe-of";
+    public final static BlobDeduplicator NONE = new BlobDeduplicator(0, 0, 0, new NoopMetricsRegistry());
+
+    private final static HashFunction HASH = Hashing.murmur3_128();
+
+    private final int minBytes;
+    private final long ttlMs;
+    private final Map<String, FirstCopy> recent;
+    private final Map<String, String> pending;
+    private final Counter hits;
+    private final Counter misses;
+
+    /**
+     * @param maxEntries number of content hashes remembered, zero to disable deduplication
+     * @param minBytes blobs smaller than this are always written in full
+     * @param ttlMs a copy written longer ago than this is not referred to anymore
+     * @param metrics registry the hit and miss counters are registered with
+     */
+    public BlobDeduplicator(final int maxEntries,
+                            final int minBytes,
+                            final long ttlMs,
+                            final MetricsRegistry metrics) {
+        Validate.isTrue(maxEntries >= 0, "maxEntries must not be negative");
+        Validate.notNull(metrics);
+
+        this.minBytes = minBytes;
+        this.ttlMs = ttlMs;
+        this.recent = maxEntries == 0 ? null : new LinkedHashMap<String, FirstCopy>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, FirstCopy> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.pending = maxEntries == 0 ? null : new LinkedHashMap<String, String>() {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, String> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.hits = Counter.builder("blobs.dedupe").tag(new Tag("state", "hit")).register(metrics);
+        this.misses = Counter.builder("blobs.dedupe").tag(new Tag("state", "miss")).register(metrics);
+    }
+
+    /**
+     * @param blob captured blob
+     * @return true if the blob is large enough to be deduplicated
+     */
+    public boolean appliesTo(final BlobContent blob) {
+        return recent != null && blob.getLength() >= minBytes;
+    }
+
+    /**
+     * @param blob captured blob
+     * @return hash of the content and content type of the blob
+     * @throws IOException if the blob content cannot be read
+     */
+    public String hash(final BlobContent blob) throws IOException {
+        final Hasher hasher = HASH.newHasher();
+        try (OutputStream out = Funnels.asOutputStream(hasher)) {
+            blob.writeTo(out);
+        }
+        hasher.putUnencodedChars(blob.getContentType().getType());
+        return hasher.hash().toString();
+    }
+
+    /**
+     * @param hash hash of a blob content
+     * @return the key of a recent blob with the same content, null if there is none
+     */
+    public String firstCopy(final String hash) {
+        final FirstCopy copy;
+        synchronized (this) {
+            copy = recent.get(hash);
+        }
+        if (copy == null || System.currentTimeMillis() - copy.writtenAtMs > ttlMs) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return copy.key;
+    }
+
+    /**
+     * @param hash hash of a blob content
+     * @param key key of the blob the content is being written to, referred to once it is confirmed
+     */
+    public synchronized void record(final String hash, final String key) {
+        pending.put(key, hash);
+    }
+
+    /**
+     * @param key key of a blob the store has written
+     */
+    public void confirm(final String key) {
+        final FirstCopy copy = new FirstCopy(key, System.currentTimeMillis());
+        synchronized (this) {
+            if (pending == null) return;
+
+            final String hash = pending.remove(key);
+            if (hash != null) {
+                recent.put(hash, copy);
+            }
+        }
+    }
+
+    private final static class FirstCopy {
+        private final String key;
+        private final long writtenAtMs;
+
+        private FirstCopy(final String key, final long writtenAtMs) {
+            this.key = key;
+            this.writtenAtMs = writtenAtMs;
+        }
+    }
+}
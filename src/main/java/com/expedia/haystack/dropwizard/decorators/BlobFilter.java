@@ -0,0 +1,167 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.decorators;
+
+import javax.ws.rs.core.MediaType;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides from the media type and the path of a request whether its bodies are captured. The include and exclude
+ * patterns are compiled once into hash lookups and prefix and suffix lists, so a decision needs no parsing nor regular
+ * expression. A media type or path is accepted if it matches an include pattern, or there are none, and matches no
+ * exclude pattern.
+ * <p>
+ * Media type patterns are {@code type/subtype}, {@code type/*} or {@code *}{@code /*+suffix} for structured syntax
+ * suffixes like {@code +json}. Path patterns are an exact path, {@code prefix*} or {@code *suffix}.
+ */
+public class BlobFilter {
+    public final static BlobFilter ALL = new BlobFilter(Collections.emptyList(), Collections.emptyList(),
+            Collections.emptyList(), Collections.emptyList());
+
+    private final MediaTypes includedMediaTypes;
+    private final MediaTypes excludedMediaTypes;
+    private final Paths includedPaths;
+    private final Paths excludedPaths;
+
+    public BlobFilter(final Collection<String> includeMediaTypes,
+                      final Collection<String> excludeMediaTypes,
+                      final Collection<String> includePaths,
+                      final Collection<String> excludePaths) {
+        this.includedMediaTypes = new MediaTypes(includeMediaTypes);
+        this.excludedMediaTypes = new MediaTypes(excludeMediaTypes);
+        this.includedPaths = new Paths(includePaths);
+        this.excludedPaths = new Paths(excludePaths);
+    }
+
+    /**
+     * @param mediaType media type of a body, null if it has none
+     * @return true if a body of this media type is captured, a body without media type is always
+     */
+    public boolean acceptsMediaType(final MediaType mediaType) {
+        if (mediaType == null) return true;
+
+        final String type = mediaType.getType().toLowerCase(Locale.ROOT);
+        final String subtype = mediaType.getSubtype().toLowerCase(Locale.ROOT);
+        return (includedMediaTypes.isEmpty() || includedMediaTypes.matches(type, subtype)) &&
+                !excludedMediaTypes.matches(type, subtype);
+    }
+
+    /**
+     * @return true if paths are filtered at all, the path of a request needs to be looked up only then
+     */
+    public boolean filtersPaths() {
+        return !includedPaths.isEmpty() || !excludedPaths.isEmpty();
+    }
+
+    /**
+     * @param path path of the request
+     * @return true if the bodies of a request to this path are captured
+     */
+    public boolean acceptsPath(final String path) {
+        if (path == null) return true;
+
+        return (includedPaths.isEmpty() || includedPaths.matches(path)) && !excludedPaths.matches(path);
+    }
+
+    private final static class MediaTypes {
+        private final Map<String, Set<String>> subtypes = new HashMap<>();
+        private final Set<String> types = new HashSet<>();
+        private final String[] suffixes;
+
+        private MediaTypes(final Collection<String> patterns) {
+            final Set<String> suffixPatterns = new HashSet<>();
+            for (String pattern : patterns) {
+                final String normalized = pattern.trim().toLowerCase(Locale.ROOT);
+                final int slash = normalized.indexOf('/');
+                if (slash < 0) {
+                    throw new IllegalArgumentException("media type pattern " + pattern + " is not type/subtype");
+                }
+                final String type = normalized.substring(0, slash);
+                final String subtype = normalized.substring(slash + 1);
+                if (subtype.startsWith("*+")) {
+                    suffixPatterns.add(subtype.substring(1));
+                } else if (subtype.equals("*")) {
+                    types.add(type);
+                } else {
+                    subtypes.computeIfAbsent(type, t -> new HashSet<>()).add(subtype);
+                }
+            }
+            this.suffixes = suffixPatterns.toArray(new String[0]);
+        }
+
+        private boolean isEmpty() {
+            return subtypes.isEmpty() && types.isEmpty() && suffixes.length == 0;
+        }
+
+        private boolean matches(final String type, final String subtype) {
+            if (types.contains(type) || types.contains("*")) return true;
+
+            final Set<String> known = subtypes.get(type);
+            if (known != null && known.contains(subtype)) return true;
+
+            for (String suffix : suffixes) {
+                if (subtype.endsWith(suffix)) return true;
+            }
+            return false;
+        }
+    }
+
+    private final static class Paths {
+        private final Set<String> exact = new HashSet<>();
+        private final String[] prefixes;
+        private final String[] suffixes;
+
+        private Paths(final Collection<String> patterns) {
+            final Set<String> prefixPatterns = new HashSet<>();
+            final Set<String> suffixPatterns = new HashSet<>();
+            for (String pattern : patterns) {
+                final String trimmed = pattern.trim();
+                if (trimmed.endsWith("*")) {
+                    prefixPatterns.add(trimmed.substring(0, trimmed.length() - 1));
+                } else if (trimmed.startsWith("*")) {
+                    suffixPatterns.add(trimmed.substring(1));
+                } else {
+                    exact.add(trimmed);
+                }
+            }
+            this.prefixes = prefixPatterns.toArray(new String[0]);
+            this.suffixes = suffixPatterns.toArray(new String[0]);
+        }
+
+        private boolean isEmpty() {
+            return exact.isEmpty() && prefixes.length == 0 && suffixes.length == 0;
+        }
+
+        private boolean matches(final String path) {
+            if (exact.contains(path)) return true;
+
+            for (String prefix : prefixes) {
+                if (path.startsWith(prefix)) return true;
+            }
+            for (String suffix : suffixes) {
+                if (path.endsWith(suffix)) return true;
+            }
+            return false;
+        }
+    }
+}
@@ -17,10 +17,12 @@
 
 package com.expedia.haystack.dropwizard.decorators;
 
+import com.expedia.blobs.core.BlobContext;
 import com.expedia.blobs.core.BlobType;
-import com.expedia.blobs.core.BlobWriter;
+import com.expedia.blobs.core.BlobsFactory;
 import com.expedia.blobs.core.ContentType;
 import com.expedia.haystack.dropwizard.configuration.BlobContent;
+import com.expedia.www.haystack.client.Span;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,11 +30,17 @@ import org.slf4j.LoggerFactory;
 import javax.ws.rs.core.MediaType;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.function.Consumer;
 
 public class BlobHelper {
     private final static Logger LOGGER = LoggerFactory.getLogger(BlobHelper.class);
     private final static ObjectMapper mapper = new ObjectMapper();
+    public final static String TRUNCATED_METADATA = "truncated";
+    public final static String TRACE_ID_METADATA = "trace-id";
+    public final static String SPAN_ID_METADATA = "span-id";
 
     public static byte[] objectToByteArray(Object obj) throws IOException {
         final ByteArrayOutputStream bos = new ByteArrayOutputStream();
@@ -45,33 +53,152 @@ public class BlobHelper {
         return mapper.writeValueAsBytes(obj);
     }
 
-    public static void writeBlob(final BlobWriter blobWriter,
+    public static ContentType toContentType(final MediaType mediaType) {
+        if (mediaType == null) {
+            return ContentType.from(MediaType.TEXT_PLAIN);
+        }
+        final String contentType = mediaType.toString();
+        return contentType.equals(MediaType.APPLICATION_JSON) ? ContentType.JSON : ContentType.from(contentType);
+    }
+
+    /**
+     * creates the blob writer of a span. Its blobs carry the trace and span ids as metadata, so stores can look them
+     * up by trace.
+     * @param factory factory of the blob writers
+     * @param span span the blobs belong to
+     * @return KeyedBlobWriter
+     */
+    public static KeyedBlobWriter createWriter(final BlobsFactory<BlobContext> factory, final Span span) {
+        return createWriter(factory, span, BlobCaptureMetrics.NONE.get(BlobRateLimits.Side.SERVER, BlobType.REQUEST));
+    }
+
+    /**
+     * @param metrics capture metrics the blobs of the writer are timed and counted with when the store builds them
+     */
+    public static KeyedBlobWriter createWriter(final BlobsFactory<BlobContext> factory,
+                                               final Span span,
+                                               final BlobCaptureMetrics.Capture metrics) {
+        return new SpanBlobWriter(factory, span, metrics);
+    }
+
+    /**
+     * @param span span of the blob
+     * @return the trace id of the span, null if it is not a haystack span with a context
+     */
+    public static Object traceId(final io.opentracing.Span span) {
+        if (!(span instanceof Span) || ((Span) span).context() == null) return null;
+
+        return ((Span) span).context().getTraceId();
+    }
+
+    /**
+     * writes the blob as the options say. A blob over the size limit is truncated or skipped. Unless a recent blob had
+     * the same content, in which case a reference blob naming that first copy is written instead, the blob is then
+     * redacted and compressed if the redactor and compressor apply. Contents are compared before redaction. The blob
+     * writer invokes the callbacks when the blob is built, which happens on the background writer threads if an async
+     * pipeline is configured, so redaction and compression do not run on the request thread in that case.
+     */
+    public static void writeBlob(final KeyedBlobWriter blobWriter,
                                  final BlobContent blob,
-                                 final BlobType blobType) {
+                                 final BlobType blobType,
+                                 final BlobWriteOptions options) {
+        final BlobContent limited = options.getSizeLimit().apply(blob);
+        if (limited == null) return;
+
+        final BlobDeduplicator deduplicator = options.getDeduplicator();
+        if (!deduplicator.appliesTo(limited)) {
+            write(blobWriter, limited, blobType, options, key -> { });
+            return;
+        }
+
+        final String hash;
+        try {
+            hash = deduplicator.hash(limited);
+        } catch (IOException e) {
+            LOGGER.error("Exception occurred while hashing blob for deduplication", e);
+            write(blobWriter, limited, blobType, options, key -> { });
+            return;
+        }
+
+        final String firstCopy = deduplicator.firstCopy(hash);
+        if (firstCopy != null) {
+            limited.release();
+            blobWriter.write(blobType, limited.getContentType(), outputStream -> { }, metadata -> {
+                if (limited.isTruncated()) {
+                    metadata.add(TRUNCATED_METADATA, "true");
+                }
+                metadata.add(BlobDeduplicator.METADATA_KEY, firstCopy);
+            });
+            return;
+        }
+
+        // recorded once the key is made, the store may confirm the blob before the write returns
+        write(blobWriter, limited, blobType, options, key -> deduplicator.record(hash, key));
+    }
+
+    private static void write(final KeyedBlobWriter blobWriter,
+                              final BlobContent blob,
+                              final BlobType blobType,
+                              final BlobWriteOptions options,
+                              final Consumer<String> keyCallback) {
+        final BlobCompressor compressor = options.getCompressor();
+        final BlobRedactor redactor = options.getRedactor();
+        final boolean compress = compressor.appliesTo(blob);
+        final boolean redact = redactor.appliesTo(blob);
         blobWriter.write(
                 blobType,
                 blob.getContentType(),
                 (outputStream) -> {
                     try {
-                        outputStream.write(blob.getData());
+                        if (redact && compress) {
+                            try (OutputStream compressed = compressor.encode(outputStream)) {
+                                redactor.redact(blob, compressed);
+                            }
+                        } else if (redact) {
+                            redactor.redact(blob, outputStream);
+                        } else if (compress) {
+                            compressor.compress(blob, outputStream);
+                        } else {
+                            blob.writeTo(outputStream);
+                        }
                     } catch (IOException e) {
                         LOGGER.error("Exception occurred while writing data to stream for preparing blob", e);
+                        // the span blob writer counts the blob as failed and keeps what was written
+                        throw new UncheckedIOException(e);
+                    } finally {
+                        // the blob writer has copied the content by now, so a pooled buffer can be reused
+                        blob.release();
                     }
                 },
                 metadata -> {
-                }
+                    if (blob.isTruncated()) {
+                        metadata.add(TRUNCATED_METADATA, "true");
+                    }
+                    if (compress) {
+                        metadata.add(BlobCodec.METADATA_KEY, compressor.getCodec().getName());
+                    }
+                    if (redact) {
+                        metadata.add(BlobRedactor.METADATA_KEY, "true");
+                    }
+                },
+                keyCallback
         );
     }
 
-    public static BlobContent extract(final Object entity, Class<?> entityClazz, String contenType) throws Exception {
-        if (entityClazz.getCanonicalName().equalsIgnoreCase("java.lang.string")) {
-            return new BlobContent(entity.toString().getBytes("utf-8"), ContentType.from(contenType));
-        } else if(entityClazz.getCanonicalName().equalsIgnoreCase("byte[]")) {
-            return new BlobContent((byte[])entity, ContentType.from(contenType));
-        } else if (contenType.equalsIgnoreCase(MediaType.APPLICATION_JSON)) {
-            return new BlobContent(BlobHelper.toJson(entity), ContentType.JSON);
-        } else {
-            return new BlobContent(objectToByteArray(entity), ContentType.from(contenType));
-        }
+    public static BlobContent extract(final Object entity, String contenType) throws Exception {
+        return extract(BlobSerializers.DEFAULT, entity, contenType);
+    }
+
+    /**
+     * @param serializers serializers the one of the entity is picked from
+     * @param entity entity of the request or response
+     * @param contenType media type of the entity
+     * @return the blob, or null if there is no entity or it cannot be captured without consuming it
+     * @throws Exception if the entity fails to serialize
+     */
+    public static BlobContent extract(final BlobSerializers serializers,
+                                      final Object entity,
+                                      final String contenType) throws Exception {
+        return serializers.serialize(entity, contenType);
     }
-}
\ No newline at end of file
+}
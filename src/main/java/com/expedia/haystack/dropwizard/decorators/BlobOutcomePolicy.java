@@ -0,0 +1,43 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.decorators;
+
+/**
+ * Decides from the outcome of a request whether its blobs are worth keeping: error responses and slow requests.
+ */
+public class BlobOutcomePolicy {
+    private final int minStatus;
+    private final long slowRequestMs;
+
+    /**
+     * @param minStatus responses with this status or above keep their blobs, zero or less to ignore the status
+     * @param slowRequestMs requests taking at least this long keep their blobs, zero or less to ignore the latency
+     */
+    public BlobOutcomePolicy(final int minStatus, final long slowRequestMs) {
+        this.minStatus = minStatus;
+        this.slowRequestMs = slowRequestMs;
+    }
+
+    /**
+     * @param status http status of the response
+     * @param elapsedMs time from receiving the request to sending the response, negative if unknown
+     * @return true if the blobs of the request should be written
+     */
+    public boolean keep(final int status, final long elapsedMs) {
+        return (minStatus > 0 && status >= minStatus) || (slowRequestMs > 0 && elapsedMs >= slowRequestMs);
+    }
+}
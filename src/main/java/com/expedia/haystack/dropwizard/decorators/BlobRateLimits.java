@@ -0,0 +1,208 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.decorators;
+
+import com.expedia.haystack.dropwizard.sampling.TraceIdRatioSampler;
+import com.expedia.www.haystack.client.metrics.Counter;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.Tag;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides whether a blob is captured at all, before any byte of it is read. A blob first has to pass sampling, then
+ * the token bucket of its key: the resource method (the operation name of the server span) or the host a client call
+ * goes to. Sampling hashes the trace id, so the request and the response blobs of a span are sampled alike. The hash
+ * is salted apart from the trace id sampler of the tracer, so among the traces it records a samplingRate share of them
+ * gets blobs, whatever the ratio of the tracer. Buckets
+ * are created on first use, up to maxKeys of them per side besides the configured ones, further keys share a single
+ * overflow bucket so that the number of buckets and metrics stays bounded.
+ */
+public class BlobRateLimits {
+    public enum Side {
+        SERVER("endpoint"),
+        CLIENT("client-host");
+
+        private final String tag;
+
+        Side(final String tag) {
+            this.tag = tag;
+        }
+    }
+
+    private final static String OVERFLOW_KEY = "other";
+    // "blobs", keeps blob sampling independent of the unsalted trace id sampler
+    private final static long SAMPLING_SALT = 0x626c6f6273L;
+
+    private final double samplingRate;
+    private final TraceIdRatioSampler sampler;
+    private final Limits[] limits;
+    private final int maxKeys;
+    private final MetricsRegistry metrics;
+    private final Counter sampled;
+    private final Counter notSampled;
+
+    /**
+     * @param samplingRate probability of a blob to be captured, between 0 and 1
+     * @param endpointRatePerSec default blobs per second of a resource method, negative for no limit
+     * @param endpointRates blobs per second of specific resource methods, by operation name
+     * @param clientHostRatePerSec default blobs per second of a client host, negative for no limit
+     * @param clientHostRates blobs per second of specific client hosts
+     * @param maxKeys maximum number of buckets per side
+     * @param metrics registry the accepted and rejected counters are registered with
+     */
+    public BlobRateLimits(final double samplingRate,
+                          final double endpointRatePerSec,
+                          final Map<String, Double> endpointRates,
+                          final double clientHostRatePerSec,
+                          final Map<String, Double> clientHostRates,
+                          final int maxKeys,
+                          final MetricsRegistry metrics) {
+        this.samplingRate = samplingRate;
+        this.sampler = new TraceIdRatioSampler(samplingRate, SAMPLING_SALT);
+        this.maxKeys = maxKeys;
+        this.metrics = metrics;
+        this.limits = new Limits[] {
+                new Limits(Side.SERVER, endpointRatePerSec, endpointRates),
+                new Limits(Side.CLIENT, clientHostRatePerSec, clientHostRates)
+        };
+        this.sampled = Counter.builder("blobs.sampling").tag(new Tag("state", "accepted")).register(metrics);
+        this.notSampled = Counter.builder("blobs.sampling").tag(new Tag("state", "rejected")).register(metrics);
+    }
+
+    /**
+     * @param side server or client blob
+     * @param key operation name of the server span or host of the client call
+     * @return true if the blob should be captured
+     */
+    public boolean tryAcquire(final Side side, final String key) {
+        return tryAcquire(side, key, null);
+    }
+
+    /**
+     * @param side server or client blob
+     * @param key operation name of the server span or host of the client call
+     * @param traceId trace id of the span, blobs without one are sampled at random
+     * @return true if the blob should be captured
+     */
+    public boolean tryAcquire(final Side side, final String key, final Object traceId) {
+        if (samplingRate < 1) {
+            final boolean accepted = traceId == null
+                    ? ThreadLocalRandom.current().nextDouble() < samplingRate
+                    : sampler.isSampled(key, traceId);
+            if (!accepted) {
+                notSampled.increment();
+                return false;
+            }
+            sampled.increment();
+        }
+        return limits[side.ordinal()].tryAcquire(key);
+    }
+
+    private final class Limits {
+        private final Side side;
+        private final double defaultRatePerSec;
+        private final Map<String, Double> rates;
+        private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+        // buckets of the keys without a configured rate
+        private final AtomicInteger keys = new AtomicInteger();
+        private volatile Bucket overflow;
+
+        Limits(final Side side, final double defaultRatePerSec, final Map<String, Double> rates) {
+            this.side = side;
+            this.defaultRatePerSec = defaultRatePerSec;
+            this.rates = rates;
+        }
+
+        boolean tryAcquire(final String key) {
+            if (key == null) {
+                return overflow().tryAcquire();
+            }
+            Bucket bucket = buckets.get(key);
+            if (bucket == null) {
+                bucket = buckets.computeIfAbsent(key, this::newKeyBucket);
+                if (bucket == null) {
+                    bucket = overflow();
+                }
+            }
+            return bucket.tryAcquire();
+        }
+
+        /**
+         * @return the bucket of the key, or null once maxKeys keys have one, computed atomically for the key
+         */
+        private Bucket newKeyBucket(final String key) {
+            if (rates.containsKey(key)) {
+                return newBucket(key);
+            }
+            if (keys.incrementAndGet() > maxKeys) {
+                keys.decrementAndGet();
+                return null;
+            }
+            return newBucket(key);
+        }
+
+        private Bucket overflow() {
+            if (overflow == null) {
+                synchronized (this) {
+                    if (overflow == null) {
+                        overflow = newBucket(OVERFLOW_KEY);
+                    }
+                }
+            }
+            return overflow;
+        }
+
+        private Bucket newBucket(final String key) {
+            final double ratePerSec = rates.getOrDefault(key, defaultRatePerSec);
+            return new Bucket(ratePerSec <= 0 ? null : new TokenBucket(ratePerSec), ratePerSec == 0,
+                    Counter.builder("blobs.ratelimit")
+                            .tags(Arrays.asList(new Tag(side.tag, key), new Tag("state", "accepted")))
+                            .register(metrics),
+                    Counter.builder("blobs.ratelimit")
+                            .tags(Arrays.asList(new Tag(side.tag, key), new Tag("state", "rejected")))
+                            .register(metrics));
+        }
+    }
+
+    private static final class Bucket {
+        private final TokenBucket tokens;
+        private final boolean rejectAll;
+        private final Counter accepted;
+        private final Counter rejected;
+
+        Bucket(final TokenBucket tokens, final boolean rejectAll, final Counter accepted, final Counter rejected) {
+            this.tokens = tokens;
+            this.rejectAll = rejectAll;
+            this.accepted = accepted;
+            this.rejected = rejected;
+        }
+
+        boolean tryAcquire() {
+            if (!rejectAll && (tokens == null || tokens.tryAcquire())) {
+                accepted.increment();
+                return true;
+            }
+            rejected.increment();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.decorators;
+
+import com.expedia.haystack.dropwizard.configuration.BlobContent;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Masks the values of sensitive fields in JSON blobs. Tokens are copied from a streaming parser to a generator in a
+ * single pass, so memory does not grow with the size of the blob. The value of a matching field is replaced by the
+ * mask as a whole, be it a scalar, an object or an array.
+ * <p>
+ * Field rules match a field name, ignoring case, at any depth. Path rules like {@code $.payment.card.number} or
+ * {@code $.items[*].ssn} match from the root, {@code *} standing for any field name and {@code [*]} for any array
+ * element. They are checked against the parsing context of the parser, so no path is built while copying.
+ * <p>
+ * A blob that is not valid JSON, typically one truncated by maxBlobBytes, is copied up to the invalid token and its
+ * open objects and arrays are closed.
+ */
+public class BlobRedactor {
+    public final static String METADATA_KEY = "redacted";
+    public final static BlobRedactor NONE = new BlobRedactor(Collections.emptyList(), Collections.emptyList(), "");
+
+    private final static String ANY_FIELD = "*";
+    private final static String ANY_ELEMENT = "[*]";
+
+    private final JsonFactory jsonFactory = new JsonFactory()
+            .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE)
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+            .enable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+    private final Set<String> fields = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    private final String[][] paths;
+    private final String mask;
+
+    public BlobRedactor(final Collection<String> fields, final Collection<String> paths, final String mask) {
+        this.fields.addAll(fields);
+        this.paths = paths.stream().map(BlobRedactor::compile).toArray(String[][]::new);
+        this.mask = mask;
+    }
+
+    /**
+     * @param blob captured blob
+     * @return true if the blob is JSON and there is a rule to apply
+     */
+    public boolean appliesTo(final BlobContent blob) {
+        if (fields.isEmpty() && paths.length == 0) return false;
+
+        final String contentType = blob.getContentType() == null ? null : blob.getContentType().getType();
+        return contentType != null && contentType.toLowerCase(Locale.ROOT).contains("json");
+    }
+
+    /**
+     * writes the content of the blob with the matching values masked to the given stream, leaving the stream open
+     * @param blob captured JSON blob
+     * @param out stream to write to
+     * @return the number of masked values
+     * @throws IOException if the stream fails
+     */
+    public int redact(final BlobContent blob, final OutputStream out) throws IOException {
+        try (InputStream in = blob.newInputStream()) {
+            return redact(in, out);
+        }
+    }
+
+    int redact(final InputStream in, final OutputStream out) throws IOException {
+        int masked = 0;
+        try (JsonParser parser = jsonFactory.createParser(in);
+             JsonGenerator generator = jsonFactory.createGenerator(out, JsonEncoding.UTF8)) {
+            try {
+                JsonToken token;
+                while ((token = parser.nextToken()) != null) {
+                    if (token != JsonToken.FIELD_NAME) {
+                        generator.copyCurrentEvent(parser);
+                        continue;
+                    }
+                    generator.writeFieldName(parser.getCurrentName());
+                    if (matches(parser.getParsingContext())) {
+                        // masked first, so a value cut short still leaves valid JSON
+                        generator.writeString(mask);
+                        masked++;
+                        parser.nextToken();
+                        parser.skipChildren();
+                    }
+                }
+            } catch (JsonParseException e) {
+                // not JSON from here on, what was copied so far is closed by the generator
+            }
+        }
+        return masked;
+    }
+
+    private boolean matches(final JsonStreamContext field) {
+        if (fields.contains(field.getCurrentName())) return true;
+
+        for (String[] path : paths) {
+            if (matches(field, path)) return true;
+        }
+        return false;
+    }
+
+    private static boolean matches(JsonStreamContext context, final String[] path) {
+        for (int i = path.length - 1; i >= 0; i--) {
+            if (context.inObject()) {
+                if (!ANY_FIELD.equals(path[i]) && !path[i].equals(context.getCurrentName())) return false;
+            } else if (!context.inArray() || !ANY_ELEMENT.equals(path[i])) {
+                return false;
+            }
+            context = context.getParent();
+        }
+        return context.inRoot();
+    }
+
+    private static String[] compile(final String path) {
+        final String trimmed = path.trim();
+        if (!trimmed.startsWith("$.")) {
+            throw new IllegalArgumentException("path " + path + " does not start with $.");
+        }
+
+        final List<String> segments = new ArrayList<>();
+        for (String name : trimmed.substring(2).split("\\.")) {
+            String segment = name;
+            while (segment.endsWith(ANY_ELEMENT)) {
+                segment = segment.substring(0, segment.length() - ANY_ELEMENT.length());
+            }
+            if (segment.isEmpty()) {
+                throw new IllegalArgumentException("path " + path + " has an empty field name");
+            }
+            segments.add(segment);
+            for (int i = 0; i < (name.length() - segment.length()) / ANY_ELEMENT.length(); i++) {
+                segments.add(ANY_ELEMENT);
+            }
+        }
+        if (segments.get(segments.size() - 1).equals(ANY_ELEMENT)) {
+            throw new IllegalArgumentException("path " + path + " does not end with a field name");
+        }
+        return segments.toArray(new String[0]);
+    }
+}
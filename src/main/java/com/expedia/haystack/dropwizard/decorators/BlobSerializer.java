@@ -0,0 +1,33 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.decorators;
+
+import com.expedia.haystack.dropwizard.configuration.BlobContent;
+
+/**
+ * Turns an entity into a blob. A serializer is picked once per entity class by {@link BlobSerializers}.
+ */
+@FunctionalInterface
+public interface BlobSerializer {
+    /**
+     * @param entity entity of the request or response, never null
+     * @param contentType media type of the entity
+     * @return the blob, or null if the entity cannot be captured without consuming it
+     * @throws Exception if the entity fails to serialize
+     */
+    BlobContent serialize(Object entity, String contentType) throws Exception;
+}
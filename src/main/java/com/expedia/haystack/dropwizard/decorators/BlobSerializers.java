@@ -0,0 +1,124 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.decorators;
+
+import com.expedia.blobs.core.ContentType;
+import com.expedia.haystack.dropwizard.configuration.BlobContent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Picks the {@link BlobSerializer} for an entity class and remembers it in a {@link ClassValue}, so the per entity
+ * cost is a single lookup instead of inspecting the class on every response. Serializers are matched in order, the
+ * custom ones first, then String, byte[], ByteBuffer, InputStream and StreamingOutput. Any other class is written
+ * with Jackson for a json media type and with java serialization otherwise.
+ */
+public class BlobSerializers {
+    private final static ObjectMapper MAPPER = new ObjectMapper();
+
+    public final static BlobSerializer STRING = (entity, contentType) ->
+            new BlobContent(entity.toString().getBytes(StandardCharsets.UTF_8), ContentType.from(contentType));
+
+    public final static BlobSerializer BYTE_ARRAY = (entity, contentType) ->
+            new BlobContent((byte[]) entity, ContentType.from(contentType));
+
+    public final static BlobSerializer BYTE_BUFFER = (entity, contentType) -> {
+        // read through a duplicate so the position the message body writer sees is left untouched
+        final ByteBuffer buffer = ((ByteBuffer) entity).duplicate();
+        final byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return new BlobContent(data, ContentType.from(contentType));
+    };
+
+    /**
+     * streamed entities can be consumed only once, they are captured by the streaming capture mode instead
+     */
+    public final static BlobSerializer NOT_CAPTURED = (entity, contentType) -> null;
+
+    public final static BlobSerializers DEFAULT = new BlobSerializers(Collections.emptyMap());
+
+    private final List<Map.Entry<Class<?>, BlobSerializer>> serializers;
+
+    private final ClassValue<BlobSerializer> cache = new ClassValue<BlobSerializer>() {
+        @Override
+        protected BlobSerializer computeValue(Class<?> type) {
+            for (Map.Entry<Class<?>, BlobSerializer> serializer : serializers) {
+                if (serializer.getKey().isAssignableFrom(type)) {
+                    return serializer.getValue();
+                }
+            }
+            return objectSerializer(MAPPER.writerFor(type));
+        }
+    };
+
+    /**
+     * @param custom serializers matched before the built in ones, in iteration order
+     */
+    public BlobSerializers(final Map<Class<?>, BlobSerializer> custom) {
+        final Map<Class<?>, BlobSerializer> all = new LinkedHashMap<>(custom);
+        all.putIfAbsent(String.class, STRING);
+        all.putIfAbsent(byte[].class, BYTE_ARRAY);
+        all.putIfAbsent(ByteBuffer.class, BYTE_BUFFER);
+        all.putIfAbsent(InputStream.class, NOT_CAPTURED);
+        all.putIfAbsent(StreamingOutput.class, NOT_CAPTURED);
+
+        this.serializers = new ArrayList<>(all.size());
+        all.forEach((type, serializer) -> serializers.add(new AbstractMap.SimpleImmutableEntry<>(type, serializer)));
+    }
+
+    /**
+     * @param type class of the entity
+     * @return the serializer for it, looked up once per class
+     */
+    public BlobSerializer forClass(final Class<?> type) {
+        return cache.get(type);
+    }
+
+    /**
+     * @param entity entity of the request or response
+     * @param contentType media type of the entity
+     * @return the blob, or null if there is no entity or it cannot be captured
+     * @throws Exception if the entity fails to serialize
+     */
+    public BlobContent serialize(final Object entity, final String contentType) throws Exception {
+        if (entity == null) return null;
+
+        // the runtime class, jackson writes all the properties of the actual entity rather than its declared type
+        return forClass(entity.getClass()).serialize(entity, contentType);
+    }
+
+    private static BlobSerializer objectSerializer(final ObjectWriter writer) {
+        return (entity, contentType) -> {
+            if (contentType.equalsIgnoreCase(MediaType.APPLICATION_JSON)) {
+                return new BlobContent(writer.writeValueAsBytes(entity), ContentType.JSON);
+            }
+            return new BlobContent(BlobHelper.objectToByteArray(entity), ContentType.from(contentType));
+        };
+    }
+}
@@ -19,28 +19,47 @@ package com.expedia.haystack.dropwizard.decorators;
 
 import com.expedia.blobs.core.BlobContext;
 import com.expedia.blobs.core.BlobType;
-import com.expedia.blobs.core.BlobWriter;
 import com.expedia.blobs.core.BlobsFactory;
-import com.expedia.haystack.blobs.SpanBlobContext;
 import com.expedia.haystack.dropwizard.bundle.Blobable;
 import com.expedia.haystack.dropwizard.configuration.BlobContent;
 import com.expedia.haystack.dropwizard.configuration.BlobFactory;
+import com.expedia.www.haystack.client.metrics.Timer;
 import io.opentracing.Span;
 import io.opentracing.contrib.jaxrs2.server.ServerSpanDecorator;
 import org.apache.commons.lang3.Validate;
+import org.glassfish.jersey.server.ContainerResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.container.ContainerRequestContext;
 import javax.ws.rs.container.ContainerResponseContext;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
+import static com.expedia.haystack.dropwizard.decorators.BlobHelper.createWriter;
+import static com.expedia.haystack.dropwizard.decorators.BlobHelper.traceId;
 import static com.expedia.haystack.dropwizard.decorators.BlobHelper.writeBlob;
 
 public class BlobServerSpanDecorator implements ServerSpanDecorator {
+    private final static String EXCLUDED_PROPERTY = BlobServerSpanDecorator.class.getName() + ".excluded";
+    private final static String DEFERRED_PROPERTY = BlobServerSpanDecorator.class.getName() + ".deferred";
     private final static Logger LOGGER = LoggerFactory.getLogger(BlobServerSpanDecorator.class);
     private final boolean isEnabled;
     private final BlobsFactory<BlobContext> factory;
     private final Blobable blobable;
+    private final BlobFactory.CaptureMode captureMode;
+    private final BlobSizeLimit sizeLimit;
+    private final BlobCaptureOptions captureOptions;
+    private final BlobWriteOptions writeOptions;
+    private final BlobRateLimits rateLimits;
+    private final BlobOutcomePolicy outcomePolicy;
+    private final BlobFilter filter;
+    private final BlobCaptureMetrics.Capture requestMetrics;
+    private final BlobCaptureMetrics.Capture responseMetrics;
+    // bounds the request bodies held until their response, even if maxBlobBytes does not
+    private final BlobSizeLimit heldLimit;
+    private final AtomicBoolean warnedOfForeignResponse = new AtomicBoolean();
+    private final BlobCaptureOptions heldCaptureOptions;
 
     public BlobServerSpanDecorator(final BlobFactory blobs) {
         Validate.notNull(blobs);
@@ -48,19 +67,85 @@ public class BlobServerSpanDecorator implements ServerSpanDecorator {
         this.isEnabled = blobs.isEnabled();
         this.blobable = blobs.getBlobable();
         this.factory = blobs.factory();
+        this.captureMode = blobs.getCaptureMode();
+        this.sizeLimit = new BlobSizeLimit(blobs.getMaxBlobBytes(), blobs.getOversizedBlobPolicy());
+        this.captureOptions = new BlobCaptureOptions(sizeLimit.getMaxBytes(), blobs.bufferPool());
+        this.writeOptions = new BlobWriteOptions(sizeLimit,
+                blobs.compressor(),
+                blobs.dedupes() ? blobs.deduplicator() : BlobDeduplicator.NONE,
+                blobs.redacts() ? blobs.redactor() : BlobRedactor.NONE);
+        this.rateLimits = blobs.limitsRate() ? blobs.rateLimits() : null;
+        this.outcomePolicy = blobs.defersCapture() ? blobs.getDeferred().build() : null;
+        this.heldLimit = blobs.defersCapture()
+                ? new BlobSizeLimit(sizeLimit.isLimited()
+                        ? Math.min(sizeLimit.getMaxBytes(), blobs.getDeferred().getMaxHeldBytes())
+                        : blobs.getDeferred().getMaxHeldBytes(), blobs.getOversizedBlobPolicy())
+                : sizeLimit;
+        this.heldCaptureOptions = new BlobCaptureOptions(heldLimit.getMaxBytes(), blobs.bufferPool());
+        this.filter = blobs.filtersCapture() ? blobs.captureFilter() : BlobFilter.ALL;
+        final BlobCaptureMetrics metrics = blobs.captureMetrics();
+        this.requestMetrics = metrics.get(BlobRateLimits.Side.SERVER, BlobType.REQUEST);
+        this.responseMetrics = metrics.get(BlobRateLimits.Side.SERVER, BlobType.RESPONSE);
     }
 
     @Override
     public void decorateRequest(final ContainerRequestContext requestContext,
                                 final Span span) {
-        if (!isEnabled || !blobable.isServerRequestValidForBlob(requestContext)) return;
+        if (!isEnabled) return;
 
-        final SpanBlobContext blobContext = new SpanBlobContext((com.expedia.www.haystack.client.Span) span);
-        final BlobWriter writer = factory.create(blobContext);
+        if (filter.filtersPaths() && !filter.acceptsPath(requestContext.getUriInfo().getRequestUri().getPath())) {
+            requestContext.setProperty(EXCLUDED_PROPERTY, Boolean.TRUE);
+            requestMetrics.skipped();
+            return;
+        }
+
+        // the outcome decides about the response blob as well, so the request is tracked even if its body is not valid.
+        // The state lives on the request, so it goes away with it even if the response is never decorated
+        final DeferredBlob deferred = outcomePolicy == null ? null : new DeferredBlob();
+        if (deferred != null) {
+            requestContext.setProperty(DEFERRED_PROPERTY, deferred);
+        }
+
+        if (!blobable.isServerRequestValidForBlob(requestContext)) {
+            requestMetrics.skipped();
+            return;
+        }
+
+        final BlobSizeLimit limit = deferred == null ? sizeLimit : heldLimit;
+        final long contentLength = requestContext.getLength();
+        if (limit.skipUpFront(contentLength)) {
+            requestMetrics.skipped();
+            return;
+        }
+        // a deferred request takes its token once it is known to be kept
+        if (deferred == null && rateLimits != null
+                && !rateLimits.tryAcquire(BlobRateLimits.Side.SERVER, operationName(span), traceId(span))) {
+            requestMetrics.rateLimited();
+            return;
+        }
+
+        final KeyedBlobWriter writer =
+                createWriter(factory, (com.expedia.www.haystack.client.Span) span, requestMetrics);
+        final Consumer<BlobContent> onBlob;
+        if (deferred == null) {
+            onBlob = blob -> writeBlob(writer, blob, BlobType.REQUEST, writeOptions);
+        } else {
+            deferred.capturing();
+            onBlob = blob -> deferred.hold(heldLimit.apply(blob), held ->
+                    writeBlob(writer, held, BlobType.REQUEST, writeOptions));
+        }
         try {
+            if (captureMode == BlobFactory.CaptureMode.STREAMING || limit.mayExceed(contentLength)) {
+                blobable.teeBlobFromServerRequest(requestContext,
+                        deferred == null ? captureOptions : heldCaptureOptions, onBlob);
+                return;
+            }
+            final Timer.Sample extract = requestMetrics.startExtract();
             final BlobContent blob = blobable.extractBlobFromServerRequest(requestContext);
-            writeBlob(writer, blob, BlobType.REQUEST);
+            extract.stop();
+            onBlob.accept(blob);
         } catch (Exception e) {
+            requestMetrics.failed();
             LOGGER.error("Fail to read server request for writing as blob in span", e);
         }
     }
@@ -68,16 +153,100 @@ public class BlobServerSpanDecorator implements ServerSpanDecorator {
     @Override
     public void decorateResponse(final ContainerResponseContext responseContext,
                                  final Span span) {
-        if (!isEnabled || !blobable.isServerResponseValidForBlob(responseContext)) return;
+        if (!isEnabled) return;
+        final ContainerRequestContext requestContext = requestOf(responseContext);
+        if (filter.filtersPaths() && requestContext != null && requestContext.getProperty(EXCLUDED_PROPERTY) != null) {
+            responseMetrics.skipped();
+            return;
+        }
 
-        final SpanBlobContext blobContext = new SpanBlobContext((com.expedia.www.haystack.client.Span) span);
-        final BlobWriter writer = factory.create(blobContext);
+        if (outcomePolicy != null) {
+            final DeferredBlob deferred = requestContext == null ? null :
+                    (DeferredBlob) requestContext.getProperty(DEFERRED_PROPERTY);
+            if (deferred != null) {
+                requestContext.removeProperty(DEFERRED_PROPERTY);
+            }
+            final long elapsedMs = deferred == null ? -1 : deferred.elapsedMs();
+            final boolean keep = outcomePolicy.keep(responseContext.getStatus(), elapsedMs);
+            if (deferred != null) {
+                decide(deferred, keep, span);
+            }
+            if (!keep) {
+                responseMetrics.skipped();
+                return;
+            }
+        }
+
+        if (!blobable.isServerResponseValidForBlob(responseContext)) {
+            responseMetrics.skipped();
+            return;
+        }
 
+        final long contentLength = responseContext.getLength();
+        if (sizeLimit.skipUpFront(contentLength)) {
+            responseMetrics.skipped();
+            return;
+        }
+        if (rateLimits != null
+                && !rateLimits.tryAcquire(BlobRateLimits.Side.SERVER, operationName(span), traceId(span))) {
+            responseMetrics.rateLimited();
+            return;
+        }
+
+        final KeyedBlobWriter writer =
+                createWriter(factory, (com.expedia.www.haystack.client.Span) span, responseMetrics);
+        final Consumer<BlobContent> onBlob = blob -> writeBlob(writer, blob, BlobType.RESPONSE, writeOptions);
         try {
+            if (captureMode == BlobFactory.CaptureMode.STREAMING || sizeLimit.mayExceed(contentLength)) {
+                if (responseContext.hasEntity()) {
+                    blobable.teeBlobFromServerResponse(responseContext, captureOptions, onBlob);
+                }
+                return;
+            }
+            final Timer.Sample extract = responseMetrics.startExtract();
             final BlobContent blob = blobable.extractBlobFromServerResponse(responseContext);
-            writeBlob(writer, blob, BlobType.RESPONSE);
+            extract.stop();
+            onBlob.accept(blob);
         } catch (Exception e) {
+            responseMetrics.failed();
             LOGGER.error("Fail to read server response for writing as blob in span", e);
         }
     }
-}
\ No newline at end of file
+
+    private void decide(final DeferredBlob deferred, final boolean keep, final Span span) {
+        if (!keep || !deferred.isCapturing()) {
+            deferred.decide(false);
+            return;
+        }
+        if (rateLimits != null
+                && !rateLimits.tryAcquire(BlobRateLimits.Side.SERVER, operationName(span), traceId(span))) {
+            requestMetrics.rateLimited();
+            deferred.decide(false);
+            return;
+        }
+        deferred.decide(true);
+    }
+
+    /**
+     * @return the request the response answers, null if the container is not Jersey
+     */
+    /**
+     * @return the request of the response, null if the response is not a Jersey one, which the request is only known
+     * to. Deferred capture and path filters need it, so a warning is logged once if they are configured
+     */
+    private ContainerRequestContext requestOf(final ContainerResponseContext responseContext) {
+        if (responseContext instanceof ContainerResponse) {
+            return ((ContainerResponse) responseContext).getRequestContext();
+        }
+        if ((outcomePolicy != null || filter.filtersPaths()) && warnedOfForeignResponse.compareAndSet(false, true)) {
+            LOGGER.warn("Response {} is not a Jersey ContainerResponse, its request is unknown: held request blobs " +
+                    "are dropped, slowRequestMs does not apply and excluded paths are not skipped for responses",
+                    responseContext.getClass().getName());
+        }
+        return null;
+    }
+
+    private static String operationName(final Span span) {
+        return ((com.expedia.www.haystack.client.Span) span).getOperationName();
+    }
+}
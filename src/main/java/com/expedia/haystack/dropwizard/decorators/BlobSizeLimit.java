@@ -0,0 +1,91 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.decorators;
+
+import com.expedia.haystack.dropwizard.configuration.BlobContent;
+import com.expedia.haystack.dropwizard.configuration.BlobFactory;
+
+import java.util.Arrays;
+
+/**
+ * Applies the per blob size limit configured in {@link BlobFactory}. A limit of zero or less disables it.
+ */
+public class BlobSizeLimit {
+    private final long maxBytes;
+    private final BlobFactory.OversizedBlobPolicy policy;
+
+    public BlobSizeLimit(final long maxBytes, final BlobFactory.OversizedBlobPolicy policy) {
+        this.maxBytes = maxBytes;
+        this.policy = policy == null ? BlobFactory.OversizedBlobPolicy.TRUNCATE : policy;
+    }
+
+    public boolean isLimited() {
+        return maxBytes > 0;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @param contentLength value of the Content-Length header, negative if absent
+     * @return true if the blob should be skipped before any byte of the body is read
+     */
+    public boolean skipUpFront(final long contentLength) {
+        return isLimited() && policy == BlobFactory.OversizedBlobPolicy.SKIP && contentLength > maxBytes;
+    }
+
+    /**
+     * @param contentLength value of the Content-Length header, negative if absent
+     * @return true if the body may exceed the limit, so capture must stop at the limit instead of buffering it all
+     */
+    public boolean mayExceed(final long contentLength) {
+        return isLimited() && (contentLength < 0 || contentLength > maxBytes);
+    }
+
+    /**
+     * @param blob captured blob
+     * @return the blob itself if within the limit, a truncated copy, or null if the blob should be skipped
+     */
+    public BlobContent apply(final BlobContent blob) {
+        if (blob == null) return null;
+
+        if (blob.isTruncated() || (isLimited() && blob.getLength() > maxBytes)) {
+            if (policy == BlobFactory.OversizedBlobPolicy.SKIP) {
+                blob.release();
+                return null;
+            }
+            if (!blob.isTruncated()) {
+                final BlobContent truncated = new BlobContent(Arrays.copyOf(blob.getData(), (int) maxBytes),
+                        blob.getContentType(), true);
+                blob.release();
+                return truncated;
+            }
+        }
+        return blob;
+    }
+
+    public static long contentLength(final String header) {
+        if (header == null) return -1;
+
+        try {
+            return Long.parseLong(header.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.decorators;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Settings a captured blob is written with by {@link BlobHelper#writeBlob(KeyedBlobWriter,
+ * com.expedia.haystack.dropwizard.configuration.BlobContent, com.expedia.blobs.core.BlobType, BlobWriteOptions)}:
+ * the size limit it is truncated or skipped by, the deduplicator it is compared with, then the redactor and the
+ * compressor its content is written through.
+ */
+public class BlobWriteOptions {
+    public final static BlobWriteOptions NONE = new BlobWriteOptions(new BlobSizeLimit(0, null),
+            BlobCompressor.NONE, BlobDeduplicator.NONE, BlobRedactor.NONE);
+
+    private final BlobSizeLimit sizeLimit;
+    private final BlobCompressor compressor;
+    private final BlobDeduplicator deduplicator;
+    private final BlobRedactor redactor;
+
+    public BlobWriteOptions(final BlobSizeLimit sizeLimit,
+                            final BlobCompressor compressor,
+                            final BlobDeduplicator deduplicator,
+                            final BlobRedactor redactor) {
+        Validate.notNull(sizeLimit);
+        Validate.notNull(compressor);
+        Validate.notNull(deduplicator);
+        Validate.notNull(redactor);
+
+        this.sizeLimit = sizeLimit;
+        this.compressor = compressor;
+        this.deduplicator = deduplicator;
+        this.redactor = redactor;
+    }
+
+    public BlobSizeLimit getSizeLimit() {
+        return sizeLimit;
+    }
+
+    public BlobCompressor getCompressor() {
+        return compressor;
+    }
+
+    public BlobDeduplicator getDeduplicator() {
+        return deduplicator;
+    }
+
+    public BlobRedactor getRedactor() {
+        return redactor;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.decorators;
+
+import com.expedia.haystack.dropwizard.configuration.BlobContent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Holds the request blob of a server span until the response tells whether it should be written. The request body
+ * may be captured before or, with streaming capture, after the decision is taken, so both orders are handled.
+ */
+class DeferredBlob {
+    private final long startNanos = System.nanoTime();
+    private BlobContent blob;
+    private Consumer<BlobContent> commit;
+    private Boolean keep;
+    private volatile boolean capturing;
+
+    long elapsedMs() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * marks the request body as being captured, a body that is not captured is never worth a rate limit token
+     */
+    void capturing() {
+        capturing = true;
+    }
+
+    boolean isCapturing() {
+        return capturing;
+    }
+
+    /**
+     * @param blob captured request blob, may be null if the body is skipped
+     * @param commit writes the blob if the request turns out to be kept
+     */
+    synchronized void hold(final BlobContent blob, final Consumer<BlobContent> commit) {
+        if (blob == null) return;
+
+        if (keep == null) {
+            this.blob = blob;
+            this.commit = commit;
+        } else if (keep) {
+            commit.accept(blob);
+        } else {
+            blob.release();
+        }
+    }
+
+    synchronized void decide(final boolean keep) {
+        this.keep = keep;
+        if (blob == null) return;
+
+        if (keep) {
+            commit.accept(blob);
+        } else {
+            blob.release();
+        }
+        blob = null;
+        commit = null;
+    }
+}
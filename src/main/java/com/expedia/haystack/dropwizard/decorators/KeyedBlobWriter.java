@@ -0,0 +1,46 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.decorators;
+
+import com.expedia.blobs.core.BlobType;
+import com.expedia.blobs.core.BlobWriter;
+import com.expedia.blobs.core.ContentType;
+import com.expedia.blobs.core.Metadata;
+
+import java.io.OutputStream;
+import java.util.function.Consumer;
+
+/**
+ * Blob writer that hands the key of a blob to a callback once it is made, before the blob is handed to the store, so
+ * that later blobs can refer to it.
+ */
+@FunctionalInterface
+public interface KeyedBlobWriter extends BlobWriter {
+    void write(BlobType blobType,
+               ContentType contentType,
+               Consumer<OutputStream> dataCallback,
+               Consumer<Metadata> metadataCallback,
+               Consumer<String> keyCallback);
+
+    @Override
+    default void write(final BlobType blobType,
+                       final ContentType contentType,
+                       final Consumer<OutputStream> dataCallback,
+                       final Consumer<Metadata> metadataCallback) {
+        write(blobType, contentType, dataCallback, metadataCallback, key -> { });
+    }
+}
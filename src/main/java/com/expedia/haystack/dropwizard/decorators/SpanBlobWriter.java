@@ -0,0 +1,121 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.decorators;
+
+import com.expedia.blobs.core.BlobContext;
+import com.expedia.blobs.core.BlobType;
+import com.expedia.blobs.core.BlobWriter;
+import com.expedia.blobs.core.BlobsFactory;
+import com.expedia.blobs.core.ContentType;
+import com.expedia.blobs.core.Metadata;
+import com.expedia.haystack.blobs.SpanBlobContext;
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.SpanContext;
+
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Blob writer of a span. Its blobs carry the trace and span ids as metadata, and it hands the key of a blob to a
+ * callback registered for its type, so that later blobs can refer to it. Blobs are timed and counted by the capture
+ * metrics when the store builds them.
+ */
+final class SpanBlobWriter implements KeyedBlobWriter {
+    private final BlobWriter writer;
+    private final String traceId;
+    private final String spanId;
+    private final BlobCaptureMetrics.Capture metrics;
+    private final Map<String, Consumer<String>> keyCallbacks = new ConcurrentHashMap<>(2);
+
+    SpanBlobWriter(final BlobsFactory<BlobContext> factory, final Span span, final BlobCaptureMetrics.Capture metrics) {
+        this.writer = factory.create(new KeyRecordingContext(new SpanBlobContext(span)));
+        this.metrics = metrics;
+        final SpanContext context = span.context();
+        this.traceId = context == null ? null : String.valueOf(context.getTraceId());
+        this.spanId = context == null ? null : String.valueOf(context.getSpanId());
+    }
+
+    @Override
+    public void write(final BlobType blobType,
+                      final ContentType contentType,
+                      final Consumer<OutputStream> dataCallback,
+                      final Consumer<Metadata> metadataCallback) {
+        final Consumer<OutputStream> instrumented = metrics.instrument(dataCallback);
+        if (traceId == null) {
+            writer.write(blobType, contentType, instrumented, metadataCallback);
+            return;
+        }
+        writer.write(blobType, contentType, instrumented, metadataCallback.andThen(metadata -> {
+            metadata.add(BlobHelper.TRACE_ID_METADATA, traceId);
+            metadata.add(BlobHelper.SPAN_ID_METADATA, spanId);
+        }));
+    }
+
+    @Override
+    public void write(final BlobType blobType,
+                      final ContentType contentType,
+                      final Consumer<OutputStream> dataCallback,
+                      final Consumer<Metadata> metadataCallback,
+                      final Consumer<String> keyCallback) {
+        keyCallbacks.put(blobType.getType(), keyCallback);
+        try {
+            write(blobType, contentType, dataCallback, metadataCallback);
+        } finally {
+            // the key is not made if the factory rejected the blob
+            keyCallbacks.remove(blobType.getType(), keyCallback);
+        }
+    }
+
+    private final class KeyRecordingContext implements BlobContext {
+        private final BlobContext delegate;
+
+        private KeyRecordingContext(final BlobContext delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String getOperationId() {
+            return delegate.getOperationId();
+        }
+
+        @Override
+        public String getOperationName() {
+            return delegate.getOperationName();
+        }
+
+        @Override
+        public String getServiceName() {
+            return delegate.getServiceName();
+        }
+
+        @Override
+        public String makeKey(final BlobType blobType) {
+            return delegate.makeKey(blobType);
+        }
+
+        @Override
+        public void onBlobKeyCreate(final String blobKey, final BlobType blobType) {
+            final Consumer<String> callback = keyCallbacks.remove(blobType.getType());
+            if (callback != null) {
+                callback.accept(blobKey);
+            }
+            delegate.onBlobKeyCreate(blobKey, blobType);
+        }
+    }
+}
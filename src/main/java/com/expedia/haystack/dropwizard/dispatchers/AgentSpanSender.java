@@ -0,0 +1,64 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.dispatchers;
+
+import com.expedia.open.tracing.Span;
+import com.expedia.open.tracing.agent.api.DispatchResult;
+import com.expedia.open.tracing.agent.api.SpanAgentGrpc;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.grpc.ManagedChannel;
+import org.apache.commons.lang3.Validate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SpillingDispatcher.Sender} dispatching each span with its own call to the agent, so the result of every span
+ * is known, unlike the streaming agent client that only logs failures
+ */
+public class AgentSpanSender implements SpillingDispatcher.Sender {
+    private final ManagedChannel channel;
+    private final SpanAgentGrpc.SpanAgentFutureStub stub;
+    private final long sendTimeoutMs;
+
+    /**
+     * @param channel channel to the agent, shut down on close
+     * @param sendTimeoutMs deadline of the calls to the agent
+     */
+    public AgentSpanSender(final ManagedChannel channel, final long sendTimeoutMs) {
+        Validate.notNull(channel);
+        Validate.isTrue(sendTimeoutMs > 0, "sendTimeoutMs must be positive");
+
+        this.channel = channel;
+        this.stub = SpanAgentGrpc.newFutureStub(channel);
+        this.sendTimeoutMs = sendTimeoutMs;
+    }
+
+    @Override
+    public ListenableFuture<DispatchResult> send(final Span span) {
+        return stub.withDeadlineAfter(sendTimeoutMs, TimeUnit.MILLISECONDS).dispatch(span);
+    }
+
+    @Override
+    public void close() {
+        channel.shutdown();
+        try {
+            channel.awaitTermination(sendTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
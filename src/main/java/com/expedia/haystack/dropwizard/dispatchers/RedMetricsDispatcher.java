@@ -0,0 +1,246 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.dispatchers;
+
+import com.expedia.haystack.dropwizard.sampling.Sampler;
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.dispatchers.Dispatcher;
+import com.expedia.www.haystack.client.metrics.Counter;
+import com.expedia.www.haystack.client.metrics.Gauge;
+import com.expedia.www.haystack.client.metrics.Metrics;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.Tag;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.opentracing.tag.Tags;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Dispatcher} aggregating every finished span into request, error and latency metrics of its operation, and
+ * forwarding to the wrapped dispatcher only the spans the sampler keeps. The metrics stay exact whatever the share
+ * of spans sent to the backend.
+ *
+ * Each operation gets the spans.requests and spans.errors counters and the spans.latency gauges, in milliseconds, by
+ * percentile, all tagged with the operation name. Latencies are recorded in microseconds into an HdrHistogram
+ * {@link Recorder}, which is wait-free for the dispatching threads. A scheduler swaps the recorded latencies every
+ * intervalMs and the gauges read those of the last complete interval, however often they are read. Once maxOperations
+ * operations are tracked, the spans of new ones are aggregated under {@link #OTHER_OPERATION} so that the number of
+ * metrics stays bounded.
+ */
+public class RedMetricsDispatcher implements Dispatcher {
+    private final static Logger LOGGER = LoggerFactory.getLogger(RedMetricsDispatcher.class);
+    public final static String OTHER_OPERATION = "_other";
+
+    private final Dispatcher delegate;
+    private final Sampler sampler;
+    private final MetricsRegistry registry;
+    private final int maxOperations;
+    private final long highestLatencyMicros;
+    private final int significantDigits;
+    private final List<Double> percentiles;
+    private final ConcurrentMap<String, Operation> operations = new ConcurrentHashMap<>();
+    private final Operation other;
+    private final ScheduledExecutorService rotator;
+
+    private final Counter overflowSpans;
+    private final Counter forwardedSpans;
+
+    /**
+     * @param delegate dispatcher the sampled spans are forwarded to
+     * @param sampler decides the spans forwarded, by operation and trace id
+     * @param maxOperations operations tracked before the spans of new ones go to {@link #OTHER_OPERATION}
+     * @param maxLatencyMs highest latency recorded, longer spans are recorded at this latency
+     * @param significantDigits precision of the recorded latencies, between 1 and 5 decimal digits
+     * @param percentiles percentiles published for each operation, between 0 and 100
+     * @param intervalMs interval of the latencies the percentiles are computed over
+     * @param registry registry the metrics are published to
+     */
+    public RedMetricsDispatcher(final Dispatcher delegate,
+                                final Sampler sampler,
+                                final int maxOperations,
+                                final long maxLatencyMs,
+                                final int significantDigits,
+                                final List<Double> percentiles,
+                                final long intervalMs,
+                                final MetricsRegistry registry) {
+        Validate.notNull(delegate);
+        Validate.notNull(sampler);
+        Validate.notNull(registry);
+        Validate.isTrue(maxOperations > 0, "maxOperations must be positive");
+        Validate.isTrue(maxLatencyMs > 0, "maxLatencyMs must be positive");
+        Validate.inclusiveBetween(1, 5, significantDigits, "significantDigits must be between 1 and 5");
+        Validate.notNull(percentiles);
+        for (double percentile : percentiles) {
+            Validate.inclusiveBetween(0.0, 100.0, percentile, "percentiles must be between 0 and 100");
+        }
+        Validate.isTrue(intervalMs > 0, "intervalMs must be positive");
+
+        this.delegate = delegate;
+        this.sampler = sampler;
+        this.registry = registry;
+        this.maxOperations = maxOperations;
+        this.highestLatencyMicros = TimeUnit.MILLISECONDS.toMicros(maxLatencyMs);
+        this.significantDigits = significantDigits;
+        this.percentiles = percentiles;
+        this.other = new Operation(OTHER_OPERATION);
+
+        final Metrics metrics = new Metrics(registry, Dispatcher.class.getName(),
+                Collections.singletonList(new Tag("type", "metrics")));
+        this.overflowSpans = Counter.builder("spans").tag(new Tag("state", "overflow")).register(metrics);
+        this.forwardedSpans = Counter.builder("spans").tag(new Tag("state", "forwarded")).register(metrics);
+        Gauge.builder("operations", operations, ConcurrentMap::size).register(metrics);
+
+        this.rotator = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("haystack-red-metrics-%d")
+                .setDaemon(true)
+                .build());
+        this.rotator.scheduleAtFixedRate(() -> {
+            try {
+                rotate();
+            } catch (Exception e) {
+                LOGGER.error("Fail to swap the latency intervals", e);
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void dispatch(final Span span) {
+        operation(span.getOperationName()).record(span);
+
+        if (sampler.isSampled(span.getOperationName(), span.context().getTraceId())) {
+            forwardedSpans.increment();
+            delegate.dispatch(span);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        delegate.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        rotator.shutdown();
+        delegate.close();
+    }
+
+    /**
+     * starts a new latency interval for every operation, the gauges publishing the one just ended
+     */
+    void rotate() {
+        for (Operation operation : operations.values()) {
+            operation.rotate();
+        }
+        other.rotate();
+    }
+
+    private Operation operation(final String name) {
+        final Operation operation = operations.get(name);
+        return operation != null ? operation : register(name);
+    }
+
+    private synchronized Operation register(final String name) {
+        Operation operation = operations.get(name);
+        if (operation == null) {
+            if (operations.size() >= maxOperations) {
+                overflowSpans.increment();
+                return other;
+            }
+            operation = new Operation(name);
+            operations.put(name, operation);
+        }
+        return operation;
+    }
+
+    private static boolean isError(final Span span) {
+        final Object error = span.getTags().get(Tags.ERROR.getKey());
+        return Boolean.TRUE.equals(error) || "true".equals(error);
+    }
+
+    private static String percentileTag(final double percentile) {
+        return "p" + BigDecimal.valueOf(percentile).stripTrailingZeros().toPlainString();
+    }
+
+    @Override
+    public String toString() {
+        return "RedMetricsDispatcher{maxOperations=" + maxOperations + ", sampler=" + sampler + ", delegate=" +
+                delegate + "}";
+    }
+
+    private final class Operation {
+        private final Counter requests;
+        private final Counter errors;
+        private final Recorder recorder;
+        // latencies of the last complete interval, read by the gauges
+        private Histogram interval;
+
+        Operation(final String name) {
+            final Metrics metrics = new Metrics(registry, "spans",
+                    Collections.singletonList(new Tag("operation", name)));
+            this.requests = Counter.builder("requests").register(metrics);
+            this.errors = Counter.builder("errors").register(metrics);
+            this.recorder = new Recorder(highestLatencyMicros, significantDigits);
+            this.interval = recorder.getIntervalHistogram();
+
+            for (double percentile : percentiles) {
+                Gauge.builder("latency", this, operation -> operation.latency(percentile))
+                        .tag(new Tag("percentile", percentileTag(percentile)))
+                        .register(metrics);
+            }
+            Gauge.builder("latency", this, Operation::maxLatency)
+                    .tag(new Tag("percentile", "max"))
+                    .register(metrics);
+        }
+
+        void record(final Span span) {
+            requests.increment();
+            if (isError(span)) {
+                errors.increment();
+            }
+            final Long duration = span.getDuration();
+            if (duration != null) {
+                recorder.recordValue(Math.min(Math.max(duration, 0), highestLatencyMicros));
+            }
+        }
+
+        synchronized double latency(final double percentile) {
+            return interval.getValueAtPercentile(percentile) / 1000.0;
+        }
+
+        synchronized double maxLatency() {
+            return interval.getMaxValue() / 1000.0;
+        }
+
+        synchronized void rotate() {
+            // the histogram of the previous interval is recycled, the gauges never read it while it is refilled
+            interval = recorder.getIntervalHistogram(interval);
+        }
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.dispatchers;
+
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.dispatchers.Dispatcher;
+import com.expedia.www.haystack.client.metrics.Counter;
+import com.expedia.www.haystack.client.metrics.Gauge;
+import com.expedia.www.haystack.client.metrics.Metrics;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.Tag;
+import com.expedia.www.haystack.client.metrics.Timer;
+import com.expedia.www.haystack.remote.clients.Client;
+import com.expedia.www.haystack.remote.clients.ClientException;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link Dispatcher} handing spans to a single sender thread through a preallocated ring buffer instead of a blocking
+ * queue. Request threads claim a slot with a compare and set on the producer sequence and publish the span by storing
+ * it into the slot, so dispatching takes no lock. The sender takes up to batchSize published spans at a time, frees
+ * their slots by advancing the consumer sequence once per batch and sends them with the {@link Client}. A span
+ * dispatched while the ring is full is dropped and counted rather than making the request thread wait. So is one
+ * dispatched while the dispatcher closes, its slot is released with a marker the sender skips.
+ */
+public class RingBufferDispatcher implements Dispatcher {
+    private final static Logger LOGGER = LoggerFactory.getLogger(RingBufferDispatcher.class);
+    // published in place of a span claimed after close, so the sender frees the slot without sending
+    private final static Object SKIPPED = new Object();
+
+    /**
+     * How the sender waits for spans while the ring is empty
+     */
+    public enum WaitStrategy {
+        /**
+         * spins on the ring, lowest latency at the cost of a core
+         */
+        BUSY_SPIN {
+            @Override
+            void idle(int idleCount, long sleepNanos) {
+            }
+        },
+        /**
+         * spins for a while, then yields the core to other threads
+         */
+        YIELDING {
+            @Override
+            void idle(int idleCount, long sleepNanos) {
+                if (idleCount > SPINS) {
+                    Thread.yield();
+                }
+            }
+        },
+        /**
+         * spins, yields, then sleeps for sleepNanos between polls of the ring
+         */
+        SLEEPING {
+            @Override
+            void idle(int idleCount, long sleepNanos) {
+                if (idleCount > SPINS + YIELDS) {
+                    LockSupport.parkNanos(sleepNanos);
+                } else if (idleCount > SPINS) {
+                    Thread.yield();
+                }
+            }
+        };
+
+        private final static int SPINS = 100;
+        private final static int YIELDS = 100;
+
+        abstract void idle(int idleCount, long sleepNanos);
+    }
+
+    private final Client client;
+    private final AtomicReferenceArray<Object> slots;
+    private final int mask;
+    private final int batchSize;
+    // spans taken from the ring by the sender, only used by the sender thread
+    private final Span[] batch;
+    private final WaitStrategy waitStrategy;
+    private final long sleepNanos;
+    private final long shutdownTimeoutMs;
+    // sequences of the next slot to claim and to drain, padded apart so producers and sender do not share a cache line
+    private final PaddedSequence producerSequence = new PaddedSequence();
+    private final PaddedSequence consumerSequence = new PaddedSequence();
+    // sequence up to which spans are handed to the client, only written by the sender
+    private volatile long sentSequence;
+    private final Thread sender;
+    private volatile boolean running = true;
+
+    private final Counter rejected;
+    private final Counter sent;
+    private final Counter sendFailures;
+    private final Timer sendTimer;
+
+    /**
+     * @param client client the spans are sent with
+     * @param capacity number of slots of the ring, rounded up to a power of two
+     * @param batchSize maximum number of spans drained from the ring at once
+     * @param waitStrategy how the sender waits for spans while the ring is empty
+     * @param sleepNanos time the sender sleeps between polls with the sleeping strategy
+     * @param shutdownTimeoutMs time given to the sender to drain the ring on close
+     * @param registry registry the dispatcher metrics are published to
+     */
+    public RingBufferDispatcher(final Client client,
+                                final int capacity,
+                                final int batchSize,
+                                final WaitStrategy waitStrategy,
+                                final long sleepNanos,
+                                final long shutdownTimeoutMs,
+                                final MetricsRegistry registry) {
+        Validate.notNull(client);
+        Validate.isTrue(capacity > 0 && capacity <= 1 << 30, "capacity must be between 1 and 2^30");
+        Validate.isTrue(batchSize > 0, "batchSize must be positive");
+        Validate.notNull(waitStrategy);
+
+        final int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+        this.client = client;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.batchSize = batchSize;
+        this.batch = new Span[batchSize];
+        this.waitStrategy = waitStrategy;
+        this.sleepNanos = sleepNanos;
+        this.shutdownTimeoutMs = shutdownTimeoutMs;
+
+        final Metrics metrics = new Metrics(registry, Dispatcher.class.getName(),
+                Collections.singletonList(new Tag("type", "ring")));
+        this.rejected = Counter.builder("dispatch").tag(new Tag("state", "rejected")).register(metrics);
+        this.sent = Counter.builder("send").tag(new Tag("state", "success")).register(metrics);
+        this.sendFailures = Counter.builder("send").tag(new Tag("state", "exception")).register(metrics);
+        this.sendTimer = Timer.builder("send").register(metrics);
+        Gauge.builder("ringSize", this, RingBufferDispatcher::size).register(metrics);
+
+        this.sender = new Thread(this::drain, "haystack-ring-dispatcher");
+        this.sender.setDaemon(true);
+        this.sender.start();
+    }
+
+    @Override
+    public void dispatch(final Span span) {
+        if (!running) {
+            rejected.increment();
+            return;
+        }
+
+        long sequence;
+        do {
+            sequence = producerSequence.get();
+            if (sequence - consumerSequence.get() > mask) {
+                rejected.increment();
+                return;
+            }
+        } while (!producerSequence.compareAndSet(sequence, sequence + 1));
+
+        // closed while claiming, the sender may be gone already and would never send the span
+        if (!running) {
+            slots.lazySet((int) sequence & mask, SKIPPED);
+            rejected.increment();
+            return;
+        }
+        // the sender sees the span once the slot is set, the slot is free as the sender advanced past it
+        slots.lazySet((int) sequence & mask, span);
+    }
+
+    /**
+     * waits until the spans dispatched so far are handed to the client, at most the shutdown timeout, and flushes it
+     */
+    @Override
+    public void flush() {
+        final long target = producerSequence.get();
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(shutdownTimeoutMs);
+        while (sentSequence < target && sender.isAlive() && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        try {
+            client.flush();
+        } catch (ClientException e) {
+            LOGGER.error("Fail to flush the client", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            sender.join(shutdownTimeoutMs);
+            if (sender.isAlive()) {
+                LOGGER.warn("Timeout draining {} spans from the ring before shutting down", size());
+                sender.interrupt();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            client.close();
+        } catch (ClientException e) {
+            LOGGER.error("Fail to close the client", e);
+        }
+    }
+
+    /**
+     * @return the number of spans claimed in the ring and not drained yet
+     */
+    public long size() {
+        return producerSequence.get() - consumerSequence.get();
+    }
+
+    /**
+     * @return the number of slots of the ring
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    private void drain() {
+        int idleCount = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            final int drained = drainBatch();
+            if (drained > 0) {
+                idleCount = 0;
+                continue;
+            }
+            if (!running && size() == 0) {
+                return;
+            }
+            if (idleCount == 0) {
+                flushClient();
+            }
+            if (idleCount < Integer.MAX_VALUE) {
+                idleCount++;
+            }
+            waitStrategy.idle(idleCount, sleepNanos);
+        }
+    }
+
+    private int drainBatch() {
+        final long start = consumerSequence.get();
+        int drained = 0;
+        int spans = 0;
+        while (drained < batchSize) {
+            final int index = (int) (start + drained) & mask;
+            // a claimed slot may not be published yet, the rest of the batch waits for the next round then
+            final Object slot = slots.get(index);
+            if (slot == null) {
+                break;
+            }
+            slots.lazySet(index, null);
+            drained++;
+            if (slot != SKIPPED) {
+                batch[spans++] = (Span) slot;
+            }
+        }
+        if (drained == 0) {
+            return 0;
+        }
+
+        // the slots are freed before sending, a slow client does not hold up the producers
+        consumerSequence.lazySet(start + drained);
+        for (int i = 0; i < spans; i++) {
+            send(batch[i]);
+            batch[i] = null;
+        }
+        sentSequence = start + drained;
+        return drained;
+    }
+
+    private void send(final Span span) {
+        final Timer.Sample sample = sendTimer.start();
+        try {
+            client.send(span);
+            sent.increment();
+        } catch (Exception e) {
+            sendFailures.increment();
+            LOGGER.error("Client reported a failure: ", e);
+        } finally {
+            sample.stop();
+        }
+    }
+
+    private void flushClient() {
+        try {
+            client.flush();
+        } catch (Exception e) {
+            LOGGER.error("Fail to flush the client", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RingBufferDispatcher{capacity=" + capacity() + ", batchSize=" + batchSize + ", waitStrategy=" +
+                waitStrategy + ", client=" + client + "}";
+    }
+
+    @SuppressWarnings("unused")
+    private final static class PaddedSequence extends AtomicLong {
+        private long p1, p2, p3, p4, p5, p6, p7;
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.dispatchers;
+
+import com.expedia.haystack.dropwizard.io.SegmentFile;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of spans in {@link SegmentFile}s of up to segmentSizeBytes, read back in order by a single
+ * reader. Segments are deleted once read through, and the oldest segment is evicted, unread, when a new one would take
+ * the journal over maxBytes. {@link #bytes()} is the disk space the journal actually takes.
+ *
+ * The read offset is kept in a separate file of two slots written in turn, each holding a sequence number, the segment
+ * and position of the next record and a CRC32 of them. A torn write only breaks the slot being written, so the valid
+ * slot of the highest sequence is the last committed offset. Records read after that commit are read again following
+ * a crash, the journal is at least once.
+ */
+final class SpanJournal implements Closeable {
+    private final static Logger LOGGER = LoggerFactory.getLogger(SpanJournal.class);
+    final static String SUFFIX = ".journal";
+    final static String OFFSET_FILE = "offset";
+    private final static int SLOT_BYTES = 24;
+
+    private final File directory;
+    private final int segmentSizeBytes;
+    private final long maxBytes;
+    private final Deque<JournalSegment> segments = new ArrayDeque<>();
+    private final RandomAccessFile offset;
+    private long offsetSequence;
+    private int readPosition;
+    private int readLength;
+    private long records;
+    private long evictedRecords;
+
+    /**
+     * opens the journal in the directory, resuming from the last committed read offset
+     * @param directory directory of the segment and offset files, created if missing
+     * @param segmentSizeBytes size of a segment file, also the largest record the journal takes
+     * @param maxBytes the journal evicts its oldest segment rather than taking more disk space than this
+     * @throws IOException if the files cannot be read
+     */
+    SpanJournal(final File directory, final int segmentSizeBytes, final long maxBytes) throws IOException {
+        Validate.isTrue(segmentSizeBytes > SegmentFile.LENGTH_BYTES, "segmentSizeBytes is too small");
+        Validate.isTrue(maxBytes >= segmentSizeBytes, "maxBytes must hold at least one segment");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Fail to create the journal directory " + directory);
+        }
+
+        this.directory = directory;
+        this.segmentSizeBytes = segmentSizeBytes;
+        this.maxBytes = maxBytes;
+        this.offset = new RandomAccessFile(new File(directory, OFFSET_FILE), "rw");
+        try {
+            open();
+        } catch (IOException | RuntimeException e) {
+            offset.close();
+            throw e;
+        }
+    }
+
+    private void open() throws IOException {
+        if (offset.length() < 2 * SLOT_BYTES) {
+            offset.setLength(2 * SLOT_BYTES);
+        }
+        long readSegment = -1;
+        for (int slot = 0; slot < 2; slot++) {
+            offset.seek(slot * SLOT_BYTES);
+            final long sequence = offset.readLong();
+            final long segment = offset.readLong();
+            final int position = offset.readInt();
+            if (sequence > offsetSequence && offset.readInt() == checksum(sequence, segment, position)) {
+                offsetSequence = sequence;
+                readSegment = segment;
+                readPosition = position;
+            }
+        }
+
+        for (long id : SegmentFile.list(directory, SUFFIX)) {
+            if (id < readSegment) {
+                // read through before the crash, only its deletion was lost
+                final File file = SegmentFile.file(directory, id, SUFFIX);
+                if (!file.delete() && file.exists()) {
+                    LOGGER.error("Fail to delete read through journal segment {}", file);
+                }
+                continue;
+            }
+            final int from = id == readSegment ? readPosition : 0;
+            final JournalSegment segment = new JournalSegment();
+            segment.file = SegmentFile.open(directory, id, SUFFIX, segmentSizeBytes,
+                    (file, position, length, payload) -> {
+                        if (position >= from) segment.records++;
+                    });
+            records += segment.records;
+            segments.addLast(segment);
+        }
+        if (segments.isEmpty() || segments.peekFirst().file.id() != readSegment) {
+            readPosition = 0;
+        }
+        if (records > 0) {
+            LOGGER.info("Recovered {} spans from {} journal segments in {}", records, segments.size(), directory);
+        }
+    }
+
+    /**
+     * appends a record, evicting the oldest segment if the journal is full
+     * @return false if the record does not fit in a segment
+     */
+    synchronized boolean append(final byte[] data) throws IOException {
+        if (data.length == 0 || SegmentFile.LENGTH_BYTES + data.length > segmentSizeBytes) {
+            return false;
+        }
+
+        JournalSegment active = segments.peekLast();
+        if (active == null || !active.file.hasRoom(data.length)) {
+            while (!segments.isEmpty() && (long) (segments.size() + 1) * segmentSizeBytes > maxBytes) {
+                evictOldest();
+            }
+            final long id = active == null ? 0 : active.file.id() + 1;
+            active = new JournalSegment();
+            active.file = SegmentFile.create(directory, id, SUFFIX, segmentSizeBytes);
+            segments.addLast(active);
+        }
+        active.file.append(SegmentFile.newRecord(data.length).put(data));
+        active.records++;
+        records++;
+        return true;
+    }
+
+    /**
+     * @return the next unread record, the same one until {@link #advance()} is called, or null if there is none
+     * @throws IOException if the record cannot be read
+     */
+    synchronized byte[] peek() throws IOException {
+        while (true) {
+            final JournalSegment segment = segments.peekFirst();
+            if (segment == null) {
+                return null;
+            }
+            final int length = segment.file.lengthAt(readPosition);
+            if (length > 0) {
+                readLength = length;
+                return segment.file.read(readPosition + SegmentFile.LENGTH_BYTES, length);
+            }
+            if (segment == segments.peekLast()) {
+                // the segment being written has no more records yet
+                return null;
+            }
+            segment.file.delete();
+            segments.removeFirst();
+            readPosition = 0;
+            commit(true);
+        }
+    }
+
+    /**
+     * moves past the record returned by {@link #peek()} and commits the read offset, without forcing it to disk
+     * @throws IOException if the read offset cannot be written
+     */
+    synchronized void advance() throws IOException {
+        if (readLength == 0) {
+            return;
+        }
+        readPosition += SegmentFile.LENGTH_BYTES + readLength;
+        readLength = 0;
+        records--;
+        segments.peekFirst().records--;
+        commit(false);
+    }
+
+    /**
+     * @return the number of records not read yet
+     */
+    synchronized long size() {
+        return records;
+    }
+
+    /**
+     * @return the disk space taken by the segment files
+     */
+    synchronized long bytes() {
+        long bytes = 0;
+        for (JournalSegment segment : segments) {
+            bytes += segment.file.size();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the number of records evicted unread while the journal was full
+     */
+    synchronized long evicted() {
+        return evictedRecords;
+    }
+
+    /**
+     * forces the segments and the read offset to disk and releases the file handles
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            for (JournalSegment segment : segments) {
+                segment.file.close();
+            }
+            if (offset.getChannel().isOpen()) {
+                commit(true);
+            }
+        } finally {
+            offset.close();
+        }
+    }
+
+    private void evictOldest() throws IOException {
+        final JournalSegment oldest = segments.peekFirst();
+        oldest.file.delete();
+        segments.removeFirst();
+        records -= oldest.records;
+        evictedRecords += oldest.records;
+        readPosition = 0;
+        readLength = 0;
+        commit(true);
+        LOGGER.warn("Journal is full, evicted {} unread spans of segment {}", oldest.records, oldest.file.file());
+    }
+
+    private void commit(final boolean force) throws IOException {
+        final JournalSegment segment = segments.peekFirst();
+        final long sequence = ++offsetSequence;
+        final long id = segment == null ? -1 : segment.file.id();
+        final ByteBuffer slot = ByteBuffer.allocate(SLOT_BYTES)
+                .putLong(sequence)
+                .putLong(id)
+                .putInt(readPosition)
+                .putInt(checksum(sequence, id, readPosition));
+        offset.seek((sequence & 1) * SLOT_BYTES);
+        offset.write(slot.array());
+        if (force) {
+            offset.getFD().sync();
+        }
+    }
+
+    private static int checksum(final long sequence, final long segment, final int position) {
+        final CRC32 crc = new CRC32();
+        final ByteBuffer slot = ByteBuffer.allocate(20).putLong(sequence).putLong(segment).putInt(position);
+        crc.update(slot.array(), 0, slot.capacity());
+        return (int) crc.getValue();
+    }
+
+    private final static class JournalSegment {
+        private SegmentFile file;
+        private long records;
+    }
+}
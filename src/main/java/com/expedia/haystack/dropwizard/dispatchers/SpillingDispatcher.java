@@ -0,0 +1,448 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.dispatchers;
+
+import com.expedia.open.tracing.agent.api.DispatchResult;
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.dispatchers.Dispatcher;
+import com.expedia.www.haystack.client.dispatchers.formats.Format;
+import com.expedia.www.haystack.client.dispatchers.formats.ProtoBufFormat;
+import com.expedia.www.haystack.client.metrics.Counter;
+import com.expedia.www.haystack.client.metrics.Gauge;
+import com.expedia.www.haystack.client.metrics.Metrics;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.Tag;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link Dispatcher} sending spans to the haystack agent through a bounded queue, and spilling them to a
+ * {@link SpanJournal} on disk instead of dropping them or growing the heap while the agent cannot keep up.
+ *
+ * A span goes to the journal, in the protobuf format the agent takes, when the queue is full, when the agent did not
+ * accept it, or while the agent is considered down after a failure. Spans to spill are handed to a journal thread
+ * through a second queue of queueSize spans, so request threads never wait on the disk, and are dropped and counted
+ * when that queue is full too. The sender thread replays the journal at up to replayRatePerSec spans per second, next
+ * to the live spans, and retries every retryIntervalMs while replayed spans fail. While the journal has nothing to
+ * replay, for instance because the disk is full, the live spans are sent again retryIntervalMs after the last failure
+ * to probe the agent. The first span the agent accepts again brings the live spans back from the journal to the queue.
+ * The journal survives restarts and is replayed at least once: spans sent after the last committed read offset are
+ * sent again.
+ */
+public class SpillingDispatcher implements Dispatcher {
+    private final static Logger LOGGER = LoggerFactory.getLogger(SpillingDispatcher.class);
+    private final static long MAX_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * Sends a protobuf span to the agent
+     */
+    public interface Sender {
+        /**
+         * @return the result of the agent, the future fails if the span did not reach it
+         */
+        ListenableFuture<DispatchResult> send(com.expedia.open.tracing.Span span);
+
+        default void close() {
+        }
+    }
+
+    private final Sender sender;
+    private final Format<com.expedia.open.tracing.Span> format = new ProtoBufFormat();
+    private final BlockingQueue<Span> queue;
+    private final BlockingQueue<com.expedia.open.tracing.Span> spills;
+    private final SpanJournal journal;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final long replayIntervalNanos;
+    private final long retryIntervalNanos;
+    private final long sendTimeoutMs;
+    private final long shutdownTimeoutMs;
+    private final Thread worker;
+    private final Thread spiller;
+    // spans queued and not yet handed to the sender or the journal
+    private final AtomicInteger pending = new AtomicInteger();
+    // spans handed to the journal thread and not yet written
+    private final AtomicInteger spilling = new AtomicInteger();
+    private volatile boolean healthy = true;
+    // time of the last failure of the agent, live spans probe it again retryIntervalMs later
+    private volatile long failedAt;
+    private volatile boolean running = true;
+    private volatile boolean spillerRunning = true;
+    // set by the journal thread before it writes the last spans handed to it, later spans are rejected
+    private volatile boolean spillerStopped;
+
+    private final Counter sent;
+    private final Counter sendFailures;
+    private final Counter spilled;
+    private final Counter replayed;
+    private final Counter rejected;
+
+    /**
+     * @param sender sends spans to the agent
+     * @param queueSize number of spans waiting to be sent before they spill to the journal
+     * @param maxInFlight number of spans awaiting the agent
+     * @param directory directory of the journal
+     * @param segmentSizeBytes size of a journal segment file
+     * @param maxJournalBytes disk space the journal may take, its oldest spans are evicted beyond
+     * @param replayRatePerSec rate at which spans are replayed from the journal
+     * @param retryIntervalMs time between two replay attempts while the agent fails
+     * @param sendTimeoutMs time the sender thread waits for the agent to answer a replayed span
+     * @param shutdownTimeoutMs time given to the sender to drain the queue on close
+     * @param registry registry the dispatcher metrics are published to
+     * @throws IOException if the journal cannot be opened
+     */
+    public SpillingDispatcher(final Sender sender,
+                              final int queueSize,
+                              final int maxInFlight,
+                              final File directory,
+                              final int segmentSizeBytes,
+                              final long maxJournalBytes,
+                              final int replayRatePerSec,
+                              final long retryIntervalMs,
+                              final long sendTimeoutMs,
+                              final long shutdownTimeoutMs,
+                              final MetricsRegistry registry) throws IOException {
+        Validate.notNull(sender);
+        Validate.isTrue(queueSize > 0, "queueSize must be positive");
+        Validate.isTrue(maxInFlight > 0, "maxInFlight must be positive");
+        Validate.isTrue(replayRatePerSec > 0, "replayRatePerSec must be positive");
+
+        this.sender = sender;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.spills = new ArrayBlockingQueue<>(queueSize);
+        this.journal = new SpanJournal(directory, segmentSizeBytes, maxJournalBytes);
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.replayIntervalNanos = TimeUnit.SECONDS.toNanos(1) / replayRatePerSec;
+        this.retryIntervalNanos = TimeUnit.MILLISECONDS.toNanos(retryIntervalMs);
+        this.sendTimeoutMs = sendTimeoutMs;
+        this.shutdownTimeoutMs = shutdownTimeoutMs;
+
+        final Metrics metrics = new Metrics(registry, Dispatcher.class.getName(),
+                Collections.singletonList(new Tag("type", "spill")));
+        this.sent = Counter.builder("send").tag(new Tag("state", "success")).register(metrics);
+        this.sendFailures = Counter.builder("send").tag(new Tag("state", "exception")).register(metrics);
+        this.spilled = Counter.builder("journal").tag(new Tag("state", "spilled")).register(metrics);
+        this.replayed = Counter.builder("journal").tag(new Tag("state", "replayed")).register(metrics);
+        this.rejected = Counter.builder("journal").tag(new Tag("state", "rejected")).register(metrics);
+        Gauge.builder("queueSize", queue, BlockingQueue::size).register(metrics);
+        Gauge.builder("spillQueueSize", spills, BlockingQueue::size).register(metrics);
+        Gauge.builder("journalSize", journal, SpanJournal::size).register(metrics);
+        Gauge.builder("journalBytes", journal, SpanJournal::bytes).register(metrics);
+        Gauge.builder("journalEvicted", journal, SpanJournal::evicted).register(metrics);
+
+        this.worker = new Thread(this::run, "haystack-spill-dispatcher");
+        this.worker.setDaemon(true);
+        this.worker.start();
+        this.spiller = new Thread(this::writeSpills, "haystack-spill-journal");
+        this.spiller.setDaemon(true);
+        this.spiller.start();
+    }
+
+    @Override
+    public void dispatch(final Span span) {
+        if (running && healthy) {
+            pending.incrementAndGet();
+            if (queue.offer(span)) {
+                return;
+            }
+            pending.decrementAndGet();
+        }
+        spill(format.format(span));
+    }
+
+    /**
+     * waits until the queue is drained, the spans in flight are answered and the spilled spans are written to the
+     * journal, at most the shutdown timeout
+     */
+    @Override
+    public void flush() {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(shutdownTimeoutMs);
+        while (((worker.isAlive() && pending.get() > 0) || inFlight.availablePermits() < maxInFlight
+                || (spiller.isAlive() && spilling.get() > 0)) && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    /**
+     * drains the queue, spilling what the agent does not take, and closes the journal. Spans left in the journal are
+     * replayed by the next dispatcher opening the directory
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            worker.join(shutdownTimeoutMs);
+            if (worker.isAlive()) {
+                LOGGER.warn("Timeout draining {} spans before shutting down", queue.size());
+                worker.interrupt();
+                worker.join(shutdownTimeoutMs);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        spillerRunning = false;
+        try {
+            spiller.join(shutdownTimeoutMs);
+            if (spiller.isAlive()) {
+                LOGGER.warn("Timeout writing {} spans to the journal before shutting down", spills.size());
+                spiller.interrupt();
+                spiller.join(shutdownTimeoutMs);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            LOGGER.error("Fail to close the journal", e);
+        }
+        sender.close();
+    }
+
+    /**
+     * @return the number of spans in the journal waiting to be replayed
+     */
+    public long journalSize() {
+        return journal.size();
+    }
+
+    /**
+     * @return false while the agent is considered down and spans go straight to the journal
+     */
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    private void run() {
+        long nextReplay = System.nanoTime();
+        while (true) {
+            if (running && System.nanoTime() - nextReplay >= 0) {
+                nextReplay = replay();
+            }
+            final Span span;
+            try {
+                final long wait = Math.min(Math.max(nextReplay - System.nanoTime(), 0), MAX_POLL_NANOS);
+                span = running ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                spillQueue();
+                return;
+            }
+            if (span != null) {
+                try {
+                    send(format.format(span));
+                } finally {
+                    pending.decrementAndGet();
+                }
+            } else if (!running) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * sends the next span of the journal, waiting for the agent, and moves past it once accepted
+     * @return the time of the next replay
+     */
+    private long replay() {
+        final byte[] record;
+        try {
+            record = journal.peek();
+        } catch (IOException e) {
+            LOGGER.error("Fail to read the journal", e);
+            return System.nanoTime() + retryIntervalNanos;
+        }
+        if (record == null) {
+            if (!healthy && System.nanoTime() - failedAt >= retryIntervalNanos) {
+                // nothing to replay to probe the agent with, the live spans probe it instead
+                LOGGER.info("Journal is empty, sending spans to the agent again");
+                healthy = true;
+            }
+            return System.nanoTime() + replayIntervalNanos;
+        }
+
+        final com.expedia.open.tracing.Span span;
+        try {
+            span = com.expedia.open.tracing.Span.parseFrom(record);
+        } catch (InvalidProtocolBufferException e) {
+            LOGGER.error("Skip unreadable span of the journal", e);
+            advanceJournal();
+            return System.nanoTime();
+        }
+        try {
+            final DispatchResult result = sender.send(span).get(sendTimeoutMs, TimeUnit.MILLISECONDS);
+            if (result.getCode() == DispatchResult.ResultCode.SUCCESS) {
+                advanceJournal();
+                replayed.increment();
+                healthy = true;
+                return System.nanoTime() + replayIntervalNanos;
+            }
+            LOGGER.warn("Agent rejected a replayed span: {}", result.getErrorMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LOGGER.debug("Fail to replay a span of the journal", e);
+        }
+        failedAt = System.nanoTime();
+        healthy = false;
+        return System.nanoTime() + retryIntervalNanos;
+    }
+
+    private void advanceJournal() {
+        try {
+            journal.advance();
+        } catch (IOException e) {
+            LOGGER.error("Fail to commit the read offset of the journal", e);
+        }
+    }
+
+    private void send(final com.expedia.open.tracing.Span span) {
+        if (!healthy) {
+            spill(span);
+            return;
+        }
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            spill(span);
+            return;
+        }
+
+        final ListenableFuture<DispatchResult> result;
+        try {
+            result = sender.send(span);
+        } catch (Exception e) {
+            inFlight.release();
+            failed(span, e);
+            return;
+        }
+        Futures.addCallback(result, new FutureCallback<DispatchResult>() {
+            @Override
+            public void onSuccess(final DispatchResult dispatchResult) {
+                inFlight.release();
+                if (dispatchResult.getCode() == DispatchResult.ResultCode.SUCCESS) {
+                    sent.increment();
+                } else {
+                    failed(span, new IllegalStateException(dispatchResult.getErrorMessage()));
+                }
+            }
+
+            @Override
+            public void onFailure(final Throwable t) {
+                inFlight.release();
+                failed(span, t);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private void failed(final com.expedia.open.tracing.Span span, final Throwable t) {
+        sendFailures.increment();
+        failedAt = System.nanoTime();
+        if (healthy) {
+            healthy = false;
+            LOGGER.error("Agent failed to take a span, spilling spans to the journal", t);
+        }
+        spill(span);
+    }
+
+    /**
+     * hands the span to the journal thread, dropping it if that thread is behind or gone
+     */
+    private void spill(final com.expedia.open.tracing.Span span) {
+        spilling.incrementAndGet();
+        if (!spills.offer(span) || (spillerStopped && spills.remove(span))) {
+            spilling.decrementAndGet();
+            rejected.increment();
+        }
+    }
+
+    private void writeSpills() {
+        while (true) {
+            final com.expedia.open.tracing.Span span;
+            try {
+                span = spillerRunning ? spills.poll(MAX_POLL_NANOS, TimeUnit.NANOSECONDS) : spills.poll();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                spillerStopped = true;
+                while (spills.poll() != null) {
+                    spilling.decrementAndGet();
+                    rejected.increment();
+                }
+                return;
+            }
+            if (span != null) {
+                write(span);
+            } else if (!spillerRunning) {
+                // spans handed over from now on are rejected by spill, the ones handed before are still written
+                spillerStopped = true;
+                com.expedia.open.tracing.Span left;
+                while ((left = spills.poll()) != null) {
+                    write(left);
+                }
+                return;
+            }
+        }
+    }
+
+    private void write(final com.expedia.open.tracing.Span span) {
+        try {
+            if (journal.append(span.toByteArray())) {
+                spilled.increment();
+                return;
+            }
+            LOGGER.error("Span of {} bytes is larger than a journal segment", span.getSerializedSize());
+        } catch (Exception e) {
+            LOGGER.error("Fail to spill span to the journal", e);
+        } finally {
+            spilling.decrementAndGet();
+        }
+        rejected.increment();
+    }
+
+    private void spillQueue() {
+        Span span;
+        while ((span = queue.poll()) != null) {
+            spill(format.format(span));
+            pending.decrementAndGet();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SpillingDispatcher{queueSize=" + (queue.size() + queue.remainingCapacity()) + ", healthy=" + healthy +
+                ", journalSize=" + journal.size() + "}";
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.dispatchers;
+
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.dispatchers.Dispatcher;
+import com.expedia.www.haystack.client.metrics.Counter;
+import com.expedia.www.haystack.client.metrics.Gauge;
+import com.expedia.www.haystack.client.metrics.Metrics;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.Tag;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Dispatcher} buffering finished spans by trace, and forwarding a trace to the wrapped dispatcher only if it
+ * matches the {@link TailSamplingRules} once decisionWaitMs passed since its first span arrived.
+ *
+ * Traces are spread over shards by trace id, each with its own lock, and kept in the order their first span arrived,
+ * so the sweeper decides the expired traces of a shard from its head without scanning the others. Whether a trace
+ * matches is updated as its spans arrive, deciding does not go through them again.
+ *
+ * Memory is bounded by maxSpans spans over all shards, spread evenly with at least one span per shard: once a shard
+ * is full, its oldest trace is decided early with the spans it has, and counted as evicted. A trace keeps at most
+ * maxSpansPerTrace spans, further ones are dropped. The decisions of the last maxDecidedTraces traces are remembered,
+ * so spans arriving after the decision follow it.
+ */
+public class TailSamplingDispatcher implements Dispatcher {
+    private final static Logger LOGGER = LoggerFactory.getLogger(TailSamplingDispatcher.class);
+
+    private final Dispatcher delegate;
+    private final TailSamplingRules rules;
+    private final long decisionWaitNanos;
+    private final int maxSpansPerTrace;
+    private final Shard[] shards;
+    private final int mask;
+    private final ScheduledExecutorService sweeper;
+    private volatile boolean running = true;
+
+    private final Counter keptTraces;
+    private final Counter droppedTraces;
+    private final Counter evictedTraces;
+    private final Counter lateSpans;
+    private final Counter rejectedSpans;
+    private final Counter overflowSpans;
+
+    /**
+     * @param delegate dispatcher the kept traces are forwarded to
+     * @param rules rules a trace has to match to be kept
+     * @param decisionWaitMs time a trace is buffered from its first span before it is decided
+     * @param maxSpans spans buffered over all the shards
+     * @param maxSpansPerTrace spans buffered for a single trace
+     * @param maxDecidedTraces decisions remembered over all the shards for the spans arriving late
+     * @param shardCount number of shards, rounded up to a power of two
+     * @param sweepIntervalMs time between two passes deciding the expired traces
+     * @param registry registry the dispatcher metrics are published to
+     */
+    public TailSamplingDispatcher(final Dispatcher delegate,
+                                  final TailSamplingRules rules,
+                                  final long decisionWaitMs,
+                                  final int maxSpans,
+                                  final int maxSpansPerTrace,
+                                  final int maxDecidedTraces,
+                                  final int shardCount,
+                                  final long sweepIntervalMs,
+                                  final MetricsRegistry registry) {
+        Validate.notNull(delegate);
+        Validate.notNull(rules);
+        Validate.isTrue(decisionWaitMs >= 0, "decisionWaitMs must not be negative");
+        Validate.isTrue(shardCount > 0 && shardCount <= 1 << 16, "shardCount must be between 1 and 2^16");
+        Validate.isTrue(maxSpans >= shardCount, "maxSpans must allow a span per shard");
+        Validate.isTrue(maxSpansPerTrace > 0, "maxSpansPerTrace must be positive");
+        Validate.isTrue(maxDecidedTraces >= 0, "maxDecidedTraces must not be negative");
+        Validate.isTrue(sweepIntervalMs > 0, "sweepIntervalMs must be positive");
+
+        final int size = Integer.highestOneBit(shardCount) == shardCount
+                ? shardCount
+                : Integer.highestOneBit(shardCount) << 1;
+        this.delegate = delegate;
+        this.rules = rules;
+        this.decisionWaitNanos = TimeUnit.MILLISECONDS.toNanos(decisionWaitMs);
+        this.maxSpansPerTrace = maxSpansPerTrace;
+        this.shards = new Shard[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            // the shard count is rounded up, a plain division would leave shards without room
+            final int decided = share(maxDecidedTraces, size, i);
+            shards[i] = new Shard(Math.max(share(maxSpans, size, i), 1),
+                    maxDecidedTraces > 0 ? Math.max(decided, 1) : 0);
+        }
+
+        final Metrics metrics = new Metrics(registry, Dispatcher.class.getName(),
+                Collections.singletonList(new Tag("type", "tail")));
+        this.keptTraces = Counter.builder("traces").tag(new Tag("state", "kept")).register(metrics);
+        this.droppedTraces = Counter.builder("traces").tag(new Tag("state", "dropped")).register(metrics);
+        this.evictedTraces = Counter.builder("traces").tag(new Tag("state", "evicted")).register(metrics);
+        this.lateSpans = Counter.builder("spans").tag(new Tag("state", "late")).register(metrics);
+        this.rejectedSpans = Counter.builder("spans").tag(new Tag("state", "rejected")).register(metrics);
+        this.overflowSpans = Counter.builder("spans").tag(new Tag("state", "overflow")).register(metrics);
+        Gauge.builder("bufferedSpans", this, TailSamplingDispatcher::bufferedSpans).register(metrics);
+        Gauge.builder("bufferedTraces", this, TailSamplingDispatcher::bufferedTraces).register(metrics);
+
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("haystack-tail-sampler-%d")
+                .setDaemon(true)
+                .build());
+        this.sweeper.scheduleWithFixedDelay(() -> {
+            try {
+                sweep(System.nanoTime(), false);
+            } catch (Exception e) {
+                LOGGER.error("Fail to decide the buffered traces", e);
+            }
+        }, sweepIntervalMs, sweepIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void dispatch(final Span span) {
+        if (!running) {
+            rejectedSpans.increment();
+            return;
+        }
+
+        final Object traceId = span.context().getTraceId();
+        final boolean matches = rules.matches(span);
+        final Shard shard = shards[index(traceId)];
+        final Trace evicted;
+        synchronized (shard) {
+            // closed since the check above, the final sweep may be past this shard and would never decide the span
+            if (!running) {
+                rejectedSpans.increment();
+                return;
+            }
+            final Boolean decision = shard.decided.get(traceId);
+            if (decision != null) {
+                lateSpans.increment();
+                if (!decision && !matches) {
+                    return;
+                }
+                // too late for the rest of a dropped trace, but this span is worth keeping and so are the next ones
+                shard.decided.put(traceId, Boolean.TRUE);
+                evicted = null;
+            } else {
+                Trace trace = shard.traces.get(traceId);
+                if (trace == null) {
+                    trace = new Trace(traceId, System.nanoTime());
+                    shard.traces.put(traceId, trace);
+                }
+                trace.matches |= matches;
+                if (trace.spans.size() < maxSpansPerTrace) {
+                    trace.spans.add(span);
+                    shard.spans++;
+                } else {
+                    overflowSpans.increment();
+                }
+                if (shard.spans <= shard.maxSpans) {
+                    return;
+                }
+                evicted = shard.removeOldest();
+                decide(shard, evicted);
+            }
+        }
+
+        if (evicted == null) {
+            forward(span);
+        } else {
+            evictedTraces.increment();
+            forward(evicted);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        delegate.flush();
+    }
+
+    /**
+     * decides all the buffered traces right away, forwards the kept ones and closes the wrapped dispatcher
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        sweeper.shutdown();
+        try {
+            sweeper.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sweep(System.nanoTime(), true);
+        delegate.close();
+    }
+
+    /**
+     * decides the traces whose first span arrived at least decisionWaitMs before now, or all of them
+     */
+    void sweep(final long now, final boolean all) {
+        for (Shard shard : shards) {
+            final List<Trace> expired = new ArrayList<>();
+            synchronized (shard) {
+                final Iterator<Trace> traces = shard.traces.values().iterator();
+                while (traces.hasNext()) {
+                    final Trace trace = traces.next();
+                    if (!all && now - trace.firstSpanNanos < decisionWaitNanos) {
+                        break;
+                    }
+                    traces.remove();
+                    shard.spans -= trace.spans.size();
+                    decide(shard, trace);
+                    expired.add(trace);
+                }
+            }
+            expired.forEach(this::forward);
+        }
+    }
+
+    /**
+     * @return the number of spans waiting for the decision of their trace
+     */
+    public long bufferedSpans() {
+        long spans = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                spans += shard.spans;
+            }
+        }
+        return spans;
+    }
+
+    /**
+     * @return the number of traces waiting for a decision
+     */
+    public long bufferedTraces() {
+        long traces = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                traces += shard.traces.size();
+            }
+        }
+        return traces;
+    }
+
+    /**
+     * @return the part of the total going to the shard, the remainder going one by one to the first shards
+     */
+    private static int share(final int total, final int shards, final int shard) {
+        return total / shards + (shard < total % shards ? 1 : 0);
+    }
+
+    private int index(final Object traceId) {
+        final int hash = traceId.hashCode();
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private void decide(final Shard shard, final Trace trace) {
+        trace.kept = trace.matches || rules.sample();
+        shard.decided.put(trace.traceId, trace.kept);
+    }
+
+    private void forward(final Trace trace) {
+        if (!trace.kept) {
+            droppedTraces.increment();
+            return;
+        }
+        keptTraces.increment();
+        trace.spans.forEach(this::forward);
+    }
+
+    private void forward(final Span span) {
+        try {
+            delegate.dispatch(span);
+        } catch (Exception e) {
+            LOGGER.error("Fail to forward a span of a kept trace", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TailSamplingDispatcher{shards=" + shards.length + ", rules=" + rules + ", delegate=" + delegate + "}";
+    }
+
+    private final static class Shard {
+        private final int maxSpans;
+        // buffered traces, in the order their first span arrived
+        private final LinkedHashMap<Object, Trace> traces = new LinkedHashMap<>();
+        private final Map<Object, Boolean> decided;
+        private int spans;
+
+        Shard(final int maxSpans, final int maxDecided) {
+            this.maxSpans = maxSpans;
+            this.decided = new LinkedHashMap<Object, Boolean>() {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<Object, Boolean> eldest) {
+                    return size() > maxDecided;
+                }
+            };
+        }
+
+        Trace removeOldest() {
+            final Iterator<Trace> oldest = traces.values().iterator();
+            final Trace trace = oldest.next();
+            oldest.remove();
+            spans -= trace.spans.size();
+            return trace;
+        }
+    }
+
+    private final static class Trace {
+        private final Object traceId;
+        private final long firstSpanNanos;
+        private final List<Span> spans = new ArrayList<>(4);
+        private boolean matches;
+        private boolean kept;
+
+        Trace(final Object traceId, final long firstSpanNanos) {
+            this.traceId = traceId;
+            this.firstSpanNanos = firstSpanNanos;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.dispatchers;
+
+import com.expedia.www.haystack.client.Span;
+import io.opentracing.tag.Tags;
+import org.apache.commons.lang3.Validate;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rules a trace buffered by the {@link TailSamplingDispatcher} has to match to be kept: one of its spans is tagged as
+ * an error, lasted at least minDurationMs or is one of the operations. Other traces are kept with the probability
+ * samplingRate, so that normal traffic stays visible.
+ */
+public class TailSamplingRules {
+    private final boolean errors;
+    private final long minDurationMicros;
+    private final Set<String> operations;
+    private final double samplingRate;
+
+    /**
+     * @param errors whether traces with an error span are kept
+     * @param minDurationMs traces with a span lasting at least this long are kept, negative for none
+     * @param operations traces with a span of one of these operations are kept
+     * @param samplingRate probability of keeping a trace matching no rule
+     */
+    public TailSamplingRules(final boolean errors,
+                             final long minDurationMs,
+                             final Collection<String> operations,
+                             final double samplingRate) {
+        Validate.notNull(operations);
+        Validate.inclusiveBetween(0.0, 1.0, samplingRate, "samplingRate must be between 0 and 1");
+
+        this.errors = errors;
+        this.minDurationMicros = minDurationMs < 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toMicros(minDurationMs);
+        this.operations = new HashSet<>(operations);
+        this.samplingRate = samplingRate;
+    }
+
+    /**
+     * @return true if the span alone makes its trace worth keeping
+     */
+    boolean matches(final Span span) {
+        if (errors) {
+            final Object error = span.getTags().get(Tags.ERROR.getKey());
+            if (Boolean.TRUE.equals(error) || "true".equals(error)) {
+                return true;
+            }
+        }
+        final Long duration = span.getDuration();
+        if (duration != null && duration >= minDurationMicros) {
+            return true;
+        }
+        return !operations.isEmpty() && operations.contains(span.getOperationName());
+    }
+
+    /**
+     * @return true if a trace matching no rule is kept anyway
+     */
+    boolean sample() {
+        return samplingRate > 0 && (samplingRate >= 1 || ThreadLocalRandom.current().nextDouble() < samplingRate);
+    }
+
+    @Override
+    public String toString() {
+        return "TailSamplingRules{errors=" + errors + ", minDurationMicros=" + minDurationMicros + ", operations=" +
+                operations + ", samplingRate=" + samplingRate + "}";
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.io;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * An append-only segment file of records, used by the segmented blob store and the span journal. Records are appended
+ * as [length][payload] and the length is written last, so a record only becomes visible once it is complete and a
+ * zero length marks the end of what was written to the segment, also after a crash. Segment files are named after
+ * their id so listing a directory returns them in the order they were created.
+ * <p>
+ * Records are written and read with positional reads and writes on a file channel rather than through a memory
+ * mapping, so deleting a segment closes its only handle and frees its disk blocks right away. A mapping would keep them
+ * allocated until the buffer is garbage collected. The handle is opened lazily and can be released with
+ * {@link #close()}. Appends are expected from a single writer at a time.
+ */
+public final class SegmentFile {
+    public final static int LENGTH_BYTES = 4;
+
+    private final long id;
+    private final File file;
+    private final int capacity;
+    private volatile int size;
+    private volatile long lastWriteMs;
+    private volatile boolean deleted;
+
+    // guarded by this
+    private RandomAccessFile handle;
+
+    private SegmentFile(final long id, final File file, final int capacity, final long lastWriteMs) {
+        this.id = id;
+        this.file = file;
+        this.capacity = capacity;
+        this.lastWriteMs = lastWriteMs;
+    }
+
+    public static File file(final File directory, final long id, final String suffix) {
+        return new File(directory, String.format("%020d%s", id, suffix));
+    }
+
+    /**
+     * @return the ids of the segment files with this suffix in the directory, oldest first
+     */
+    public static long[] list(final File directory, final String suffix) {
+        final File[] files = directory.listFiles((dir, name) -> name.endsWith(suffix));
+        final long[] ids = new long[files == null ? 0 : files.length];
+        for (int i = 0; i < ids.length; i++) {
+            final String name = files[i].getName();
+            ids[i] = Long.parseLong(name.substring(0, name.length() - suffix.length()));
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * creates a new empty segment file
+     * @param capacity bytes the records of the segment can take
+     * @throws IOException if the file exists or cannot be created
+     */
+    public static SegmentFile create(final File directory, final long id, final String suffix, final int capacity)
+            throws IOException {
+        final File file = file(directory, id, suffix);
+        if (!file.createNewFile()) {
+            throw new IOException("Segment " + file + " already exists");
+        }
+        return new SegmentFile(id, file, capacity, System.currentTimeMillis());
+    }
+
+    /**
+     * reads an existing segment file and replays its complete records, appends continue after the last one
+     * @param capacity bytes the records of the segment can take
+     * @param visitor receives every complete record
+     * @throws IOException if the file cannot be read
+     */
+    public static SegmentFile open(final File directory,
+                                   final long id,
+                                   final String suffix,
+                                   final int capacity,
+                                   final RecordVisitor visitor) throws IOException {
+        final File file = file(directory, id, suffix);
+        final long fileLength = file.length();
+        final SegmentFile segment = new SegmentFile(id, file, capacity, file.lastModified());
+        int position = 0;
+        try (CountingInputStream in = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            final DataInputStream lengths = new DataInputStream(in);
+            while (position + LENGTH_BYTES <= fileLength) {
+                final int length = lengths.readInt();
+                if (length <= 0 || position + LENGTH_BYTES + length > fileLength) {
+                    break;
+                }
+                visitor.visit(segment, position, length, new DataInputStream(ByteStreams.limit(in, length)));
+                position += LENGTH_BYTES + length;
+                // skips what the visitor did not read of the payload
+                ByteStreams.skipFully(in, position - in.getCount());
+            }
+        }
+        segment.size = position;
+        return segment;
+    }
+
+    /**
+     * @return a buffer for a record of this payload size, positioned at the start of the payload
+     */
+    public static ByteBuffer newRecord(final int payloadBytes) {
+        final ByteBuffer record = ByteBuffer.allocate(LENGTH_BYTES + payloadBytes);
+        record.position(LENGTH_BYTES);
+        return record;
+    }
+
+    public boolean hasRoom(final int payloadBytes) {
+        return capacity - size >= LENGTH_BYTES + payloadBytes;
+    }
+
+    /**
+     * appends a record filled in after {@link #newRecord(int)}, with a positional write of the record and then one of
+     * its length
+     * @return the position of the record in the segment
+     * @throws IOException if the record cannot be written
+     */
+    public int append(final ByteBuffer record) throws IOException {
+        final int start = size;
+        final int length = record.capacity() - LENGTH_BYTES;
+        record.clear();
+        synchronized (this) {
+            final FileChannel channel = handle().getChannel();
+            write(channel, record, start);
+            write(channel, ByteBuffer.allocate(LENGTH_BYTES).putInt(0, length), start);
+        }
+        size = start + record.capacity();
+        lastWriteMs = System.currentTimeMillis();
+        return start;
+    }
+
+    /**
+     * @return the payload length of the record at this position, zero past the last record
+     * @throws IOException if the length cannot be read
+     */
+    public int lengthAt(final int position) throws IOException {
+        if (position + LENGTH_BYTES > size) {
+            return 0;
+        }
+        final byte[] length = read(position, LENGTH_BYTES);
+        return length == null ? 0 : ByteBuffer.wrap(length).getInt();
+    }
+
+    /**
+     * @return the bytes at this position of the file, null once the segment is deleted
+     * @throws IOException if the bytes cannot be read
+     */
+    public synchronized byte[] read(final long position, final int length) throws IOException {
+        if (deleted) return null;
+
+        final FileChannel channel = handle().getChannel();
+        final ByteBuffer data = ByteBuffer.allocate(length);
+        while (data.hasRemaining()) {
+            if (channel.read(data, position + data.position()) < 0) {
+                throw new IOException("Truncated record in segment " + file);
+            }
+        }
+        return data.array();
+    }
+
+    /**
+     * forces the records appended so far to disk
+     */
+    public synchronized void flush() throws IOException {
+        if (handle != null) {
+            handle.getFD().sync();
+        }
+    }
+
+    /**
+     * forces the records to disk and releases the file handle, it is opened again by the next read or append
+     */
+    public synchronized void close() throws IOException {
+        if (handle != null) {
+            handle.getFD().sync();
+            handle.close();
+            handle = null;
+        }
+    }
+
+    /**
+     * closes and deletes the file, reads see it as gone from now on. It can be called again after a failure.
+     * @throws IOException if the file cannot be deleted
+     */
+    public void delete() throws IOException {
+        synchronized (this) {
+            deleted = true;
+            if (handle != null) {
+                handle.close();
+                handle = null;
+            }
+        }
+        if (!file.delete() && file.exists()) {
+            throw new IOException("Fail to delete segment " + file);
+        }
+    }
+
+    public long id() {
+        return id;
+    }
+
+    public File file() {
+        return file;
+    }
+
+    /**
+     * @return bytes taken by the records of the segment
+     */
+    public int size() {
+        return size;
+    }
+
+    public long lastWriteMs() {
+        return lastWriteMs;
+    }
+
+    // guarded by this
+    private RandomAccessFile handle() throws IOException {
+        if (handle == null) {
+            handle = new RandomAccessFile(file, "rw");
+        }
+        return handle;
+    }
+
+    private static void write(final FileChannel channel, final ByteBuffer buffer, final long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    @FunctionalInterface
+    public interface RecordVisitor {
+        /**
+         * @param segment the segment being opened
+         * @param position position of the record in the segment
+         * @param length length of the payload
+         * @param payload the payload, whatever is not read of it is skipped
+         */
+        void visit(SegmentFile segment, int position, int length, DataInput payload) throws IOException;
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.sampling;
+
+/**
+ * {@link Sampler} recording all traces or none
+ */
+public class ConstSampler implements Sampler {
+    private final boolean sampled;
+
+    public ConstSampler(final boolean sampled) {
+        this.sampled = sampled;
+    }
+
+    @Override
+    public boolean isSampled(final String operationName, final Object traceId) {
+        return sampled;
+    }
+
+    @Override
+    public String toString() {
+        return "ConstSampler{sampled=" + sampled + "}";
+    }
+}
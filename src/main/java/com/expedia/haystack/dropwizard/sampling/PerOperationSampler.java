@@ -0,0 +1,114 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.sampling;
+
+import com.expedia.haystack.dropwizard.decorators.TokenBucket;
+import org.apache.commons.lang3.Validate;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link Sampler} with a sampling rate per operation name, the HTTP method and path template of server spans such as
+ * GET:/orders/{id}. A trace not sampled by the rate of its operation is still recorded if the operation is below
+ * lowerBoundPerSec traces per second, so rarely called operations are traced too. Operations get their own sampler on
+ * first use, up to maxOperations of them besides the configured ones, further operations share the default sampler
+ * so that memory stays bounded.
+ */
+public class PerOperationSampler implements Sampler {
+    private final Map<String, Double> samplingRates;
+    private final double defaultSamplingRate;
+    private final double lowerBoundPerSec;
+    private final int maxOperations;
+    private final Map<String, Sampler> operations = new ConcurrentHashMap<>();
+    // samplers of the operations without a configured rate
+    private final AtomicInteger unconfigured = new AtomicInteger();
+    private final Sampler defaultSampler;
+
+    /**
+     * @param samplingRates sampling rates of specific operations, by operation name
+     * @param defaultSamplingRate sampling rate of the other operations
+     * @param lowerBoundPerSec traces per second recorded for each operation whatever its rate, zero for none
+     * @param maxOperations maximum number of operations with their own sampler besides the configured ones
+     */
+    public PerOperationSampler(final Map<String, Double> samplingRates,
+                               final double defaultSamplingRate,
+                               final double lowerBoundPerSec,
+                               final int maxOperations) {
+        Validate.notNull(samplingRates);
+        Validate.isTrue(lowerBoundPerSec >= 0, "lowerBoundPerSec must not be negative");
+        Validate.isTrue(maxOperations >= 0, "maxOperations must not be negative");
+
+        this.samplingRates = samplingRates;
+        this.defaultSamplingRate = defaultSamplingRate;
+        this.lowerBoundPerSec = lowerBoundPerSec;
+        this.maxOperations = maxOperations;
+        this.defaultSampler = newSampler(defaultSamplingRate);
+    }
+
+    @Override
+    public boolean isSampled(final String operationName, final Object traceId) {
+        Sampler sampler = operationName == null ? defaultSampler : operations.get(operationName);
+        if (sampler == null) {
+            sampler = operations.computeIfAbsent(operationName, this::newOperationSampler);
+            if (sampler == null) {
+                sampler = defaultSampler;
+            }
+        }
+        return sampler.isSampled(operationName, traceId);
+    }
+
+    /**
+     * @return the number of operations with their own sampler
+     */
+    int operationCount() {
+        return operations.size();
+    }
+
+    /**
+     * @return the sampler of the operation, or null once maxOperations operations have one, computed atomically for
+     * the operation
+     */
+    private Sampler newOperationSampler(final String operationName) {
+        final Double samplingRate = samplingRates.get(operationName);
+        if (samplingRate != null) {
+            return newSampler(samplingRate);
+        }
+        if (unconfigured.incrementAndGet() > maxOperations) {
+            unconfigured.decrementAndGet();
+            return null;
+        }
+        return newSampler(defaultSamplingRate);
+    }
+
+    private Sampler newSampler(final double samplingRate) {
+        final ProbabilisticSampler probabilistic = new ProbabilisticSampler(samplingRate);
+        if (lowerBoundPerSec <= 0 || samplingRate >= 1) {
+            return probabilistic;
+        }
+        final TokenBucket lowerBound = new TokenBucket(lowerBoundPerSec);
+        return (operationName, traceId) ->
+                probabilistic.isSampled(operationName, traceId) || lowerBound.tryAcquire();
+    }
+
+    @Override
+    public String toString() {
+        return "PerOperationSampler{operations=" + samplingRates.keySet() + ", defaultSamplingRate=" +
+                defaultSamplingRate + ", lowerBoundPerSec=" + lowerBoundPerSec + "}";
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.sampling;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@link Sampler} recording a trace with the probability samplingRate
+ */
+public class ProbabilisticSampler implements Sampler {
+    private final double samplingRate;
+
+    /**
+     * @param samplingRate probability of a trace to be recorded, between 0 and 1
+     */
+    public ProbabilisticSampler(final double samplingRate) {
+        Validate.inclusiveBetween(0.0, 1.0, samplingRate, "samplingRate must be between 0 and 1");
+        this.samplingRate = samplingRate;
+    }
+
+    @Override
+    public boolean isSampled(final String operationName, final Object traceId) {
+        return samplingRate >= 1 || ThreadLocalRandom.current().nextDouble() < samplingRate;
+    }
+
+    public double getSamplingRate() {
+        return samplingRate;
+    }
+
+    @Override
+    public String toString() {
+        return "ProbabilisticSampler{samplingRate=" + samplingRate + "}";
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.sampling;
+
+import com.expedia.haystack.dropwizard.decorators.TokenBucket;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * {@link Sampler} recording up to maxTracesPerSec traces per second, whatever the traffic of the service
+ */
+public class RateLimitingSampler implements Sampler {
+    private final double maxTracesPerSec;
+    private final TokenBucket tokens;
+
+    /**
+     * @param maxTracesPerSec traces recorded per second, bursts of up to one second worth of traces are allowed
+     */
+    public RateLimitingSampler(final double maxTracesPerSec) {
+        Validate.isTrue(maxTracesPerSec > 0, "maxTracesPerSec must be positive");
+        this.maxTracesPerSec = maxTracesPerSec;
+        this.tokens = new TokenBucket(maxTracesPerSec);
+    }
+
+    @Override
+    public boolean isSampled(final String operationName, final Object traceId) {
+        return tokens.tryAcquire();
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimitingSampler{maxTracesPerSec=" + maxTracesPerSec + "}";
+    }
+}
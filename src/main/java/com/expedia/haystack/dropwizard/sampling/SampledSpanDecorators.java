@@ -0,0 +1,70 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.sampling;
+
+import io.opentracing.Span;
+import io.opentracing.contrib.jaxrs2.client.ClientSpanDecorator;
+import io.opentracing.contrib.jaxrs2.server.ServerSpanDecorator;
+
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+
+/**
+ * Wraps span decorators so that they only decorate spans of recorded traces, see {@link SamplingTracer}
+ */
+public final class SampledSpanDecorators {
+    private SampledSpanDecorators() {
+    }
+
+    public static ServerSpanDecorator server(final ServerSpanDecorator decorator) {
+        return new ServerSpanDecorator() {
+            @Override
+            public void decorateRequest(final ContainerRequestContext requestContext, final Span span) {
+                if (SamplingTracer.isSampled(span)) {
+                    decorator.decorateRequest(requestContext, span);
+                }
+            }
+
+            @Override
+            public void decorateResponse(final ContainerResponseContext responseContext, final Span span) {
+                if (SamplingTracer.isSampled(span)) {
+                    decorator.decorateResponse(responseContext, span);
+                }
+            }
+        };
+    }
+
+    public static ClientSpanDecorator client(final ClientSpanDecorator decorator) {
+        return new ClientSpanDecorator() {
+            @Override
+            public void decorateRequest(final ClientRequestContext requestContext, final Span span) {
+                if (SamplingTracer.isSampled(span)) {
+                    decorator.decorateRequest(requestContext, span);
+                }
+            }
+
+            @Override
+            public void decorateResponse(final ClientResponseContext responseContext, final Span span) {
+                if (SamplingTracer.isSampled(span)) {
+                    decorator.decorateResponse(responseContext, span);
+                }
+            }
+        };
+    }
+}
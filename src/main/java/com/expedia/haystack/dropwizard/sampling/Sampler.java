@@ -0,0 +1,30 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.sampling;
+
+/**
+ * Decides whether a trace is recorded. It is only asked when a trace starts, or reaches this service without the
+ * decision of an upstream service, the spans of a trace otherwise follow the decision propagated with it.
+ */
+public interface Sampler {
+    /**
+     * @param operationName operation name of the first span of the trace in this service
+     * @param traceId id of the trace
+     * @return true if the trace is recorded
+     */
+    boolean isSampled(String operationName, Object traceId);
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.sampling;
+
+import com.expedia.www.haystack.client.SpanContext;
+import com.expedia.www.haystack.client.idgenerators.IdGenerator;
+import com.expedia.www.haystack.client.idgenerators.LongIdGenerator;
+import com.expedia.www.haystack.client.metrics.Counter;
+import com.expedia.www.haystack.client.metrics.Metrics;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.Tag;
+import io.opentracing.References;
+import io.opentracing.Scope;
+import io.opentracing.ScopeManager;
+import io.opentracing.Span;
+import io.opentracing.Tracer;
+import io.opentracing.propagation.Format;
+import org.apache.commons.lang3.Validate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link Tracer} recording only the traces chosen by a {@link Sampler}. The decision is taken when a span has no
+ * parent carrying one, and is kept in the baggage of the span under {@link #SAMPLED_BAGGAGE}, so child spans and
+ * downstream services, which receive the baggage with the trace headers, keep or drop the whole trace alike.
+ *
+ * A span of a dropped trace is an {@link UnsampledSpan}: the tags of its builder are not even collected into a span,
+ * and finishing it dispatches nothing. It still has a trace and span id, as downstream services need them to find the
+ * decision. Decorators are skipped for such spans when wrapped with {@link SampledSpanDecorators}.
+ */
+public class SamplingTracer implements Tracer {
+    public final static String SAMPLED_BAGGAGE = "sampled";
+    private final static String SAMPLED = "1";
+    private final static String NOT_SAMPLED = "0";
+
+    private final com.expedia.www.haystack.client.Tracer tracer;
+    private final Sampler sampler;
+    private final PresetIdGenerator ids;
+    private final Counter sampled;
+    private final Counter notSampled;
+
+    /**
+     * @param builder builder of the tracer recording the sampled traces, built with the id generator
+     * @param idGenerator generator of the trace and span ids, null for the default one of the tracer
+     * @param sampler decides whether new traces are recorded
+     * @param registry registry the sampling counters are published to
+     */
+    public SamplingTracer(final com.expedia.www.haystack.client.Tracer.Builder builder,
+                          final IdGenerator idGenerator,
+                          final Sampler sampler,
+                          final MetricsRegistry registry) {
+        Validate.notNull(builder);
+        Validate.notNull(sampler);
+
+        this.ids = new PresetIdGenerator(idGenerator == null ? new LongIdGenerator() : idGenerator);
+        this.tracer = builder.withIdGenerator(ids).build();
+        this.sampler = sampler;
+
+        final Metrics metrics = new Metrics(registry, Tracer.class.getName(), Collections.emptyList());
+        this.sampled = Counter.builder("sampling").tag(new Tag("state", "sampled")).register(metrics);
+        this.notSampled = Counter.builder("sampling").tag(new Tag("state", "notsampled")).register(metrics);
+    }
+
+    /**
+     * @param span a span of this tracer
+     * @return false if the trace of the span is not recorded
+     */
+    public static boolean isSampled(final Span span) {
+        return !(span instanceof UnsampledSpan);
+    }
+
+    /**
+     * @return the tracer recording the sampled traces
+     */
+    public com.expedia.www.haystack.client.Tracer getTracer() {
+        return tracer;
+    }
+
+    @Override
+    public ScopeManager scopeManager() {
+        return tracer.scopeManager();
+    }
+
+    @Override
+    public Span activeSpan() {
+        return tracer.activeSpan();
+    }
+
+    @Override
+    public Scope activateSpan(final Span span) {
+        return tracer.activateSpan(span);
+    }
+
+    @Override
+    public SpanBuilder buildSpan(final String operationName) {
+        return new SamplingSpanBuilder(operationName);
+    }
+
+    @Override
+    public <C> void inject(final io.opentracing.SpanContext spanContext, final Format<C> format, final C carrier) {
+        tracer.inject(spanContext, format, carrier);
+    }
+
+    @Override
+    public <C> io.opentracing.SpanContext extract(final Format<C> format, final C carrier) {
+        return tracer.extract(format, carrier);
+    }
+
+    @Override
+    public void close() {
+        tracer.close();
+    }
+
+    @Override
+    public String toString() {
+        return "SamplingTracer{sampler=" + sampler + ", tracer=" + tracer + "}";
+    }
+
+    /**
+     * collects what the span is built with until the sampling decision is known at start
+     */
+    private final class SamplingSpanBuilder implements SpanBuilder {
+        private final String operationName;
+        private final List<String> referenceTypes = new ArrayList<>(1);
+        private final List<io.opentracing.SpanContext> references = new ArrayList<>(1);
+        private Map<String, Object> tags;
+        private boolean ignoreActiveSpan;
+        private long startTimestamp;
+
+        SamplingSpanBuilder(final String operationName) {
+            this.operationName = operationName;
+        }
+
+        @Override
+        public SpanBuilder asChildOf(final io.opentracing.SpanContext parent) {
+            return addReference(References.CHILD_OF, parent);
+        }
+
+        @Override
+        public SpanBuilder asChildOf(final Span parent) {
+            return parent == null ? this : addReference(References.CHILD_OF, parent.context());
+        }
+
+        @Override
+        public SpanBuilder addReference(final String referenceType, final io.opentracing.SpanContext context) {
+            if (context != null) {
+                referenceTypes.add(referenceType);
+                references.add(context);
+            }
+            return this;
+        }
+
+        @Override
+        public SpanBuilder ignoreActiveSpan() {
+            ignoreActiveSpan = true;
+            return this;
+        }
+
+        @Override
+        public SpanBuilder withTag(final String key, final String value) {
+            return tag(key, value);
+        }
+
+        @Override
+        public SpanBuilder withTag(final String key, final boolean value) {
+            return tag(key, value);
+        }
+
+        @Override
+        public SpanBuilder withTag(final String key, final Number value) {
+            return tag(key, value);
+        }
+
+        @Override
+        public <T> SpanBuilder withTag(final io.opentracing.tag.Tag<T> tag, final T value) {
+            return tag(tag.getKey(), value);
+        }
+
+        @Override
+        public SpanBuilder withStartTimestamp(final long microseconds) {
+            startTimestamp = microseconds;
+            return this;
+        }
+
+        @Override
+        public Span start() {
+            final io.opentracing.SpanContext parent = parent();
+            final SpanContext haystackParent = parent instanceof SpanContext ? (SpanContext) parent : null;
+            final String decision = haystackParent == null ? null : haystackParent.getBaggageItem(SAMPLED_BAGGAGE);
+            final Object traceId = haystackParent == null ? ids.next() : haystackParent.getTraceId();
+
+            final boolean sample = decision == null
+                    ? sampler.isSampled(operationName, traceId)
+                    : SAMPLED.equals(decision);
+            if (!sample) {
+                notSampled.increment();
+                return unsampled(haystackParent, traceId);
+            }
+            sampled.increment();
+
+            final com.expedia.www.haystack.client.Tracer.SpanBuilder builder = tracer.buildSpan(operationName);
+            for (int i = 0; i < references.size(); i++) {
+                builder.addReference(referenceTypes.get(i), references.get(i));
+            }
+            if (ignoreActiveSpan) {
+                builder.ignoreActiveSpan();
+            }
+            if (startTimestamp != 0) {
+                builder.withStartTimestamp(startTimestamp);
+            }
+            if (tags != null) {
+                tags.forEach((key, value) -> {
+                    if (value instanceof Number) {
+                        builder.withTag(key, (Number) value);
+                    } else if (value instanceof Boolean) {
+                        builder.withTag(key, (Boolean) value);
+                    } else {
+                        builder.withTag(key, String.valueOf(value));
+                    }
+                });
+            }
+
+            final com.expedia.www.haystack.client.Span span;
+            if (haystackParent == null) {
+                // a new trace, the tracer takes the trace id the decision was made for
+                ids.preset(traceId);
+                try {
+                    span = builder.start();
+                } finally {
+                    ids.preset(null);
+                }
+            } else {
+                span = builder.start();
+            }
+            return decision == null ? span.setBaggageItem(SAMPLED_BAGGAGE, SAMPLED) : span;
+        }
+
+        private io.opentracing.SpanContext parent() {
+            final int childOf = referenceTypes.indexOf(References.CHILD_OF);
+            if (childOf >= 0) {
+                return references.get(childOf);
+            }
+            if (!references.isEmpty()) {
+                return references.get(0);
+            }
+            if (ignoreActiveSpan) {
+                return null;
+            }
+            final Span active = tracer.activeSpan();
+            return active == null ? null : active.context();
+        }
+
+        private Span unsampled(final SpanContext parent, final Object traceId) {
+            SpanContext context = new SpanContext(traceId, ids.next(), parent == null ? null : parent.getSpanId());
+            if (parent != null) {
+                context = context.addBaggage(parent.getBaggage());
+            }
+            return new UnsampledSpan(context.addBaggage(SAMPLED_BAGGAGE, NOT_SAMPLED));
+        }
+
+        private SpanBuilder tag(final String key, final Object value) {
+            if (tags == null) {
+                tags = new LinkedHashMap<>();
+            }
+            tags.put(key, value);
+            return this;
+        }
+    }
+
+    /**
+     * hands the trace id a decision was made for to the tracer creating the first span of a new trace
+     */
+    private final static class PresetIdGenerator implements IdGenerator {
+        private final IdGenerator generator;
+        private final ThreadLocal<Object> preset = new ThreadLocal<>();
+
+        PresetIdGenerator(final IdGenerator generator) {
+            this.generator = generator;
+        }
+
+        void preset(final Object id) {
+            if (id == null) {
+                preset.remove();
+            } else {
+                preset.set(id);
+            }
+        }
+
+        Object next() {
+            return generator.generate();
+        }
+
+        @Override
+        public Object generate() {
+            final Object id = preset.get();
+            if (id == null) {
+                return generator.generate();
+            }
+            preset.remove();
+            return id;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.sampling;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.UUID;
+
+/**
+ * {@link Sampler} recording a trace if a hash of its id falls below the ratio, so that every service seeing a trace
+ * takes the same decision without coordination, even without the decision propagated by {@link SamplingTracer}.
+ *
+ * The id is read as the 128 bits of a UUID, or as a long, whether it is the object created by the id generator or
+ * the string it was extracted from in a downstream service, and mixed with the finalizer of MurmurHash3. Deciding
+ * costs a few multiplications for generated ids and one pass over the characters for extracted ones, and allocates
+ * nothing. Ids of another form are hashed from their string.
+ *
+ * Samplers of the same salt cut the same hash space, so their decisions are nested: a trace kept at ratio 0.1 is also
+ * kept at any larger ratio. A sampler deciding among traces another one already kept, such as the blob sampling of
+ * the recorded traces, takes a salt of its own so that its ratio applies independently.
+ */
+public class TraceIdRatioSampler implements Sampler {
+    private final double ratio;
+    private final long salt;
+    // decisions compare the 63 lower bits of the hash to the ratio scaled to 2^63
+    private final long threshold;
+
+    /**
+     * @param ratio share of the trace ids recorded, between 0 and 1
+     */
+    public TraceIdRatioSampler(final double ratio) {
+        this(ratio, 0);
+    }
+
+    /**
+     * @param ratio share of the trace ids recorded, between 0 and 1
+     * @param salt mixed into the hash of the trace ids, samplers of different salts decide independently
+     */
+    public TraceIdRatioSampler(final double ratio, final long salt) {
+        Validate.inclusiveBetween(0.0, 1.0, ratio, "ratio must be between 0 and 1");
+        this.ratio = ratio;
+        this.salt = salt;
+        this.threshold = ratio >= 1 ? Long.MAX_VALUE : (long) (ratio * 0x1p63);
+    }
+
+    @Override
+    public boolean isSampled(final String operationName, final Object traceId) {
+        if (ratio >= 1) {
+            return true;
+        }
+        if (traceId == null) {
+            return false;
+        }
+        final long hash = salt == 0 ? hash(traceId) : fmix64(hash(traceId) ^ salt);
+        return (hash & Long.MAX_VALUE) < threshold;
+    }
+
+    public double getRatio() {
+        return ratio;
+    }
+
+    static long hash(final Object traceId) {
+        if (traceId instanceof Long) {
+            return mix(0, (Long) traceId);
+        }
+        if (traceId instanceof UUID) {
+            final UUID uuid = (UUID) traceId;
+            return mix(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        }
+        return hash(traceId.toString());
+    }
+
+    private static long hash(final String traceId) {
+        final int length = traceId.length();
+        if (length == 36 && traceId.charAt(8) == '-' && traceId.charAt(13) == '-'
+                && traceId.charAt(18) == '-' && traceId.charAt(23) == '-') {
+            final long timeLow = hex(traceId, 0, 8);
+            final long timeMid = hex(traceId, 9, 13);
+            final long timeHigh = hex(traceId, 14, 18);
+            final long clockSequence = hex(traceId, 19, 23);
+            final long node = hex(traceId, 24, 36);
+            if ((timeLow | timeMid | timeHigh | clockSequence | node) >= 0) {
+                return mix(timeLow << 32 | timeMid << 16 | timeHigh, clockSequence << 48 | node);
+            }
+        }
+        if (length > 0 && length <= 20) {
+            final long decimal = decimal(traceId);
+            if (decimal != 0 || traceId.equals("0")) {
+                return mix(0, decimal);
+            }
+        }
+        long hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + traceId.charAt(i);
+        }
+        return mix(hash, length);
+    }
+
+    private static long mix(final long mostSignificant, final long leastSignificant) {
+        return fmix64(mostSignificant ^ fmix64(leastSignificant));
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    /**
+     * @return the value of the hexadecimal digits, -1 if one of them is not a hexadecimal digit
+     */
+    private static long hex(final String s, final int from, final int to) {
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            final int digit = Character.digit(s.charAt(i), 16);
+            if (digit < 0) {
+                return -1;
+            }
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    /**
+     * @return the value of a decimal long, 0 if the string is not one
+     */
+    private static long decimal(final String s) {
+        final boolean negative = s.charAt(0) == '-';
+        final int start = negative ? 1 : 0;
+        if (start == s.length()) {
+            return 0;
+        }
+        long value = 0;
+        for (int i = start; i < s.length(); i++) {
+            final int digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return 0;
+            }
+            // overflowing strings end up hashed from their characters, they cannot come from a long
+            if (value < (Long.MIN_VALUE + digit) / 10) {
+                return 0;
+            }
+            value = value * 10 - digit;
+        }
+        if (!negative && value == Long.MIN_VALUE) {
+            // one past Long.MAX_VALUE, negating it would wrap to Long.MIN_VALUE
+            return 0;
+        }
+        return negative ? value : -value;
+    }
+
+    @Override
+    public String toString() {
+        return "TraceIdRatioSampler{ratio=" + ratio + ", salt=" + salt + "}";
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.sampling;
+
+import com.expedia.www.haystack.client.SpanContext;
+import io.opentracing.Span;
+import io.opentracing.tag.Tag;
+
+import java.util.Map;
+
+/**
+ * Span of a trace that is not recorded. It only carries the context that is propagated downstream, with the decision
+ * in its baggage, tags and logs are ignored and finishing it dispatches nothing.
+ */
+final class UnsampledSpan implements Span {
+    private volatile SpanContext context;
+
+    UnsampledSpan(final SpanContext context) {
+        this.context = context;
+    }
+
+    @Override
+    public SpanContext context() {
+        return context;
+    }
+
+    @Override
+    public Span setTag(final String key, final String value) {
+        return this;
+    }
+
+    @Override
+    public Span setTag(final String key, final boolean value) {
+        return this;
+    }
+
+    @Override
+    public Span setTag(final String key, final Number value) {
+        return this;
+    }
+
+    @Override
+    public <T> Span setTag(final Tag<T> tag, final T value) {
+        return this;
+    }
+
+    @Override
+    public Span log(final Map<String, ?> fields) {
+        return this;
+    }
+
+    @Override
+    public Span log(final long timestampMicroseconds, final Map<String, ?> fields) {
+        return this;
+    }
+
+    @Override
+    public Span log(final String event) {
+        return this;
+    }
+
+    @Override
+    public Span log(final long timestampMicroseconds, final String event) {
+        return this;
+    }
+
+    @Override
+    public Span setBaggageItem(final String key, final String value) {
+        context = context.addBaggage(key, value);
+        return this;
+    }
+
+    @Override
+    public String getBaggageItem(final String key) {
+        return context.getBaggageItem(key);
+    }
+
+    @Override
+    public Span setOperationName(final String operationName) {
+        return this;
+    }
+
+    @Override
+    public void finish() {
+    }
+
+    @Override
+    public void finish(final long finishMicros) {
+    }
+
+    @Override
+    public String toString() {
+        return "UnsampledSpan{context=" + context + "}";
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.stores;
+
+import com.expedia.blobs.core.BlobStore;
+import com.expedia.blobs.core.BlobWriterImpl;
+import com.expedia.www.blobs.model.Blob;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.lifecycle.Managed;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * A {@link BlobStore} that hands blobs over to a bounded queue drained by a pool of worker threads, so the wrapped
+ * store's write (a file write or an agent RPC) never runs on the request thread. When the queue is full the
+ * configured {@link OverflowPolicy} decides which blob is dropped. On {@link #stop()} the queue is drained before
+ * the wrapped store is closed.
+ */
+public class AsyncBlobStore implements BlobStore, Managed {
+    private final static Logger LOGGER = LoggerFactory.getLogger(AsyncBlobStore.class);
+    private final static long POLL_INTERVAL_MS = 100;
+
+    public enum OverflowPolicy {
+        DROP_NEWEST,
+        DROP_OLDEST,
+        BLOCK
+    }
+
+    private final BlobStore delegate;
+    private final BlockingQueue<BlobWriterImpl.BlobBuilder> queue;
+    private final int workers;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutMs;
+    private final long shutdownTimeoutMs;
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile boolean running;
+    private ExecutorService executor;
+
+    public AsyncBlobStore(final BlobStore delegate,
+                          final int queueSize,
+                          final int workers,
+                          final OverflowPolicy overflowPolicy,
+                          final long blockTimeoutMs,
+                          final long shutdownTimeoutMs) {
+        Validate.notNull(delegate);
+        Validate.notNull(overflowPolicy);
+        Validate.isTrue(queueSize > 0, "queueSize must be positive");
+        Validate.isTrue(workers > 0, "workers must be positive");
+
+        this.delegate = delegate;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.workers = workers;
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutMs = blockTimeoutMs;
+        this.shutdownTimeoutMs = shutdownTimeoutMs;
+    }
+
+    @Override
+    public void store(final BlobWriterImpl.BlobBuilder blobBuilder) {
+        switch (overflowPolicy) {
+            case DROP_OLDEST:
+                while (!queue.offer(blobBuilder)) {
+                    if (queue.poll() != null) {
+                        dropped.incrementAndGet();
+                    }
+                }
+                break;
+            case BLOCK:
+                try {
+                    if (!queue.offer(blobBuilder, blockTimeoutMs, TimeUnit.MILLISECONDS)) {
+                        dropped.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    dropped.incrementAndGet();
+                }
+                break;
+            default:
+                if (!queue.offer(blobBuilder)) {
+                    dropped.incrementAndGet();
+                }
+        }
+    }
+
+    @Override
+    public Optional<Blob> read(final String key) {
+        return delegate.read(key);
+    }
+
+    @Override
+    public void read(final String key, final BiConsumer<Optional<Blob>, Throwable> callback) {
+        delegate.read(key, callback);
+    }
+
+    @Override
+    public Optional<Blob> read(final String key, final long timeout, final TimeUnit unit) {
+        return delegate.read(key, timeout, unit);
+    }
+
+    @Override
+    public synchronized void start() {
+        if (running) return;
+
+        running = true;
+        executor = Executors.newFixedThreadPool(workers, new ThreadFactoryBuilder()
+                .setNameFormat("haystack-blobs-writer-%d")
+                .setDaemon(true)
+                .build());
+        for (int i = 0; i < workers; i++) {
+            executor.submit(this::drain);
+        }
+    }
+
+    @Override
+    public synchronized void stop() throws Exception {
+        if (!running) return;
+
+        running = false;
+        executor.shutdown();
+        if (!executor.awaitTermination(shutdownTimeoutMs, TimeUnit.MILLISECONDS)) {
+            LOGGER.warn("Blob writers did not drain in {}ms, {} blobs are discarded", shutdownTimeoutMs, queue.size());
+            executor.shutdownNow();
+        }
+        if (delegate instanceof Closeable) {
+            ((Closeable) delegate).close();
+        }
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    private void drain() {
+        while (running || !queue.isEmpty()) {
+            try {
+                final BlobWriterImpl.BlobBuilder blobBuilder = queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (blobBuilder != null) {
+                    delegate.store(blobBuilder);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                LOGGER.error("Fail to write blob to the store", e);
+            }
+        }
+    }
+}
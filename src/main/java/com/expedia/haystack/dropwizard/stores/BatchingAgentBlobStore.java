@@ -0,0 +1,355 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.stores;
+
+import com.expedia.blobs.core.BlobStore;
+import com.expedia.blobs.core.BlobWriterImpl;
+import com.expedia.www.blobs.model.Blob;
+import com.expedia.www.haystack.agent.blobs.api.BlobAgentGrpc;
+import com.expedia.www.haystack.agent.blobs.api.BlobReadResponse;
+import com.expedia.www.haystack.agent.blobs.api.BlobSearch;
+import com.expedia.www.haystack.agent.blobs.api.DispatchResult;
+import com.expedia.www.haystack.client.metrics.Counter;
+import com.expedia.www.haystack.client.metrics.Gauge;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.Tag;
+import com.expedia.www.haystack.client.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.lifecycle.Managed;
+import io.grpc.ManagedChannel;
+import io.grpc.stub.StreamObserver;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * A {@link BlobStore} sending blobs to the haystack agent in batches instead of making a blocking call per blob. Blobs
+ * are queued and grouped into batches of at most maxBatchCount blobs or maxBatchBytes, a batch being sent when full
+ * or lingerMs after its first blob. The agent API has no batch call, so the blobs of a batch are dispatched together
+ * as pipelined calls over the shared channel. At most maxInFlightBatches are awaiting the agent, beyond that the
+ * batching thread waits, the queue fills up and {@link #store(BlobWriterImpl.BlobBuilder)} waits up to blockTimeoutMs
+ * for room before dropping the blob. Every blob is reported to the {@link Listener}, including the ones failing to
+ * build and the ones discarded when stopping interrupts the batching thread.
+ */
+public class BatchingAgentBlobStore implements ReportingBlobStore, Managed, Closeable {
+    private final static Logger LOGGER = LoggerFactory.getLogger(BatchingAgentBlobStore.class);
+    private final static long POLL_INTERVAL_MS = 100;
+
+    private final ManagedChannel channel;
+    private final BlobAgentGrpc.BlobAgentStub stub;
+    private final BlockingQueue<BlobWriterImpl.BlobBuilder> queue;
+    private final int maxBatchCount;
+    private final long maxBatchBytes;
+    private final long lingerMs;
+    private final int maxInFlightBatches;
+    private final Semaphore inFlight;
+    private final long blockTimeoutMs;
+    private final long sendTimeoutMs;
+
+    private final Counter batches;
+    private final Counter batchedBlobs;
+    private final Counter batchedBytes;
+    private final Counter succeeded;
+    private final Counter failed;
+    private final Counter dropped;
+    private final Timer sendLatency;
+
+    private volatile Listener listener = Listener.NOOP;
+    private volatile boolean running;
+    private ExecutorService batcher;
+
+    /**
+     * @param channel channel to the agent, shut down when the store stops
+     * @param queueSize maximum number of blobs waiting to be batched
+     * @param maxBatchCount maximum number of blobs in a batch
+     * @param maxBatchBytes a batch is sent once its blobs add up to this many bytes
+     * @param lingerMs maximum time the first blob of a batch waits for more blobs
+     * @param maxInFlightBatches maximum number of batches awaiting the agent
+     * @param blockTimeoutMs how long a blob waits for room in the queue before being dropped
+     * @param sendTimeoutMs deadline of the calls to the agent
+     * @param metrics registry the batching metrics are registered with
+     */
+    public BatchingAgentBlobStore(final ManagedChannel channel,
+                                  final int queueSize,
+                                  final int maxBatchCount,
+                                  final long maxBatchBytes,
+                                  final long lingerMs,
+                                  final int maxInFlightBatches,
+                                  final long blockTimeoutMs,
+                                  final long sendTimeoutMs,
+                                  final MetricsRegistry metrics) {
+        Validate.notNull(channel);
+        Validate.notNull(metrics);
+        Validate.isTrue(queueSize > 0, "queueSize must be positive");
+        Validate.isTrue(maxBatchCount > 0, "maxBatchCount must be positive");
+        Validate.isTrue(maxBatchBytes > 0, "maxBatchBytes must be positive");
+        Validate.isTrue(maxInFlightBatches > 0, "maxInFlightBatches must be positive");
+        Validate.isTrue(sendTimeoutMs > 0, "sendTimeoutMs must be positive");
+
+        this.channel = channel;
+        this.stub = BlobAgentGrpc.newStub(channel);
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.maxBatchCount = maxBatchCount;
+        this.maxBatchBytes = maxBatchBytes;
+        this.lingerMs = lingerMs;
+        this.maxInFlightBatches = maxInFlightBatches;
+        this.inFlight = new Semaphore(maxInFlightBatches);
+        this.blockTimeoutMs = blockTimeoutMs;
+        this.sendTimeoutMs = sendTimeoutMs;
+
+        this.batches = Counter.builder("blobs.agent.batches").register(metrics);
+        this.batchedBlobs = Counter.builder("blobs.agent.batch.blobs").register(metrics);
+        this.batchedBytes = Counter.builder("blobs.agent.batch.bytes").register(metrics);
+        this.succeeded = Counter.builder("blobs.agent.dispatch").tag(new Tag("state", "success")).register(metrics);
+        this.failed = Counter.builder("blobs.agent.dispatch").tag(new Tag("state", "failure")).register(metrics);
+        this.dropped = Counter.builder("blobs.agent.dispatch").tag(new Tag("state", "dropped")).register(metrics);
+        this.sendLatency = Timer.builder("blobs.agent.send").register(metrics);
+        Gauge.builder("blobs.agent.queue", queue, BlockingQueue::size).register(metrics);
+        Gauge.builder("blobs.agent.inflight", this, BatchingAgentBlobStore::getInFlightBatches).register(metrics);
+    }
+
+    @Override
+    public void store(final BlobWriterImpl.BlobBuilder blobBuilder) {
+        final long startedAt = System.currentTimeMillis();
+        try {
+            if (!queue.offer(blobBuilder, blockTimeoutMs, TimeUnit.MILLISECONDS)) {
+                dropped.increment();
+                listener.onFailure(blobBuilder, System.currentTimeMillis() - startedAt, null);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            dropped.increment();
+            listener.onFailure(blobBuilder, System.currentTimeMillis() - startedAt, e);
+        }
+    }
+
+    @Override
+    public void setListener(final Listener listener) {
+        Validate.notNull(listener);
+        this.listener = listener;
+    }
+
+    @Override
+    public Optional<Blob> read(final String key) {
+        return read(key, sendTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void read(final String key, final BiConsumer<Optional<Blob>, Throwable> callback) {
+        stub.withDeadlineAfter(sendTimeoutMs, TimeUnit.MILLISECONDS)
+                .read(BlobSearch.newBuilder().setKey(key).build(), new StreamObserver<BlobReadResponse>() {
+                    @Override
+                    public void onNext(final BlobReadResponse response) {
+                        callback.accept(toBlob(response), null);
+                    }
+
+                    @Override
+                    public void onError(final Throwable t) {
+                        callback.accept(Optional.empty(), t);
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                    }
+                });
+    }
+
+    @Override
+    public Optional<Blob> read(final String key, final long timeout, final TimeUnit unit) {
+        try {
+            return toBlob(BlobAgentGrpc.newBlockingStub(channel)
+                    .withDeadlineAfter(timeout, unit)
+                    .read(BlobSearch.newBuilder().setKey(key).build()));
+        } catch (Exception e) {
+            LOGGER.error("Fail to read blob " + key + " from the agent", e);
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public synchronized void start() {
+        if (running) return;
+
+        running = true;
+        batcher = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("haystack-blobs-batcher-%d")
+                .setDaemon(true)
+                .build());
+        batcher.submit(this::batch);
+    }
+
+    @Override
+    public synchronized void stop() throws Exception {
+        if (running) {
+            running = false;
+            batcher.shutdown();
+            if (!batcher.awaitTermination(sendTimeoutMs, TimeUnit.MILLISECONDS)) {
+                LOGGER.warn("Blob batches did not drain in {}ms, {} blobs are discarded", sendTimeoutMs, queue.size());
+                batcher.shutdownNow();
+            }
+            // the calls of the last batches have a deadline, so waiting for as long releases every permit
+            if (inFlight.tryAcquire(maxInFlightBatches, sendTimeoutMs, TimeUnit.MILLISECONDS)) {
+                inFlight.release(maxInFlightBatches);
+            }
+        }
+        close();
+    }
+
+    @Override
+    public void close() {
+        channel.shutdown();
+    }
+
+    public int getInFlightBatches() {
+        return maxInFlightBatches - inFlight.availablePermits();
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    private void batch() {
+        List<BlobWriterImpl.BlobBuilder> batch = new ArrayList<>(maxBatchCount);
+        long batchBytes = 0;
+        long deadline = 0;
+        while (running || !queue.isEmpty()) {
+            try {
+                final long waitMs = batch.isEmpty() ? POLL_INTERVAL_MS : deadline - System.currentTimeMillis();
+                final BlobWriterImpl.BlobBuilder blobBuilder = queue.poll(Math.max(waitMs, 0), TimeUnit.MILLISECONDS);
+                final Blob blob = blobBuilder == null ? null : build(blobBuilder);
+                if (blob != null) {
+                    if (batch.isEmpty()) {
+                        deadline = System.currentTimeMillis() + lingerMs;
+                    }
+                    batch.add(blobBuilder);
+                    batchBytes += blob.getSerializedSize();
+                }
+
+                final boolean full = batch.size() >= maxBatchCount || batchBytes >= maxBatchBytes;
+                final boolean due = System.currentTimeMillis() >= deadline || (!running && queue.isEmpty());
+                if (!batch.isEmpty() && (full || due)) {
+                    send(batch, batchBytes);
+                    batch = new ArrayList<>(maxBatchCount);
+                    batchBytes = 0;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                queue.drainTo(batch);
+                for (BlobWriterImpl.BlobBuilder blobBuilder : batch) {
+                    dropped.increment();
+                    listener.onFailure(blobBuilder, 0, e);
+                }
+                return;
+            } catch (Exception e) {
+                LOGGER.error("Fail to batch blob for the agent", e);
+            }
+        }
+    }
+
+    /**
+     * @return the blob, null if it fails to build which is reported as a failure
+     */
+    private Blob build(final BlobWriterImpl.BlobBuilder blobBuilder) {
+        try {
+            return blobBuilder.build();
+        } catch (Exception e) {
+            failed.increment();
+            listener.onFailure(blobBuilder, 0, e);
+            LOGGER.error("Fail to build blob for the agent", e);
+            return null;
+        }
+    }
+
+    private void send(final List<BlobWriterImpl.BlobBuilder> batch, final long batchBytes)
+            throws InterruptedException {
+        inFlight.acquire();
+
+        batches.increment();
+        batchedBlobs.increment(batch.size());
+        batchedBytes.increment(batchBytes);
+
+        final Timer.Sample sample = sendLatency.start();
+        final long startedAt = System.currentTimeMillis();
+        final AtomicInteger pending = new AtomicInteger(batch.size());
+        final BlobAgentGrpc.BlobAgentStub batchStub = stub.withDeadlineAfter(sendTimeoutMs, TimeUnit.MILLISECONDS);
+        for (BlobWriterImpl.BlobBuilder blobBuilder : batch) {
+            // the builder keeps the blob it built while batching
+            final Blob blob = blobBuilder.build();
+            final StreamObserver<DispatchResult> observer = new StreamObserver<DispatchResult>() {
+                private final AtomicBoolean finished = new AtomicBoolean();
+
+                @Override
+                public void onNext(final DispatchResult result) {
+                    if (result.getCode() == DispatchResult.ResultCode.SUCCESS) {
+                        succeeded.increment();
+                        listener.onSuccess(blobBuilder, System.currentTimeMillis() - startedAt);
+                    } else {
+                        failed.increment();
+                        listener.onFailure(blobBuilder, System.currentTimeMillis() - startedAt, null);
+                        LOGGER.error("Agent rejected blob {} with {}: {}",
+                                blob.getKey(), result.getCode(), result.getErrorMessage());
+                    }
+                }
+
+                @Override
+                public void onError(final Throwable t) {
+                    failed.increment();
+                    listener.onFailure(blobBuilder, System.currentTimeMillis() - startedAt, t);
+                    LOGGER.error("Fail to dispatch blob " + blob.getKey() + " to the agent", t);
+                    done();
+                }
+
+                @Override
+                public void onCompleted() {
+                    done();
+                }
+
+                private void done() {
+                    if (finished.compareAndSet(false, true) && pending.decrementAndGet() == 0) {
+                        sample.stop();
+                        inFlight.release();
+                    }
+                }
+            };
+            try {
+                batchStub.dispatch(blob, observer);
+            } catch (RuntimeException e) {
+                // a call failing before it started still counts down the batch, so its permit is released
+                observer.onError(e);
+            }
+        }
+    }
+
+    private static Optional<Blob> toBlob(final BlobReadResponse response) {
+        return response.getCode() == BlobReadResponse.ResultCode.SUCCESS ?
+                Optional.of(response.getBlob()) : Optional.empty();
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.stores;
+
+import com.expedia.blobs.core.BlobStore;
+import com.expedia.blobs.core.BlobWriterImpl;
+import com.expedia.www.blobs.model.Blob;
+import com.expedia.www.haystack.client.metrics.Counter;
+import com.expedia.www.haystack.client.metrics.Gauge;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import com.expedia.www.haystack.client.metrics.Tag;
+import com.google.common.cache.CacheBuilder;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * A {@link BlobStore} guarding a primary store with a circuit breaker. The outcomes of the last windowSize writes are
+ * kept, and once at least minCalls were made the circuit opens if the share of failed writes reaches
+ * failureRateThreshold or the share of writes slower than slowCallMs reaches slowCallRateThreshold. While open, blobs
+ * go to the fallback store, or are dropped without one, so requests stop paying for the failing store. After openMs
+ * the circuit is half open and lets halfOpenCalls probe writes through, it closes if they all succeed in time and
+ * opens again otherwise.
+ * <p>
+ * The outcome of a write is the result of the primary's store call, unless the primary is a
+ * {@link ReportingBlobStore} which reports the outcome of its asynchronous writes itself. Every write is tagged with
+ * the state of the circuit it was admitted in, and its outcome only counts if the circuit is still in that state. A
+ * write admitted before a transition and completing after it, e.g. one that was queued behind an
+ * {@link AsyncBlobStore}, neither probes a half open circuit nor counts against a closed one. The writes awaiting a
+ * report are forgotten when the circuit changes state, and held by weak references meanwhile, so the ones a reporting
+ * store drops without a report do not pile up.
+ */
+public class CircuitBreakerBlobStore implements BlobStore {
+    private final static Logger LOGGER = LoggerFactory.getLogger(CircuitBreakerBlobStore.class);
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final BlobStore primary;
+    private final BlobStore fallback;
+    private final boolean reporting;
+    private final double failureRateThreshold;
+    private final double slowCallRateThreshold;
+    private final long slowCallMs;
+    private final int minCalls;
+    private final long openMs;
+    private final int halfOpenCalls;
+
+    private final Map<State, Counter> transitions = new EnumMap<>(State.class);
+    private final Counter fallbacks;
+    private final Counter rejected;
+
+    // guarded by this, a ring of the outcomes of the last writes while closed
+    private final boolean[] failedCalls;
+    private final boolean[] slowCalls;
+    private int calls;
+    private int next;
+    private int failures;
+    private int slows;
+    private volatile State state = State.CLOSED;
+    private long openedAt;
+    private long halfOpenedAt;
+    private int probes;
+    private int probeSuccesses;
+    // bumped whenever the circuit enters a state, tags the writes admitted in it
+    private long generation;
+    private final Map<BlobWriterImpl.BlobBuilder, Long> admitted = CacheBuilder.newBuilder()
+            .weakKeys()
+            .<BlobWriterImpl.BlobBuilder, Long>build()
+            .asMap();
+
+    public CircuitBreakerBlobStore(final BlobStore primary,
+                                   final BlobStore fallback,
+                                   final double failureRateThreshold,
+                                   final double slowCallRateThreshold,
+                                   final long slowCallMs,
+                                   final int windowSize,
+                                   final int minCalls,
+                                   final long openMs,
+                                   final int halfOpenCalls) {
+        this(primary, fallback, failureRateThreshold, slowCallRateThreshold, slowCallMs, windowSize, minCalls, openMs,
+                halfOpenCalls, new NoopMetricsRegistry());
+    }
+
+    /**
+     * @param primary store guarded by the circuit
+     * @param fallback store receiving the blobs while the circuit is open, null to drop them
+     * @param failureRateThreshold share of failed writes opening the circuit
+     * @param slowCallRateThreshold share of slow writes opening the circuit
+     * @param slowCallMs a write taking at least this long is slow
+     * @param windowSize number of recent writes the rates are computed over
+     * @param minCalls number of writes needed before the rates are considered
+     * @param openMs time the circuit stays open before probing the primary
+     * @param halfOpenCalls number of probe writes deciding whether the circuit closes
+     * @param metrics registry the transition counters and state gauge are registered with
+     */
+    public CircuitBreakerBlobStore(final BlobStore primary,
+                                   final BlobStore fallback,
+                                   final double failureRateThreshold,
+                                   final double slowCallRateThreshold,
+                                   final long slowCallMs,
+                                   final int windowSize,
+                                   final int minCalls,
+                                   final long openMs,
+                                   final int halfOpenCalls,
+                                   final MetricsRegistry metrics) {
+        Validate.notNull(primary);
+        Validate.notNull(metrics);
+        Validate.isTrue(windowSize > 0, "windowSize must be positive");
+        Validate.isTrue(minCalls > 0 && minCalls <= windowSize, "minCalls must be between 1 and windowSize");
+        Validate.isTrue(halfOpenCalls > 0, "halfOpenCalls must be positive");
+
+        this.primary = primary;
+        this.fallback = fallback;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallMs = slowCallMs;
+        this.minCalls = minCalls;
+        this.openMs = openMs;
+        this.halfOpenCalls = halfOpenCalls;
+        this.failedCalls = new boolean[windowSize];
+        this.slowCalls = new boolean[windowSize];
+
+        for (State s : State.values()) {
+            transitions.put(s, Counter.builder("blobs.circuit.transitions")
+                    .tag(new Tag("state", s.name().toLowerCase()))
+                    .register(metrics));
+        }
+        this.fallbacks = Counter.builder("blobs.circuit.diverted").tag(new Tag("state", "fallback")).register(metrics);
+        this.rejected = Counter.builder("blobs.circuit.diverted").tag(new Tag("state", "dropped")).register(metrics);
+        Gauge.builder("blobs.circuit.state", this, store -> store.getState().ordinal()).register(metrics);
+
+        this.reporting = primary instanceof ReportingBlobStore;
+        if (reporting) {
+            ((ReportingBlobStore) primary).setListener(new ReportingBlobStore.Listener() {
+                @Override
+                public void onSuccess(final BlobWriterImpl.BlobBuilder blob, final long elapsedMs) {
+                    final Long admittedIn = blob == null ? null : admitted.remove(blob);
+                    if (admittedIn != null) {
+                        record(admittedIn, false, elapsedMs);
+                    }
+                }
+
+                @Override
+                public void onFailure(final BlobWriterImpl.BlobBuilder blob, final long elapsedMs,
+                                      final Throwable cause) {
+                    final Long admittedIn = blob == null ? null : admitted.remove(blob);
+                    if (admittedIn != null) {
+                        record(admittedIn, true, elapsedMs);
+                    }
+                }
+            });
+        }
+    }
+
+    @Override
+    public void store(final BlobWriterImpl.BlobBuilder blobBuilder) {
+        final long admittedIn = tryAcquire();
+        if (admittedIn < 0) {
+            if (fallback == null) {
+                rejected.increment();
+            } else {
+                fallbacks.increment();
+                fallback.store(blobBuilder);
+            }
+            return;
+        }
+
+        if (reporting) {
+            // the outcome may be reported before store returns
+            admitted.put(blobBuilder, admittedIn);
+            primary.store(blobBuilder);
+            return;
+        }
+
+        final long startedAt = System.currentTimeMillis();
+        try {
+            primary.store(blobBuilder);
+        } catch (RuntimeException e) {
+            record(admittedIn, true, System.currentTimeMillis() - startedAt);
+            throw e;
+        }
+        record(admittedIn, false, System.currentTimeMillis() - startedAt);
+    }
+
+    @Override
+    public Optional<Blob> read(final String key) {
+        final Optional<Blob> blob = primary.read(key);
+        return blob.isPresent() || fallback == null ? blob : fallback.read(key);
+    }
+
+    @Override
+    public void read(final String key, final BiConsumer<Optional<Blob>, Throwable> callback) {
+        if (fallback == null) {
+            primary.read(key, callback);
+            return;
+        }
+        primary.read(key, (blob, error) -> {
+            if (blob.isPresent()) {
+                callback.accept(blob, error);
+            } else {
+                fallback.read(key, callback);
+            }
+        });
+    }
+
+    @Override
+    public Optional<Blob> read(final String key, final long timeout, final TimeUnit unit) {
+        final Optional<Blob> blob = primary.read(key, timeout, unit);
+        return blob.isPresent() || fallback == null ? blob : fallback.read(key, timeout, unit);
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return the number of writes a reporting primary has not reported the outcome of yet
+     */
+    int pendingOutcomes() {
+        return admitted.size();
+    }
+
+    /**
+     * @return the generation the write is admitted in, negative if the circuit rejects it
+     */
+    private synchronized long tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return generation;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt < openMs) return -1;
+                halfOpen();
+                probes = 1;
+                return generation;
+            default:
+                if (probes >= halfOpenCalls) {
+                    // probes whose outcome never came back, e.g. dropped by the primary, are given up on
+                    if (System.currentTimeMillis() - halfOpenedAt < openMs) return -1;
+                    halfOpen();
+                }
+                probes++;
+                return generation;
+        }
+    }
+
+    synchronized void record(final long admittedIn, final boolean failed, final long elapsedMs) {
+        // outcome of a write admitted before the circuit last changed state
+        if (admittedIn != generation) return;
+
+        final boolean slow = elapsedMs >= slowCallMs;
+        switch (state) {
+            case CLOSED:
+                if (calls == failedCalls.length) {
+                    failures -= failedCalls[next] ? 1 : 0;
+                    slows -= slowCalls[next] ? 1 : 0;
+                } else {
+                    calls++;
+                }
+                failedCalls[next] = failed;
+                slowCalls[next] = slow;
+                failures += failed ? 1 : 0;
+                slows += slow ? 1 : 0;
+                next = (next + 1) % failedCalls.length;
+
+                if (calls >= minCalls && ((double) failures / calls >= failureRateThreshold ||
+                        (double) slows / calls >= slowCallRateThreshold)) {
+                    LOGGER.warn("Opening blob store circuit after {} failed and {} slow writes out of {}",
+                            failures, slows, calls);
+                    open();
+                }
+                break;
+            case HALF_OPEN:
+                if (failed || slow) {
+                    open();
+                } else if (++probeSuccesses >= halfOpenCalls) {
+                    close();
+                }
+                break;
+            default:
+                // no write is admitted while open
+        }
+    }
+
+    private void open() {
+        generation++;
+        transition(State.OPEN);
+        openedAt = System.currentTimeMillis();
+        probeSuccesses = 0;
+    }
+
+    private void halfOpen() {
+        generation++;
+        transition(State.HALF_OPEN);
+        halfOpenedAt = System.currentTimeMillis();
+        probes = 0;
+        probeSuccesses = 0;
+    }
+
+    private void close() {
+        generation++;
+        transition(State.CLOSED);
+        calls = 0;
+        next = 0;
+        failures = 0;
+        slows = 0;
+        probeSuccesses = 0;
+    }
+
+    private void transition(final State to) {
+        // outcomes of the writes admitted so far no longer count
+        admitted.clear();
+        if (state != to) {
+            LOGGER.info("Blob store circuit goes from {} to {}", state, to);
+            state = to;
+            transitions.get(to).increment();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.stores;
+
+import com.codahale.metrics.health.HealthCheck;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Reports the state of the blob store circuit. The service keeps serving requests while the circuit is open, blobs go
+ * to the fallback store or are dropped, so the check stays healthy unless unhealthyWhenOpen is set, e.g. for a service
+ * whose blobs are part of its contract.
+ */
+public class CircuitBreakerHealthCheck extends HealthCheck {
+    private final CircuitBreakerBlobStore store;
+    private final boolean unhealthyWhenOpen;
+
+    public CircuitBreakerHealthCheck(final CircuitBreakerBlobStore store) {
+        this(store, false);
+    }
+
+    /**
+     * @param store store whose circuit is reported
+     * @param unhealthyWhenOpen true to report the check unhealthy while the circuit is open
+     */
+    public CircuitBreakerHealthCheck(final CircuitBreakerBlobStore store, final boolean unhealthyWhenOpen) {
+        Validate.notNull(store);
+        this.store = store;
+        this.unhealthyWhenOpen = unhealthyWhenOpen;
+    }
+
+    @Override
+    protected Result check() {
+        final CircuitBreakerBlobStore.State state = store.getState();
+        final String message = "blob store circuit is " + state;
+        return unhealthyWhenOpen && state == CircuitBreakerBlobStore.State.OPEN ?
+                Result.unhealthy(message) : Result.healthy(message);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.stores;
+
+import com.expedia.blobs.core.BlobStore;
+import com.expedia.blobs.core.BlobWriterImpl;
+import com.expedia.www.blobs.model.Blob;
+import org.apache.commons.lang3.Validate;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * A {@link ReportingBlobStore} telling a consumer the key of every blob its delegate has written. A delegate that is a
+ * {@link ReportingBlobStore} confirms its asynchronous writes through its listener, any other one once its store call
+ * returns. Outcomes are passed on to the listener of this store.
+ */
+public class ConfirmingBlobStore implements ReportingBlobStore {
+    private final BlobStore delegate;
+    private final Consumer<String> confirmed;
+    private final boolean reporting;
+    private volatile Listener listener = Listener.NOOP;
+
+    /**
+     * @param delegate store writing the blobs
+     * @param confirmed receives the key of every blob written
+     */
+    public ConfirmingBlobStore(final BlobStore delegate, final Consumer<String> confirmed) {
+        Validate.notNull(delegate);
+        Validate.notNull(confirmed);
+
+        this.delegate = delegate;
+        this.confirmed = confirmed;
+        this.reporting = delegate instanceof ReportingBlobStore;
+        if (reporting) {
+            ((ReportingBlobStore) delegate).setListener(new Listener() {
+                @Override
+                public void onSuccess(final BlobWriterImpl.BlobBuilder blob, final long elapsedMs) {
+                    confirm(blob);
+                    listener.onSuccess(blob, elapsedMs);
+                }
+
+                @Override
+                public void onFailure(final BlobWriterImpl.BlobBuilder blob, final long elapsedMs,
+                                      final Throwable cause) {
+                    listener.onFailure(blob, elapsedMs, cause);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void store(final BlobWriterImpl.BlobBuilder blobBuilder) {
+        if (reporting) {
+            delegate.store(blobBuilder);
+            return;
+        }
+
+        final long startedAt = System.currentTimeMillis();
+        try {
+            delegate.store(blobBuilder);
+        } catch (RuntimeException e) {
+            listener.onFailure(blobBuilder, System.currentTimeMillis() - startedAt, e);
+            throw e;
+        }
+        confirm(blobBuilder);
+        listener.onSuccess(blobBuilder, System.currentTimeMillis() - startedAt);
+    }
+
+    @Override
+    public void setListener(final Listener listener) {
+        Validate.notNull(listener);
+        this.listener = listener;
+    }
+
+    @Override
+    public Optional<Blob> read(final String key) {
+        return delegate.read(key);
+    }
+
+    @Override
+    public void read(final String key, final BiConsumer<Optional<Blob>, Throwable> callback) {
+        delegate.read(key, callback);
+    }
+
+    @Override
+    public Optional<Blob> read(final String key, final long timeout, final TimeUnit unit) {
+        return delegate.read(key, timeout, unit);
+    }
+
+    private void confirm(final BlobWriterImpl.BlobBuilder blob) {
+        // the blob was built by the delegate already, build() hands out that same blob
+        confirmed.accept(blob.build().getKey());
+    }
+}
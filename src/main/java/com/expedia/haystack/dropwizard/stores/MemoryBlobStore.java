@@ -0,0 +1,200 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.stores;
+
+import com.expedia.blobs.core.BlobStore;
+import com.expedia.blobs.core.BlobWriterImpl;
+import com.expedia.haystack.dropwizard.decorators.BlobHelper;
+import com.expedia.www.blobs.model.Blob;
+import com.expedia.www.haystack.client.metrics.Gauge;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * A {@link BlobStore} keeping the most recent blobs in memory, for staging and load tests where blobs should be
+ * inspected without any disk or agent I/O. Blobs are held serialized and the store works as a ring: once their total
+ * size exceeds maxBytes the oldest blobs are dropped, so the memory cost is fixed whatever the traffic. Blobs are also
+ * indexed by the trace and span ids of their metadata, see {@link #find(String)}.
+ */
+public class MemoryBlobStore implements BlobStore {
+    private final static Logger LOGGER = LoggerFactory.getLogger(MemoryBlobStore.class);
+
+    private final long maxBytes;
+    private final AtomicLong evictedBlobs = new AtomicLong();
+
+    // guarded by this, in insertion order so that the oldest blob comes first
+    private final LinkedHashMap<String, Entry> blobs = new LinkedHashMap<>();
+    private final Map<String, List<String>> ids = new HashMap<>();
+    private long usedBytes;
+
+    public MemoryBlobStore(final long maxBytes) {
+        this(maxBytes, new NoopMetricsRegistry());
+    }
+
+    /**
+     * @param maxBytes budget of the serialized blobs held in memory
+     * @param metrics registry the bytes used and evicted blobs gauges are registered with
+     */
+    public MemoryBlobStore(final long maxBytes, final MetricsRegistry metrics) {
+        Validate.isTrue(maxBytes > 0, "maxBytes must be positive");
+        Validate.notNull(metrics);
+
+        this.maxBytes = maxBytes;
+        Gauge.builder("blobs.store.bytes", this, MemoryBlobStore::getUsedBytes).register(metrics);
+        Gauge.builder("blobs.store.evicted", evictedBlobs, AtomicLong::doubleValue).register(metrics);
+    }
+
+    @Override
+    public void store(final BlobWriterImpl.BlobBuilder blobBuilder) {
+        final Blob blob = blobBuilder.build();
+        final byte[] data = blob.toByteArray();
+        if (data.length > maxBytes) {
+            LOGGER.debug("Blob {} of {} bytes does not fit in the memory store", blob.getKey(), data.length);
+            return;
+        }
+
+        final Entry entry = new Entry(data, blob.getMetadataMap().get(BlobHelper.TRACE_ID_METADATA),
+                blob.getMetadataMap().get(BlobHelper.SPAN_ID_METADATA));
+        synchronized (this) {
+            remove(blob.getKey(), blobs.remove(blob.getKey()));
+            blobs.put(blob.getKey(), entry);
+            usedBytes += data.length;
+            index(entry.traceId, blob.getKey());
+            index(entry.spanId, blob.getKey());
+
+            final Iterator<Map.Entry<String, Entry>> oldest = blobs.entrySet().iterator();
+            while (usedBytes > maxBytes && oldest.hasNext()) {
+                final Map.Entry<String, Entry> evicted = oldest.next();
+                oldest.remove();
+                remove(evicted.getKey(), evicted.getValue());
+                evictedBlobs.incrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public Optional<Blob> read(final String key) {
+        final Entry entry;
+        synchronized (this) {
+            entry = blobs.get(key);
+        }
+        return entry == null ? Optional.empty() : parse(key, entry);
+    }
+
+    @Override
+    public void read(final String key, final BiConsumer<Optional<Blob>, Throwable> callback) {
+        try {
+            callback.accept(read(key), null);
+        } catch (Exception e) {
+            callback.accept(Optional.empty(), e);
+        }
+    }
+
+    @Override
+    public Optional<Blob> read(final String key, final long timeout, final TimeUnit unit) {
+        return read(key);
+    }
+
+    /**
+     * @param id trace or span id
+     * @return the blobs of the trace or span still held by the store, oldest first
+     */
+    public List<Blob> find(final String id) {
+        final Map<String, Entry> found = new LinkedHashMap<>();
+        synchronized (this) {
+            for (String key : ids.getOrDefault(id, Collections.emptyList())) {
+                found.put(key, blobs.get(key));
+            }
+        }
+
+        final List<Blob> result = new ArrayList<>(found.size());
+        found.forEach((key, entry) -> parse(key, entry).ifPresent(result::add));
+        return result;
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public long getEvictedBlobs() {
+        return evictedBlobs.get();
+    }
+
+    public synchronized int getBlobCount() {
+        return blobs.size();
+    }
+
+    private void index(final String id, final String key) {
+        if (id != null) {
+            ids.computeIfAbsent(id, i -> new ArrayList<>(2)).add(key);
+        }
+    }
+
+    private void remove(final String key, final Entry entry) {
+        if (entry == null) return;
+
+        usedBytes -= entry.data.length;
+        unindex(entry.traceId, key);
+        unindex(entry.spanId, key);
+    }
+
+    private void unindex(final String id, final String key) {
+        if (id == null) return;
+
+        final List<String> keys = ids.get(id);
+        if (keys != null && keys.remove(key) && keys.isEmpty()) {
+            ids.remove(id);
+        }
+    }
+
+    private static Optional<Blob> parse(final String key, final Entry entry) {
+        try {
+            return Optional.of(Blob.parseFrom(entry.data));
+        } catch (InvalidProtocolBufferException e) {
+            LOGGER.error("Fail to read blob " + key + " from memory", e);
+            return Optional.empty();
+        }
+    }
+
+    private final static class Entry {
+        private final byte[] data;
+        private final String traceId;
+        private final String spanId;
+
+        private Entry(final byte[] data, final String traceId, final String spanId) {
+            this.data = data;
+            this.traceId = traceId;
+            this.spanId = spanId;
+        }
+    }
+}
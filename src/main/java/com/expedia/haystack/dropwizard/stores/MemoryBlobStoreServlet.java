@@ -0,0 +1,109 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.stores;
+
+import com.expedia.haystack.dropwizard.decorators.BlobCodec;
+import com.expedia.haystack.dropwizard.decorators.BlobDeduplicator;
+import com.expedia.www.blobs.model.Blob;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.Validate;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Admin servlet returning the request and response blobs a {@link MemoryBlobStore} holds for a trace or span, e.g.
+ * {@code GET /admin/blobs?id=<trace id>}. Compressed blobs are decompressed, textual content is returned as is and
+ * binary content base64 encoded. Deduplicated blobs are returned with the content of their first copy if the store
+ * still holds it. A blob that cannot be decoded, e.g. compressed with a codec this version does not know, is listed
+ * with its stored content base64 encoded and the reason in an error field, the other blobs of the trace are unaffected.
+ */
+public class MemoryBlobStoreServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    private final transient MemoryBlobStore store;
+    private final transient ObjectMapper mapper;
+
+    public MemoryBlobStoreServlet(final MemoryBlobStore store, final ObjectMapper mapper) {
+        Validate.notNull(store);
+        Validate.notNull(mapper);
+
+        this.store = store;
+        this.mapper = mapper;
+    }
+
+    @Override
+    protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws IOException {
+        final String id = req.getParameter("id");
+        if (id == null || id.isEmpty()) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "id parameter with a trace or span id is required");
+            return;
+        }
+
+        final List<Map<String, Object>> blobs = new ArrayList<>();
+        for (Blob blob : store.find(id)) {
+            blobs.add(toJson(blob, store));
+        }
+
+        resp.setStatus(HttpServletResponse.SC_OK);
+        resp.setContentType("application/json");
+        resp.setHeader("Cache-Control", "must-revalidate,no-cache,no-store");
+        mapper.writeValue(resp.getOutputStream(), blobs);
+    }
+
+    static Map<String, Object> toJson(final Blob blob, final MemoryBlobStore store) throws IOException {
+        final String firstCopy = blob.getMetadataMap().get(BlobDeduplicator.METADATA_KEY);
+        final Blob source = firstCopy == null ? blob : store.read(firstCopy).orElse(blob);
+        final Map<String, Object> json = new LinkedHashMap<>();
+        json.put("key", blob.getKey());
+        json.put("metadata", blob.getMetadataMap());
+
+        final byte[] content;
+        try (InputStream in = BlobCodec.fromMetadata(source.getMetadataMap()).decode(source.getContent().newInput())) {
+            content = IOUtils.toByteArray(in);
+        } catch (IOException | IllegalArgumentException e) {
+            json.put("error", "Undecodable content: " + e.getMessage());
+            json.put("encoding", "base64");
+            json.put("content", Base64.getEncoder().encodeToString(source.getContent().toByteArray()));
+            return json;
+        }
+        if (isText(blob.getMetadataMap().get("content-type"))) {
+            json.put("content", new String(content, StandardCharsets.UTF_8));
+        } else {
+            json.put("encoding", "base64");
+            json.put("content", Base64.getEncoder().encodeToString(content));
+        }
+        return json;
+    }
+
+    private static boolean isText(final String contentType) {
+        if (contentType == null) return false;
+
+        final String type = contentType.toLowerCase();
+        return type.startsWith("text/") || type.contains("json") || type.contains("xml");
+    }
+}
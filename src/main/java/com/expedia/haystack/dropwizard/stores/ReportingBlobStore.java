@@ -0,0 +1,54 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.stores;
+
+import com.expedia.blobs.core.BlobStore;
+import com.expedia.blobs.core.BlobWriterImpl;
+
+/**
+ * A {@link BlobStore} writing blobs asynchronously, which reports the outcome of every write to a listener since
+ * {@link BlobStore#store} returns before the blob is written.
+ */
+public interface ReportingBlobStore extends BlobStore {
+
+    void setListener(Listener listener);
+
+    interface Listener {
+        Listener NOOP = new Listener() {
+            @Override
+            public void onSuccess(BlobWriterImpl.BlobBuilder blob, long elapsedMs) {
+            }
+
+            @Override
+            public void onFailure(BlobWriterImpl.BlobBuilder blob, long elapsedMs, Throwable cause) {
+            }
+        };
+
+        /**
+         * @param blob blob that was written
+         * @param elapsedMs time the write took
+         */
+        void onSuccess(BlobWriterImpl.BlobBuilder blob, long elapsedMs);
+
+        /**
+         * @param blob blob that was not written
+         * @param elapsedMs time until the write failed
+         * @param cause cause of the failure, null if the store rejected the blob
+         */
+        void onFailure(BlobWriterImpl.BlobBuilder blob, long elapsedMs, Throwable cause);
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.stores;
+
+import com.expedia.blobs.core.BlobStore;
+import com.expedia.blobs.core.BlobWriterImpl;
+import com.expedia.haystack.dropwizard.io.SegmentFile;
+import com.expedia.www.blobs.model.Blob;
+import com.expedia.www.haystack.client.metrics.Gauge;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.lifecycle.Managed;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * A {@link BlobStore} appending blobs to {@link SegmentFile}s of a fixed size instead of writing one file per blob,
+ * each record holding the key length, the key and the serialized blob. A new segment is started when the current one
+ * is full, an in memory index maps every blob key to its segment and offset, and retention deletes whole segments,
+ * oldest first. The index is rebuilt from the segments found in the directory on start up.
+ * <p>
+ * With a disk budget (maxBytes) or a maximum age (maxAgeMs), a low priority background thread evicts the oldest
+ * segments every evictionIntervalMs. Each pass only looks at the in memory list of segments, never at the directory.
+ */
+public class SegmentedFileBlobStore implements BlobStore, Managed, Closeable {
+    private final static Logger LOGGER = LoggerFactory.getLogger(SegmentedFileBlobStore.class);
+    final static String SUFFIX = ".segment";
+    private final static int KEY_LENGTH_BYTES = 4;
+
+    private final File directory;
+    private final int segmentSizeBytes;
+    private final long maxBytes;
+    private final long maxAgeMs;
+    private final long evictionIntervalMs;
+    private final AtomicLong evictedBlobs = new AtomicLong();
+    private ScheduledExecutorService evictor;
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+    private final ConcurrentNavigableMap<Long, SegmentFile> segments = new ConcurrentSkipListMap<>();
+    private final Map<Long, List<String>> segmentKeys = new ConcurrentHashMap<>();
+
+    // guarded by this
+    private SegmentFile active;
+    private long nextSegmentId;
+
+    public SegmentedFileBlobStore(final File directory, final int segmentSizeBytes) throws IOException {
+        this(directory, segmentSizeBytes, 0, 0, 0, new NoopMetricsRegistry());
+    }
+
+    /**
+     * @param directory directory of the segment files
+     * @param segmentSizeBytes size of a segment file
+     * @param maxBytes the oldest segments are evicted while the store uses more, zero or less for no limit
+     * @param maxAgeMs segments last written to before this are evicted, zero or less for no limit
+     * @param evictionIntervalMs time between two eviction passes
+     * @param metrics registry the bytes used and evicted blobs gauges are registered with
+     * @throws IOException if the directory cannot be created or a segment cannot be recovered
+     */
+    public SegmentedFileBlobStore(final File directory,
+                                  final int segmentSizeBytes,
+                                  final long maxBytes,
+                                  final long maxAgeMs,
+                                  final long evictionIntervalMs,
+                                  final MetricsRegistry metrics) throws IOException {
+        Validate.notNull(directory);
+        Validate.notNull(metrics);
+        Validate.isTrue(segmentSizeBytes > 0, "segmentSizeBytes must be positive");
+        Validate.isTrue(evictionIntervalMs > 0 || (maxBytes <= 0 && maxAgeMs <= 0),
+                "evictionIntervalMs must be positive with a retention");
+
+        this.directory = directory;
+        this.segmentSizeBytes = segmentSizeBytes;
+        this.maxBytes = maxBytes;
+        this.maxAgeMs = maxAgeMs;
+        this.evictionIntervalMs = evictionIntervalMs;
+        Gauge.builder("blobs.store.bytes", this, SegmentedFileBlobStore::getUsedBytes).register(metrics);
+        Gauge.builder("blobs.store.evicted", evictedBlobs, AtomicLong::doubleValue).register(metrics);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Fail to create blob directory " + directory);
+        }
+        recover();
+    }
+
+    private void recover() throws IOException {
+        for (long id : SegmentFile.list(directory, SUFFIX)) {
+            final List<String> keys = new ArrayList<>();
+            segments.put(id, SegmentFile.open(directory, id, SUFFIX, segmentSizeBytes,
+                    (segment, position, length, payload) -> {
+                        final byte[] key = new byte[payload.readInt()];
+                        payload.readFully(key);
+                        final String blobKey = new String(key, StandardCharsets.UTF_8);
+                        final int offset = position + SegmentFile.LENGTH_BYTES + KEY_LENGTH_BYTES + key.length;
+                        keys.add(blobKey);
+                        index.put(blobKey, new Location(segment, offset, length - KEY_LENGTH_BYTES - key.length));
+                    }));
+            segmentKeys.put(id, keys);
+            nextSegmentId = id + 1;
+        }
+        LOGGER.info("Recovered {} blobs from {} segments in {}", index.size(), segments.size(), directory);
+    }
+
+    @Override
+    public void store(final BlobWriterImpl.BlobBuilder blobBuilder) {
+        final Blob blob = blobBuilder.build();
+        try {
+            append(blob.getKey(), blob.toByteArray());
+        } catch (IOException e) {
+            LOGGER.error("Fail to append blob " + blob.getKey() + " to a segment", e);
+        }
+    }
+
+    private synchronized void append(final String blobKey, final byte[] data) throws IOException {
+        final byte[] key = blobKey.getBytes(StandardCharsets.UTF_8);
+        final int payloadBytes = KEY_LENGTH_BYTES + key.length + data.length;
+        if (active == null || !active.hasRoom(payloadBytes)) {
+            roll(payloadBytes);
+        }
+        final ByteBuffer record = SegmentFile.newRecord(payloadBytes).putInt(key.length).put(key).put(data);
+        final int offset = active.append(record) + SegmentFile.LENGTH_BYTES + KEY_LENGTH_BYTES + key.length;
+        segmentKeys.get(active.id()).add(blobKey);
+        index.put(blobKey, new Location(active, offset, data.length));
+    }
+
+    private void roll(final int payloadBytes) throws IOException {
+        if (active != null) {
+            active.flush();
+        }
+        final long id = nextSegmentId++;
+        final int capacity = Math.max(segmentSizeBytes, SegmentFile.LENGTH_BYTES + payloadBytes);
+        active = SegmentFile.create(directory, id, SUFFIX, capacity);
+        segmentKeys.put(id, new ArrayList<>());
+        segments.put(id, active);
+    }
+
+    @Override
+    public Optional<Blob> read(final String key) {
+        final Location location = index.get(key);
+        if (location == null) return Optional.empty();
+
+        try {
+            final byte[] data = location.segment.read(location.offset, location.length);
+            if (data == null) {
+                index.remove(key, location);
+                return Optional.empty();
+            }
+            return Optional.of(Blob.parseFrom(data));
+        } catch (IOException e) {
+            LOGGER.error("Fail to read blob " + key + " from its segment", e);
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public void read(final String key, final BiConsumer<Optional<Blob>, Throwable> callback) {
+        try {
+            callback.accept(read(key), null);
+        } catch (Exception e) {
+            callback.accept(Optional.empty(), e);
+        }
+    }
+
+    @Override
+    public Optional<Blob> read(final String key, final long timeout, final TimeUnit unit) {
+        return read(key);
+    }
+
+    /**
+     * deletes the oldest segment, unless it is the one being written to. The segment stays in the store until its file
+     * is deleted, so a failed deletion is retried by the next eviction pass.
+     * @return false if there was no segment to delete
+     * @throws IOException if the segment file cannot be deleted
+     */
+    public boolean deleteOldestSegment() throws IOException {
+        final Map.Entry<Long, SegmentFile> entry;
+        synchronized (this) {
+            entry = segments.firstEntry();
+            if (entry == null || entry.getValue() == active) return false;
+        }
+        final SegmentFile oldest = entry.getValue();
+        oldest.delete();
+        if (!segments.remove(entry.getKey(), oldest)) return true;
+
+        final List<String> keys = segmentKeys.remove(entry.getKey());
+        for (String key : keys) {
+            index.computeIfPresent(key, (k, location) -> location.segment == oldest ? null : location);
+        }
+        evictedBlobs.addAndGet(keys.size());
+        return true;
+    }
+
+    /**
+     * deletes the oldest segments while the store is over its disk budget or they are older than the maximum age
+     * @throws IOException if a segment file cannot be deleted
+     */
+    public void evict() throws IOException {
+        final long expiredBefore = maxAgeMs > 0 ? System.currentTimeMillis() - maxAgeMs : Long.MIN_VALUE;
+        while (true) {
+            final Map.Entry<Long, SegmentFile> oldest = segments.firstEntry();
+            if (oldest == null) return;
+
+            final boolean overBudget = maxBytes > 0 && getUsedBytes() > maxBytes;
+            final boolean expired = oldest.getValue().lastWriteMs() < expiredBefore;
+            if (!(overBudget || expired) || !deleteOldestSegment()) return;
+        }
+    }
+
+    /**
+     * @return bytes held by the records of all segments
+     */
+    public long getUsedBytes() {
+        long used = 0;
+        for (SegmentFile segment : segments.values()) {
+            used += segment.size();
+        }
+        return used;
+    }
+
+    public long getEvictedBlobs() {
+        return evictedBlobs.get();
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    public int getBlobCount() {
+        return index.size();
+    }
+
+    @Override
+    public void start() {
+        if (maxBytes <= 0 && maxAgeMs <= 0) return;
+
+        evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("haystack-blobs-evictor-%d")
+                .setPriority(Thread.MIN_PRIORITY)
+                .setDaemon(true)
+                .build());
+        evictor.scheduleWithFixedDelay(() -> {
+            try {
+                evict();
+            } catch (Exception e) {
+                LOGGER.error("Fail to evict blob segments", e);
+            }
+        }, 0, evictionIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() {
+        if (evictor != null) {
+            evictor.shutdownNow();
+        }
+        close();
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            for (SegmentFile segment : segments.values()) {
+                segment.close();
+            }
+        } catch (IOException e) {
+            LOGGER.error("Fail to close the blob segments in " + directory, e);
+        }
+    }
+
+    private final static class Location {
+        private final SegmentFile segment;
+        private final int offset;
+        private final int length;
+
+        private Location(final SegmentFile segment, final int offset, final int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard;
+
+import com.expedia.blobs.core.BlobWriterImpl;
+import com.expedia.www.blobs.model.Blob;
+import com.google.protobuf.ByteString;
+import org.junit.Assume;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Helpers shared by the tests
+ */
+public final class TestUtils {
+    private TestUtils() {
+    }
+
+    /**
+     * polls the condition for up to 5 seconds and fails the test if it does not hold by then
+     */
+    public static void awaitUntil(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(condition.getAsBoolean()).isTrue();
+    }
+
+    /**
+     * lists the files of the directory this process holds a descriptor or a memory mapping of, including deleted ones.
+     * It reads /proc and skips the calling test where there is none.
+     */
+    public static List<Path> openedIn(final File directory) throws IOException {
+        Assume.assumeTrue(new File("/proc/self/fd").isDirectory());
+
+        final String prefix = directory.getCanonicalPath() + File.separator;
+        final List<Path> opened = new ArrayList<>();
+        try (Stream<Path> descriptors = Files.list(Paths.get("/proc/self/fd"))) {
+            descriptors.forEach(descriptor -> {
+                try {
+                    final String target = Files.readSymbolicLink(descriptor).toString();
+                    if (target.startsWith(prefix)) opened.add(Paths.get(target.replace(" (deleted)", "")));
+                } catch (IOException e) {
+                    // closed while listing
+                }
+            });
+        }
+        final File maps = new File("/proc/self/maps");
+        if (maps.canRead()) {
+            for (String line : Files.readAllLines(maps.toPath())) {
+                final int start = line.indexOf(prefix);
+                if (start >= 0) opened.add(Paths.get(line.substring(start).replace(" (deleted)", "")));
+            }
+        }
+        return opened;
+    }
+
+    /**
+     * @return a request blob with this key and content
+     */
+    public static Blob blob(final String key, final String content) {
+        return Blob.newBuilder()
+                .setKey(key)
+                .putMetadata("blob-type", "request")
+                .setContent(ByteString.copyFromUtf8(content))
+                .build();
+    }
+
+    /**
+     * @return a blob builder building a request blob with this key and an empty json content
+     */
+    public static BlobWriterImpl.BlobBuilder builder(final String key) {
+        return builder(blob(key, "{}"));
+    }
+
+    /**
+     * @return a blob builder building this blob
+     */
+    public static BlobWriterImpl.BlobBuilder builder(final Blob blob) {
+        final BlobWriterImpl.BlobBuilder builder = mock(BlobWriterImpl.BlobBuilder.class);
+        when(builder.build()).thenReturn(blob);
+        return builder;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.benchmarks;
+
+import com.expedia.blobs.core.ContentType;
+import com.expedia.haystack.dropwizard.configuration.BlobContent;
+import com.expedia.haystack.dropwizard.decorators.BlobHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.ws.rs.core.MediaType;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link BlobHelper#extract(Object, String)} with the class name based dispatch it replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlobHelperBenchmark {
+
+    public static class Person {
+        public String name = "Alice";
+        public int age = 42;
+    }
+
+    @Param({"string", "bytes", "json"})
+    public String entityType;
+
+    private Object entity;
+    private String contentType;
+
+    @Setup
+    public void setup() throws Exception {
+        switch (entityType) {
+            case "string":
+                entity = "{\"name\": \"Alice\", \"age\": 42}";
+                contentType = MediaType.TEXT_PLAIN;
+                break;
+            case "bytes":
+                entity = "{\"name\": \"Alice\", \"age\": 42}".getBytes("utf-8");
+                contentType = MediaType.APPLICATION_OCTET_STREAM;
+                break;
+            default:
+                entity = new Person();
+                contentType = MediaType.APPLICATION_JSON;
+        }
+    }
+
+    @Benchmark
+    public BlobContent classValueDispatch() throws Exception {
+        return BlobHelper.extract(entity, contentType);
+    }
+
+    @Benchmark
+    public BlobContent classNameDispatch() throws Exception {
+        final Class<?> entityClazz = entity.getClass();
+        if (entityClazz.getCanonicalName().equalsIgnoreCase("java.lang.string")) {
+            return new BlobContent(entity.toString().getBytes("utf-8"), ContentType.from(contentType));
+        } else if (entityClazz.getCanonicalName().equalsIgnoreCase("byte[]")) {
+            return new BlobContent((byte[]) entity, ContentType.from(contentType));
+        } else if (contentType.equalsIgnoreCase(MediaType.APPLICATION_JSON)) {
+            return new BlobContent(BlobHelper.toJson(entity), ContentType.JSON);
+        } else {
+            return new BlobContent(BlobHelper.objectToByteArray(entity), ContentType.from(contentType));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(BlobHelperBenchmark.class.getSimpleName()).build()).run();
+    }
+}
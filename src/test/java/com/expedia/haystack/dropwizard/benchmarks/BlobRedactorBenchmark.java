@@ -0,0 +1,114 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.benchmarks;
+
+import com.expedia.blobs.core.ContentType;
+import com.expedia.haystack.dropwizard.configuration.BlobContent;
+import com.expedia.haystack.dropwizard.decorators.BlobRedactor;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the streaming {@link BlobRedactor} with parsing the blob into a tree, masking it and serializing it again,
+ * as a custom Blobable had to. Run with -prof gc to compare the allocation rates as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlobRedactorBenchmark {
+    private final static String MASK = "****";
+
+    @Param({"10", "1000"})
+    public int items;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final BlobRedactor redactor = new BlobRedactor(Arrays.asList("password", "cardNumber"),
+            Collections.emptyList(), MASK);
+    private BlobContent blob;
+    private byte[] json;
+
+    @Setup
+    public void setup() throws Exception {
+        final StringBuilder builder = new StringBuilder("{\"user\":\"alice\",\"password\":\"secret\",\"items\":[");
+        for (int i = 0; i < items; i++) {
+            builder.append(i == 0 ? "" : ",")
+                    .append("{\"id\":").append(i)
+                    .append(",\"name\":\"item ").append(i)
+                    .append("\",\"price\":12.5,\"payment\":{\"cardNumber\":\"4111111111111111\",\"expiry\":\"12/30\"}}");
+        }
+        json = builder.append("]}").toString().getBytes("utf-8");
+        blob = new BlobContent(json, ContentType.JSON);
+    }
+
+    @Benchmark
+    public byte[] streaming() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(json.length);
+        redactor.redact(blob, out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] tree() throws Exception {
+        final JsonNode root = mapper.readTree(json);
+        mask(root);
+        return mapper.writeValueAsBytes(root);
+    }
+
+    private static void mask(final JsonNode node) {
+        if (node.isObject()) {
+            final Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                final Map.Entry<String, JsonNode> field = fields.next();
+                if (field.getKey().equalsIgnoreCase("password") || field.getKey().equalsIgnoreCase("cardNumber")) {
+                    ((ObjectNode) node).put(field.getKey(), MASK);
+                } else {
+                    mask(field.getValue());
+                }
+            }
+        } else if (node.isArray()) {
+            node.forEach(BlobRedactorBenchmark::mask);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(BlobRedactorBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.benchmarks;
+
+import com.expedia.haystack.dropwizard.dispatchers.RingBufferDispatcher;
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.Tracer;
+import com.expedia.www.haystack.client.dispatchers.Dispatcher;
+import com.expedia.www.haystack.client.dispatchers.NoopDispatcher;
+import com.expedia.www.haystack.client.dispatchers.RemoteDispatcher;
+import com.expedia.www.haystack.client.dispatchers.clients.NoopClient;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares dispatching spans from concurrent request threads through the {@link RingBufferDispatcher} and through the
+ * blocking queue of the {@link RemoteDispatcher}, both sending with a client that does nothing and holding as many
+ * spans. {@link #main(String[])} runs it with 1 to 64 producer threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatcherBenchmark {
+    private final static int CAPACITY = 8192;
+
+    @Param({"ring", "remote"})
+    public String dispatcherType;
+
+    private Dispatcher dispatcher;
+    private Span span;
+
+    @Setup
+    public void setup() {
+        if (dispatcherType.equals("ring")) {
+            dispatcher = new RingBufferDispatcher(new NoopClient(), CAPACITY, 256,
+                    RingBufferDispatcher.WaitStrategy.SLEEPING, 100_000, 10000, new NoopMetricsRegistry());
+        } else {
+            dispatcher = new RemoteDispatcher.Builder(new NoopMetricsRegistry(), new NoopClient())
+                    .withBlockingQueueLimit(CAPACITY)
+                    .build();
+        }
+        final Tracer tracer = new Tracer.Builder(new NoopMetricsRegistry(), "benchmark", new NoopDispatcher()).build();
+        span = (Span) tracer.buildSpan("dispatch").start();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        dispatcher.close();
+    }
+
+    @Benchmark
+    public void dispatch() {
+        dispatcher.dispatch(span);
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int threads : new int[] {1, 2, 4, 8, 16, 32, 64}) {
+            new Runner(new OptionsBuilder()
+                    .include(DispatcherBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build()).run();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.benchmarks;
+
+import com.expedia.haystack.dropwizard.sampling.ProbabilisticSampler;
+import com.expedia.haystack.dropwizard.sampling.Sampler;
+import com.expedia.haystack.dropwizard.sampling.TraceIdRatioSampler;
+import com.expedia.www.haystack.client.idgenerators.LongIdGenerator;
+import com.expedia.www.haystack.client.idgenerators.RandomUUIDGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of a sampling decision of the {@link TraceIdRatioSampler} for trace ids as generated, long or
+ * UUID, and as extracted from the headers of a request, next to the random {@link ProbabilisticSampler}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SamplerBenchmark {
+    private final static int IDS = 1024;
+
+    @Param({"traceid", "probabilistic"})
+    public String samplerType;
+
+    @Param({"long", "uuid", "extracted-long", "extracted-uuid"})
+    public String idType;
+
+    private Sampler sampler;
+    private final Object[] traceIds = new Object[IDS];
+    private int next;
+
+    @Setup
+    public void setup() {
+        sampler = samplerType.equals("traceid") ? new TraceIdRatioSampler(0.01) : new ProbabilisticSampler(0.01);
+        final LongIdGenerator longIds = new LongIdGenerator();
+        final RandomUUIDGenerator uuids = new RandomUUIDGenerator();
+        for (int i = 0; i < IDS; i++) {
+            switch (idType) {
+                case "long":
+                    traceIds[i] = longIds.generate();
+                    break;
+                case "uuid":
+                    traceIds[i] = uuids.generate();
+                    break;
+                case "extracted-long":
+                    traceIds[i] = longIds.generate().toString();
+                    break;
+                default:
+                    traceIds[i] = uuids.generate().toString();
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean isSampled() {
+        next = (next + 1) & (IDS - 1);
+        return sampler.isSampled("GET:/orders", traceIds[next]);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(SamplerBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -22,6 +22,8 @@ import com.google.common.collect.ImmutableList;
 
 import io.dropwizard.configuration.YamlConfigurationFactory;
 
+import static org.assertj.core.api.Assertions.assertThat;
+
 public class DispatcherFactoryTest extends BaseFactoryTest<DispatcherFactory> {
     private final YamlConfigurationFactory<DispatcherFactory> factory =
         new YamlConfigurationFactory<>(DispatcherFactory.class, validator, objectMapper, "dw");
@@ -31,7 +33,11 @@ public class DispatcherFactoryTest extends BaseFactoryTest<DispatcherFactory> {
         // Make sure the types we specified in META-INF gets picked up
         isDiscoverable(ImmutableList.of(RemoteDispatcherFactory.class,
                                         LoggerDispatcherFactory.class,
-                                        RemoteDispatcherFactory.class));
+                                        RemoteDispatcherFactory.class,
+                                        RingDispatcherFactory.class,
+                                        SpillDispatcherFactory.class,
+                                        TailDispatcherFactory.class,
+                                        MetricsDispatcherFactory.class));
     }
 
     @Test
@@ -39,6 +45,37 @@ public class DispatcherFactoryTest extends BaseFactoryTest<DispatcherFactory> {
         RemoteDispatcherFactory agent = (RemoteDispatcherFactory) testFactory(factory, "yaml/dispatcher/remote.yml", RemoteDispatcherFactory.class);
     }
 
+    @Test
+    public void testBuildRing() throws Exception {
+        testFactory(factory, "yaml/dispatcher/ring.yml", RingDispatcherFactory.class);
+    }
+
+    @Test
+    public void testBuildSpill() throws Exception {
+        final SpillDispatcherFactory spill =
+                (SpillDispatcherFactory) testFactory(factory, "yaml/dispatcher/spill.yml", SpillDispatcherFactory.class);
+        assertThat(spill.getMaxJournalBytes()).isEqualTo(64L * 1024 * 1024);
+        assertThat(spill.getReplayRatePerSec()).isEqualTo(200);
+    }
+
+    @Test
+    public void testBuildTail() throws Exception {
+        final TailDispatcherFactory tail =
+                (TailDispatcherFactory) testFactory(factory, "yaml/dispatcher/tail.yml", TailDispatcherFactory.class);
+        assertThat(tail.getDispatchers()).hasSize(1).first().isInstanceOf(RemoteDispatcherFactory.class);
+        assertThat(tail.getRules().getOperations()).containsExactly("POST:/orders");
+        assertThat(tail.getRules().isErrors()).isTrue();
+    }
+
+    @Test
+    public void testBuildMetrics() throws Exception {
+        final MetricsDispatcherFactory metrics = (MetricsDispatcherFactory) testFactory(factory,
+                "yaml/dispatcher/metrics.yml", MetricsDispatcherFactory.class);
+        assertThat(metrics.getDispatchers()).hasSize(1).first().isInstanceOf(RemoteDispatcherFactory.class);
+        assertThat(metrics.getSamplingRate()).isEqualTo(0.01);
+        assertThat(metrics.getPercentiles()).containsExactly(50.0, 99.9);
+    }
+
     @Test
     public void testBuildLogger() throws Exception {
         testFactory(factory, "yaml/dispatcher/logger.yml", LoggerDispatcherFactory.class);
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.configuration;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import io.dropwizard.configuration.YamlConfigurationFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SamplerFactoryTest extends BaseFactoryTest<SamplerFactory> {
+    private final YamlConfigurationFactory<SamplerFactory> factory =
+        new YamlConfigurationFactory<>(SamplerFactory.class, validator, objectMapper, "dw");
+
+    @Test
+    public void isDiscoverable() throws Exception {
+        // Make sure the types we specified in META-INF gets picked up
+        isDiscoverable(ImmutableList.of(ConstSamplerFactory.class,
+                                        ProbabilisticSamplerFactory.class,
+                                        RateLimitingSamplerFactory.class,
+                                        PerOperationSamplerFactory.class,
+                                        TraceIdRatioSamplerFactory.class));
+    }
+
+    @Test
+    public void testBuildConst() throws Exception {
+        testFactory(factory, "yaml/sampler/const.yml", ConstSamplerFactory.class);
+    }
+
+    @Test
+    public void testBuildProbabilistic() throws Exception {
+        testFactory(factory, "yaml/sampler/probabilistic.yml", ProbabilisticSamplerFactory.class);
+    }
+
+    @Test
+    public void testBuildRateLimiting() throws Exception {
+        testFactory(factory, "yaml/sampler/ratelimiting.yml", RateLimitingSamplerFactory.class);
+    }
+
+    @Test
+    public void testBuildTraceIdRatio() throws Exception {
+        testFactory(factory, "yaml/sampler/traceid.yml", TraceIdRatioSamplerFactory.class);
+    }
+
+    @Test
+    public void testBuildPerOperation() throws Exception {
+        final PerOperationSamplerFactory sampler = (PerOperationSamplerFactory)
+                testFactory(factory, "yaml/sampler/operation.yml", PerOperationSamplerFactory.class);
+        assertThat(sampler.getOperations()).containsEntry("GET:/orders/{id}", 0.5);
+        assertThat(sampler.build().isSampled("GET:/orders/{id}", 1L)).isTrue();
+    }
+}
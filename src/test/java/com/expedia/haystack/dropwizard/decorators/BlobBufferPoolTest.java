@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.decorators;
+
+import com.expedia.blobs.core.BlobType;
+import com.expedia.blobs.core.ContentType;
+import com.expedia.haystack.dropwizard.configuration.BlobContent;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BlobBufferPoolTest {
+
+    @Test
+    public void reuseBufferOnceTheBlobIsWritten() throws Exception {
+        final BlobBufferPool pool = new BlobBufferPool(1, 16, 1024, 4096, new NoopMetricsRegistry());
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        final KeyedBlobWriter writer = (blobType, contentType, dataStream, metadata, key) -> dataStream.accept(written);
+        final BlobContent[] captured = new BlobContent[1];
+
+        final InputStream in = new BlobCapturingInputStream(new ByteArrayInputStream("hello".getBytes("utf-8")),
+                ContentType.JSON, 0, pool, blob -> captured[0] = blob);
+        while (in.read() != -1) { }
+
+        assertThat(pool.getPooledBuffers()).isEqualTo(0);
+        BlobHelper.writeBlob(writer, captured[0], BlobType.REQUEST, BlobWriteOptions.NONE);
+
+        assertThat(new String(written.toByteArray(), "utf-8")).isEqualTo("hello");
+        assertThat(pool.getPooledBuffers()).isEqualTo(1);
+        assertThat(pool.getPooledBytes()).isEqualTo(16);
+
+        // releasing twice does not hand the same buffer out twice
+        captured[0].release();
+        assertThat(pool.getPooledBuffers()).isEqualTo(1);
+
+        final BlobBuffer buffer = pool.acquire();
+        assertThat(buffer.size()).isEqualTo(0);
+        assertThat(pool.getPooledBuffers()).isEqualTo(0);
+        assertThat(pool.getPooledBytes()).isEqualTo(0);
+    }
+
+    @Test
+    public void stopCapturingOnceTheBufferIsReleased() throws Exception {
+        final BlobBufferPool pool = new BlobBufferPool(1, 16, 1024, 4096, new NoopMetricsRegistry());
+
+        final OutputStream out = new BlobCapturingOutputStream(new ByteArrayOutputStream(), ContentType.JSON, 0, pool,
+                BlobContent::release);
+        out.write("hello".getBytes("utf-8"));
+        out.close();
+        final InputStream in = new BlobCapturingInputStream(new ByteArrayInputStream("hello world".getBytes("utf-8")),
+                ContentType.JSON, 0, pool, BlobContent::release);
+        in.read(new byte[5]);
+        in.close();
+
+        // the buffer went back to the pool, the next request owning it does not see the bytes written after close
+        final BlobBuffer next = pool.acquire();
+        out.write("late".getBytes("utf-8"));
+        out.write('!');
+        in.read(new byte[6]);
+        assertThat(next.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void dropBuffersBeyondTheLimits() throws Exception {
+        final BlobBufferPool pool = new BlobBufferPool(2, 16, 64, 32, new NoopMetricsRegistry());
+
+        final BlobBuffer grown = pool.acquire();
+        grown.write(new byte[128]);
+        grown.release();
+        assertThat(pool.getPooledBuffers()).isEqualTo(0);
+
+        final BlobBuffer first = pool.acquire();
+        final BlobBuffer second = pool.acquire();
+        final BlobBuffer third = pool.acquire();
+        first.release();
+        second.release();
+        third.release();
+        assertThat(pool.getPooledBuffers()).isEqualTo(2);
+        assertThat(pool.getPooledBytes()).isEqualTo(32);
+    }
+
+    @Test
+    public void unpooledNeverRetainsBuffers() {
+        final BlobBuffer buffer = BlobBufferPool.UNPOOLED.acquire();
+        buffer.release();
+        assertThat(BlobBufferPool.UNPOOLED.getPooledBuffers()).isEqualTo(0);
+    }
+}
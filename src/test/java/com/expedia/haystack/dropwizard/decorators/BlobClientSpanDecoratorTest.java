@@ -20,22 +20,28 @@ package com.expedia.haystack.dropwizard.decorators;
 import com.expedia.blobs.core.BlobType;
 import com.expedia.blobs.core.BlobWriter;
 import com.expedia.blobs.core.ContentType;
+import com.expedia.haystack.dropwizard.bundle.Blobable;
 import com.expedia.haystack.dropwizard.configuration.BlobContent;
 import com.expedia.haystack.dropwizard.configuration.BlobFactory;
 import com.expedia.www.haystack.client.Span;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Answers;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import javax.ws.rs.client.ClientRequestContext;
 import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.core.MediaType;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class BlobClientSpanDecoratorTest {
@@ -56,6 +62,7 @@ public class BlobClientSpanDecoratorTest {
     @Before
     public void setup() {
         MockitoAnnotations.initMocks(this);
+        when(blobs.captureMetrics()).thenReturn(BlobCaptureMetrics.NONE);
     }
 
     @Test
@@ -109,6 +116,32 @@ public class BlobClientSpanDecoratorTest {
         assertThat(writerInvoked[0]).isFalse();
     }
 
+    @Test
+    public void teeClientResponseInStreamingMode() throws Exception {
+        final boolean writerInvoked[] = new boolean[1];
+        when(blobs.isEnabled()).thenReturn(true);
+        when(blobs.getCaptureMode()).thenReturn(BlobFactory.CaptureMode.STREAMING);
+        when(blobs.getBlobable()).thenReturn(new Blobable() {});
+        when(blobs.bufferPool()).thenReturn(BlobBufferPool.UNPOOLED);
+        when(blobs.factory().create(Matchers.any())).thenReturn(newBlobWriter(writerInvoked, BlobType.RESPONSE));
+        when(responseCtx.getMediaType()).thenReturn(MediaType.APPLICATION_JSON_TYPE);
+        when(responseCtx.getEntityStream()).thenReturn(new ByteArrayInputStream(data.getBytes("utf-8")));
+
+        final BlobClientSpanDecorator decorator = new BlobClientSpanDecorator(blobs);
+        decorator.decorateResponse(responseCtx, span);
+        assertThat(writerInvoked[0]).isFalse();
+
+        final ArgumentCaptor<InputStream> stream = ArgumentCaptor.forClass(InputStream.class);
+        verify(responseCtx).setEntityStream(stream.capture());
+        final byte[] body = new byte[data.length()];
+        assertThat(stream.getValue().read(body)).isEqualTo(body.length);
+        assertThat(writerInvoked[0]).isFalse();
+
+        stream.getValue().close();
+        assertThat(new String(body, "utf-8")).isEqualTo(data);
+        assertThat(writerInvoked[0]).isTrue();
+    }
+
     private static BlobWriter newBlobWriter(final boolean writerInvoked[], final BlobType type) {
         return (blobType, contentType, dataStream, metadata) -> {
             writerInvoked[0] = true;
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.decorators;
+
+import com.expedia.blobs.core.BlobType;
+import com.expedia.blobs.core.ContentType;
+import com.expedia.haystack.dropwizard.configuration.BlobContent;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BlobCompressorTest {
+    private final static String data = "{\"name\": \"Alice\", \"friends\": [\"Bob\", \"Bob\", \"Bob\", \"Bob\", \"Bob\"]}";
+
+    @Test
+    public void compressAndRecordCodecInMetadata() throws Exception {
+        for (BlobCodec codec : BlobCodec.values()) {
+            final Map<String, String> metadata = new HashMap<>();
+            final byte[] stored = write(new BlobCompressor(codec, 16), metadata);
+
+            assertThat(BlobCodec.fromMetadata(metadata)).isEqualTo(codec);
+            final byte[] restored = IOUtils.toByteArray(codec.decode(new ByteArrayInputStream(stored)));
+            assertThat(new String(restored, "utf-8")).isEqualTo(data);
+        }
+    }
+
+    @Test
+    public void skipCompressionBelowMinBytes() throws Exception {
+        final Map<String, String> metadata = new HashMap<>();
+        final byte[] stored = write(new BlobCompressor(BlobCodec.GZIP, data.length() + 1), metadata);
+
+        assertThat(metadata).doesNotContainKey(BlobCodec.METADATA_KEY);
+        assertThat(new String(stored, "utf-8")).isEqualTo(data);
+    }
+
+    private static byte[] write(final BlobCompressor compressor, final Map<String, String> metadata) throws Exception {
+        final ByteArrayOutputStream stored = new ByteArrayOutputStream();
+        final KeyedBlobWriter writer = (blobType, contentType, dataStream, metadataStream, key) -> {
+            metadataStream.accept(metadata::put);
+            dataStream.accept(stored);
+        };
+        BlobHelper.writeBlob(writer, new BlobContent(data.getBytes("utf-8"), ContentType.JSON), BlobType.REQUEST,
+                new BlobWriteOptions(new BlobSizeLimit(0, null), compressor, BlobDeduplicator.NONE, BlobRedactor.NONE));
+        return stored.toByteArray();
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.decorators;
+
+import com.expedia.blobs.core.BlobContext;
+import com.expedia.blobs.core.BlobStore;
+import com.expedia.blobs.core.BlobType;
+import com.expedia.blobs.core.BlobsFactory;
+import com.expedia.blobs.core.ContentType;
+import com.expedia.haystack.dropwizard.configuration.BlobContent;
+import com.expedia.haystack.dropwizard.stores.ConfirmingBlobStore;
+import com.expedia.haystack.dropwizard.stores.MemoryBlobStore;
+import com.expedia.haystack.dropwizard.stores.ReportingBlobStore;
+import com.expedia.www.blobs.model.Blob;
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.SpanContext;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BlobDeduplicatorTest {
+    private final static String BODY = "{\"catalog\": [\"one\", \"two\", \"three\"]}";
+
+    @Test
+    public void writeReferenceForRepeatedContent() {
+        final MemoryBlobStore store = new MemoryBlobStore(64 * 1024);
+        final BlobDeduplicator deduplicator = new BlobDeduplicator(10, 16, 60000, new NoopMetricsRegistry());
+        final BlobStore confirming = new ConfirmingBlobStore(store, deduplicator::confirm);
+        final BlobWriteOptions options = options(deduplicator);
+
+        final Span first = span();
+        final Span second = span();
+        BlobHelper.writeBlob(writer(confirming, first), json(BODY), BlobType.RESPONSE, options);
+        BlobHelper.writeBlob(writer(confirming, second), json(BODY), BlobType.RESPONSE, options);
+
+        final Blob original = single(store.find(traceId(first)));
+        final Blob reference = single(store.find(traceId(second)));
+        assertThat(original.getContent().toString(StandardCharsets.UTF_8)).isEqualTo(BODY);
+        assertThat(original.getMetadataMap()).doesNotContainKey(BlobDeduplicator.METADATA_KEY);
+        assertThat(reference.getContent().isEmpty()).isTrue();
+        assertThat(reference.getMetadataMap()).containsEntry(BlobDeduplicator.METADATA_KEY, original.getKey());
+    }
+
+    @Test
+    public void writeDistinctAndSmallContentInFull() {
+        final MemoryBlobStore store = new MemoryBlobStore(64 * 1024);
+        final BlobDeduplicator deduplicator = new BlobDeduplicator(10, 16, 60000, new NoopMetricsRegistry());
+        final BlobWriteOptions options = options(deduplicator);
+
+        final Span[] spans = { span(), span(), span(), span() };
+        BlobHelper.writeBlob(writer(store, spans[0]), json(BODY), BlobType.RESPONSE, options);
+        BlobHelper.writeBlob(writer(store, spans[1]), json(BODY + " "), BlobType.RESPONSE, options);
+        BlobHelper.writeBlob(writer(store, spans[2]), json("{}"), BlobType.RESPONSE, options);
+        BlobHelper.writeBlob(writer(store, spans[3]), json("{}"), BlobType.RESPONSE, options);
+
+        for (Span span : spans) {
+            assertThat(single(store.find(traceId(span))).getMetadataMap())
+                    .doesNotContainKey(BlobDeduplicator.METADATA_KEY);
+        }
+    }
+
+    @Test
+    public void referOnlyToCopiesTheStoreWrote() {
+        final BlobDeduplicator deduplicator = new BlobDeduplicator(10, 16, 60000, new NoopMetricsRegistry());
+        // an asynchronous store that queued the first copy but never reports it written
+        final BlobStore queued = new ConfirmingBlobStore(mock(ReportingBlobStore.class), deduplicator::confirm);
+        final MemoryBlobStore store = new MemoryBlobStore(64 * 1024);
+        final BlobWriteOptions options = options(deduplicator);
+
+        final Span first = span();
+        final Span second = span();
+        BlobHelper.writeBlob(writer(queued, first), json(BODY), BlobType.RESPONSE, options);
+        BlobHelper.writeBlob(writer(store, second), json(BODY), BlobType.RESPONSE, options);
+
+        assertThat(single(store.find(traceId(second))).getMetadataMap())
+                .doesNotContainKey(BlobDeduplicator.METADATA_KEY);
+    }
+
+    @Test
+    public void forgetLeastRecentlyUsedHashes() throws Exception {
+        final BlobDeduplicator deduplicator = new BlobDeduplicator(2, 0, 60000, new NoopMetricsRegistry());
+        deduplicator.record("a", "key-a");
+        deduplicator.record("b", "key-b");
+        assertThat(deduplicator.firstCopy("a")).isNull();
+        deduplicator.confirm("key-a");
+        deduplicator.confirm("key-b");
+        assertThat(deduplicator.firstCopy("a")).isEqualTo("key-a");
+        deduplicator.record("c", "key-c");
+        deduplicator.confirm("key-c");
+
+        assertThat(deduplicator.firstCopy("b")).isNull();
+        assertThat(deduplicator.firstCopy("a")).isEqualTo("key-a");
+        assertThat(deduplicator.firstCopy("c")).isEqualTo("key-c");
+        assertThat(deduplicator.hash(json(BODY))).isEqualTo(deduplicator.hash(json(BODY)))
+                .isNotEqualTo(deduplicator.hash(new BlobContent(BODY.getBytes(StandardCharsets.UTF_8),
+                        ContentType.from("text/plain"))));
+    }
+
+    private static BlobWriteOptions options(final BlobDeduplicator deduplicator) {
+        return new BlobWriteOptions(new BlobSizeLimit(0, null), BlobCompressor.NONE, deduplicator, BlobRedactor.NONE);
+    }
+
+    private static KeyedBlobWriter writer(final BlobStore store, final Span span) {
+        return BlobHelper.createWriter(new BlobsFactory<BlobContext>(store), span);
+    }
+
+    private static BlobContent json(final String body) {
+        return new BlobContent(body.getBytes(StandardCharsets.UTF_8), ContentType.JSON);
+    }
+
+    private static Span span() {
+        final Span span = mock(Span.class);
+        when(span.getServiceName()).thenReturn("service");
+        when(span.getOperationName()).thenReturn("GET:/catalog");
+        when(span.context()).thenReturn(new SpanContext(UUID.randomUUID(), UUID.randomUUID(), null));
+        return span;
+    }
+
+    private static String traceId(final Span span) {
+        return span.context().getTraceId().toString();
+    }
+
+    private static Blob single(final List<Blob> blobs) {
+        assertThat(blobs).hasSize(1);
+        return blobs.get(0);
+    }
+}
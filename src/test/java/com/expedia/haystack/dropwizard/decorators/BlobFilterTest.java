@@ -0,0 +1,110 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.decorators;
+
+import com.expedia.haystack.dropwizard.bundle.Blobable;
+import com.expedia.haystack.dropwizard.configuration.BlobFactory;
+import com.expedia.haystack.dropwizard.configuration.BlobFilterFactory;
+import io.dropwizard.setup.Environment;
+import org.junit.Test;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.core.MediaType;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BlobFilterTest {
+
+    @Test
+    public void excludeBinaryMediaTypesByDefault() {
+        final BlobFilter filter = new BlobFilterFactory().build();
+
+        assertThat(filter.acceptsMediaType(MediaType.APPLICATION_JSON_TYPE)).isTrue();
+        assertThat(filter.acceptsMediaType(MediaType.valueOf("text/plain; charset=utf-8"))).isTrue();
+        assertThat(filter.acceptsMediaType(null)).isTrue();
+        assertThat(filter.acceptsMediaType(MediaType.valueOf("image/png"))).isFalse();
+        assertThat(filter.acceptsMediaType(MediaType.valueOf("Application/Octet-Stream"))).isFalse();
+        assertThat(filter.acceptsMediaType(MediaType.MULTIPART_FORM_DATA_TYPE)).isFalse();
+        assertThat(filter.filtersPaths()).isFalse();
+    }
+
+    @Test
+    public void includeMediaTypesAndPathsUnlessExcluded() {
+        final BlobFilter filter = new BlobFilter(
+                Arrays.asList("application/json", "text/*", "*/*+json"),
+                Collections.singletonList("text/html"),
+                Arrays.asList("/orders*", "*.json", "/health"),
+                Arrays.asList("/orders/internal*", "/health"));
+
+        assertThat(filter.acceptsMediaType(MediaType.APPLICATION_JSON_TYPE)).isTrue();
+        assertThat(filter.acceptsMediaType(MediaType.valueOf("application/problem+json"))).isTrue();
+        assertThat(filter.acceptsMediaType(MediaType.TEXT_PLAIN_TYPE)).isTrue();
+        assertThat(filter.acceptsMediaType(MediaType.TEXT_HTML_TYPE)).isFalse();
+        assertThat(filter.acceptsMediaType(MediaType.APPLICATION_XML_TYPE)).isFalse();
+
+        assertThat(filter.filtersPaths()).isTrue();
+        assertThat(filter.acceptsPath("/orders/1")).isTrue();
+        assertThat(filter.acceptsPath("/catalog/items.json")).isTrue();
+        assertThat(filter.acceptsPath("/orders/internal/sync")).isFalse();
+        assertThat(filter.acceptsPath("/health")).isFalse();
+        assertThat(filter.acceptsPath("/catalog/items")).isFalse();
+    }
+
+    @Test
+    public void filterTheMediaTypesOfACustomBlobable() {
+        final BlobFactory blobs = new BlobFactory();
+        blobs.setFilter(new BlobFilterFactory());
+        blobs.setBlobable(new Blobable() {
+            @Override
+            public boolean isServerResponseValidForBlob(final ContainerResponseContext resp) {
+                return resp.getStatus() >= 400;
+            }
+        });
+        blobs.build(mock(Environment.class));
+        final Blobable blobable = blobs.getBlobable();
+
+        assertThat(blobable.isServerResponseValidForBlob(response(MediaType.APPLICATION_JSON_TYPE, 500))).isTrue();
+        assertThat(blobable.isServerResponseValidForBlob(response(MediaType.APPLICATION_JSON_TYPE, 200))).isFalse();
+        assertThat(blobable.isServerResponseValidForBlob(response(MediaType.valueOf("image/png"), 500))).isFalse();
+
+        final ContainerRequestContext request = mock(ContainerRequestContext.class);
+        when(request.getMediaType()).thenReturn(MediaType.APPLICATION_OCTET_STREAM_TYPE);
+        assertThat(blobable.isServerRequestValidForBlob(request)).isFalse();
+    }
+
+    @Test
+    public void rejectSerializersNotProvidedByACustomBlobable() {
+        final BlobFactory blobs = new BlobFactory();
+        blobs.setBlobable(new Blobable() {});
+        blobs.setSerializers(new BlobSerializers(Collections.emptyMap()));
+
+        assertThatThrownBy(() -> blobs.build(mock(Environment.class))).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static ContainerResponseContext response(final MediaType mediaType, final int status) {
+        final ContainerResponseContext response = mock(ContainerResponseContext.class);
+        when(response.getMediaType()).thenReturn(mediaType);
+        when(response.getStatus()).thenReturn(status);
+        return response;
+    }
+}
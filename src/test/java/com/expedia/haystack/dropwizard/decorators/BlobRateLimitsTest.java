@@ -0,0 +1,156 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.decorators;
+
+import com.expedia.haystack.dropwizard.sampling.TraceIdRatioSampler;
+import com.expedia.www.haystack.client.metrics.Counter;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import com.expedia.www.haystack.client.metrics.Tag;
+import org.junit.Test;
+import org.mockito.Matchers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BlobRateLimitsTest {
+
+    @Test
+    public void limitEachEndpointIndependently() {
+        final BlobRateLimits limits = new BlobRateLimits(1.0, 2, Collections.singletonMap("GET:rare", 1.0),
+                -1, Collections.emptyMap(), 10, new NoopMetricsRegistry());
+
+        assertThat(limits.tryAcquire(BlobRateLimits.Side.SERVER, "GET:chatty")).isTrue();
+        assertThat(limits.tryAcquire(BlobRateLimits.Side.SERVER, "GET:chatty")).isTrue();
+        assertThat(limits.tryAcquire(BlobRateLimits.Side.SERVER, "GET:chatty")).isFalse();
+
+        // a chatty endpoint does not use up the budget of the others
+        assertThat(limits.tryAcquire(BlobRateLimits.Side.SERVER, "GET:rare")).isTrue();
+        assertThat(limits.tryAcquire(BlobRateLimits.Side.SERVER, "GET:rare")).isFalse();
+
+        // client hosts are not limited
+        for (int i = 0; i < 100; i++) {
+            assertThat(limits.tryAcquire(BlobRateLimits.Side.CLIENT, "payments")).isTrue();
+        }
+    }
+
+    @Test
+    public void shareOverflowBucketBeyondMaxKeys() {
+        final BlobRateLimits limits = new BlobRateLimits(1.0, -1, Collections.emptyMap(),
+                1, Collections.emptyMap(), 1, new NoopMetricsRegistry());
+
+        assertThat(limits.tryAcquire(BlobRateLimits.Side.CLIENT, "first")).isTrue();
+        assertThat(limits.tryAcquire(BlobRateLimits.Side.CLIENT, "second")).isTrue();
+        assertThat(limits.tryAcquire(BlobRateLimits.Side.CLIENT, "third")).isFalse();
+    }
+
+    @Test
+    public void sampleBlobs() {
+        final BlobRateLimits none = new BlobRateLimits(0.0, -1, Collections.emptyMap(),
+                -1, Collections.emptyMap(), 10, new NoopMetricsRegistry());
+        assertThat(none.tryAcquire(BlobRateLimits.Side.SERVER, "GET:any")).isFalse();
+
+        final BlobRateLimits blocked = new BlobRateLimits(1.0, 0, Collections.emptyMap(),
+                -1, Collections.emptyMap(), 10, new NoopMetricsRegistry());
+        assertThat(blocked.tryAcquire(BlobRateLimits.Side.SERVER, "GET:any")).isFalse();
+    }
+
+    @Test
+    public void sampleTheBlobsOfASpanAlike() {
+        final BlobRateLimits limits = new BlobRateLimits(0.5, -1, Collections.emptyMap(),
+                -1, Collections.emptyMap(), 10, new NoopMetricsRegistry());
+
+        int sampled = 0;
+        for (int i = 0; i < 1000; i++) {
+            final UUID traceId = UUID.randomUUID();
+            final boolean request = limits.tryAcquire(BlobRateLimits.Side.SERVER, "GET:any", traceId);
+            assertThat(limits.tryAcquire(BlobRateLimits.Side.SERVER, "GET:any", traceId)).isEqualTo(request);
+            sampled += request ? 1 : 0;
+        }
+        assertThat(sampled).isBetween(400, 600);
+    }
+
+    @Test
+    public void sampleBlobsIndependentlyOfTheTraceSampler() {
+        final TraceIdRatioSampler traces = new TraceIdRatioSampler(0.1);
+        final BlobRateLimits limits = new BlobRateLimits(0.1, -1, Collections.emptyMap(),
+                -1, Collections.emptyMap(), 10, new NoopMetricsRegistry());
+
+        int recorded = 0;
+        int captured = 0;
+        for (int i = 0; i < 200_000; i++) {
+            final UUID traceId = UUID.randomUUID();
+            if (traces.isSampled("GET:any", traceId)) {
+                recorded++;
+                captured += limits.tryAcquire(BlobRateLimits.Side.SERVER, "GET:any", traceId) ? 1 : 0;
+            }
+        }
+        // the blob rate applies within the recorded traces, it is not nested in the trace ratio
+        assertThat((double) captured / recorded).isBetween(0.08, 0.12);
+    }
+
+    @Test
+    public void capTheKeysOfConcurrentCallers() throws Exception {
+        final MetricsRegistry registry = mock(MetricsRegistry.class);
+        final Set<String> keys = ConcurrentHashMap.newKeySet();
+        when(registry.counter(Matchers.anyString(), Matchers.anyCollectionOf(Tag.class))).thenAnswer(invocation -> {
+            for (Object tag : (Collection<?>) invocation.getArguments()[1]) {
+                if (((Tag) tag).key().equals("endpoint")) {
+                    keys.add(((Tag) tag).value());
+                }
+            }
+            return mock(Counter.class);
+        });
+        final BlobRateLimits limits = new BlobRateLimits(1.0, -1, Collections.emptyMap(),
+                -1, Collections.emptyMap(), 4, registry);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<?>> calls = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            final int thread = i;
+            calls.add(executor.submit(() -> {
+                start.await();
+                for (int j = 0; j < 100; j++) {
+                    limits.tryAcquire(BlobRateLimits.Side.SERVER, "GET:" + thread + "-" + j);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> call : calls) {
+            call.get();
+        }
+        executor.shutdown();
+
+        // the 4 keys and the shared overflow bucket
+        assertThat(keys).hasSize(5).contains("other");
+    }
+}
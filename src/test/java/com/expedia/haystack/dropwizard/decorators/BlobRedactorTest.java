@@ -0,0 +1,70 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.decorators;
+
+import com.expedia.blobs.core.ContentType;
+import com.expedia.haystack.dropwizard.configuration.BlobContent;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BlobRedactorTest {
+    private final BlobRedactor redactor = new BlobRedactor(
+            Arrays.asList("password", "CardNumber"),
+            Arrays.asList("$.customer.ssn", "$.items[*].*.token"),
+            "****");
+
+    @Test
+    public void maskFieldsAtAnyDepthAndPathsFromTheRoot() throws Exception {
+        final String json = "{\"user\":\"alice\",\"PASSWORD\":\"secret\"," +
+                "\"customer\":{\"ssn\":\"123-45-6789\",\"name\":\"Alice\",\"cardNumber\":{\"pan\":\"4111\"}}," +
+                "\"ssn\":\"kept\",\"items\":[{\"payment\":{\"token\":\"tok\",\"amount\":10}},{\"token\":\"kept\"}]," +
+                "\"scores\":[1,2.5,true,null]}";
+
+        assertThat(redact(json, ContentType.JSON)).isEqualTo("{\"user\":\"alice\",\"PASSWORD\":\"****\"," +
+                "\"customer\":{\"ssn\":\"****\",\"name\":\"Alice\",\"cardNumber\":\"****\"}," +
+                "\"ssn\":\"kept\",\"items\":[{\"payment\":{\"token\":\"****\",\"amount\":10}},{\"token\":\"kept\"}]," +
+                "\"scores\":[1,2.5,true,null]}");
+    }
+
+    @Test
+    public void closeTruncatedJsonAfterTheLastCompleteToken() throws Exception {
+        assertThat(redact("{\"password\":\"secret\",\"items\":[{\"name\":\"a\"},{\"na", ContentType.JSON))
+                .isEqualTo("{\"password\":\"****\",\"items\":[{\"name\":\"a\"},{}]}");
+    }
+
+    @Test
+    public void applyOnlyToJsonBlobsWithRules() {
+        final BlobContent json = new BlobContent(new byte[0], ContentType.from("application/problem+json"));
+
+        assertThat(redactor.appliesTo(json)).isTrue();
+        assertThat(redactor.appliesTo(new BlobContent(new byte[0], ContentType.XML))).isFalse();
+        assertThat(BlobRedactor.NONE.appliesTo(json)).isFalse();
+        assertThat(new BlobRedactor(Collections.emptyList(), Collections.singletonList("$.a"), "")
+                .appliesTo(json)).isTrue();
+    }
+
+    private String redact(final String json, final ContentType contentType) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        redactor.redact(new BlobContent(json.getBytes("utf-8"), contentType), out);
+        return out.toString("utf-8");
+    }
+}
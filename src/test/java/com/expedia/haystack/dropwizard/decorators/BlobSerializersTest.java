@@ -0,0 +1,90 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.decorators;
+
+import com.expedia.blobs.core.ContentType;
+import com.expedia.haystack.dropwizard.configuration.BlobContent;
+import com.expedia.haystack.dropwizard.configuration.BlobFactory;
+import io.dropwizard.setup.Environment;
+import org.junit.Test;
+
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BlobSerializersTest {
+
+    public static class Person {
+        public String name = "Alice";
+    }
+
+    @Test
+    public void serializeByEntityClass() throws Exception {
+        final BlobSerializers serializers = BlobSerializers.DEFAULT;
+
+        assertThat(text(serializers.serialize("hello", MediaType.TEXT_PLAIN))).isEqualTo("hello");
+        assertThat(text(serializers.serialize("hello".getBytes("utf-8"), MediaType.TEXT_PLAIN))).isEqualTo("hello");
+
+        final BlobContent json = serializers.serialize(new Person(), MediaType.APPLICATION_JSON);
+        assertThat(json.getContentType()).isEqualTo(ContentType.JSON);
+        assertThat(text(json)).isEqualTo("{\"name\":\"Alice\"}");
+
+        final ByteBuffer buffer = ByteBuffer.wrap("hello".getBytes("utf-8"));
+        assertThat(text(serializers.serialize(buffer, MediaType.TEXT_PLAIN))).isEqualTo("hello");
+        assertThat(buffer.position()).isEqualTo(0);
+
+        assertThat(serializers.serialize(new ByteArrayInputStream(new byte[1]), MediaType.TEXT_PLAIN)).isNull();
+        assertThat(serializers.serialize((StreamingOutput) output -> { }, MediaType.TEXT_PLAIN)).isNull();
+        assertThat(serializers.serialize(null, MediaType.TEXT_PLAIN)).isNull();
+    }
+
+    @Test
+    public void rememberSerializerPerClassAndPreferCustomOnes() throws Exception {
+        final BlobSerializer custom = (entity, contentType) -> new BlobContent(new byte[0], ContentType.from(contentType));
+        final BlobSerializers serializers = new BlobSerializers(Collections.singletonMap(Person.class, custom));
+
+        assertThat(serializers.forClass(Person.class)).isSameAs(custom);
+        assertThat(serializers.forClass(String.class)).isSameAs(BlobSerializers.STRING);
+        assertThat(BlobSerializers.DEFAULT.forClass(Person.class))
+                .isSameAs(BlobSerializers.DEFAULT.forClass(Person.class));
+    }
+
+    @Test
+    public void extractWithTheSerializersOfTheFactory() throws Exception {
+        final BlobSerializer custom = (entity, contentType) ->
+                new BlobContent("custom".getBytes("utf-8"), ContentType.from(contentType));
+        final BlobFactory blobs = new BlobFactory();
+        blobs.setSerializers(new BlobSerializers(Collections.singletonMap(Person.class, custom)));
+        blobs.build(mock(Environment.class));
+
+        final ContainerResponseContext response = mock(ContainerResponseContext.class);
+        when(response.getMediaType()).thenReturn(MediaType.APPLICATION_JSON_TYPE);
+        when(response.getEntity()).thenReturn(new Person());
+        assertThat(text(blobs.getBlobable().extractBlobFromServerResponse(response))).isEqualTo("custom");
+    }
+
+    private static String text(final BlobContent blob) throws Exception {
+        return new String(blob.getData(), "utf-8");
+    }
+}
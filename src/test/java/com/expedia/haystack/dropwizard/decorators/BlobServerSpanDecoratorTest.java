@@ -4,21 +4,47 @@ package com.expedia.haystack.dropwizard.decorators;
 import com.expedia.blobs.core.BlobType;
 import com.expedia.blobs.core.BlobWriter;
 import com.expedia.blobs.core.ContentType;
+import com.expedia.haystack.dropwizard.bundle.Blobable;
 import com.expedia.haystack.dropwizard.configuration.BlobContent;
 import com.expedia.haystack.dropwizard.configuration.BlobFactory;
+import com.expedia.haystack.dropwizard.configuration.DeferredCaptureFactory;
 import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.metrics.Counter;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.Tag;
+import com.expedia.www.haystack.client.metrics.Timer;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Answers;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import javax.ws.rs.container.ContainerRequestContext;
 import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 
@@ -42,6 +68,7 @@ public class BlobServerSpanDecoratorTest {
     @Before
     public void setup() {
         MockitoAnnotations.initMocks(this);
+        when(blobs.captureMetrics()).thenReturn(BlobCaptureMetrics.NONE);
     }
 
     @Test
@@ -83,6 +110,310 @@ public class BlobServerSpanDecoratorTest {
         assertThat(writerInvoked[0]).isEqualTo(0);
     }
 
+    @Test
+    public void teeServerRequestInStreamingMode() throws Exception {
+        final int[] writerInvoked = new int[] { 0 };
+        final BlobWriter blobWriter = newBlobWriter(writerInvoked);
+
+        when(blobs.isEnabled()).thenReturn(true);
+        when(blobs.getCaptureMode()).thenReturn(BlobFactory.CaptureMode.STREAMING);
+        when(blobs.getBlobable()).thenReturn(new Blobable() {});
+        when(blobs.bufferPool()).thenReturn(BlobBufferPool.UNPOOLED);
+        when(blobs.factory().create(Matchers.any())).thenReturn(blobWriter);
+        when(requestCtx.getMediaType()).thenReturn(MediaType.APPLICATION_JSON_TYPE);
+        when(requestCtx.getEntityStream()).thenReturn(new ByteArrayInputStream(request_data.getBytes("utf-8")));
+
+        final BlobServerSpanDecorator decorator = new BlobServerSpanDecorator(blobs);
+        decorator.decorateRequest(requestCtx, span);
+
+        // nothing is written until the resource reads the body
+        assertThat(writerInvoked[0]).isEqualTo(0);
+
+        final ArgumentCaptor<InputStream> stream = ArgumentCaptor.forClass(InputStream.class);
+        verify(requestCtx).setEntityStream(stream.capture());
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4];
+        int count;
+        while ((count = stream.getValue().read(buffer)) != -1) {
+            body.write(buffer, 0, count);
+        }
+        stream.getValue().close();
+
+        assertThat(new String(body.toByteArray(), "utf-8")).isEqualTo(request_data);
+        assertThat(writerInvoked[0]).isEqualTo(1);
+    }
+
+    @Test
+    public void captureServerResponseFromSerializedBytesInStreamingMode() throws Exception {
+        final int[] writerInvoked = new int[] { 0 };
+        final BlobWriter blobWriter = newBlobWriter(writerInvoked);
+        final ByteArrayOutputStream wire = new ByteArrayOutputStream();
+
+        when(blobs.isEnabled()).thenReturn(true);
+        when(blobs.getCaptureMode()).thenReturn(BlobFactory.CaptureMode.STREAMING);
+        when(blobs.getBlobable()).thenReturn(new Blobable() {});
+        when(blobs.bufferPool()).thenReturn(BlobBufferPool.UNPOOLED);
+        when(blobs.factory().create(Matchers.any())).thenReturn(blobWriter);
+        when(responseCtx.hasEntity()).thenReturn(true);
+        when(responseCtx.getMediaType()).thenReturn(MediaType.APPLICATION_JSON_TYPE);
+        when(responseCtx.getEntityStream()).thenReturn(wire);
+
+        final BlobServerSpanDecorator decorator = new BlobServerSpanDecorator(blobs);
+        decorator.decorateResponse(responseCtx, span);
+
+        final ArgumentCaptor<OutputStream> stream = ArgumentCaptor.forClass(OutputStream.class);
+        verify(responseCtx).setEntityStream(stream.capture());
+
+        // the message body writer writes the entity through the interceptor chain
+        final WriterInterceptorContext interceptorCtx = mock(WriterInterceptorContext.class);
+        when(interceptorCtx.getOutputStream()).thenReturn(stream.getValue());
+        doAnswer(invocation -> {
+            stream.getValue().write(response_data.getBytes("utf-8"));
+            return null;
+        }).when(interceptorCtx).proceed();
+        new BlobCaptureInterceptor().aroundWriteTo(interceptorCtx);
+
+        assertThat(new String(wire.toByteArray(), "utf-8")).isEqualTo(response_data);
+        assertThat(writerInvoked[0]).isEqualTo(1);
+
+        // closing the stream afterwards does not write the blob again
+        stream.getValue().close();
+        assertThat(writerInvoked[0]).isEqualTo(1);
+    }
+
+    @Test
+    public void truncateOversizedServerRequest() throws Exception {
+        final String[] captured = new String[1];
+        final boolean[] truncated = new boolean[1];
+        final BlobWriter blobWriter = (blobType, contentType, dataStream, metadata) -> {
+            final ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+            dataStream.accept(outStream);
+            captured[0] = new String(outStream.toByteArray());
+            metadata.accept((key, value) -> truncated[0] = key.equals(BlobHelper.TRUNCATED_METADATA));
+        };
+
+        when(blobs.isEnabled()).thenReturn(true);
+        when(blobs.getMaxBlobBytes()).thenReturn(5L);
+        when(blobs.getOversizedBlobPolicy()).thenReturn(BlobFactory.OversizedBlobPolicy.TRUNCATE);
+        when(blobs.getBlobable()).thenReturn(new Blobable() {});
+        when(blobs.bufferPool()).thenReturn(BlobBufferPool.UNPOOLED);
+        when(blobs.factory().create(Matchers.any())).thenReturn(blobWriter);
+        when(requestCtx.getLength()).thenReturn(request_data.length());
+        when(requestCtx.getMediaType()).thenReturn(MediaType.APPLICATION_JSON_TYPE);
+        when(requestCtx.getEntityStream()).thenReturn(new ByteArrayInputStream(request_data.getBytes("utf-8")));
+
+        new BlobServerSpanDecorator(blobs).decorateRequest(requestCtx, span);
+
+        // the body is too large, so it is teed with a bounded capture instead of being buffered up front
+        final ArgumentCaptor<InputStream> stream = ArgumentCaptor.forClass(InputStream.class);
+        verify(requestCtx).setEntityStream(stream.capture());
+        final byte[] buffer = new byte[64];
+        int total = 0;
+        int count;
+        while ((count = stream.getValue().read(buffer)) != -1) {
+            total += count;
+        }
+
+        assertThat(total).isEqualTo(request_data.length());
+        assertThat(captured[0]).isEqualTo(request_data.substring(0, 5));
+        assertThat(truncated[0]).isTrue();
+    }
+
+    @Test
+    public void skipOversizedServerRequestFromContentLength() throws Exception {
+        final int[] writerInvoked = new int[] { 0 };
+        final BlobWriter blobWriter = newBlobWriter(writerInvoked);
+
+        when(blobs.isEnabled()).thenReturn(true);
+        when(blobs.getMaxBlobBytes()).thenReturn(5L);
+        when(blobs.getOversizedBlobPolicy()).thenReturn(BlobFactory.OversizedBlobPolicy.SKIP);
+        when(blobs.factory().create(Matchers.any())).thenReturn(blobWriter);
+        when(blobs.getBlobable().isServerRequestValidForBlob(requestCtx)).thenReturn(true);
+        when(requestCtx.getLength()).thenReturn(request_data.length());
+
+        new BlobServerSpanDecorator(blobs).decorateRequest(requestCtx, span);
+
+        verify(requestCtx, never()).setEntityStream(Matchers.any());
+        verify(blobs.getBlobable(), never()).extractBlobFromServerRequest(requestCtx);
+        assertThat(writerInvoked[0]).isEqualTo(0);
+    }
+
+    @Test
+    public void writeDeferredBlobsOnlyForFailedRequests() throws Exception {
+        final int[] writerInvoked = new int[] { 0 };
+        final BlobWriter blobWriter = newBlobWriter(writerInvoked);
+        final BlobRateLimits rateLimits = mock(BlobRateLimits.class);
+
+        when(blobs.isEnabled()).thenReturn(true);
+        when(blobs.defersCapture()).thenReturn(true);
+        when(blobs.getDeferred()).thenReturn(new DeferredCaptureFactory());
+        when(blobs.limitsRate()).thenReturn(true);
+        when(blobs.rateLimits()).thenReturn(rateLimits);
+        when(rateLimits.tryAcquire(Matchers.any(), Matchers.any(), Matchers.any())).thenReturn(true);
+        when(blobs.factory().create(Matchers.any())).thenReturn(blobWriter);
+        when(blobs.getBlobable().isServerRequestValidForBlob(Matchers.any())).thenReturn(true);
+        when(blobs.getBlobable().extractBlobFromServerRequest(Matchers.any())).thenAnswer(invocation ->
+                new BlobContent(request_data.getBytes("utf-8"), ContentType.JSON));
+        when(blobs.getBlobable().isServerResponseValidForBlob(Matchers.any())).thenReturn(true);
+        when(blobs.getBlobable().extractBlobFromServerResponse(Matchers.any())).thenAnswer(invocation ->
+                new BlobContent(response_data.getBytes("utf-8"), ContentType.JSON));
+
+        final BlobServerSpanDecorator decorator = new BlobServerSpanDecorator(blobs);
+
+        final ContainerRequest succeeded = request();
+        decorator.decorateRequest(succeeded, span);
+        assertThat(writerInvoked[0]).isEqualTo(0);
+        decorator.decorateResponse(response(succeeded, 200), span);
+        assertThat(writerInvoked[0]).isEqualTo(0);
+        assertThat(succeeded.getPropertyNames()).isEmpty();
+        // dropped requests do not spend the rate limit budget
+        verify(rateLimits, never()).tryAcquire(Matchers.any(), Matchers.any(), Matchers.any());
+
+        final Span failing = mock(Span.class);
+        final ContainerRequest failed = request();
+        decorator.decorateRequest(failed, failing);
+        assertThat(writerInvoked[0]).isEqualTo(0);
+        decorator.decorateResponse(response(failed, 503), failing);
+        assertThat(writerInvoked[0]).isEqualTo(2);
+        assertThat(failed.getPropertyNames()).isEmpty();
+        verify(rateLimits, times(2)).tryAcquire(Matchers.any(), Matchers.any(), Matchers.any());
+    }
+
+    @Test
+    public void decideDeferredBlobsByStatusWithoutAJerseyResponse() throws Exception {
+        final int[] writerInvoked = new int[] { 0 };
+        final BlobWriter blobWriter = newBlobWriter(writerInvoked);
+
+        when(blobs.isEnabled()).thenReturn(true);
+        when(blobs.defersCapture()).thenReturn(true);
+        when(blobs.getDeferred()).thenReturn(new DeferredCaptureFactory());
+        when(blobs.factory().create(Matchers.any())).thenReturn(blobWriter);
+        when(blobs.getBlobable().isServerRequestValidForBlob(Matchers.any())).thenReturn(true);
+        when(blobs.getBlobable().extractBlobFromServerRequest(Matchers.any())).thenAnswer(invocation ->
+                new BlobContent(request_data.getBytes("utf-8"), ContentType.JSON));
+        when(blobs.getBlobable().isServerResponseValidForBlob(Matchers.any())).thenReturn(true);
+        when(blobs.getBlobable().extractBlobFromServerResponse(Matchers.any())).thenAnswer(invocation ->
+                new BlobContent(response_data.getBytes("utf-8"), ContentType.JSON));
+
+        final BlobServerSpanDecorator decorator = new BlobServerSpanDecorator(blobs);
+        decorator.decorateRequest(request(), span);
+        when(responseCtx.getStatus()).thenReturn(503);
+        decorator.decorateResponse(responseCtx, span);
+
+        // the held request blob is not found from the response, only the response blob is written
+        assertThat(writerInvoked[0]).isEqualTo(1);
+    }
+
+    @Test
+    public void boundTheHeldRequestBodies() throws Exception {
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        final DeferredCaptureFactory deferred = new DeferredCaptureFactory();
+        deferred.setMaxHeldBytes(4);
+
+        when(blobs.isEnabled()).thenReturn(true);
+        when(blobs.defersCapture()).thenReturn(true);
+        when(blobs.getDeferred()).thenReturn(deferred);
+        when(blobs.bufferPool()).thenReturn(BlobBufferPool.UNPOOLED);
+        when(blobs.factory().create(Matchers.any())).thenReturn((blobType, contentType, dataStream, metadata) -> {
+            if (blobType == BlobType.REQUEST) {
+                dataStream.accept(written);
+            }
+        });
+        when(blobs.getBlobable()).thenReturn(new Blobable() {});
+
+        final BlobServerSpanDecorator decorator = new BlobServerSpanDecorator(blobs);
+        final ContainerRequest request = request();
+        when(request.getEntityStream()).thenReturn(new ByteArrayInputStream(request_data.getBytes("utf-8")));
+        decorator.decorateRequest(request, span);
+
+        // the request body is longer than the held bytes, it is captured while the resource reads it
+        final ArgumentCaptor<InputStream> entityStream = ArgumentCaptor.forClass(InputStream.class);
+        verify(request).setEntityStream(entityStream.capture());
+        while (entityStream.getValue().read() != -1) { }
+        decorator.decorateResponse(response(request, 500), span);
+        assertThat(new String(written.toByteArray(), "utf-8")).isEqualTo(request_data.substring(0, 4));
+    }
+
+    @Test
+    public void keepDeferredBlobsOfSlowRequests() {
+        final BlobOutcomePolicy policy = new BlobOutcomePolicy(0, 100);
+        assertThat(policy.keep(500, 10)).isFalse();
+        assertThat(policy.keep(200, 150)).isTrue();
+        assertThat(new BlobOutcomePolicy(500, 0).keep(404, 10_000)).isFalse();
+    }
+
+    @Test
+    public void publishCaptureMetrics() throws Exception {
+        final Map<String, Counter> counters = new HashMap<>();
+        final MetricsRegistry registry = mock(MetricsRegistry.class);
+        when(registry.counter(Matchers.anyString(), Matchers.anyCollectionOf(Tag.class))).thenAnswer(invocation -> {
+            final StringBuilder name = new StringBuilder((String) invocation.getArguments()[0]);
+            for (Object tag : (Collection<?>) invocation.getArguments()[1]) {
+                name.append(',').append(((Tag) tag).value());
+            }
+            return counters.computeIfAbsent(name.toString(), n -> mock(Counter.class));
+        });
+        when(registry.timer(Matchers.anyString(), Matchers.anyCollectionOf(Tag.class)))
+                .thenAnswer(invocation -> mock(Timer.class, Answers.RETURNS_DEEP_STUBS.get()));
+
+        final BlobCaptureMetrics metrics = new BlobCaptureMetrics(registry);
+
+        final List<Consumer<OutputStream>> queued = new ArrayList<>();
+        when(blobs.isEnabled()).thenReturn(true);
+        when(blobs.captureMetrics()).thenReturn(metrics);
+        when(blobs.factory().create(Matchers.any()))
+                .thenReturn((blobType, contentType, dataCallback, metadata) -> queued.add(dataCallback));
+        when(blobs.getBlobable().isServerRequestValidForBlob(requestCtx)).thenReturn(true);
+        when(blobs.getBlobable().extractBlobFromServerRequest(requestCtx)).thenReturn(
+                new BlobContent(request_data.getBytes("utf-8"), ContentType.JSON));
+        when(blobs.getBlobable().isServerResponseValidForBlob(responseCtx)).thenReturn(false);
+
+        final BlobServerSpanDecorator decorator = new BlobServerSpanDecorator(blobs);
+        decorator.decorateRequest(requestCtx, span);
+        decorator.decorateResponse(responseCtx, span);
+
+        // the blob only counts once the store builds it
+        assertThat(queued).hasSize(1);
+        verify(counters.get("blobs.capture,server,request,captured"), never()).increment();
+        queued.get(0).accept(new ByteArrayOutputStream());
+        verify(counters.get("blobs.capture,server,request,captured")).increment();
+        verify(counters.get("blobs.capture.bytes,server,request")).increment(request_data.length());
+        verify(counters.get("blobs.capture,server,response,skipped")).increment();
+        verify(counters.get("blobs.capture,server,response,captured"), never()).increment();
+
+        // a content failing to write counts as failed, not captured
+        queued.get(0).accept(new OutputStream() {
+            @Override
+            public void write(final int b) throws IOException {
+                throw new IOException("disk full");
+            }
+        });
+        verify(counters.get("blobs.capture,server,request,failed")).increment();
+        verify(counters.get("blobs.capture,server,request,captured")).increment();
+    }
+
+    private static ContainerRequest request() {
+        final Map<String, Object> properties = new HashMap<>();
+        final ContainerRequest request = mock(ContainerRequest.class);
+        doAnswer(invocation -> properties.put((String) invocation.getArguments()[0], invocation.getArguments()[1]))
+                .when(request).setProperty(Matchers.anyString(), Matchers.any());
+        when(request.getProperty(Matchers.anyString())).thenAnswer(invocation ->
+                properties.get(invocation.getArguments()[0]));
+        doAnswer(invocation -> properties.remove(invocation.getArguments()[0]))
+                .when(request).removeProperty(Matchers.anyString());
+        when(request.getPropertyNames()).thenAnswer(invocation -> properties.keySet());
+        when(request.getLength()).thenReturn(request_data.length());
+        return request;
+    }
+
+    private static ContainerResponse response(final ContainerRequest request, final int status) {
+        final ContainerResponse response = mock(ContainerResponse.class);
+        when(response.getRequestContext()).thenReturn(request);
+        when(response.getStatus()).thenReturn(status);
+        when(response.getLength()).thenReturn(-1);
+        return response;
+    }
+
     private static BlobWriter newBlobWriter(final int[] writerInvoked) {
         return (blobType, contentType, dataStream, metadata) -> {
             assertThat(contentType).isEqualTo(ContentType.JSON);
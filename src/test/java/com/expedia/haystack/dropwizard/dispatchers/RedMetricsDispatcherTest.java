@@ -0,0 +1,143 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.dispatchers;
+
+import com.expedia.haystack.dropwizard.sampling.TraceIdRatioSampler;
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.Tracer;
+import com.expedia.www.haystack.client.dispatchers.Dispatcher;
+import com.expedia.www.haystack.client.dispatchers.InMemoryDispatcher;
+import com.expedia.www.haystack.client.dispatchers.NoopDispatcher;
+import com.expedia.www.haystack.client.metrics.Counter;
+import com.expedia.www.haystack.client.metrics.Gauge;
+import com.expedia.www.haystack.client.metrics.Metrics;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import com.expedia.www.haystack.client.metrics.Tag;
+import io.opentracing.tag.Tags;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+import java.util.function.ToDoubleFunction;
+
+import static com.expedia.haystack.dropwizard.TestUtils.awaitUntil;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RedMetricsDispatcherTest {
+    private final Tracer tracer = new Tracer.Builder(new NoopMetricsRegistry(), "red", new NoopDispatcher()).build();
+    private final Map<String, Counter> counters = new HashMap<>();
+    private final Map<String, DoubleSupplier> gauges = new HashMap<>();
+    private final MetricsRegistry registry = mock(MetricsRegistry.class);
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        when(registry.counter(Matchers.anyString(), Matchers.anyCollectionOf(Tag.class))).thenAnswer(invocation ->
+                counters.computeIfAbsent(key(invocation.getArguments()), n -> mock(Counter.class)));
+        when(registry.gauge(Matchers.anyString(), Matchers.anyCollectionOf(Tag.class), Matchers.any(),
+                Matchers.any(ToDoubleFunction.class))).thenAnswer(invocation -> {
+                    final Object obj = invocation.getArguments()[2];
+                    final ToDoubleFunction<Object> fn = (ToDoubleFunction<Object>) invocation.getArguments()[3];
+                    gauges.put(key(invocation.getArguments()), () -> fn.applyAsDouble(obj));
+                    return mock(Gauge.class);
+                });
+    }
+
+    @Test
+    public void aggregateEverySpanAndForwardTheSampledOnes() throws Exception {
+        final InMemoryDispatcher delegate = new InMemoryDispatcher(new Metrics(new NoopMetricsRegistry()), 100);
+        final RedMetricsDispatcher dispatcher = new RedMetricsDispatcher(delegate, new TraceIdRatioSampler(0), 10,
+                60000, 3, Arrays.asList(50.0, 99.0), 60000, registry);
+
+        for (int i = 1; i <= 100; i++) {
+            dispatcher.dispatch(span("GET:/orders", i, i % 10 == 0));
+        }
+        assertThat(gauges.get("spans.latency,GET:/orders,p50").getAsDouble()).isZero();
+        dispatcher.rotate();
+
+        verify(counters.get("spans.requests,GET:/orders"), times(100)).increment();
+        verify(counters.get("spans.errors,GET:/orders"), times(10)).increment();
+        assertThat(gauges.get("spans.latency,GET:/orders,p50").getAsDouble()).isCloseTo(50.0, within(0.5));
+        assertThat(gauges.get("spans.latency,GET:/orders,p99").getAsDouble()).isCloseTo(99.0, within(0.5));
+        assertThat(gauges.get("spans.latency,GET:/orders,max").getAsDouble()).isCloseTo(100.0, within(0.5));
+        assertThat(delegate.getReceivedSpans()).isEmpty();
+        dispatcher.close();
+    }
+
+    @Test
+    public void swapTheLatencyIntervalsOnSchedule() throws Exception {
+        final InMemoryDispatcher delegate = new InMemoryDispatcher(new Metrics(new NoopMetricsRegistry()), 100);
+        final RedMetricsDispatcher dispatcher = new RedMetricsDispatcher(delegate, new TraceIdRatioSampler(0), 10,
+                60000, 3, Collections.singletonList(50.0), 50, registry);
+
+        dispatcher.dispatch(span("GET:/orders", 50, false));
+        final DoubleSupplier p50 = gauges.get("spans.latency,GET:/orders,p50");
+        // reading the gauges does not swap the intervals, the scheduler publishes the span and then an empty interval
+        awaitUntil(() -> p50.getAsDouble() > 0);
+        assertThat(p50.getAsDouble()).isCloseTo(50.0, within(0.5));
+        awaitUntil(() -> p50.getAsDouble() == 0);
+        dispatcher.close();
+    }
+
+    @Test
+    public void aggregateTheOperationsBeyondTheCapTogether() throws Exception {
+        final InMemoryDispatcher delegate = new InMemoryDispatcher(new Metrics(new NoopMetricsRegistry()), 100);
+        final RedMetricsDispatcher dispatcher = new RedMetricsDispatcher(delegate, new TraceIdRatioSampler(1), 2,
+                60000, 2, Arrays.asList(50.0, 99.0), 60000, registry);
+
+        for (int i = 0; i < 5; i++) {
+            dispatcher.dispatch(span("operation-" + i, 10, false));
+        }
+
+        verify(counters.get("spans.requests,operation-0")).increment();
+        verify(counters.get("spans.requests,operation-1")).increment();
+        assertThat(counters).doesNotContainKey("spans.requests,operation-2");
+        verify(counters.get("spans.requests," + RedMetricsDispatcher.OTHER_OPERATION), times(3)).increment();
+        verify(counters.get(Dispatcher.class.getName() + ".spans,metrics,overflow"), times(3)).increment();
+        assertThat(delegate.getReceivedSpans()).hasSize(5);
+    }
+
+    private Span span(final String operation, final long durationMs, final boolean error) {
+        final Span span = tracer.buildSpan(operation)
+                .withStartTimestamp(1)
+                .withTag(Tags.ERROR.getKey(), error)
+                .start();
+        span.finish(1 + TimeUnit.MILLISECONDS.toMicros(durationMs));
+        return span;
+    }
+
+    private static String key(final Object[] arguments) {
+        final StringBuilder name = new StringBuilder((String) arguments[0]);
+        for (Object tag : (Collection<?>) arguments[1]) {
+            name.append(',').append(((Tag) tag).value());
+        }
+        return name.toString();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.dispatchers;
+
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.metrics.Counter;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import com.expedia.www.haystack.client.metrics.Tag;
+import com.expedia.www.haystack.remote.clients.Client;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class RingBufferDispatcherTest {
+
+    @Test
+    public void sendSpansOfConcurrentProducers() throws Exception {
+        final RecordingClient client = new RecordingClient(null);
+        final RingBufferDispatcher dispatcher = new RingBufferDispatcher(client, 1000, 16,
+                RingBufferDispatcher.WaitStrategy.YIELDING, 1000, 5000, new NoopMetricsRegistry());
+        assertThat(dispatcher.capacity()).isEqualTo(1024);
+
+        final List<Span> spans = new ArrayList<>();
+        for (int i = 0; i < 800; i++) {
+            spans.add(mock(Span.class));
+        }
+        final ExecutorService producers = Executors.newFixedThreadPool(4);
+        for (int p = 0; p < 4; p++) {
+            final List<Span> share = spans.subList(p * 200, (p + 1) * 200);
+            producers.submit(() -> share.forEach(dispatcher::dispatch));
+        }
+        producers.shutdown();
+        assertThat(producers.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+
+        dispatcher.close();
+
+        assertThat(client.sent).hasSize(800).containsOnlyElementsOf(spans);
+        assertThat(client.closed).isTrue();
+    }
+
+    @Test
+    public void dropSpansWhileTheRingIsFull() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingClient client = new RecordingClient(release);
+        final RingBufferDispatcher dispatcher = new RingBufferDispatcher(client, 4, 16,
+                RingBufferDispatcher.WaitStrategy.SLEEPING, 1000, 5000, new NoopMetricsRegistry());
+
+        // the sender takes the first span and blocks sending it
+        dispatcher.dispatch(mock(Span.class));
+        while (dispatcher.size() > 0) {
+            Thread.sleep(1);
+        }
+        for (int i = 0; i < 6; i++) {
+            dispatcher.dispatch(mock(Span.class));
+        }
+        assertThat(dispatcher.size()).isEqualTo(4);
+
+        release.countDown();
+        dispatcher.flush();
+        assertThat(client.sent).hasSize(5);
+        dispatcher.close();
+    }
+
+    @Test
+    public void countSpansDispatchedWhileClosingAsRejected() throws Exception {
+        final Span span = mock(Span.class);
+        final ExecutorService producers = Executors.newFixedThreadPool(4);
+        // the window between the sender exiting and a producer claiming a slot is small, close while dispatching often
+        for (int round = 0; round < 50; round++) {
+            final RecordingClient client = new RecordingClient(null);
+            final CountingCounter rejected = new CountingCounter();
+            final MetricsRegistry registry = new NoopMetricsRegistry() {
+                @Override
+                public Counter counter(final String name, final Collection<Tag> tags) {
+                    return tags.contains(new Tag("state", "rejected")) ? rejected : super.counter(name, tags);
+                }
+            };
+            final RingBufferDispatcher dispatcher = new RingBufferDispatcher(client, 1 << 12, 16,
+                    RingBufferDispatcher.WaitStrategy.YIELDING, 1000, 5000, registry);
+
+            final CountDownLatch started = new CountDownLatch(4);
+            final CountDownLatch done = new CountDownLatch(4);
+            for (int p = 0; p < 4; p++) {
+                producers.submit(() -> {
+                    started.countDown();
+                    for (int i = 0; i < 500; i++) {
+                        dispatcher.dispatch(span);
+                    }
+                    done.countDown();
+                });
+            }
+            started.await();
+            dispatcher.close();
+            assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+
+            // every span is either sent or counted, none is left in a slot the sender never drains
+            assertThat(client.sent.size() + (long) rejected.count()).isEqualTo(2000);
+        }
+        producers.shutdown();
+    }
+
+    private static class CountingCounter implements Counter {
+        private final DoubleAdder count = new DoubleAdder();
+
+        @Override
+        public void increment(final double amount) {
+            count.add(amount);
+        }
+
+        @Override
+        public void decrement(final double amount) {
+            count.add(-amount);
+        }
+
+        @Override
+        public double count() {
+            return count.sum();
+        }
+    }
+
+    private static class RecordingClient implements Client<Span> {
+        private final List<Span> sent = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch release;
+        private volatile boolean closed;
+
+        RecordingClient(final CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public boolean send(final Span span) {
+            if (release != null) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            sent.add(span);
+            return true;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
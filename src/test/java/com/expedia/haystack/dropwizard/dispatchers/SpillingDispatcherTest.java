@@ -0,0 +1,180 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.dispatchers;
+
+import com.expedia.open.tracing.agent.api.DispatchResult;
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.Tracer;
+import com.expedia.www.haystack.client.dispatchers.NoopDispatcher;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.expedia.haystack.dropwizard.TestUtils.awaitUntil;
+import static com.expedia.haystack.dropwizard.TestUtils.openedIn;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SpillingDispatcherTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void spillWhileTheAgentIsDownAndReplayOnceItRecovers() throws Exception {
+        final FakeSender agent = new FakeSender();
+        final SpillingDispatcher dispatcher = new SpillingDispatcher(agent, 20, 10, folder.getRoot(), 4096,
+                1024 * 1024, 1000, 50, 5000, 5000, new NoopMetricsRegistry());
+        final Tracer tracer = new Tracer.Builder(new NoopMetricsRegistry(), "spill", new NoopDispatcher()).build();
+
+        for (int i = 0; i < 20; i++) {
+            dispatcher.dispatch((Span) tracer.buildSpan("operation-" + i).start());
+        }
+        awaitUntil(() -> dispatcher.journalSize() == 20);
+        assertThat(dispatcher.isHealthy()).isFalse();
+        assertThat(agent.received).isEmpty();
+
+        agent.up = true;
+        awaitUntil(() -> agent.received.size() == 20);
+        assertThat(dispatcher.journalSize()).isZero();
+        assertThat(dispatcher.isHealthy()).isTrue();
+        assertThat(agent.received).contains("operation-0", "operation-19");
+
+        dispatcher.dispatch((Span) tracer.buildSpan("live").start());
+        dispatcher.flush();
+        assertThat(agent.received).hasSize(21).contains("live");
+        dispatcher.close();
+        assertThat(agent.closed).isTrue();
+    }
+
+    @Test
+    public void resumeFromTheCommittedOffsetAndEvictBeyondTheDiskCap() throws Exception {
+        final File directory = folder.newFolder("journal");
+        // two 24 bytes records fit in a segment, the journal holds two segments
+        SpanJournal journal = new SpanJournal(directory, 64, 128);
+        assertThat(journal.append(record(1))).isTrue();
+        assertThat(journal.append(record(2))).isTrue();
+        assertThat(journal.append(new byte[64])).isFalse();
+        assertThat(journal.peek()).isEqualTo(record(1));
+        journal.advance();
+        journal.close();
+
+        journal = new SpanJournal(directory, 64, 128);
+        assertThat(journal.size()).isEqualTo(1);
+        assertThat(journal.peek()).isEqualTo(record(2));
+        for (int i = 3; i <= 5; i++) {
+            journal.append(record(i));
+        }
+        // the fifth record needs a third segment, the oldest one goes with its unread record
+        assertThat(journal.evicted()).isEqualTo(1);
+        assertThat(journal.size()).isEqualTo(3);
+        assertThat(journal.bytes()).isEqualTo(72);
+        assertThat(journal.peek()).isEqualTo(record(3));
+        journal.advance();
+        assertThat(journal.peek()).isEqualTo(record(4));
+
+        // the segments left hold exactly the bytes accounted for, and no handle keeps the evicted one allocated
+        final File[] segments = directory.listFiles((dir, name) -> name.endsWith(SpanJournal.SUFFIX));
+        assertThat(Arrays.stream(segments).mapToLong(File::length).sum()).isEqualTo(journal.bytes());
+        assertThat(openedIn(directory)).isNotEmpty().allMatch(path -> path.toFile().exists());
+        journal.close();
+        assertThat(openedIn(directory)).isEmpty();
+    }
+
+    @Test
+    public void flushWaitsForTheSpansInFlight() throws Exception {
+        final SettableFuture<DispatchResult> answer = SettableFuture.create();
+        final List<String> received = new CopyOnWriteArrayList<>();
+        final SpillingDispatcher dispatcher = new SpillingDispatcher(span -> {
+            received.add(span.getOperationName());
+            return answer;
+        }, 10, 10, folder.getRoot(), 4096, 1024 * 1024, 1000, 50, 5000, 5000, new NoopMetricsRegistry());
+        final Tracer tracer = new Tracer.Builder(new NoopMetricsRegistry(), "spill", new NoopDispatcher()).build();
+
+        dispatcher.dispatch((Span) tracer.buildSpan("in-flight").start());
+        awaitUntil(() -> received.size() == 1);
+        final CountDownLatch flushed = new CountDownLatch(1);
+        final Thread flusher = new Thread(() -> {
+            dispatcher.flush();
+            flushed.countDown();
+        });
+        flusher.start();
+        assertThat(flushed.await(200, TimeUnit.MILLISECONDS)).isFalse();
+
+        answer.set(DispatchResult.newBuilder().setCode(DispatchResult.ResultCode.SUCCESS).build());
+        assertThat(flushed.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(dispatcher.isHealthy()).isTrue();
+        dispatcher.close();
+    }
+
+    @Test
+    public void probeTheAgentAgainWhenTheJournalTakesNoSpans() throws Exception {
+        final FakeSender agent = new FakeSender();
+        // spans are larger than a journal segment, the journal rejects them all
+        final SpillingDispatcher dispatcher = new SpillingDispatcher(agent, 10, 10, folder.getRoot(), 8, 8, 1000,
+                50, 5000, 5000, new NoopMetricsRegistry());
+        final Tracer tracer = new Tracer.Builder(new NoopMetricsRegistry(), "spill", new NoopDispatcher()).build();
+
+        dispatcher.dispatch((Span) tracer.buildSpan("lost").start());
+        awaitUntil(() -> !dispatcher.isHealthy());
+        dispatcher.flush();
+        assertThat(dispatcher.journalSize()).isZero();
+
+        agent.up = true;
+        awaitUntil(dispatcher::isHealthy);
+        dispatcher.dispatch((Span) tracer.buildSpan("live").start());
+        dispatcher.flush();
+        assertThat(agent.received).containsExactly("live");
+        dispatcher.close();
+    }
+
+    private static byte[] record(final int i) {
+        return String.format("record-%013d", i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static class FakeSender implements SpillingDispatcher.Sender {
+        private final List<String> received = new CopyOnWriteArrayList<>();
+        private volatile boolean up;
+        private volatile boolean closed;
+
+        @Override
+        public ListenableFuture<DispatchResult> send(final com.expedia.open.tracing.Span span) {
+            if (!up) {
+                return Futures.immediateFailedFuture(new IllegalStateException("agent is down"));
+            }
+            received.add(span.getOperationName());
+            return Futures.immediateFuture(DispatchResult.newBuilder()
+                    .setCode(DispatchResult.ResultCode.SUCCESS)
+                    .build());
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
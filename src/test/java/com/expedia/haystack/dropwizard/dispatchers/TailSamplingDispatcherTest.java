@@ -0,0 +1,169 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.dispatchers;
+
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.Tracer;
+import com.expedia.www.haystack.client.dispatchers.InMemoryDispatcher;
+import com.expedia.www.haystack.client.dispatchers.NoopDispatcher;
+import com.expedia.www.haystack.client.metrics.Metrics;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import io.opentracing.tag.Tags;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TailSamplingDispatcherTest {
+    private final Tracer tracer = new Tracer.Builder(new NoopMetricsRegistry(), "tail", new NoopDispatcher()).build();
+
+    @Test
+    public void forwardOnlyTheTracesMatchingTheRules() throws Exception {
+        final InMemoryDispatcher delegate = new InMemoryDispatcher(new Metrics(new NoopMetricsRegistry()), 100);
+        final TailSamplingRules rules = new TailSamplingRules(true, 1000, Collections.singletonList("checkout"), 0);
+        final TailSamplingDispatcher dispatcher =
+                new TailSamplingDispatcher(delegate, rules, 60000, 100, 10, 100, 4, 60000, new NoopMetricsRegistry());
+
+        final Span fast = span("fast", null, 10);
+        dispatcher.dispatch(fast);
+        dispatcher.dispatch(span("fast-child", fast, 10));
+        final Span slow = span("slow", null, 10);
+        dispatcher.dispatch(slow);
+        dispatcher.dispatch(span("slow-child", slow, 1500));
+        dispatcher.dispatch(span("failed", null, 10, true));
+        dispatcher.dispatch(span("checkout", null, 10));
+
+        assertThat(dispatcher.bufferedTraces()).isEqualTo(4);
+        assertThat(dispatcher.bufferedSpans()).isEqualTo(6);
+        assertThat(delegate.getReceivedSpans()).isEmpty();
+
+        // nothing expires before decisionWaitMs
+        dispatcher.sweep(System.nanoTime(), false);
+        assertThat(delegate.getReceivedSpans()).isEmpty();
+
+        dispatcher.sweep(System.nanoTime(), true);
+        assertThat(delegate.getReceivedSpans()).extracting(Span::getOperationName)
+                .containsExactlyInAnyOrder("slow", "slow-child", "failed", "checkout");
+        assertThat(dispatcher.bufferedSpans()).isZero();
+
+        // late spans follow the decision of their trace
+        dispatcher.dispatch(span("fast-late", fast, 10));
+        dispatcher.dispatch(span("slow-late", slow, 10));
+        assertThat(delegate.getReceivedSpans()).extracting(Span::getOperationName).contains("slow-late")
+                .doesNotContain("fast-late");
+        assertThat(dispatcher.bufferedSpans()).isZero();
+        dispatcher.close();
+    }
+
+    @Test
+    public void decideTheOldestTracesEarlyWhenFull() throws Exception {
+        final InMemoryDispatcher delegate = new InMemoryDispatcher(new Metrics(new NoopMetricsRegistry()), 100);
+        final TailSamplingRules rules = new TailSamplingRules(true, 1000, Collections.emptyList(), 0);
+        final TailSamplingDispatcher dispatcher =
+                new TailSamplingDispatcher(delegate, rules, 60000, 3, 2, 10, 1, 60000, new NoopMetricsRegistry());
+
+        final Span first = span("first", null, 2000);
+        dispatcher.dispatch(first);
+        dispatcher.dispatch(span("first-child", first, 10));
+        // over maxSpansPerTrace
+        dispatcher.dispatch(span("first-overflow", first, 10));
+        dispatcher.dispatch(span("second", null, 10));
+        assertThat(dispatcher.bufferedSpans()).isEqualTo(3);
+
+        dispatcher.dispatch(span("third", null, 10));
+        assertThat(delegate.getReceivedSpans()).extracting(Span::getOperationName)
+                .containsExactly("first", "first-child");
+        assertThat(dispatcher.bufferedTraces()).isEqualTo(2);
+
+        // closing decides what is left, and rejects the spans dispatched after
+        dispatcher.close();
+        dispatcher.dispatch(span("closed", null, 2000));
+        assertThat(delegate.getReceivedSpans()).hasSize(2);
+        assertThat(dispatcher.bufferedSpans()).isZero();
+    }
+
+    @Test
+    public void spreadTheSpansOverTheRoundedUpShards() throws Exception {
+        final InMemoryDispatcher delegate = new InMemoryDispatcher(new Metrics(new NoopMetricsRegistry()), 100);
+        final TailSamplingRules rules = new TailSamplingRules(true, 1000, Collections.emptyList(), 0);
+        // 3 shards are rounded up to 4, each of them still has room for a span
+        final TailSamplingDispatcher dispatcher =
+                new TailSamplingDispatcher(delegate, rules, 60000, 3, 2, 3, 3, 60000, new NoopMetricsRegistry());
+
+        dispatcher.dispatch(span("first", null, 2000));
+        assertThat(dispatcher.bufferedSpans()).isEqualTo(1);
+        assertThat(delegate.getReceivedSpans()).isEmpty();
+        dispatcher.close();
+        assertThat(delegate.getReceivedSpans()).hasSize(1);
+    }
+
+    @Test
+    public void decideOrRejectEverySpanDispatchedWhileClosing() throws Exception {
+        final ExecutorService producers = Executors.newFixedThreadPool(4);
+        for (int round = 0; round < 50; round++) {
+            final InMemoryDispatcher delegate = new InMemoryDispatcher(new Metrics(new NoopMetricsRegistry()),
+                    10_000);
+            final TailSamplingRules rules = new TailSamplingRules(true, 1000, Collections.emptyList(), 0);
+            final TailSamplingDispatcher dispatcher = new TailSamplingDispatcher(delegate, rules, 60000, 10_000,
+                    10_000, 100, 4, 60000, new NoopMetricsRegistry());
+
+            final CountDownLatch started = new CountDownLatch(4);
+            final CountDownLatch done = new CountDownLatch(4);
+            final AtomicBoolean closed = new AtomicBoolean();
+            for (int p = 0; p < 4; p++) {
+                producers.submit(() -> {
+                    started.countDown();
+                    while (!closed.get()) {
+                        // a trace of its own, a span of an already decided trace is never buffered
+                        dispatcher.dispatch(span("slow", null, 2000));
+                    }
+                    done.countDown();
+                });
+            }
+            started.await();
+            dispatcher.close();
+            closed.set(true);
+            assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+
+            // no span is left buffered after the final sweep
+            assertThat(dispatcher.bufferedSpans()).isZero();
+        }
+        producers.shutdown();
+    }
+
+    private Span span(final String operation, final Span parent, final long durationMs) {
+        return span(operation, parent, durationMs, false);
+    }
+
+    private Span span(final String operation, final Span parent, final long durationMs, final boolean error) {
+        final Tracer.SpanBuilder builder = tracer.buildSpan(operation)
+                .withStartTimestamp(1)
+                .withTag(Tags.ERROR.getKey(), error);
+        if (parent != null) {
+            builder.asChildOf(parent);
+        }
+        final Span span = builder.start();
+        span.finish(1 + TimeUnit.MILLISECONDS.toMicros(durationMs));
+        return span;
+    }
+}
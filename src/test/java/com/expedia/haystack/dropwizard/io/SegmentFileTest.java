@@ -0,0 +1,79 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SegmentFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replayOnlyTheCompleteRecords() throws Exception {
+        final File directory = folder.newFolder("segments");
+        final SegmentFile segment = SegmentFile.create(directory, 7, ".test", 64);
+        assertThat(segment.append(record("first"))).isEqualTo(0);
+        assertThat(segment.append(record("second"))).isEqualTo(9);
+        segment.close();
+
+        // a record whose length was never written, as left by a crash in the middle of an append
+        try (RandomAccessFile file = new RandomAccessFile(segment.file(), "rw")) {
+            file.seek(segment.size());
+            file.write(new byte[] { 0, 0, 0, 0, 'l', 'o', 's', 't' });
+        }
+
+        final List<String> replayed = new ArrayList<>();
+        final SegmentFile reopened = SegmentFile.open(directory, 7, ".test", 64, (file, position, length, payload) -> {
+            final byte[] data = new byte[length];
+            payload.readFully(data);
+            replayed.add(position + ":" + new String(data, StandardCharsets.UTF_8));
+        });
+
+        assertThat(SegmentFile.list(directory, ".test")).containsExactly(7L);
+        assertThat(replayed).containsExactly("0:first", "9:second");
+        assertThat(reopened.size()).isEqualTo(19);
+        assertThat(reopened.lengthAt(9)).isEqualTo(6);
+        assertThat(reopened.lengthAt(19)).isZero();
+
+        // appends continue over the incomplete record
+        assertThat(reopened.append(record("third"))).isEqualTo(19);
+        assertThat(new String(reopened.read(19 + SegmentFile.LENGTH_BYTES, 5), StandardCharsets.UTF_8))
+                .isEqualTo("third");
+        assertThat(reopened.hasRoom(64)).isFalse();
+
+        reopened.delete();
+        assertThat(reopened.file()).doesNotExist();
+        assertThat(reopened.read(0, 4)).isNull();
+    }
+
+    private static ByteBuffer record(final String payload) {
+        final byte[] data = payload.getBytes(StandardCharsets.UTF_8);
+        return SegmentFile.newRecord(data.length).put(data);
+    }
+}
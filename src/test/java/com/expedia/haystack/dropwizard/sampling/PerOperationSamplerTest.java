@@ -0,0 +1,70 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.sampling;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PerOperationSamplerTest {
+
+    @Test
+    public void sampleEachOperationAtItsRate() {
+        final PerOperationSampler sampler = new PerOperationSampler(Collections.singletonMap("GET:/orders/{id}", 1.0),
+                0, 0, 10);
+
+        assertThat(sampler.isSampled("GET:/orders/{id}", 42L)).isTrue();
+        assertThat(sampler.isSampled("GET:/items", 42L)).isFalse();
+    }
+
+    @Test
+    public void capTheOperationsOfConcurrentCallers() throws Exception {
+        final PerOperationSampler sampler = new PerOperationSampler(Collections.singletonMap("GET:/orders/{id}", 1.0),
+                0, 0, 4);
+        assertThat(sampler.isSampled("GET:/orders/{id}", 42L)).isTrue();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<?>> calls = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            final int thread = i;
+            calls.add(executor.submit(() -> {
+                start.await();
+                for (int j = 0; j < 100; j++) {
+                    sampler.isSampled("GET:/" + thread + "-" + j, 42L);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> call : calls) {
+            call.get();
+        }
+        executor.shutdown();
+
+        // the configured operation and 4 others, the rest share the default sampler
+        assertThat(sampler.operationCount()).isEqualTo(5);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.sampling;
+
+import com.expedia.www.haystack.client.Tracer;
+import com.expedia.www.haystack.client.dispatchers.InMemoryDispatcher;
+import com.expedia.www.haystack.client.metrics.Metrics;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import com.google.common.collect.ImmutableMap;
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.contrib.jaxrs2.server.ServerSpanDecorator;
+import io.opentracing.propagation.Format;
+import io.opentracing.propagation.TextMapAdapter;
+import org.junit.Test;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class SamplingTracerTest {
+
+    @Test
+    public void dropUnsampledTracesHereAndDownstream() {
+        final InMemoryDispatcher upstreamSpans = dispatcher();
+        final SamplingTracer upstream = tracer(upstreamSpans, new ConstSampler(false));
+        final Span span = upstream.buildSpan("GET:/orders").withTag("http.status_code", 200).start();
+        assertThat(SamplingTracer.isSampled(span)).isFalse();
+
+        final ServerSpanDecorator decorator = mock(ServerSpanDecorator.class);
+        SampledSpanDecorators.server(decorator).decorateRequest(mock(ContainerRequestContext.class), span);
+        verify(decorator, never()).decorateRequest(any(), any());
+
+        final Map<String, String> headers = inject(upstream, span.context());
+        span.finish();
+        assertThat(upstreamSpans.getReceivedSpans()).isEmpty();
+        assertThat(headers).containsKeys("Trace-ID", "Span-ID").containsEntry("Baggage-sampled", "0");
+
+        // a downstream service recording every trace follows the decision of the upstream one
+        final InMemoryDispatcher downstreamSpans = dispatcher();
+        final SamplingTracer downstream = tracer(downstreamSpans, new ConstSampler(true));
+        final Span child = downstream.buildSpan("GET:/items")
+                .asChildOf(downstream.extract(Format.Builtin.HTTP_HEADERS, new TextMapAdapter(headers)))
+                .start();
+        assertThat(SamplingTracer.isSampled(child)).isFalse();
+        assertThat(child.context().toTraceId()).isEqualTo(span.context().toTraceId());
+        child.finish();
+        assertThat(downstreamSpans.getReceivedSpans()).isEmpty();
+    }
+
+    @Test
+    public void recordSampledTracesHereAndDownstream() {
+        final AtomicReference<Object> sampledTraceId = new AtomicReference<>();
+        final InMemoryDispatcher upstreamSpans = dispatcher();
+        final SamplingTracer upstream = tracer(upstreamSpans, (operationName, traceId) -> {
+            sampledTraceId.set(traceId);
+            return true;
+        });
+        final Span span = upstream.buildSpan("GET:/orders").withTag("http.status_code", 200).start();
+        assertThat(span).isInstanceOf(com.expedia.www.haystack.client.Span.class);
+        assertThat(((com.expedia.www.haystack.client.Span) span).getTags()).containsEntry("http.status_code", 200);
+        assertThat(((com.expedia.www.haystack.client.Span) span).context().getTraceId())
+                .isEqualTo(sampledTraceId.get());
+
+        final Map<String, String> headers = inject(upstream, span.context());
+        span.finish();
+        assertThat(upstreamSpans.getReceivedSpans()).hasSize(1);
+        assertThat(headers).containsEntry("Baggage-sampled", "1");
+
+        final InMemoryDispatcher downstreamSpans = dispatcher();
+        final SamplingTracer downstream = tracer(downstreamSpans, new ConstSampler(false));
+        final Span child = downstream.buildSpan("GET:/items")
+                .asChildOf(downstream.extract(Format.Builtin.HTTP_HEADERS, new TextMapAdapter(headers)))
+                .start();
+        assertThat(SamplingTracer.isSampled(child)).isTrue();
+        child.finish();
+        assertThat(downstreamSpans.getReceivedSpans()).hasSize(1);
+    }
+
+    @Test
+    public void samplePerOperation() {
+        final PerOperationSampler sampler = new PerOperationSampler(ImmutableMap.of("GET:/orders", 1.0), 0.0, 0, 1);
+        assertThat(sampler.isSampled("GET:/orders", 1L)).isTrue();
+        assertThat(sampler.isSampled("GET:/items", 2L)).isFalse();
+
+        final PerOperationSampler lowerBound = new PerOperationSampler(ImmutableMap.of(), 0.0, 1, 10);
+        assertThat(lowerBound.isSampled("GET:/items", 1L)).isTrue();
+        assertThat(lowerBound.isSampled("GET:/items", 2L)).isFalse();
+        assertThat(lowerBound.isSampled("GET:/orders", 3L)).isTrue();
+    }
+
+    private static InMemoryDispatcher dispatcher() {
+        return new InMemoryDispatcher(new Metrics(new NoopMetricsRegistry()), 10);
+    }
+
+    private static SamplingTracer tracer(final InMemoryDispatcher dispatcher, final Sampler sampler) {
+        return new SamplingTracer(new Tracer.Builder(new NoopMetricsRegistry(), "sampling", dispatcher), null,
+                sampler, new NoopMetricsRegistry());
+    }
+
+    private static Map<String, String> inject(final SamplingTracer tracer, final SpanContext context) {
+        final Map<String, String> headers = new HashMap<>();
+        tracer.inject(context, Format.Builtin.HTTP_HEADERS, new TextMapAdapter(headers));
+        return headers;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.sampling;
+
+import com.expedia.www.haystack.client.idgenerators.LongIdGenerator;
+import com.expedia.www.haystack.client.idgenerators.RandomUUIDGenerator;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TraceIdRatioSamplerTest {
+
+    @Test
+    public void decideAlikeForGeneratedAndExtractedIds() {
+        final TraceIdRatioSampler sampler = new TraceIdRatioSampler(0.5);
+        final LongIdGenerator longIds = new LongIdGenerator();
+        final RandomUUIDGenerator uuids = new RandomUUIDGenerator();
+        for (int i = 0; i < 1000; i++) {
+            final Object longId = longIds.generate();
+            assertThat(TraceIdRatioSampler.hash(longId.toString())).isEqualTo(TraceIdRatioSampler.hash(longId));
+            final Object uuid = uuids.generate();
+            assertThat(TraceIdRatioSampler.hash(uuid.toString())).isEqualTo(TraceIdRatioSampler.hash(uuid));
+        }
+        assertThat(TraceIdRatioSampler.hash(Long.MIN_VALUE))
+                .isEqualTo(TraceIdRatioSampler.hash(String.valueOf(Long.MIN_VALUE)));
+        // one past Long.MAX_VALUE is not a long, it must not hash like the long it would wrap to
+        assertThat(TraceIdRatioSampler.hash("9223372036854775808"))
+                .isNotEqualTo(TraceIdRatioSampler.hash(Long.MIN_VALUE));
+        assertThat(TraceIdRatioSampler.hash(String.valueOf(Long.MAX_VALUE)))
+                .isEqualTo(TraceIdRatioSampler.hash(Long.MAX_VALUE));
+        assertThat(sampler.isSampled("GET:/orders", "not-a-generated-id"))
+                .isEqualTo(sampler.isSampled("GET:/items", "not-a-generated-id"));
+    }
+
+    @Test
+    public void sampleTheRatioOfTraces() {
+        final TraceIdRatioSampler sampler = new TraceIdRatioSampler(0.1);
+        final LongIdGenerator longIds = new LongIdGenerator();
+        int sampledLongs = 0;
+        int sampledUuids = 0;
+        for (int i = 0; i < 100_000; i++) {
+            sampledLongs += sampler.isSampled(null, longIds.generate()) ? 1 : 0;
+            sampledUuids += sampler.isSampled(null, UUID.randomUUID()) ? 1 : 0;
+        }
+        assertThat(sampledLongs).isBetween(9_000, 11_000);
+        assertThat(sampledUuids).isBetween(9_000, 11_000);
+
+        assertThat(new TraceIdRatioSampler(0).isSampled(null, 42L)).isFalse();
+        assertThat(new TraceIdRatioSampler(1).isSampled(null, 42L)).isTrue();
+    }
+}
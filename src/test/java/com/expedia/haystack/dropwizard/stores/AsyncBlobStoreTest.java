@@ -0,0 +1,97 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.stores;
+
+import com.expedia.blobs.core.BlobStore;
+import com.expedia.blobs.core.BlobWriterImpl;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class AsyncBlobStoreTest {
+
+    @Test
+    public void dropNewestWhenQueueIsFull() throws Exception {
+        final BlobStore delegate = mock(BlobStore.class);
+        final AsyncBlobStore store = new AsyncBlobStore(delegate, 2, 1, AsyncBlobStore.OverflowPolicy.DROP_NEWEST, 0, 1000);
+        final BlobWriterImpl.BlobBuilder first = mock(BlobWriterImpl.BlobBuilder.class);
+        final BlobWriterImpl.BlobBuilder second = mock(BlobWriterImpl.BlobBuilder.class);
+        final BlobWriterImpl.BlobBuilder third = mock(BlobWriterImpl.BlobBuilder.class);
+
+        store.store(first);
+        store.store(second);
+        store.store(third);
+        assertThat(store.getDroppedCount()).isEqualTo(1);
+
+        store.start();
+        store.stop();
+        verify(delegate).store(first);
+        verify(delegate).store(second);
+        verify(delegate, never()).store(third);
+    }
+
+    @Test
+    public void dropOldestWhenQueueIsFull() throws Exception {
+        final BlobStore delegate = mock(BlobStore.class);
+        final AsyncBlobStore store = new AsyncBlobStore(delegate, 2, 1, AsyncBlobStore.OverflowPolicy.DROP_OLDEST, 0, 1000);
+        final BlobWriterImpl.BlobBuilder first = mock(BlobWriterImpl.BlobBuilder.class);
+        final BlobWriterImpl.BlobBuilder second = mock(BlobWriterImpl.BlobBuilder.class);
+        final BlobWriterImpl.BlobBuilder third = mock(BlobWriterImpl.BlobBuilder.class);
+
+        store.store(first);
+        store.store(second);
+        store.store(third);
+        assertThat(store.getDroppedCount()).isEqualTo(1);
+
+        store.start();
+        store.stop();
+        final InOrder order = inOrder(delegate);
+        order.verify(delegate).store(second);
+        order.verify(delegate).store(third);
+        verify(delegate, never()).store(first);
+    }
+
+    @Test
+    public void blockTimesOutAndDrops() throws Exception {
+        final BlobStore delegate = mock(BlobStore.class);
+        final AsyncBlobStore store = new AsyncBlobStore(delegate, 1, 1, AsyncBlobStore.OverflowPolicy.BLOCK, 5, 1000);
+
+        store.store(mock(BlobWriterImpl.BlobBuilder.class));
+        store.store(mock(BlobWriterImpl.BlobBuilder.class));
+        assertThat(store.getDroppedCount()).isEqualTo(1);
+        assertThat(store.getQueueSize()).isEqualTo(1);
+    }
+
+    @Test
+    public void drainOnStop() throws Exception {
+        final BlobStore delegate = mock(BlobStore.class);
+        final AsyncBlobStore store = new AsyncBlobStore(delegate, 100, 2, AsyncBlobStore.OverflowPolicy.DROP_NEWEST, 0, 1000);
+        store.start();
+        for (int i = 0; i < 50; i++) {
+            store.store(mock(BlobWriterImpl.BlobBuilder.class));
+        }
+        store.stop();
+
+        assertThat(store.getQueueSize()).isEqualTo(0);
+        assertThat(store.getDroppedCount()).isEqualTo(0);
+    }
+}
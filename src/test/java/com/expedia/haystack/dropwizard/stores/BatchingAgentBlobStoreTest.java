@@ -0,0 +1,264 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.stores;
+
+import com.expedia.blobs.core.BlobWriterImpl;
+import com.expedia.www.blobs.model.Blob;
+import com.expedia.www.haystack.agent.blobs.api.BlobAgentGrpc;
+import com.expedia.www.haystack.agent.blobs.api.BlobReadResponse;
+import com.expedia.www.haystack.agent.blobs.api.BlobSearch;
+import com.expedia.www.haystack.agent.blobs.api.DispatchResult;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static com.expedia.haystack.dropwizard.TestUtils.awaitUntil;
+import static com.expedia.haystack.dropwizard.TestUtils.blob;
+import static com.expedia.haystack.dropwizard.TestUtils.builder;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BatchingAgentBlobStoreTest {
+    private Server server;
+
+    @After
+    public void shutdown() {
+        if (server != null) {
+            server.shutdownNow();
+        }
+    }
+
+    @Test
+    public void sendAllBlobsInBatches() throws Exception {
+        final FakeAgent agent = new FakeAgent();
+        final CountDownLatch sent = agent.expect(7);
+        final BatchingAgentBlobStore store = new BatchingAgentBlobStore(channel(agent), 100, 3, 1024 * 1024, 20, 2,
+                10, 1000, new NoopMetricsRegistry());
+        store.start();
+
+        for (int i = 0; i < 7; i++) {
+            store.store(builder(blob("key-" + i, "{\"key\": \"key-" + i + "\"}")));
+        }
+        // the last blob is sent once the linger time has passed
+        assertThat(sent.await(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(agent.dispatched).hasSize(7);
+        assertThat(store.read("key-4").get().getContent().toStringUtf8()).isEqualTo("{\"key\": \"key-4\"}");
+
+        store.store(builder("key-7"));
+        store.stop();
+
+        // stopping sends the pending batch
+        assertThat(agent.dispatched).hasSize(8);
+        assertThat(store.getInFlightBatches()).isZero();
+    }
+
+    @Test
+    public void boundInFlightBatchesAndDropWhenQueueIsFull() throws Exception {
+        final FakeAgent agent = new FakeAgent();
+        agent.respond = false;
+        final CountDownLatch first = agent.expect(1);
+        final BatchingAgentBlobStore store = new BatchingAgentBlobStore(channel(agent), 2, 1, 1024 * 1024, 0, 1,
+                0, 200, new NoopMetricsRegistry());
+        final CountDownLatch dropped = new CountDownLatch(6);
+        store.setListener(failures(dropped));
+        store.start();
+
+        store.store(builder("key-0"));
+        assertThat(first.await(1, TimeUnit.SECONDS)).isTrue();
+        final CountDownLatch held = new CountDownLatch(1);
+        store.store(builtBuilder("key-1", held));
+        assertThat(held.await(1, TimeUnit.SECONDS)).isTrue();
+        final CountDownLatch second = agent.expect(1);
+        for (int i = 2; i < 10; i++) {
+            store.store(builder("key-" + i));
+        }
+
+        // one batch awaits the agent, one blob waits for a permit and the queue holds two, the others are dropped
+        assertThat(dropped.await(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(agent.dispatched).hasSize(1);
+        assertThat(store.getInFlightBatches()).isEqualTo(1);
+        assertThat(store.getQueueSize()).isEqualTo(2);
+
+        // the call deadline frees the permit so batching goes on
+        assertThat(second.await(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(agent.dispatched.get(1).getKey()).isEqualTo("key-1");
+        store.stop();
+    }
+
+    @Test
+    public void releaseThePermitOfCallsFailingToStart() throws Exception {
+        final ManagedChannel channel = mock(ManagedChannel.class);
+        when(channel.newCall(any(), any())).thenThrow(new IllegalStateException("channel shut down"));
+        final BatchingAgentBlobStore store = new BatchingAgentBlobStore(channel, 10, 1, 1024 * 1024, 0, 1,
+                10, 1000, new NoopMetricsRegistry());
+        final CountDownLatch failed = new CountDownLatch(3);
+        store.setListener(failures(failed));
+        store.start();
+
+        for (int i = 0; i < 3; i++) {
+            store.store(builder("key-" + i));
+        }
+
+        // with a single permit, each batch is only sent once the previous one gave its permit back
+        assertThat(failed.await(1, TimeUnit.SECONDS)).isTrue();
+        store.stop();
+        assertThat(store.getInFlightBatches()).isZero();
+    }
+
+    private ManagedChannel channel(final FakeAgent agent) throws Exception {
+        final String name = "agent-" + UUID.randomUUID();
+        server = InProcessServerBuilder.forName(name).addService(agent).directExecutor().build().start();
+        return InProcessChannelBuilder.forName(name).directExecutor().build();
+    }
+
+    /**
+     * @param built counted down once the batching thread builds the blob
+     */
+    private static BlobWriterImpl.BlobBuilder builtBuilder(final String key, final CountDownLatch built) {
+        final Blob blob = blob(key, "{}");
+        final BlobWriterImpl.BlobBuilder builder = mock(BlobWriterImpl.BlobBuilder.class);
+        when(builder.build()).thenAnswer(invocation -> {
+            built.countDown();
+            return blob;
+        });
+        return builder;
+    }
+
+    @Test
+    public void reportBlobsFailingToBuild() throws Exception {
+        final FakeAgent agent = new FakeAgent();
+        final CountDownLatch sent = agent.expect(1);
+        final BatchingAgentBlobStore store = new BatchingAgentBlobStore(channel(agent), 10, 2, 1024 * 1024, 0, 1,
+                10, 1000, new NoopMetricsRegistry());
+        final Map<BlobWriterImpl.BlobBuilder, Throwable> failures = new ConcurrentHashMap<>();
+        store.setListener(failures(failures));
+        store.start();
+
+        final BlobWriterImpl.BlobBuilder broken = mock(BlobWriterImpl.BlobBuilder.class);
+        final IllegalStateException cause = new IllegalStateException("data callback failed");
+        when(broken.build()).thenThrow(cause);
+        store.store(broken);
+        store.store(builder("key-1"));
+
+        // the broken blob is reported and the batching goes on
+        assertThat(sent.await(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(agent.dispatched.get(0).getKey()).isEqualTo("key-1");
+        assertThat(failures).containsOnly(entry(broken, cause));
+        store.stop();
+    }
+
+    @Test
+    public void reportTheBlobsDiscardedWhenStoppingInterruptsBatching() throws Exception {
+        final FakeAgent agent = new FakeAgent();
+        agent.respond = false;
+        final CountDownLatch first = agent.expect(1);
+        // a single permit and no response, so every blob waits for the deadline of the one before
+        final BatchingAgentBlobStore store = new BatchingAgentBlobStore(channel(agent), 10, 1, 1024 * 1024, 0, 1,
+                10, 200, new NoopMetricsRegistry());
+        final Map<BlobWriterImpl.BlobBuilder, Throwable> failures = new ConcurrentHashMap<>();
+        store.setListener(failures(failures));
+        store.start();
+
+        for (int i = 0; i < 6; i++) {
+            store.store(builder("key-" + i));
+        }
+        assertThat(first.await(1, TimeUnit.SECONDS)).isTrue();
+        store.stop();
+
+        // the blobs sent time out, the ones still batching or queued are reported as interrupted
+        awaitUntil(() -> failures.size() == 6);
+        assertThat(failures.values()).hasAtLeastOneElementOfType(InterruptedException.class);
+        assertThat(agent.dispatched.size()).isLessThan(6);
+    }
+
+    private static ReportingBlobStore.Listener failures(final Map<BlobWriterImpl.BlobBuilder, Throwable> failures) {
+        return new ReportingBlobStore.Listener() {
+            @Override
+            public void onSuccess(final BlobWriterImpl.BlobBuilder blob, final long elapsedMs) {
+            }
+
+            @Override
+            public void onFailure(final BlobWriterImpl.BlobBuilder blob, final long elapsedMs, final Throwable cause) {
+                failures.put(blob, cause);
+            }
+        };
+    }
+
+    private static ReportingBlobStore.Listener failures(final CountDownLatch latch) {
+        return new ReportingBlobStore.Listener() {
+            @Override
+            public void onSuccess(final BlobWriterImpl.BlobBuilder blob, final long elapsedMs) {
+            }
+
+            @Override
+            public void onFailure(final BlobWriterImpl.BlobBuilder blob, final long elapsedMs, final Throwable cause) {
+                latch.countDown();
+            }
+        };
+    }
+
+    private static class FakeAgent extends BlobAgentGrpc.BlobAgentImplBase {
+        private final List<Blob> dispatched = new CopyOnWriteArrayList<>();
+        private final Map<String, Blob> blobs = new ConcurrentHashMap<>();
+        private volatile boolean respond = true;
+        private volatile CountDownLatch arrivals = new CountDownLatch(0);
+
+        /**
+         * @return a latch counted down by the next count dispatched blobs
+         */
+        CountDownLatch expect(final int count) {
+            arrivals = new CountDownLatch(count);
+            return arrivals;
+        }
+
+        @Override
+        public void dispatch(final Blob blob, final StreamObserver<DispatchResult> responseObserver) {
+            dispatched.add(blob);
+            arrivals.countDown();
+            blobs.put(blob.getKey(), blob);
+            if (respond) {
+                responseObserver.onNext(DispatchResult.newBuilder().setCode(DispatchResult.ResultCode.SUCCESS).build());
+                responseObserver.onCompleted();
+            }
+        }
+
+        @Override
+        public void read(final BlobSearch request, final StreamObserver<BlobReadResponse> responseObserver) {
+            final Blob blob = blobs.get(request.getKey());
+            responseObserver.onNext(blob == null ?
+                    BlobReadResponse.newBuilder().setCode(BlobReadResponse.ResultCode.UNKNOWN_ERROR).build() :
+                    BlobReadResponse.newBuilder().setCode(BlobReadResponse.ResultCode.SUCCESS).setBlob(blob).build());
+            responseObserver.onCompleted();
+        }
+    }
+}
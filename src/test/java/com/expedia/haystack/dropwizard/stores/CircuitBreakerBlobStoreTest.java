@@ -0,0 +1,165 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.stores;
+
+import com.expedia.blobs.core.BlobStore;
+import com.expedia.blobs.core.BlobWriterImpl;
+import org.junit.Test;
+
+import static com.expedia.haystack.dropwizard.TestUtils.builder;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CircuitBreakerBlobStoreTest {
+
+    @Test
+    public void openOnFailuresAndFallBackUntilProbesSucceed() throws Exception {
+        final BlobStore primary = mock(BlobStore.class);
+        final MemoryBlobStore fallback = new MemoryBlobStore(1024);
+        final CircuitBreakerBlobStore store = new CircuitBreakerBlobStore(primary, fallback, 0.5, 1.0, 1000, 10, 4,
+                200, 2);
+        final CircuitBreakerHealthCheck healthCheck = new CircuitBreakerHealthCheck(store);
+
+        doThrow(new IllegalStateException("agent is down")).when(primary).store(any());
+        for (int i = 0; i < 4; i++) {
+            try {
+                store.store(builder("key-" + i));
+            } catch (IllegalStateException e) {
+                // surfaced to the async writer
+            }
+        }
+        assertThat(store.getState()).isEqualTo(CircuitBreakerBlobStore.State.OPEN);
+        assertThat(healthCheck.execute().isHealthy()).isTrue();
+        assertThat(healthCheck.execute().getMessage()).isEqualTo("blob store circuit is OPEN");
+        assertThat(new CircuitBreakerHealthCheck(store, true).execute().isHealthy()).isFalse();
+
+        // while open, blobs go to the fallback without calling the failing store
+        reset(primary);
+        store.store(builder("key-4"));
+        verify(primary, never()).store(any());
+        assertThat(store.read("key-4")).isPresent();
+
+        // half open lets the probes through and closes once they succeed
+        Thread.sleep(250);
+        store.store(builder("key-5"));
+        assertThat(store.getState()).isEqualTo(CircuitBreakerBlobStore.State.HALF_OPEN);
+        store.store(builder("key-6"));
+        verify(primary, times(2)).store(any());
+        assertThat(store.getState()).isEqualTo(CircuitBreakerBlobStore.State.CLOSED);
+        assertThat(healthCheck.execute().isHealthy()).isTrue();
+    }
+
+    @Test
+    public void openOnSlowReportedWritesAndReopenOnFailedProbe() throws Exception {
+        final FakeReportingStore primary = new FakeReportingStore();
+        final CircuitBreakerBlobStore store = new CircuitBreakerBlobStore(primary, null, 1.0, 0.5, 100, 4, 4, 200, 1);
+        final BlobWriterImpl.BlobBuilder dropped = builder("key-4");
+        final BlobWriterImpl.BlobBuilder probe = builder("key-5");
+
+        final long[] elapsedMs = { 10, 500, 10, 500 };
+        for (int i = 0; i < elapsedMs.length; i++) {
+            final BlobWriterImpl.BlobBuilder write = builder("key-" + i);
+            store.store(write);
+            assertThat(store.getState()).isEqualTo(CircuitBreakerBlobStore.State.CLOSED);
+            primary.listener.onSuccess(write, elapsedMs[i]);
+        }
+        assertThat(store.getState()).isEqualTo(CircuitBreakerBlobStore.State.OPEN);
+
+        // without a fallback the blob is dropped
+        store.store(dropped);
+        assertThat(primary.stored).isEqualTo(4);
+
+        Thread.sleep(250);
+        store.store(probe);
+        assertThat(primary.stored).isEqualTo(5);
+        primary.listener.onFailure(probe, 5, null);
+        assertThat(store.getState()).isEqualTo(CircuitBreakerBlobStore.State.OPEN);
+    }
+
+    @Test
+    public void countOnlyOutcomesOfWritesAdmittedInTheCurrentState() throws Exception {
+        final FakeReportingStore primary = new FakeReportingStore();
+        final CircuitBreakerBlobStore store = new CircuitBreakerBlobStore(primary, null, 1.0, 1.0, 1000, 2, 2, 200, 1);
+        final BlobWriterImpl.BlobBuilder first = builder("key-0");
+        final BlobWriterImpl.BlobBuilder second = builder("key-1");
+        final BlobWriterImpl.BlobBuilder stale = builder("key-2");
+        final BlobWriterImpl.BlobBuilder probe = builder("key-3");
+
+        store.store(first);
+        store.store(second);
+        store.store(stale);
+        primary.listener.onFailure(first, 5, null);
+        primary.listener.onFailure(second, 5, null);
+        assertThat(store.getState()).isEqualTo(CircuitBreakerBlobStore.State.OPEN);
+
+        // the write admitted while closed fails once the circuit is half open, it does not count as the probe
+        Thread.sleep(250);
+        store.store(probe);
+        assertThat(store.getState()).isEqualTo(CircuitBreakerBlobStore.State.HALF_OPEN);
+        primary.listener.onFailure(stale, 5, null);
+        assertThat(store.getState()).isEqualTo(CircuitBreakerBlobStore.State.HALF_OPEN);
+        primary.listener.onSuccess(probe, 5);
+        assertThat(store.getState()).isEqualTo(CircuitBreakerBlobStore.State.CLOSED);
+    }
+
+    @Test
+    public void forgetTheWritesNeverReportedOnceTheCircuitChangesState() throws Exception {
+        final FakeReportingStore primary = new FakeReportingStore();
+        final CircuitBreakerBlobStore store = new CircuitBreakerBlobStore(primary, null, 1.0, 1.0, 1000, 2, 2, 200, 1);
+        final BlobWriterImpl.BlobBuilder first = builder("key-0");
+        final BlobWriterImpl.BlobBuilder second = builder("key-1");
+
+        store.store(first);
+        store.store(second);
+        // the primary drops these without reporting them
+        for (int i = 2; i < 10; i++) {
+            store.store(builder("key-" + i));
+        }
+        assertThat(store.pendingOutcomes()).isEqualTo(10);
+
+        primary.listener.onFailure(first, 5, null);
+        primary.listener.onFailure(second, 5, null);
+        assertThat(store.getState()).isEqualTo(CircuitBreakerBlobStore.State.OPEN);
+        assertThat(store.pendingOutcomes()).isZero();
+    }
+
+    private static class FakeReportingStore extends MemoryBlobStore implements ReportingBlobStore {
+        private Listener listener;
+        private int stored;
+
+        FakeReportingStore() {
+            super(1024);
+        }
+
+        @Override
+        public void setListener(final Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void store(final BlobWriterImpl.BlobBuilder blobBuilder) {
+            stored++;
+        }
+    }
+}
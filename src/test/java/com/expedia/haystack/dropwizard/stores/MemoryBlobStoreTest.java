@@ -0,0 +1,124 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.stores;
+
+import com.expedia.blobs.core.BlobWriterImpl;
+import com.expedia.haystack.dropwizard.TestUtils;
+import com.expedia.haystack.dropwizard.decorators.BlobCodec;
+import com.expedia.haystack.dropwizard.decorators.BlobHelper;
+import com.expedia.www.blobs.model.Blob;
+import com.google.protobuf.ByteString;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static com.expedia.haystack.dropwizard.TestUtils.blob;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MemoryBlobStoreTest {
+
+    @Test
+    public void findBlobsByTraceAndSpanId() {
+        final MemoryBlobStore store = new MemoryBlobStore(1024);
+        store.store(builder("key-1", "trace-1", "span-1", "{\"request\": 1}"));
+        store.store(builder("key-2", "trace-1", "span-2", "{\"request\": 2}"));
+        store.store(builder("key-3", "trace-2", "span-3", "{\"request\": 3}"));
+
+        assertThat(keys(store, "trace-1")).containsExactly("key-1", "key-2");
+        assertThat(keys(store, "span-3")).containsExactly("key-3");
+        assertThat(store.find("unknown")).isEmpty();
+        assertThat(store.read("key-2").get().getContent().toStringUtf8()).isEqualTo("{\"request\": 2}");
+    }
+
+    @Test
+    public void dropOldestBlobsBeyondBudget() {
+        final int blobSize = builder("key-0", "trace-0", "span-0", "{}").build().getSerializedSize();
+        final MemoryBlobStore store = new MemoryBlobStore(blobSize * 3);
+        for (int i = 0; i < 5; i++) {
+            store.store(builder("key-" + i, "trace-" + i, "span-" + i, "{}"));
+        }
+
+        assertThat(store.getBlobCount()).isEqualTo(3);
+        assertThat(store.getEvictedBlobs()).isEqualTo(2);
+        assertThat(store.getUsedBytes()).isLessThanOrEqualTo(blobSize * 3);
+        assertThat(store.read("key-1")).isEmpty();
+        assertThat(store.find("trace-1")).isEmpty();
+        assertThat(keys(store, "trace-4")).containsExactly("key-4");
+
+        // a blob larger than the whole budget is not kept
+        store.store(builder("key-5", "trace-5", "span-5", new String(new char[blobSize * 3])));
+        assertThat(store.read("key-5")).isEmpty();
+        assertThat(store.getBlobCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void decompressBlobsForLookup() throws Exception {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = BlobCodec.GZIP.encode(compressed)) {
+            out.write("{\"response\": 1}".getBytes(StandardCharsets.UTF_8));
+        }
+        final Blob blob = Blob.newBuilder()
+                .setKey("key-1")
+                .putMetadata("content-type", "application/json")
+                .putMetadata(BlobCodec.METADATA_KEY, BlobCodec.GZIP.getName())
+                .setContent(ByteString.copyFrom(compressed.toByteArray()))
+                .build();
+
+        final Map<String, Object> json = MemoryBlobStoreServlet.toJson(blob, new MemoryBlobStore(1024));
+        assertThat(json).containsEntry("key", "key-1").containsEntry("content", "{\"response\": 1}");
+
+        final Blob binary = blob.toBuilder()
+                .clearMetadata()
+                .putMetadata("content-type", "application/octet-stream")
+                .setContent(ByteString.copyFrom(new byte[] { 1, 2 }))
+                .build();
+        assertThat(MemoryBlobStoreServlet.toJson(binary, new MemoryBlobStore(1024))).containsEntry("encoding", "base64")
+                .containsEntry("content", "AQI=");
+    }
+
+    @Test
+    public void listBlobsOfAnUnknownCodecAsUndecodable() throws Exception {
+        final Blob blob = Blob.newBuilder()
+                .setKey("key-1")
+                .putMetadata("content-type", "application/json")
+                .putMetadata(BlobCodec.METADATA_KEY, "brotli")
+                .setContent(ByteString.copyFrom(new byte[] { 1, 2 }))
+                .build();
+
+        final Map<String, Object> json = MemoryBlobStoreServlet.toJson(blob, new MemoryBlobStore(1024));
+        assertThat(json).containsEntry("key", "key-1").containsEntry("encoding", "base64")
+                .containsEntry("content", "AQI=").containsKey("error");
+    }
+
+    private static Object[] keys(final MemoryBlobStore store, final String id) {
+        return store.find(id).stream().map(Blob::getKey).collect(Collectors.toList()).toArray();
+    }
+
+    private static BlobWriterImpl.BlobBuilder builder(final String key,
+                                                      final String traceId,
+                                                      final String spanId,
+                                                      final String content) {
+        return TestUtils.builder(blob(key, content).toBuilder()
+                .putMetadata(BlobHelper.TRACE_ID_METADATA, traceId)
+                .putMetadata(BlobHelper.SPAN_ID_METADATA, spanId)
+                .build());
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2020 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.haystack.dropwizard.stores;
+
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static com.expedia.haystack.dropwizard.TestUtils.blob;
+import static com.expedia.haystack.dropwizard.TestUtils.builder;
+import static com.expedia.haystack.dropwizard.TestUtils.openedIn;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SegmentedFileBlobStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void appendToRolledSegmentsAndReadBack() throws Exception {
+        final File directory = folder.newFolder("blobs");
+        final SegmentedFileBlobStore store = new SegmentedFileBlobStore(directory, 256);
+
+        for (int i = 0; i < 10; i++) {
+            store.store(builder(blob("key-" + i, "{\"request\": " + i + "}")));
+        }
+        store.close();
+
+        assertThat(store.getSegmentCount()).isGreaterThan(1);
+        assertThat(directory.listFiles()).hasSize(store.getSegmentCount());
+        assertThat(store.read("key-3").get().getContent().toStringUtf8()).isEqualTo("{\"request\": 3}");
+        assertThat(store.read("unknown")).isEmpty();
+
+        // the index is rebuilt from the segments
+        final SegmentedFileBlobStore reopened = new SegmentedFileBlobStore(directory, 256);
+        assertThat(reopened.getBlobCount()).isEqualTo(10);
+        assertThat(reopened.read("key-9").get().getMetadataMap()).containsEntry("blob-type", "request");
+
+        // and appends continue in a new segment
+        reopened.store(builder("key-10"));
+        assertThat(reopened.read("key-10")).isPresent();
+        assertThat(reopened.read("key-0")).isPresent();
+    }
+
+    @Test
+    public void deleteWholeSegmentsOldestFirst() throws Exception {
+        final SegmentedFileBlobStore store = new SegmentedFileBlobStore(folder.newFolder("blobs"), 128);
+        for (int i = 0; i < 6; i++) {
+            store.store(builder(blob("key-" + i, "{\"request\": " + i + "}")));
+        }
+        final int segments = store.getSegmentCount();
+
+        assertThat(store.deleteOldestSegment()).isTrue();
+        assertThat(store.getSegmentCount()).isEqualTo(segments - 1);
+        assertThat(store.read("key-0")).isEmpty();
+        assertThat(store.read("key-5")).isPresent();
+
+        while (store.deleteOldestSegment()) { }
+        // the segment being written to is kept
+        assertThat(store.getSegmentCount()).isEqualTo(1);
+        assertThat(store.read("key-5")).isPresent();
+    }
+
+    @Test
+    public void evictOldestSegmentsBeyondDiskBudget() throws Exception {
+        final SegmentedFileBlobStore store = new SegmentedFileBlobStore(folder.newFolder("blobs"), 128,
+                256, 0, 1000, new NoopMetricsRegistry());
+        for (int i = 0; i < 10; i++) {
+            store.store(builder(blob("key-" + i, "{\"request\": " + i + "}")));
+        }
+        assertThat(store.getUsedBytes()).isGreaterThan(256);
+
+        store.evict();
+
+        assertThat(store.getUsedBytes()).isLessThanOrEqualTo(256);
+        assertThat(store.getEvictedBlobs()).isEqualTo(10 - store.getBlobCount());
+        assertThat(store.read("key-0")).isEmpty();
+        assertThat(store.read("key-9")).isPresent();
+    }
+
+    @Test
+    public void evictSegmentsOlderThanMaxAge() throws Exception {
+        final SegmentedFileBlobStore store = new SegmentedFileBlobStore(folder.newFolder("blobs"), 128,
+                0, 1, 1000, new NoopMetricsRegistry());
+        for (int i = 0; i < 6; i++) {
+            store.store(builder(blob("key-" + i, "{\"request\": " + i + "}")));
+        }
+        Thread.sleep(5);
+
+        store.evict();
+
+        // everything expired, only the segment being written to is left
+        assertThat(store.getSegmentCount()).isEqualTo(1);
+        assertThat(store.read("key-0")).isEmpty();
+    }
+
+    @Test
+    public void releaseTheDiskSpaceOfEvictedSegments() throws Exception {
+        final File directory = folder.newFolder("blobs");
+        final SegmentedFileBlobStore store = new SegmentedFileBlobStore(directory, 128,
+                256, 0, 1000, new NoopMetricsRegistry());
+        for (int i = 0; i < 10; i++) {
+            store.store(builder(blob("key-" + i, "{\"request\": " + i + "}")));
+        }
+        assertThat(store.read("key-0")).isPresent();
+
+        store.evict();
+
+        // the files left hold exactly the bytes accounted for, and no handle or mapping keeps an evicted one alive
+        assertThat(Arrays.stream(directory.listFiles()).mapToLong(File::length).sum())
+                .isEqualTo(store.getUsedBytes());
+        assertThat(openedIn(directory)).isNotEmpty().allMatch(path -> path.toFile().exists());
+
+        store.close();
+        assertThat(openedIn(directory)).isEmpty();
+    }
+}